@@ -0,0 +1,120 @@
+package org.robolectric.benchmarks;
+
+import android.util.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.robolectric.shadows.ShadowBase64;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ShadowBase64}'s allocating, Coder-per-call entry points (the ones that mirror
+ * {@code android.util.Base64}) with the ones that code into caller-provided arrays, {@code ByteBuffer}s and streams.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+    @Param({"64", "16384", "1048576"})
+    public int size;
+
+    @Param({"" + Base64.DEFAULT, "" + Base64.NO_WRAP})
+    public int flags;
+
+    private byte[] data;
+    private byte[] encoded;
+    private String encodedString;
+    private byte[] encodeOutput;
+    private byte[] decodeOutput;
+    private ByteBuffer dataBuffer;
+    private ByteBuffer encodedBuffer;
+    private ByteBuffer encodeOutputBuffer;
+    private ByteBuffer decodeOutputBuffer;
+    private ByteArrayOutputStream streamOutput;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        encoded = ShadowBase64.encode(data, flags);
+        encodedString = ShadowBase64.encodeToString(data, flags);
+
+        encodeOutput = new byte[ShadowBase64.encodedLength(size, flags)];
+        decodeOutput = new byte[ShadowBase64.maxDecodedLength(encoded.length)];
+        dataBuffer = ByteBuffer.allocateDirect(size);
+        dataBuffer.put(data).flip();
+        encodedBuffer = ByteBuffer.allocateDirect(encoded.length);
+        encodedBuffer.put(encoded).flip();
+        encodeOutputBuffer = ByteBuffer.allocateDirect(encodeOutput.length);
+        decodeOutputBuffer = ByteBuffer.allocateDirect(decodeOutput.length);
+        streamOutput = new ByteArrayOutputStream(Math.max(encoded.length, size));
+    }
+
+    @Benchmark
+    public byte[] encodeAllocating() {
+        return ShadowBase64.encode(data, flags);
+    }
+
+    @Benchmark
+    public int encodeIntoArray() {
+        return ShadowBase64.encode(data, 0, data.length, encodeOutput, 0, flags);
+    }
+
+    @Benchmark
+    public int encodeByteBuffer() {
+        dataBuffer.rewind();
+        encodeOutputBuffer.clear();
+        return ShadowBase64.encode(dataBuffer, encodeOutputBuffer, flags);
+    }
+
+    @Benchmark
+    public long encodeStream() throws IOException {
+        streamOutput.reset();
+        return ShadowBase64.encode(new ByteArrayInputStream(data), streamOutput, flags);
+    }
+
+    @Benchmark
+    public byte[] decodeString() {
+        return ShadowBase64.decode(encodedString, flags);
+    }
+
+    @Benchmark
+    public byte[] decodeAllocating() {
+        return ShadowBase64.decode(encoded, flags);
+    }
+
+    @Benchmark
+    public int decodeIntoArray() {
+        return ShadowBase64.decode(encoded, 0, encoded.length, decodeOutput, 0, flags);
+    }
+
+    @Benchmark
+    public int decodeByteBuffer() {
+        encodedBuffer.rewind();
+        decodeOutputBuffer.clear();
+        return ShadowBase64.decode(encodedBuffer, decodeOutputBuffer, flags);
+    }
+
+    @Benchmark
+    public long decodeStream() throws IOException {
+        streamOutput.reset();
+        return ShadowBase64.decode(new ByteArrayInputStream(encoded), streamOutput, flags);
+    }
+}
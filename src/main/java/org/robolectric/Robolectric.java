@@ -23,6 +23,7 @@ import android.appwidget.AppWidgetHostView;
 import android.appwidget.AppWidgetManager;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentResolver;
@@ -218,6 +219,7 @@ import org.robolectric.shadows.ShadowBitmap;
 import org.robolectric.shadows.ShadowBitmapDrawable;
 import org.robolectric.shadows.ShadowBitmapFactory;
 import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowBroadcastReceiver;
 import org.robolectric.shadows.ShadowBluetoothDevice;
 import org.robolectric.shadows.ShadowBundle;
 import org.robolectric.shadows.ShadowButton;
@@ -437,6 +439,7 @@ import org.robolectric.shadows.ShadowZoomButtonsController;
 import org.robolectric.tester.org.apache.http.FakeHttpLayer;
 import org.robolectric.tester.org.apache.http.HttpRequestInfo;
 import org.robolectric.tester.org.apache.http.RequestMatcher;
+import org.robolectric.util.BackgroundThreadPool;
 import org.robolectric.util.Scheduler;
 
 import java.lang.reflect.Field;
@@ -523,8 +526,21 @@ public class Robolectric {
         return false;
     }
 
+    /**
+     * Binds the default shadow classes. Their {@code @Implements} annotations are only read the first time; after that
+     * the shadow map built then is reused.
+     */
     public static void bindDefaultShadowClasses() {
-        bindShadowClasses(getDefaultShadowClasses());
+        ShadowWrangler shadowWrangler = getShadowWrangler();
+        if (!shadowWrangler.hasDefaultShadowClasses()) {
+            shadowWrangler.startRecordingDefaultShadowClasses();
+            try {
+                bindShadowClasses(getDefaultShadowClasses());
+            } finally {
+                shadowWrangler.finishRecordingDefaultShadowClasses();
+            }
+        }
+        shadowWrangler.applyDefaultShadowClasses();
     }
 
     public static void bindShadowClasses(List<Class<?>> shadowClasses) {
@@ -586,6 +602,7 @@ public class Robolectric {
                 ShadowBitmapFactory.class,
                 ShadowBluetoothAdapter.class,
                 ShadowBluetoothDevice.class,
+                ShadowBroadcastReceiver.class,
                 ShadowBundle.class,
                 ShadowButton.class,
                 ShadowCamera.class,
@@ -818,6 +835,7 @@ public class Robolectric {
         getShadowWrangler().silence();
         Robolectric.application = null;
         ShadowAccountManager.reset();
+        ShadowBitmap.reset();
         ShadowBitmapFactory.reset();
         ShadowDrawable.reset();
         ShadowMediaStore.reset();
@@ -966,6 +984,10 @@ public class Robolectric {
         return (ShadowBluetoothDevice) Robolectric.shadowOf_(other);
     }
 
+    public static ShadowBroadcastReceiver shadowOf(BroadcastReceiver instance) {
+        return (ShadowBroadcastReceiver) shadowOf_(instance);
+    }
+
     public static ShadowBundle shadowOf(Bundle instance) {
         return (ShadowBundle) shadowOf_(instance);
     }
@@ -1550,12 +1572,35 @@ public class Robolectric {
 
     /**
      * Runs any background tasks previously queued by {@link android.os.AsyncTask#execute(Object[])}.
+     * If a background thread pool is in use, waits for the pool to finish its work instead.
      * <p/>
      * <p/>
      * Note: calling this method does not pause or un-pause the scheduler.
      */
     public static void runBackgroundTasks() {
-        getBackgroundScheduler().advanceBy(0);
+        BackgroundThreadPool backgroundThreadPool = getShadowApplication().getBackgroundThreadPool();
+        if (backgroundThreadPool != null) {
+            backgroundThreadPool.awaitIdle();
+        } else {
+            getBackgroundScheduler().advanceBy(0);
+        }
+    }
+
+    /**
+     * Runs background work from {@link android.os.AsyncTask} and
+     * {@link org.robolectric.util.RobolectricBackgroundExecutorService} on a pool of {@code threadCount} real threads
+     * for the rest of the current test, instead of on the background scheduler. Callbacks to the UI thread are still
+     * queued on the UI thread scheduler, so call {@link #runBackgroundTasks()} to wait for the pool and then run the
+     * UI thread tasks as usual.
+     *
+     * @param threadCount the maximum number of background threads
+     */
+    public static void useBackgroundThreadPool(int threadCount) {
+        BackgroundThreadPool previous = getShadowApplication().getBackgroundThreadPool();
+        if (previous != null) {
+            previous.shutdown();
+        }
+        getShadowApplication().setBackgroundThreadPool(new BackgroundThreadPool(threadCount));
     }
 
     /**
@@ -13,6 +13,7 @@ import org.robolectric.bytecode.Setup;
 import org.robolectric.bytecode.ShadowWrangler;
 import org.robolectric.bytecode.ZipClassCache;
 import org.robolectric.internal.RobolectricTestRunnerInterface;
+import org.robolectric.internal.TestPhaseTimer;
 import org.robolectric.res.AndroidSdkFinder;
 import org.robolectric.res.ResourcePath;
 
@@ -50,18 +51,23 @@ public class RobolectricContext {
         synchronized (contextsByTestRunner) {
             robolectricContext = contextsByTestRunner.get(robolectricTestRunnerClass);
             if (robolectricContext == null) {
+                long startTime = System.nanoTime();
                 try {
                     robolectricContext = factory.create();
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
+                TestPhaseTimer.recordBootstrap(testClass, "createContext", startTime);
                 contextsByTestRunner.put(robolectricTestRunnerClass, robolectricContext);
             }
         }
 
         mostRecentRobolectricContext = robolectricContext;
 
-        return robolectricContext.bootstrapTestClass(testClass);
+        long startTime = System.nanoTime();
+        Class<?> bootstrappedTestClass = robolectricContext.bootstrapTestClass(testClass);
+        TestPhaseTimer.recordBootstrap(testClass, "loadTestClass", startTime);
+        return bootstrappedTestClass;
     }
 
     public RobolectricContext() {
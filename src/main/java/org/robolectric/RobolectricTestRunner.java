@@ -2,6 +2,7 @@ package org.robolectric;
 
 import android.app.Application;
 import android.content.res.Resources;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
@@ -13,7 +14,10 @@ import org.robolectric.annotation.WithConstantInt;
 import org.robolectric.annotation.WithConstantString;
 import org.robolectric.bytecode.ClassHandler;
 import org.robolectric.bytecode.InstrumentingClassLoader;
+import org.robolectric.bytecode.ShadowProfiler;
+import org.robolectric.bytecode.ShadowWrangler;
 import org.robolectric.internal.RobolectricTestRunnerInterface;
+import org.robolectric.internal.TestPhaseTimer;
 import org.robolectric.res.OverlayResourceLoader;
 import org.robolectric.res.PackageResourceLoader;
 import org.robolectric.res.ResourceLoader;
@@ -27,6 +31,8 @@ import org.robolectric.util.DatabaseConfig.DatabaseMap;
 import org.robolectric.util.DatabaseConfig.UsingDatabaseMap;
 import org.robolectric.util.SQLiteMap;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -76,7 +82,9 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
         if (isBootstrapped(getClass())) {
             databaseMap = setupDatabaseMap(testClass, new SQLiteMap());
         } else {
+            long startTime = System.nanoTime();
             delegate = sharedRobolectricContext.getBootstrappedTestRunner(this);
+            TestPhaseTimer.recordBootstrap(testClass, "createDelegateRunner", startTime);
             Thread.currentThread().setContextClassLoader(sharedRobolectricContext.getRobolectricClassLoader());
             databaseMap = null;
         }
@@ -90,22 +98,68 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
         return clazz.getClassLoader() instanceof InstrumentingClassLoader;
     }
 
+    @Override protected Statement classBlock(RunNotifier notifier) {
+        final Statement statement = super.classBlock(notifier);
+        final String profileDestination = System.getProperty("robolectric.profileShadows");
+        if (profileDestination == null) {
+            return statement;
+        }
+
+        return new Statement() {
+            @Override public void evaluate() throws Throwable {
+                ShadowWrangler shadowWrangler = (ShadowWrangler) sharedRobolectricContext.getClassHandler();
+                ShadowProfiler profiler = new ShadowProfiler();
+                shadowWrangler.setProfiler(profiler);
+                try {
+                    statement.evaluate();
+                } finally {
+                    shadowWrangler.setProfiler(null);
+                    reportShadowProfile(profiler, profileDestination);
+                }
+            }
+        };
+    }
+
+    private void reportShadowProfile(ShadowProfiler profiler, String destination) throws IOException {
+        String testClassName = getTestClass().getName();
+        if ("stdout".equalsIgnoreCase(destination) || "stderr".equalsIgnoreCase(destination)) {
+            PrintStream out = "stdout".equalsIgnoreCase(destination) ? System.out : System.err;
+            out.println("Shadow profile for " + testClassName + ":");
+            profiler.printReport(out, 50);
+        } else {
+            File directory = new File(destination);
+            directory.mkdirs();
+            FileOutputStream out = new FileOutputStream(new File(directory, testClassName + ".shadow-profile.json"));
+            try {
+                out.write(profiler.toJson().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+    }
+
     @Override protected Statement methodBlock(final FrameworkMethod method) {
+        final TestPhaseTimer timer = TestPhaseTimer.start(getTestClass().getJavaClass(), method.getName());
+        long startTime = System.nanoTime();
         sharedRobolectricContext.getClassHandler().reset();
+        TestPhaseTimer.record("resetClassHandler", startTime);
       try {
+        startTime = System.nanoTime();
         delegate.internalBeforeTest(method.getMethod());
+        TestPhaseTimer.record("internalBeforeTest", startTime);
       } catch (Exception e) {
         e.printStackTrace();
+        finish(timer);
         throw new RuntimeException(e);
       }
 
       final Statement statement = super.methodBlock(method);
         return new Statement() {
             @Override public void evaluate() throws Throwable {
-                Map<Field, Object> withConstantAnnos = getWithConstantAnnotations(method.getMethod());
-
             	// todo: this try/finally probably isn't right -- should mimic RunAfters? [xw]
+                long bodyStartTime = System.nanoTime();
                 try {
+                    Map<Field, Object> withConstantAnnos = getWithConstantAnnotations(method.getMethod());
                 	if (withConstantAnnos.isEmpty()) {
                 		statement.evaluate();
                 	}
@@ -117,30 +171,57 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
                 		}
                 	}
                 } finally {
-                    delegate.internalAfterTest(method.getMethod());
+                    TestPhaseTimer.record("testBody", bodyStartTime);
+                    try {
+                        long afterStartTime = System.nanoTime();
+                        delegate.internalAfterTest(method.getMethod());
+                        TestPhaseTimer.record("internalAfterTest", afterStartTime);
+                    } finally {
+                        finish(timer);
+                    }
                 }
             }
         };
     }
 
+    private static void finish(TestPhaseTimer timer) {
+        if (timer != null) {
+            timer.finish();
+        }
+    }
+
     /*
      * Called before each test method is run. Sets up the simulation of the Android runtime environment.
      */
     @Override final public void internalBeforeTest(final Method method) {
         setupLogging();
+
+        long startTime = System.nanoTime();
         configureShadows(method);
+        TestPhaseTimer.record("configureShadows", startTime);
 
+        startTime = System.nanoTime();
         resetStaticState();
+        TestPhaseTimer.record("resetStaticState", startTime);
 
         DatabaseConfig.setDatabaseMap(databaseMap); //Set static DatabaseMap in DBConfig
 
+        startTime = System.nanoTime();
         setupApplicationState(method);
+        TestPhaseTimer.record("setupApplicationState", startTime);
 
+        startTime = System.nanoTime();
         beforeTest(method);
+        TestPhaseTimer.record("beforeTest", startTime);
     }
 
     @Override public void internalAfterTest(final Method method) {
         afterTest(method);
+
+        ShadowApplication shadowApplication = Robolectric.getShadowApplication();
+        if (shadowApplication != null && shadowApplication.getBackgroundThreadPool() != null) {
+            shadowApplication.getBackgroundThreadPool().shutdown();
+        }
     }
 
     /**
@@ -181,14 +262,18 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
     public void setupApplicationState(Method testMethod) {
         boolean strictI18n = determineI18nStrictState(testMethod);
 
+        long startTime = System.nanoTime();
         ResourceLoader systemResourceLoader = getSystemResourceLoader(sharedRobolectricContext.getSystemResourcePath());
         ShadowResources.setSystemResources(systemResourceLoader);
+        TestPhaseTimer.record("resourceLoading", startTime);
 
         ClassHandler classHandler = sharedRobolectricContext.getClassHandler();
         classHandler.setStrictI18n(strictI18n);
 
         AndroidManifest appManifest = sharedRobolectricContext.getAppManifest();
+        startTime = System.nanoTime();
         ResourceLoader resourceLoader = getAppResourceLoader(systemResourceLoader, appManifest);
+        TestPhaseTimer.record("resourceLoading", startTime);
 
         Robolectric.application = ShadowApplication.bind(createApplication(), appManifest, resourceLoader);
         shadowOf(Robolectric.application).setStrictI18n(strictI18n);
@@ -362,26 +447,25 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
 
     private void setupLogging() {
         String logging = System.getProperty("robolectric.logging");
-        if (logging != null && ShadowLog.stream == null) {
-            PrintStream stream = null;
-            if ("stdout".equalsIgnoreCase(logging)) {
-                stream = System.out;
-            } else if ("stderr".equalsIgnoreCase(logging)) {
-                stream = System.err;
-            } else {
-                try {
-                    final PrintStream file = new PrintStream(new FileOutputStream(logging));
-                    stream = file;
-                    Runtime.getRuntime().addShutdownHook(new Thread() {
-                        @Override public void run() {
-                            try { file.close(); } catch (Exception ignored) { }
-                        }
-                    });
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        if (logging == null || ShadowLog.stream != null || ShadowLog.hasAsyncStream()) {
+            return;
+        }
+
+        if ("stdout".equalsIgnoreCase(logging)) {
+            ShadowLog.stream = System.out;
+        } else if ("stderr".equalsIgnoreCase(logging)) {
+            ShadowLog.stream = System.err;
+        } else {
+            try {
+                ShadowLog.setAsyncStream(new PrintStream(new BufferedOutputStream(new FileOutputStream(logging))));
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override public void run() {
+                        try { ShadowLog.setAsyncStream(null); } catch (Exception ignored) { }
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            ShadowLog.stream = stream;
         }
     }
 
@@ -1,6 +1,7 @@
 package org.robolectric.bytecode;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Label;
@@ -22,6 +23,7 @@ import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.util.CheckClassAdapter;
 import org.objectweb.asm.util.TraceClassVisitor;
+import org.robolectric.internal.RealObject;
 
 import java.io.FileOutputStream;
 import java.io.FileWriter;
@@ -52,6 +54,7 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
     private static final Type OBJECT_TYPE = getType(Object.class);
     private static final Type STRING_TYPE = getType(String.class);
     private static final Type ROBOLECTRIC_INTERNALS_TYPE = Type.getType(RobolectricInternals.class);
+    private static final String REAL_OBJECT_DESC = Type.getDescriptor(RealObject.class);
 
     private static boolean debug = false;
 
@@ -82,7 +85,9 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
             }
         }
 
-        boolean shouldComeFromThisClassLoader = setup.shouldAcquire(name);
+        // instrumented classes and generated shadow factories implement these, so they must be the ones the wrangler sees
+        boolean shouldComeFromThisClassLoader = setup.shouldAcquire(name)
+                && !name.equals(ShadowedObject.class.getName()) && !name.equals(ShadowFactory.class.getName());
 
         try {
             if (shouldComeFromThisClassLoader) {
@@ -102,6 +107,15 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
     private static class MissingClassMarker {
     }
 
+    /**
+     * Defines a class generated at runtime, such as a {@link ShadowFactory}, alongside the classes this loader acquired.
+     */
+    synchronized Class<?> defineGeneratedClass(String className, byte[] bytes) {
+        Class<?> theClass = defineClass(className, bytes, 0, bytes.length);
+        classes.put(className, theClass);
+        return theClass;
+    }
+
     @Override
     protected Class<?> findClass(final String className) throws ClassNotFoundException {
         if (setup.shouldAcquire(className)) {
@@ -137,8 +151,15 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
             try {
                 byte[] bytes;
                 AsmClassInfo classInfo = new AsmClassInfo(className, classNode);
+                Set<String> privateRealObjectFields = findPrivateRealObjectFields(classNode);
                 if (setup.shouldInstrument(classInfo)) {
+                    for (Object field : classNode.fields) {
+                        FieldNode fieldNode = (FieldNode) field;
+                        if (privateRealObjectFields.contains(fieldNode.name)) fieldNode.access &= ~ACC_PRIVATE;
+                    }
                     bytes = getInstrumentedBytes(className, classNode, setup.containsStubs(classInfo));
+                } else if (!privateRealObjectFields.isEmpty()) {
+                    bytes = makePackagePrivate(origClassBytes, privateRealObjectFields);
                 } else {
                     bytes = origClassBytes;
                 }
@@ -152,6 +173,35 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
         }
     }
 
+    /**
+     * Private @RealObject fields are made package-private so generated shadow factories can assign them directly.
+     */
+    private static Set<String> findPrivateRealObjectFields(ClassNode classNode) {
+        Set<String> fieldNames = new HashSet<String>();
+        for (Object field : classNode.fields) {
+            FieldNode fieldNode = (FieldNode) field;
+            if ((fieldNode.access & ACC_PRIVATE) == 0 || fieldNode.visibleAnnotations == null) continue;
+            for (Object annotation : fieldNode.visibleAnnotations) {
+                if (((AnnotationNode) annotation).desc.equals(REAL_OBJECT_DESC)) {
+                    fieldNames.add(fieldNode.name);
+                }
+            }
+        }
+        return fieldNames;
+    }
+
+    private static byte[] makePackagePrivate(byte[] classBytes, final Set<String> fieldNames) {
+        ClassWriter classWriter = new ClassWriter(0);
+        new ClassReader(classBytes).accept(new ClassVisitor(ASM4, classWriter) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if (fieldNames.contains(name)) access &= ~ACC_PRIVATE;
+                return super.visitField(access, name, desc, signature, value);
+            }
+        }, 0);
+        return classWriter.toByteArray();
+    }
+
     private String remapParams(String desc) {
         StringBuilder buf = new StringBuilder();
         buf.append("(");
@@ -360,6 +410,7 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
             }
 
             classNode.fields.add(new FieldNode(ACC_PUBLIC, CLASS_HANDLER_DATA_FIELD_NAME, OBJECT_DESC, OBJECT_DESC, null));
+            generateShadowedObjectAccessors();
 
             if (!foundMethods.contains("<init>()V")) {
                 MethodNode defaultConstructor = new MethodNode(ACC_PUBLIC, "<init>", "()V", "()V", null);
@@ -404,6 +455,31 @@ public class AsmInstrumentingClassLoader extends ClassLoader implements Opcodes,
 //            }
         }
 
+        private void generateShadowedObjectAccessors() {
+            String shadowedObjectInternalName = Type.getInternalName(ShadowedObject.class);
+            if (!classNode.interfaces.contains(shadowedObjectInternalName)) {
+                //noinspection unchecked
+                classNode.interfaces.add(shadowedObjectInternalName);
+            }
+
+            MethodNode getter = new MethodNode(ACC_PUBLIC, ShadowedObject.GET_DATA_METHOD_NAME, "()" + OBJECT_DESC, null, null);
+            MyGenerator m = new MyGenerator(getter);
+            m.loadThis();
+            m.getField(classType, CLASS_HANDLER_DATA_FIELD_NAME, OBJECT_TYPE);
+            m.returnValue();
+            m.endMethod();
+            classNode.methods.add(getter);
+
+            MethodNode setter = new MethodNode(ACC_PUBLIC, ShadowedObject.SET_DATA_METHOD_NAME, "(" + OBJECT_DESC + ")V", null, null);
+            m = new MyGenerator(setter);
+            m.loadThis();
+            m.loadArg(0);
+            m.putField(classType, CLASS_HANDLER_DATA_FIELD_NAME, OBJECT_TYPE);
+            m.returnValue();
+            m.endMethod();
+            classNode.methods.add(setter);
+        }
+
         private boolean isSyntheticAccessorMethod(MethodNode method) {
             return (method.access & ACC_SYNTHETIC) != 0;
         }
@@ -4,14 +4,14 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @SuppressWarnings({"UnusedDeclaration"})
 public class RobolectricInternals {
     // initialized via magic by RobolectricContext
     private static ClassHandler classHandler;
-    private static final Map<Class, Field> shadowFieldMap = new HashMap<Class, Field>();
+    private static final Map<Class, Field> shadowFieldMap = new ConcurrentHashMap<Class, Field>();
 
     public static ClassHandler getClassHandler() {
         return classHandler;
@@ -102,6 +102,7 @@ public class RobolectricInternals {
         if (field == null) {
             try {
                 field = clazz.getField(InstrumentingClassLoader.CLASS_HANDLER_DATA_FIELD_NAME);
+                field.setAccessible(true);
             } catch (NoSuchFieldException e) {
                 throw new RuntimeException(instance.getClass().getName() + " has no shadow field", e);
             }
@@ -11,6 +11,7 @@ import org.robolectric.internal.DoNotInstrument;
 import org.robolectric.internal.Instrument;
 import org.robolectric.internal.RealObject;
 import org.robolectric.internal.RobolectricTestRunnerInterface;
+import org.robolectric.internal.TestPhaseTimer;
 import org.robolectric.res.ResourcePath;
 import org.robolectric.util.DatabaseConfig;
 import org.robolectric.util.I18nException;
@@ -31,8 +32,11 @@ public class Setup {
     public static final List<String> CLASSES_TO_ALWAYS_DELEGATE = stringify(
             Uri__FromAndroid.class,
             RobolectricTestRunnerInterface.class,
+            TestPhaseTimer.class,
             RealObject.class,
             ShadowWrangler.class,
+            ShadowProfiler.class,
+            ShadowProfiler.MethodStats.class,
             Vars.class,
             AndroidManifest.class,
             DatabaseConfig.DatabaseMap.class,
@@ -53,7 +57,10 @@ public class Setup {
             DisableStrictI18n.class,
             I18nException.class,
             Transcript.class,
-            org.robolectric.bytecode.DirectObjectMarker.class
+            org.robolectric.bytecode.DirectObjectMarker.class,
+            org.robolectric.bytecode.ShadowedObject.class,
+            org.robolectric.bytecode.ShadowFactory.class,
+            org.robolectric.bytecode.ShadowFactories.class
     );
 
     private static List<String> stringify(Class... classes) {
@@ -0,0 +1,206 @@
+package org.robolectric.bytecode;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds {@link ShadowFactory}s. When the shadow class was loaded by an {@link AsmInstrumentingClassLoader}, a factory
+ * class is generated next to it which calls the constructor and assigns the real object fields with plain bytecode;
+ * anything it can't reach that way (e.g. fields of a superclass in another package) is done reflectively.
+ */
+public class ShadowFactories implements Opcodes {
+    private static final String FACTORY_CLASS_SUFFIX = "$$RoboShadowFactory";
+    private static final String OBJECT_INTERNAL_NAME = Type.getInternalName(Object.class);
+    private static final AtomicInteger factoryCount = new AtomicInteger();
+
+    /**
+     * @param shadowClass       the class of the shadows to create
+     * @param constructor       the shadow constructor taking the real object, or null to use the no-arg constructor
+     * @param realObjectFields  the shadow's fields to assign the real object to
+     */
+    public static ShadowFactory create(Class<?> shadowClass, Constructor<?> constructor, List<Field> realObjectFields) {
+        ClassLoader classLoader = shadowClass.getClassLoader();
+        if (!(classLoader instanceof AsmInstrumentingClassLoader) || !canConstruct(shadowClass, constructor)) {
+            return new ReflectiveShadowFactory(shadowClass, constructor, realObjectFields);
+        }
+
+        List<Field> assignableFields = new ArrayList<Field>();
+        List<Field> otherFields = new ArrayList<Field>();
+        for (Field field : realObjectFields) {
+            (canAssign(shadowClass, field) ? assignableFields : otherFields).add(field);
+        }
+
+        String factoryClassName = shadowClass.getName() + FACTORY_CLASS_SUFFIX + factoryCount.incrementAndGet();
+        byte[] bytes = generateFactory(factoryClassName, shadowClass, constructor, assignableFields);
+        ShadowFactory factory;
+        try {
+            Class<?> factoryClass = ((AsmInstrumentingClassLoader) classLoader).defineGeneratedClass(factoryClassName, bytes);
+            factory = (ShadowFactory) factoryClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return otherFields.isEmpty() ? factory : new FieldSettingShadowFactory(factory, otherFields);
+    }
+
+    private static byte[] generateFactory(String factoryClassName, Class<?> shadowClass, Constructor<?> constructor, List<Field> fields) {
+        String internalName = factoryClassName.replace('.', '/');
+        String shadowInternalName = Type.getInternalName(shadowClass);
+
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SYNTHETIC, internalName, null, OBJECT_INTERNAL_NAME,
+                new String[]{Type.getInternalName(ShadowFactory.class)});
+
+        MethodVisitor m = classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        m.visitCode();
+        m.visitVarInsn(ALOAD, 0);
+        m.visitMethodInsn(INVOKESPECIAL, OBJECT_INTERNAL_NAME, "<init>", "()V");
+        m.visitInsn(RETURN);
+        m.visitMaxs(0, 0);
+        m.visitEnd();
+
+        m = classWriter.visitMethod(ACC_PUBLIC, "newShadow", "(Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+        m.visitCode();
+        m.visitTypeInsn(NEW, shadowInternalName);
+        m.visitInsn(DUP);
+        if (constructor == null) {
+            m.visitMethodInsn(INVOKESPECIAL, shadowInternalName, "<init>", "()V");
+        } else {
+            m.visitVarInsn(ALOAD, 1);
+            checkCast(m, constructor.getParameterTypes()[0]);
+            m.visitMethodInsn(INVOKESPECIAL, shadowInternalName, "<init>", Type.getConstructorDescriptor(constructor));
+        }
+        for (Field field : fields) {
+            m.visitInsn(DUP);
+            m.visitVarInsn(ALOAD, 1);
+            checkCast(m, field.getType());
+            m.visitFieldInsn(PUTFIELD, Type.getInternalName(field.getDeclaringClass()), field.getName(),
+                    Type.getDescriptor(field.getType()));
+        }
+        m.visitInsn(ARETURN);
+        m.visitMaxs(0, 0);
+        m.visitEnd();
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private static void checkCast(MethodVisitor m, Class<?> type) {
+        if (type != Object.class) {
+            m.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        }
+    }
+
+    private static boolean canConstruct(Class<?> shadowClass, Constructor<?> constructor) {
+        if (Modifier.isAbstract(shadowClass.getModifiers())) {
+            return false;
+        }
+        if (constructor != null) {
+            return isAccessible(shadowClass, constructor.getParameterTypes()[0]);
+        }
+        try {
+            return !Modifier.isPrivate(shadowClass.getDeclaredConstructor().getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean canAssign(Class<?> shadowClass, Field field) {
+        if (field.getType().isPrimitive() || Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+            return false;
+        }
+        Class<?> declaringClass = field.getDeclaringClass();
+        if (!isAccessible(shadowClass, declaringClass) || !isAccessible(shadowClass, field.getType())) {
+            return false;
+        }
+        int modifiers = field.getModifiers();
+        return Modifier.isPublic(modifiers) && Modifier.isPublic(declaringClass.getModifiers())
+                || !Modifier.isPrivate(modifiers) && isSamePackage(shadowClass, declaringClass);
+    }
+
+    /**
+     * @return whether a class generated in the same package and class loader as {@code shadowClass} can refer to
+     * {@code type}
+     */
+    private static boolean isAccessible(Class<?> shadowClass, Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers()) || isSamePackage(shadowClass, type);
+    }
+
+    private static boolean isSamePackage(Class<?> a, Class<?> b) {
+        return a.getClassLoader() == b.getClassLoader() && packageOf(a).equals(packageOf(b));
+    }
+
+    private static String packageOf(Class<?> clazz) {
+        String name = clazz.getName();
+        int lastDot = name.lastIndexOf('.');
+        return lastDot == -1 ? "" : name.substring(0, lastDot);
+    }
+
+    private static class ReflectiveShadowFactory implements ShadowFactory {
+        private final Class<?> shadowClass;
+        private final Constructor<?> constructor;
+        private final List<Field> realObjectFields;
+
+        ReflectiveShadowFactory(Class<?> shadowClass, Constructor<?> constructor, List<Field> realObjectFields) {
+            this.shadowClass = shadowClass;
+            this.constructor = constructor;
+            this.realObjectFields = realObjectFields;
+        }
+
+        @Override
+        public Object newShadow(Object realObject) {
+            try {
+                Object shadow = constructor != null ? constructor.newInstance(realObject) : shadowClass.newInstance();
+                setFields(shadow, realObject, realObjectFields);
+                return shadow;
+            } catch (InstantiationException e) {
+                throw new RuntimeException(e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class FieldSettingShadowFactory implements ShadowFactory {
+        private final ShadowFactory factory;
+        private final List<Field> realObjectFields;
+
+        FieldSettingShadowFactory(ShadowFactory factory, List<Field> realObjectFields) {
+            this.factory = factory;
+            this.realObjectFields = realObjectFields;
+        }
+
+        @Override
+        public Object newShadow(Object realObject) {
+            Object shadow = factory.newShadow(realObject);
+            try {
+                setFields(shadow, realObject, realObjectFields);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+            return shadow;
+        }
+    }
+
+    private static void setFields(Object shadow, Object realObject, List<Field> fields) throws IllegalAccessException {
+        for (Field field : fields) {
+            field.set(shadow, realObject);
+        }
+    }
+}
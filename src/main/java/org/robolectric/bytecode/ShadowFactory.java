@@ -0,0 +1,10 @@
+package org.robolectric.bytecode;
+
+/**
+ * Creates shadows for real objects, with their {@link org.robolectric.internal.RealObject} fields already set.
+ *
+ * @see ShadowFactories
+ */
+public interface ShadowFactory {
+    Object newShadow(Object realObject);
+}
@@ -0,0 +1,163 @@
+package org.robolectric.bytecode;
+
+import org.robolectric.util.Join;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counts calls into instrumented methods, per class and method, while installed with
+ * {@link ShadowWrangler#setProfiler(ShadowProfiler)}. For each method it records how often it was called, how much
+ * time was spent in it (including any calls it made to other instrumented methods), and how often the call went
+ * through to the real Android code instead of a shadow.
+ * <p/>
+ * Set the {@code robolectric.profileShadows} system property to {@code stdout}, {@code stderr} or a directory to have
+ * {@link org.robolectric.RobolectricTestRunner} profile each test class and print a report, or write it as JSON.
+ */
+public class ShadowProfiler {
+    private final ConcurrentMap<String, MethodStats> statsByMethod = new ConcurrentHashMap<String, MethodStats>();
+
+    MethodStats statsFor(Class clazz, String methodName, String[] paramTypes) {
+        String key = clazz.getName() + "." + methodName + "(" + Join.join(",", (Object[]) paramTypes) + ")";
+        MethodStats stats = statsByMethod.get(key);
+        if (stats == null) {
+            MethodStats newStats = new MethodStats(clazz.getName(), methodName, paramTypes);
+            stats = statsByMethod.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return stats for every method called since the last reset, most time-consuming first
+     */
+    public List<MethodStats> getStats() {
+        List<MethodStats> stats = new ArrayList<MethodStats>();
+        for (MethodStats methodStats : statsByMethod.values()) {
+            if (methodStats.getCallCount() > 0) {
+                stats.add(methodStats);
+            }
+        }
+        Collections.sort(stats, new Comparator<MethodStats>() {
+            @Override public int compare(MethodStats a, MethodStats b) {
+                long aNanos = a.getNanos();
+                long bNanos = b.getNanos();
+                if (aNanos != bNanos) return aNanos > bNanos ? -1 : 1;
+                return a.getMethodSignature().compareTo(b.getMethodSignature());
+            }
+        });
+        return stats;
+    }
+
+    public void reset() {
+        for (MethodStats stats : statsByMethod.values()) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Prints one line per method, most time-consuming first.
+     *
+     * @param out   where to print
+     * @param limit the most methods to print
+     */
+    public void printReport(PrintStream out, int limit) {
+        out.println(String.format("%10s %12s %12s  %s", "calls", "millis", "call-thrus", "method"));
+        int count = 0;
+        for (MethodStats stats : getStats()) {
+            if (count++ == limit) break;
+            out.println(String.format("%10d %12.3f %12d  %s", stats.getCallCount(), stats.getNanos() / 1e6,
+                    stats.getCallThroughCount(), stats.getMethodSignature()));
+        }
+    }
+
+    public String toJson() {
+        StringBuilder buf = new StringBuilder("[");
+        boolean first = true;
+        for (MethodStats stats : getStats()) {
+            if (!first) buf.append(",");
+            first = false;
+            buf.append("\n  {\"class\": ").append(quote(stats.getClassName()))
+                    .append(", \"method\": ").append(quote(stats.getMethodName()))
+                    .append(", \"paramTypes\": [");
+            for (int i = 0; i < stats.paramTypes.length; i++) {
+                if (i > 0) buf.append(", ");
+                buf.append(quote(stats.paramTypes[i]));
+            }
+            buf.append("], \"calls\": ").append(stats.getCallCount())
+                    .append(", \"nanos\": ").append(stats.getNanos())
+                    .append(", \"callThroughs\": ").append(stats.getCallThroughCount())
+                    .append("}");
+        }
+        return buf.append("\n]\n").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder buf = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') buf.append('\\');
+            buf.append(c);
+        }
+        return buf.append('"').toString();
+    }
+
+    public static class MethodStats {
+        private final String className;
+        private final String methodName;
+        private final String[] paramTypes;
+        private final StripedCounter calls = new StripedCounter();
+        private final StripedCounter nanos = new StripedCounter();
+        private final StripedCounter callThroughs = new StripedCounter();
+
+        MethodStats(String className, String methodName, String[] paramTypes) {
+            this.className = className;
+            this.methodName = methodName;
+            this.paramTypes = paramTypes.clone();
+        }
+
+        void record(long elapsedNanos, boolean calledThrough) {
+            calls.increment();
+            nanos.add(elapsedNanos);
+            if (calledThrough) {
+                callThroughs.increment();
+            }
+        }
+
+        void reset() {
+            calls.reset();
+            nanos.reset();
+            callThroughs.reset();
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public String getMethodSignature() {
+            return className + "." + methodName + "(" + Join.join(", ", (Object[]) paramTypes) + ")";
+        }
+
+        public long getCallCount() {
+            return calls.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public long getCallThroughCount() {
+            return callThroughs.sum();
+        }
+    }
+}
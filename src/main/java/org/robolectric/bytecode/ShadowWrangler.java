@@ -16,13 +16,24 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static java.util.Arrays.asList;
 
+/**
+ * Routes calls on instrumented classes to their shadows.
+ * <p/>
+ * Lookups ({@link #shadowOf(Object)}, {@link #methodInvoked}, {@link #classInitializing}) are safe from any thread,
+ * e.g. a background thread pool running while a test does. Changing the bindings ({@link #bindShadowClass},
+ * {@link #applyDefaultShadowClasses()}, {@link #reset()}, and recording the defaults) is meant for the test thread
+ * between tests: each change is visible to other threads, but a lookup racing with one may still see the old binding.
+ */
 public class ShadowWrangler implements ClassHandler {
     public static final Function<Object, Object> DO_NOTHING_HANDLER = new Function<Object, Object>() {
         @Override
@@ -38,15 +49,22 @@ public class ShadowWrangler implements ClassHandler {
     public boolean debug = false;
     private boolean strictI18n = false;
 
+    // guarded by itself
     private final Map<InvocationProfile, InvocationPlan> invocationPlans = new LinkedHashMap<InvocationProfile, InvocationPlan>() {
         @Override
         protected boolean removeEldestEntry(Map.Entry<InvocationProfile, InvocationPlan> eldest) {
             return size() > 500;
         }
     };
-    private final Map<Class, MetaShadow> metaShadowMap = new HashMap<Class, MetaShadow>();
-    private Map<String, ShadowConfig> shadowClassMap = new HashMap<String, ShadowConfig>();
+    private final ConcurrentMap<Object, ShadowFactory> shadowFactories = new ConcurrentHashMap<Object, ShadowFactory>();
+    private volatile Map<String, ShadowConfig> defaultShadowClassMap;
+    private volatile Map<String, ShadowConfig> recordingDefaultShadowClassMap;
+    private volatile boolean useDefaultShadowClasses = false;
+    private final Map<String, ShadowConfig> shadowClassMap = new ConcurrentHashMap<String, ShadowConfig>();
+    private final Map<Class, ShadowBinding> defaultShadowBindings = new ConcurrentHashMap<Class, ShadowBinding>();
+    private final Map<Class, ShadowBinding> shadowBindings = new ConcurrentHashMap<Class, ShadowBinding>();
     private boolean logMissingShadowMethods = false;
+    private volatile ShadowProfiler profiler;
     private static ThreadLocal<Info> infos = new ThreadLocal<Info>() {
         @Override
         protected Info initialValue() {
@@ -58,6 +76,21 @@ public class ShadowWrangler implements ClassHandler {
         private int callDepth = 0;
     }
 
+    /**
+     * How instances of a real class get their shadow, resolved once per class for the current bindings.
+     */
+    private static class ShadowBinding {
+        static final ShadowBinding NONE = new ShadowBinding(null, null);
+
+        final Class<?> shadowClass;
+        final ShadowFactory factory;
+
+        ShadowBinding(Class<?> shadowClass, ShadowFactory factory) {
+            this.shadowClass = shadowClass;
+            this.factory = factory;
+        }
+    }
+
     static class ShadowConfig {
         final String shadowClassName;
         final boolean callThroughByDefault;
@@ -80,6 +113,42 @@ public class ShadowWrangler implements ClassHandler {
     @Override
     public void reset() {
         shadowClassMap.clear();
+        shadowBindings.clear();
+        useDefaultShadowClasses = false;
+    }
+
+    public boolean hasDefaultShadowClasses() {
+        return defaultShadowClassMap != null;
+    }
+
+    /**
+     * Until {@link #finishRecordingDefaultShadowClasses()}, bound shadow classes go into the default shadow map instead
+     * of the current bindings. The default map is built once and then shared by every test using this wrangler.
+     */
+    public void startRecordingDefaultShadowClasses() {
+        recordingDefaultShadowClassMap = new HashMap<String, ShadowConfig>();
+    }
+
+    public void finishRecordingDefaultShadowClasses() {
+        defaultShadowClassMap = Collections.unmodifiableMap(recordingDefaultShadowClassMap);
+        recordingDefaultShadowClassMap = null;
+        defaultShadowBindings.clear();
+    }
+
+    /**
+     * Makes the default shadow classes visible until the next {@link #reset()}. Shadow classes bound after this take
+     * precedence over the defaults; any bound before this for the same classes are replaced, as if the defaults had
+     * been bound one by one.
+     */
+    public void applyDefaultShadowClasses() {
+        if (defaultShadowClassMap == null) {
+            throw new IllegalStateException("default shadow classes haven't been recorded");
+        }
+        useDefaultShadowClasses = true;
+        if (!shadowClassMap.isEmpty()) {
+            shadowClassMap.keySet().removeAll(defaultShadowClassMap.keySet());
+        }
+        shadowBindings.clear();
     }
 
     @Override
@@ -116,7 +185,9 @@ public class ShadowWrangler implements ClassHandler {
     }
 
     public void bindShadowClass(String realClassName, String shadowClassName, boolean callThroughByDefault) {
-        shadowClassMap.put(realClassName, new ShadowConfig(shadowClassName, callThroughByDefault));
+        Map<String, ShadowConfig> map = recordingDefaultShadowClassMap != null ? recordingDefaultShadowClassMap : shadowClassMap;
+        map.put(realClassName, new ShadowConfig(shadowClassName, callThroughByDefault));
+        if (map == shadowClassMap) shadowBindings.clear();
         if (debug) System.out.println("shadow " + realClassName + " with " + shadowClassName);
     }
 
@@ -179,44 +250,58 @@ public class ShadowWrangler implements ClassHandler {
         try {
             info.callDepth++;
             InvocationPlan invocationPlan = getInvocationPlan(clazz, methodName, instance, paramTypes);
+            ShadowProfiler profiler = this.profiler;
+            if (profiler == null) {
+                return invoke(invocationPlan, clazz, methodName, instance, paramTypes, params, info.callDepth);
+            }
+
+            long startTime = System.nanoTime();
             try {
-                boolean hasShadowImplementation = invocationPlan.hasShadowImplementation();
-                if (debug) {
-                    System.out.println(indent(info.callDepth) + " -> " +
-                            clazz.getName() + "." + methodName + "(" + Join.join(", ", paramTypes) + "): "
-                            + (hasShadowImplementation ? "shadowed by " + (instance == null ? "?" : invocationPlan.getDeclaredShadowClass().getName()) : "direct"));
-                }
+                return invoke(invocationPlan, clazz, methodName, instance, paramTypes, params, info.callDepth);
+            } finally {
+                invocationPlan.getStats(profiler).record(System.nanoTime() - startTime, invocationPlan.callsThrough());
+            }
+        } finally {
+            info.callDepth--;
+        }
+    }
 
-                if (!hasShadowImplementation) {
-                    reportNoShadowMethodFound(clazz, methodName, paramTypes);
-                    if (invocationPlan.shouldDelegateToRealMethodWhenMethodShadowIsMissing()) {
-                        return invocationPlan.callOriginal(instance, params);
-                    } else {
-                        return null;
-                    }
-                }
+    private Object invoke(InvocationPlan invocationPlan, Class clazz, String methodName, Object instance, String[] paramTypes, Object[] params, int callDepth) throws Exception {
+        try {
+            boolean hasShadowImplementation = invocationPlan.hasShadowImplementation();
+            if (debug) {
+                System.out.println(indent(callDepth) + " -> " +
+                        clazz.getName() + "." + methodName + "(" + Join.join(", ", paramTypes) + "): "
+                        + (hasShadowImplementation ? "shadowed by " + (instance == null ? "?" : invocationPlan.getDeclaredShadowClass().getName()) : "direct"));
+            }
 
-                // todo: a little strange that this lives here...
-                if (strictI18n && !invocationPlan.isI18nSafe()) {
-                    throw new I18nException("Method " + methodName + " on class " + clazz.getName() + " is not i18n-safe.");
+            if (!hasShadowImplementation) {
+                reportNoShadowMethodFound(clazz, methodName, paramTypes);
+                if (invocationPlan.shouldDelegateToRealMethodWhenMethodShadowIsMissing()) {
+                    return invocationPlan.callOriginal(instance, params);
+                } else {
+                    return null;
                 }
+            }
 
-                return invocationPlan.getMethod().invoke(instance == null ? null : shadowOf(instance), params);
-            } catch (IllegalArgumentException e) {
-                Object shadow = instance == null ? null : shadowOf(instance);
-                Class<? extends Object> aClass = shadow == null ? null : shadow.getClass();
-                String aClassName = aClass == null ? "<unknown class>" : aClass.getName();
-                throw new RuntimeException(aClassName + " is not assignable from " +
-                        invocationPlan.getDeclaredShadowClass().getName(), e);
-            } catch (InvocationTargetException e) {
-                Throwable cause = e.getCause();
-                if (cause instanceof Exception) {
-                    throw stripStackTrace((Exception) cause);
-                }
-                throw new RuntimeException(cause);
+            // todo: a little strange that this lives here...
+            if (strictI18n && !invocationPlan.isI18nSafe()) {
+                throw new I18nException("Method " + methodName + " on class " + clazz.getName() + " is not i18n-safe.");
             }
-        } finally {
-            info.callDepth--;
+
+            return invocationPlan.getMethod().invoke(instance == null ? null : shadowOf(instance), params);
+        } catch (IllegalArgumentException e) {
+            Object shadow = instance == null ? null : shadowOf(instance);
+            Class<? extends Object> aClass = shadow == null ? null : shadow.getClass();
+            String aClassName = aClass == null ? "<unknown class>" : aClass.getName();
+            throw new RuntimeException(aClassName + " is not assignable from " +
+                    invocationPlan.getDeclaredShadowClass().getName(), e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw stripStackTrace((Exception) cause);
+            }
+            throw new RuntimeException(cause);
         }
     }
 
@@ -310,79 +395,89 @@ public class ShadowWrangler implements ClassHandler {
     }
 
     public Object shadowFor(Object instance) {
-        Field field = RobolectricInternals.getShadowField(instance);
-        field.setAccessible(true);
-        Object shadow = readField(instance, field);
+        Object shadow = readShadow(instance);
 
         if (shadow != null) {
             return shadow;
         }
 
-        String shadowClassName = getShadowClassName(instance.getClass());
+        ShadowBinding binding = getShadowBinding(instance.getClass());
+        Class<?> shadowClass = binding.shadowClass;
 
-        if (shadowClassName == null) return new Object();
+        if (shadowClass == null) return new Object();
 
         if (debug)
-            System.out.println("creating new " + shadowClassName + " as shadow for " + instance.getClass().getName());
-        try {
-            Class<?> shadowClass = loadClass(shadowClassName, instance.getClass().getClassLoader());
-            Constructor<?> constructor = findConstructor(instance, shadowClass);
-            if (constructor != null) {
-                shadow = constructor.newInstance(instance);
-            } else {
-                shadow = shadowClass.newInstance();
-            }
-            field.set(instance, shadow);
-
-            injectRealObjectOn(shadow, shadowClass, instance);
-
-            return shadow;
-        } catch (InstantiationException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private void injectRealObjectOn(Object shadow, Class<?> shadowClass, Object instance) {
-        MetaShadow metaShadow = getMetaShadow(shadowClass);
-        for (Field realObjectField : metaShadow.realObjectFields) {
-            writeField(shadow, instance, realObjectField);
-        }
+            System.out.println("creating new " + shadowClass.getName() + " as shadow for " + instance.getClass().getName());
+        shadow = binding.factory.newShadow(instance);
+        writeShadow(instance, shadow);
+        return shadow;
     }
 
-    private MetaShadow getMetaShadow(Class<?> shadowClass) {
-        synchronized (metaShadowMap) {
-            MetaShadow metaShadow = metaShadowMap.get(shadowClass);
-            if (metaShadow == null) {
-                metaShadow = new MetaShadow(shadowClass);
-                metaShadowMap.put(shadowClass, metaShadow);
+    /**
+     * Factories are kept for the life of the wrangler, keyed by the shadow constructor they call (or the shadow class,
+     * if they use its no-arg constructor), so they survive binding changes between tests.
+     */
+    private ShadowFactory getShadowFactory(Class<?> shadowClass, Constructor<?> constructor) {
+        Object key = constructor != null ? constructor : shadowClass;
+        ShadowFactory factory = shadowFactories.get(key);
+        if (factory == null) {
+            ShadowFactory newFactory = ShadowFactories.create(shadowClass, constructor, new MetaShadow(shadowClass).realObjectFields);
+            factory = shadowFactories.putIfAbsent(key, newFactory);
+            if (factory == null) {
+                factory = newFactory;
             }
-            return metaShadow;
         }
+        return factory;
     }
 
     private Class<?> findDirectShadowClass(Class<?> originalClass) {
-        ShadowConfig shadowConfig = shadowClassMap.get(originalClass.getName());
+        ShadowConfig shadowConfig = getShadowConfig(originalClass.getName());
         if (shadowConfig == null) {
             return null;
         }
         return loadClass(shadowConfig.shadowClassName, originalClass.getClassLoader());
     }
 
+    ShadowConfig getShadowConfig(String className) {
+        ShadowConfig shadowConfig = shadowClassMap.get(className);
+        if (shadowConfig == null && useDefaultShadowClasses) {
+            shadowConfig = defaultShadowClassMap.get(className);
+        }
+        return shadowConfig;
+    }
+
     private String getShadowClassName(Class clazz) {
         ShadowConfig shadowConfig = null;
         while (shadowConfig == null && clazz != null) {
-            shadowConfig = shadowClassMap.get(clazz.getName());
+            shadowConfig = getShadowConfig(clazz.getName());
             clazz = clazz.getSuperclass();
         }
         return shadowConfig == null ? null : shadowConfig.shadowClassName;
     }
 
-    private Constructor<?> findConstructor(Object instance, Class<?> shadowClass) {
-        Class clazz = instance.getClass();
+    /**
+     * Resolves the shadow class and constructor for instances of a real class. Resolutions are cached per class; the
+     * defaults-only cache survives between tests, the other is dropped whenever the bindings change.
+     */
+    private ShadowBinding getShadowBinding(Class<?> realClass) {
+        Map<Class, ShadowBinding> cache = recordingDefaultShadowClassMap == null && useDefaultShadowClasses && shadowClassMap.isEmpty()
+                ? defaultShadowBindings : shadowBindings;
+        ShadowBinding binding = cache.get(realClass);
+        if (binding == null) {
+            String shadowClassName = getShadowClassName(realClass);
+            if (shadowClassName == null) {
+                binding = ShadowBinding.NONE;
+            } else {
+                Class<?> shadowClass = loadClass(shadowClassName, realClass.getClassLoader());
+                binding = new ShadowBinding(shadowClass, getShadowFactory(shadowClass, findConstructor(realClass, shadowClass)));
+            }
+            cache.put(realClass, binding);
+        }
+        return binding;
+    }
+
+    private Constructor<?> findConstructor(Class<?> realClass, Class<?> shadowClass) {
+        Class clazz = realClass;
 
         Constructor constructor;
         for (constructor = null; constructor == null && clazz != null; clazz = clazz.getSuperclass()) {
@@ -399,14 +494,28 @@ public class ShadowWrangler implements ClassHandler {
         if (instance == null) {
             throw new NullPointerException("can't get a shadow for null");
         }
-        Field field = RobolectricInternals.getShadowField(instance);
-        Object shadow = readField(instance, field);
+        Object shadow = readShadow(instance);
         if (shadow == null) {
             shadow = shadowFor(instance);
         }
         return shadow;
     }
 
+    private Object readShadow(Object instance) {
+        if (instance instanceof ShadowedObject) {
+            return ((ShadowedObject) instance).$$robo$getData();
+        }
+        return readField(instance, RobolectricInternals.getShadowField(instance));
+    }
+
+    private void writeShadow(Object instance, Object shadow) {
+        if (instance instanceof ShadowedObject) {
+            ((ShadowedObject) instance).$$robo$setData(shadow);
+        } else {
+            writeField(instance, shadow, RobolectricInternals.getShadowField(instance));
+        }
+    }
+
     private Object readField(Object target, Field field) {
         try {
             return field.get(target);
@@ -431,6 +540,31 @@ public class ShadowWrangler implements ClassHandler {
         logMissingShadowMethods = false;
     }
 
+    /**
+     * Starts recording calls to instrumented methods into the given profiler, or stops if it's null.
+     */
+    public void setProfiler(ShadowProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public ShadowProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * A method's stats in a particular profiler, published as a pair so no thread sees one profiler's stats as
+     * another's.
+     */
+    private static class ProfiledStats {
+        final ShadowProfiler profiler;
+        final ShadowProfiler.MethodStats stats;
+
+        ProfiledStats(ShadowProfiler profiler, ShadowProfiler.MethodStats stats) {
+            this.profiler = profiler;
+            this.stats = stats;
+        }
+    }
+
     private class InvocationPlan {
         private final Class clazz;
         private final Class shadowClass;
@@ -443,6 +577,7 @@ public class ShadowWrangler implements ClassHandler {
         private Class<?>[] paramClasses;
         private Class<?> declaredShadowClass;
         private Method method;
+        private volatile ProfiledStats profiledStats;
 
         public InvocationPlan(InvocationProfile invocationProfile) {
             this(invocationProfile.clazz, invocationProfile.shadowClass,
@@ -470,6 +605,19 @@ public class ShadowWrangler implements ClassHandler {
             return declaredShadowClass;
         }
 
+        public boolean callsThrough() {
+            return !hasShadowImplementation && shouldDelegateToRealMethodWhenMethodShadowIsMissing();
+        }
+
+        ShadowProfiler.MethodStats getStats(ShadowProfiler profiler) {
+            ProfiledStats profiledStats = this.profiledStats;
+            if (profiledStats == null || profiledStats.profiler != profiler) {
+                profiledStats = new ProfiledStats(profiler, profiler.statsFor(clazz, methodName, paramTypes));
+                this.profiledStats = profiledStats;
+            }
+            return profiledStats.stats;
+        }
+
         public Method getMethod() {
             return method;
         }
@@ -621,11 +769,11 @@ public class ShadowWrangler implements ClassHandler {
 
         public boolean shouldDelegateToRealMethodWhenMethodShadowIsMissing() {
             String className = clazz.getName();
-            ShadowConfig shadowConfig = shadowClassMap.get(className);
+            ShadowConfig shadowConfig = getShadowConfig(className);
             int dollarIndex;
             if (shadowConfig == null && (dollarIndex = className.indexOf('$')) > -1) {
                 className = className.substring(0, dollarIndex);
-                shadowConfig = shadowClassMap.get(className);
+                shadowConfig = getShadowConfig(className);
 
                 // todo: test
             }
@@ -0,0 +1,14 @@
+package org.robolectric.bytecode;
+
+/**
+ * Implemented by every class instrumented by {@link AsmInstrumentingClassLoader}, giving typed access to the
+ * instance's shadow without reflecting on its {@link InstrumentingClassLoader#CLASS_HANDLER_DATA_FIELD_NAME} field.
+ */
+public interface ShadowedObject {
+    String GET_DATA_METHOD_NAME = "$$robo$getData";
+    String SET_DATA_METHOD_NAME = "$$robo$setData";
+
+    Object $$robo$getData();
+
+    void $$robo$setData(Object data);
+}
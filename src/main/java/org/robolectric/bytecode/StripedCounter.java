@@ -0,0 +1,37 @@
+package org.robolectric.bytecode;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which threads can add to without contending on a single memory location. Each thread adds to one of a few
+ * cells, picked by thread id and spaced a cache line apart; reading the total sums the cells.
+ */
+class StripedCounter {
+    private static final int STRIPES = 4;
+    private static final int PADDING = 8; // longs per 64-byte cache line
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void add(long amount) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, amount);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+}
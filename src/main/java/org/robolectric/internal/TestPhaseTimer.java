@@ -0,0 +1,142 @@
+package org.robolectric.internal;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times the phases {@link org.robolectric.RobolectricTestRunner} goes through for each test: bootstrapping the test
+ * class (reported with its first test), resetting and configuring shadows, loading resources, setting up the
+ * application, the test itself, and tearing down.
+ * <p/>
+ * Enabled by setting the {@code robolectric.phaseTimings} system property to {@code stdout}, {@code stderr} or a file
+ * name. One line of JSON is written per test, e.g.
+ * <pre>
+ * {"test": "com.example.FooTest#shouldFoo", "phases": {"configureShadows": 812000, "testBody": 5123000, ...}}
+ * </pre>
+ * with times in nanoseconds. Phases may nest; e.g. {@code resourceLoading} is part of {@code setupApplicationState}.
+ */
+public class TestPhaseTimer {
+    public static final String PROPERTY = "robolectric.phaseTimings";
+
+    private static final ThreadLocal<TestPhaseTimer> CURRENT = new ThreadLocal<TestPhaseTimer>();
+    private static final Map<String, Map<String, Long>> bootstrapNanosByTestClass = new ConcurrentHashMap<String, Map<String, Long>>();
+
+    private final String testName;
+    private final Map<String, Long> nanosByPhase = new LinkedHashMap<String, Long>();
+
+    private TestPhaseTimer(String testName) {
+        this.testName = testName;
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty(PROPERTY) != null;
+    }
+
+    /**
+     * Starts timing a test on this thread, if timing is enabled. Bootstrap timings recorded for the test class and not
+     * yet reported are included.
+     *
+     * @return the timer, or null if timing is disabled
+     */
+    public static TestPhaseTimer start(Class<?> testClass, String methodName) {
+        if (!isEnabled()) {
+            return null;
+        }
+        TestPhaseTimer timer = new TestPhaseTimer(testClass.getName() + "#" + methodName);
+        Map<String, Long> bootstrapNanos = bootstrapNanosByTestClass.remove(testClass.getName());
+        if (bootstrapNanos != null) {
+            timer.nanosByPhase.putAll(bootstrapNanos);
+        }
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /**
+     * Records time spent bootstrapping a test class, before any of its tests has started.
+     */
+    public static void recordBootstrap(Class<?> testClass, String phase, long startNanos) {
+        if (!isEnabled()) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        synchronized (bootstrapNanosByTestClass) {
+            Map<String, Long> bootstrapNanos = bootstrapNanosByTestClass.get(testClass.getName());
+            if (bootstrapNanos == null) {
+                bootstrapNanos = new LinkedHashMap<String, Long>();
+                bootstrapNanosByTestClass.put(testClass.getName(), bootstrapNanos);
+            }
+            add(bootstrapNanos, phase, elapsed);
+        }
+    }
+
+    /**
+     * Records time spent in a phase of the test running on this thread, if it's being timed.
+     *
+     * @param phase      the name of the phase
+     * @param startNanos the {@link System#nanoTime()} at which the phase started
+     */
+    public static void record(String phase, long startNanos) {
+        TestPhaseTimer timer = CURRENT.get();
+        if (timer != null) {
+            add(timer.nanosByPhase, phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    public String getTestName() {
+        return testName;
+    }
+
+    public Map<String, Long> getPhaseNanos() {
+        return Collections.unmodifiableMap(nanosByPhase);
+    }
+
+    /**
+     * Stops timing on this thread and writes the report.
+     */
+    public void finish() {
+        CURRENT.remove();
+        String destination = System.getProperty(PROPERTY);
+        if (destination == null) {
+            return;
+        }
+
+        String json = toJson();
+        if ("stdout".equalsIgnoreCase(destination)) {
+            System.out.println(json);
+        } else if ("stderr".equalsIgnoreCase(destination)) {
+            System.err.println(json);
+        } else {
+            synchronized (TestPhaseTimer.class) {
+                try {
+                    PrintStream out = new PrintStream(new FileOutputStream(destination, true), false, "UTF-8");
+                    out.println(json);
+                    out.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    public String toJson() {
+        StringBuilder buf = new StringBuilder("{\"test\": \"").append(testName.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\", \"phases\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : nanosByPhase.entrySet()) {
+            if (!first) buf.append(", ");
+            first = false;
+            buf.append('"').append(entry.getKey()).append("\": ").append(entry.getValue());
+        }
+        return buf.append("}}").toString();
+    }
+
+    private static void add(Map<String, Long> nanosByPhase, String phase, long nanos) {
+        Long soFar = nanosByPhase.get(phase);
+        nanosByPhase.put(phase, soFar == null ? nanos : soFar + nanos);
+    }
+}
@@ -0,0 +1,212 @@
+package org.robolectric.shadows;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.robolectric.Robolectric.shadowOf;
+
+/**
+ * The content observers registered with a {@link ShadowContentResolver}, in a tree of URI segments (authority, then
+ * path segments) like Android's {@code ContentService}. A change to a URI reaches the observers registered for it,
+ * for any URI below it, and for any URI above it with {@code notifyForDescendents} set.
+ * <p/>
+ * Observers without a {@code Handler} are called straight away. For the others the change is posted to the handler's
+ * looper, and further changes to the same URI are dropped until it has been delivered, so however many times a URI
+ * changes while a looper is paused, its observers hear about it once.
+ */
+class ContentObserverDispatcher {
+    private final Node root = new Node();
+    private final Set<PendingChange> pendingChanges = new HashSet<PendingChange>();
+    private int deliveredCount;
+    private int coalescedCount;
+
+    synchronized void register(Uri uri, boolean notifyForDescendents, ContentObserver observer) {
+        Node node = root;
+        for (String segment : segmentsOf(uri)) {
+            Node child = node.children.get(segment);
+            if (child == null) {
+                child = new Node();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        node.registrations.add(new Registration(observer, notifyForDescendents));
+    }
+
+    synchronized void unregister(ContentObserver observer) {
+        root.remove(observer);
+    }
+
+    synchronized void clear() {
+        root.children.clear();
+        root.registrations.clear();
+        pendingChanges.clear();
+    }
+
+    /**
+     * @return the observers registered for exactly {@code uri}, in registration order
+     */
+    synchronized List<ContentObserver> getObservers(Uri uri) {
+        List<ContentObserver> observers = new ArrayList<ContentObserver>();
+        Node node = root;
+        for (String segment : segmentsOf(uri)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return observers;
+            }
+        }
+        for (Registration registration : node.registrations) {
+            observers.add(registration.observer);
+        }
+        return observers;
+    }
+
+    /**
+     * @param originator the observer that made the change, which only hears about it if it
+     *                   {@linkplain ContentObserver#deliverSelfNotifications() asks to}; may be null
+     */
+    void notifyChange(Uri uri, ContentObserver originator) {
+        List<Registration> matches = new ArrayList<Registration>();
+        synchronized (this) {
+            root.collect(segmentsOf(uri), 0, matches);
+        }
+
+        for (Registration registration : matches) {
+            ContentObserver observer = registration.observer;
+            boolean selfChange = observer == originator;
+            if (selfChange && !observer.deliverSelfNotifications()) {
+                continue;
+            }
+            Handler handler = shadowOf(observer).getHandler();
+            if (handler == null) {
+                deliver(observer, selfChange, uri);
+                continue;
+            }
+
+            final PendingChange change = new PendingChange(observer, selfChange, uri);
+            synchronized (this) {
+                if (!pendingChanges.add(change)) {
+                    coalescedCount++;
+                    continue;
+                }
+            }
+            handler.post(new Runnable() {
+                @Override public void run() {
+                    synchronized (ContentObserverDispatcher.this) {
+                        pendingChanges.remove(change);
+                    }
+                    deliver(change.observer, change.selfChange, change.uri);
+                }
+            });
+        }
+    }
+
+    synchronized int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    synchronized int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    private void deliver(ContentObserver observer, boolean selfChange, Uri uri) {
+        synchronized (this) {
+            deliveredCount++;
+        }
+        observer.onChange(selfChange, uri);
+    }
+
+    private static List<String> segmentsOf(Uri uri) {
+        List<String> segments = new ArrayList<String>();
+        String authority = uri.getAuthority();
+        segments.add(authority == null ? "" : authority);
+        segments.addAll(uri.getPathSegments());
+        return segments;
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        final List<Registration> registrations = new ArrayList<Registration>();
+
+        void collect(List<String> segments, int index, List<Registration> matches) {
+            boolean target = index >= segments.size();
+            for (Registration registration : registrations) {
+                if (target || registration.notifyForDescendents) {
+                    matches.add(registration);
+                }
+            }
+            if (target) {
+                for (Node child : children.values()) {
+                    child.collect(segments, index + 1, matches);
+                }
+            } else {
+                Node child = children.get(segments.get(index));
+                if (child != null) {
+                    child.collect(segments, index + 1, matches);
+                }
+            }
+        }
+
+        /**
+         * @return whether this node can be dropped from its parent
+         */
+        boolean remove(ContentObserver observer) {
+            Iterator<Registration> registrationIterator = registrations.iterator();
+            while (registrationIterator.hasNext()) {
+                if (registrationIterator.next().observer == observer) {
+                    registrationIterator.remove();
+                }
+            }
+            Iterator<Node> childIterator = children.values().iterator();
+            while (childIterator.hasNext()) {
+                if (childIterator.next().remove(observer)) {
+                    childIterator.remove();
+                }
+            }
+            return registrations.isEmpty() && children.isEmpty();
+        }
+    }
+
+    private static class Registration {
+        final ContentObserver observer;
+        final boolean notifyForDescendents;
+
+        Registration(ContentObserver observer, boolean notifyForDescendents) {
+            this.observer = observer;
+            this.notifyForDescendents = notifyForDescendents;
+        }
+    }
+
+    private static class PendingChange {
+        final ContentObserver observer;
+        final boolean selfChange;
+        final Uri uri;
+
+        PendingChange(ContentObserver observer, boolean selfChange, Uri uri) {
+            this.observer = observer;
+            this.selfChange = selfChange;
+            this.uri = uri;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PendingChange)) return false;
+            PendingChange that = (PendingChange) o;
+            return observer == that.observer && selfChange == that.selfChange && uri.equals(that.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(observer) + (selfChange ? 1 : 0)) + uri.hashCode();
+        }
+    }
+}
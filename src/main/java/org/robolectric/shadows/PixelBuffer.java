@@ -0,0 +1,138 @@
+package org.robolectric.shadows;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The pixels of a {@link ShadowBitmap} in pixel rendering mode: one non-premultiplied ARGB int per pixel, row by row,
+ * in a direct buffer so large bitmaps don't take up test heap. Colors are reduced to the precision of the bitmap's
+ * {@link Bitmap.Config} as they're stored.
+ */
+class PixelBuffer {
+    final int width;
+    final int height;
+    final Bitmap.Config config;
+    private final IntBuffer pixels;
+
+    PixelBuffer(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be > 0");
+        }
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.pixels = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    int get(int x, int y) {
+        return pixels.get(y * width + x);
+    }
+
+    void set(int x, int y, int argb) {
+        pixels.put(y * width + x, normalize(argb));
+    }
+
+    void fill(int argb) {
+        int value = normalize(argb);
+        for (int i = 0, count = width * height; i < count; i++) {
+            pixels.put(i, value);
+        }
+    }
+
+    /**
+     * Draws {@code argb} over the pixels {@code x0 <= x < x1} of row {@code y}.
+     */
+    void blendSpan(int y, int x0, int x1, int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 0) {
+            return;
+        }
+        int offset = y * width;
+        if (alpha == 0xFF) {
+            int value = normalize(argb);
+            for (int i = offset + x0, end = offset + x1; i < end; i++) {
+                pixels.put(i, value);
+            }
+        } else {
+            for (int i = offset + x0, end = offset + x1; i < end; i++) {
+                pixels.put(i, normalize(srcOver(argb, pixels.get(i))));
+            }
+        }
+    }
+
+    void blend(int x, int y, int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 0) {
+            return;
+        }
+        int i = y * width + x;
+        pixels.put(i, normalize(alpha == 0xFF ? argb : srcOver(argb, pixels.get(i))));
+    }
+
+    PixelBuffer copy(Bitmap.Config config) {
+        PixelBuffer copy = new PixelBuffer(width, height, config);
+        for (int i = 0, count = width * height; i < count; i++) {
+            copy.pixels.put(i, copy.normalize(pixels.get(i)));
+        }
+        return copy;
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        return 4;
+    }
+
+    /**
+     * Porter-Duff source-over of two non-premultiplied colors.
+     */
+    static int srcOver(int src, int dst) {
+        int srcA = src >>> 24;
+        int dstA = dst >>> 24;
+        int dstWeight = dstA * (255 - srcA) / 255;
+        int outA = srcA + dstWeight;
+        if (outA == 0) {
+            return 0;
+        }
+        int r = (((src >> 16) & 0xFF) * srcA + ((dst >> 16) & 0xFF) * dstWeight) / outA;
+        int g = (((src >> 8) & 0xFF) * srcA + ((dst >> 8) & 0xFF) * dstWeight) / outA;
+        int b = ((src & 0xFF) * srcA + (dst & 0xFF) * dstWeight) / outA;
+        return (outA << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * @return {@code argb} with its alpha multiplied by {@code alpha / 255}
+     */
+    static int modulateAlpha(int argb, int alpha) {
+        if (alpha >= 0xFF) {
+            return argb;
+        }
+        return (((argb >>> 24) * alpha / 255) << 24) | (argb & 0xFFFFFF);
+    }
+
+    private int normalize(int argb) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return argb & 0xFF000000;
+        } else if (config == Bitmap.Config.RGB_565) {
+            int r = (argb >> 19) & 0x1F;
+            int g = (argb >> 10) & 0x3F;
+            int b = (argb >> 3) & 0x1F;
+            return 0xFF000000 | (expand5(r) << 16) | (expand6(g) << 8) | expand5(b);
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            return ((argb >>> 28) * 0x11) << 24 | (((argb >> 20) & 0xF) * 0x11) << 16
+                    | (((argb >> 12) & 0xF) * 0x11) << 8 | ((argb >> 4) & 0xF) * 0x11;
+        }
+        return argb;
+    }
+
+    private static int expand5(int value) {
+        return (value << 3) | (value >> 2);
+    }
+
+    private static int expand6(int value) {
+        return (value << 2) | (value >> 4);
+    }
+}
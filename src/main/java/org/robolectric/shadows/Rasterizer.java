@@ -0,0 +1,293 @@
+package org.robolectric.shadows;
+
+import android.graphics.Paint;
+
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.robolectric.Robolectric.shadowOf;
+
+/**
+ * Draws shapes, text and bitmaps into a {@link PixelBuffer} for {@link ShadowCanvas}. Geometry comes from
+ * {@code java.awt.geom}; filling is a plain scanline fill sampling each pixel at its center, so there's no
+ * anti-aliasing. Shaders, color filters and transfer modes are ignored: everything is drawn in the paint's color
+ * (or the bitmap's colors, with the paint's alpha) using source-over.
+ */
+class Rasterizer {
+    private static final double FLATNESS = 0.1;
+    private static final float DEFAULT_TEXT_SIZE = 12;
+    private static final float DEFAULT_MITER_LIMIT = 4;
+    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, false, false);
+
+    private Rasterizer() {
+    }
+
+    /**
+     * Fills and/or strokes {@code shape} according to the paint's style.
+     */
+    static void draw(PixelBuffer dst, Shape shape, AffineTransform transform, Rectangle clip, Paint paint) {
+        Paint.Style style = paint.getStyle();
+        if (style == null || style == Paint.Style.FILL || style == Paint.Style.FILL_AND_STROKE) {
+            fill(dst, shape, transform, clip, paint.getColor());
+        }
+        if (style == Paint.Style.STROKE || style == Paint.Style.FILL_AND_STROKE) {
+            stroke(dst, shape, transform, clip, paint);
+        }
+    }
+
+    /**
+     * Strokes {@code shape} whatever the paint's style, as Android does for lines and points.
+     */
+    static void stroke(PixelBuffer dst, Shape shape, AffineTransform transform, Rectangle clip, Paint paint) {
+        float width = paint.getStrokeWidth();
+        if (width <= 0) {
+            // hairlines are one device pixel wide, whatever the transform
+            Shape deviceShape = transform.createTransformedShape(shape);
+            fill(dst, newStroke(1, paint).createStrokedShape(deviceShape), new AffineTransform(), clip, paint.getColor());
+        } else {
+            fill(dst, newStroke(width, paint).createStrokedShape(shape), transform, clip, paint.getColor());
+        }
+    }
+
+    static Shape textOutline(String text, float x, float y, Paint paint) {
+        float textSize = paint.getTextSize() > 0 ? paint.getTextSize() : DEFAULT_TEXT_SIZE;
+        Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont(textSize);
+        return font.createGlyphVector(FONT_RENDER_CONTEXT, text).getOutline(x, y);
+    }
+
+    /**
+     * Fills the inside of {@code shape}, transformed to device coordinates, following its winding rule.
+     */
+    static void fill(PixelBuffer dst, Shape shape, AffineTransform transform, Rectangle clip, int argb) {
+        if (argb >>> 24 == 0) {
+            return;
+        }
+        EdgeList edges = new EdgeList();
+        float moveX = 0, moveY = 0, lastX = 0, lastY = 0;
+        float[] coords = new float[6];
+        PathIterator iterator = shape.getPathIterator(transform, FLATNESS);
+        boolean evenOdd = iterator.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+        for (; !iterator.isDone(); iterator.next()) {
+            switch (iterator.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                    edges.add(lastX, lastY, moveX, moveY);
+                    moveX = lastX = coords[0];
+                    moveY = lastY = coords[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    edges.add(lastX, lastY, coords[0], coords[1]);
+                    lastX = coords[0];
+                    lastY = coords[1];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    edges.add(lastX, lastY, moveX, moveY);
+                    lastX = moveX;
+                    lastY = moveY;
+                    break;
+            }
+        }
+        edges.add(lastX, lastY, moveX, moveY);
+        if (edges.size == 0) {
+            return;
+        }
+
+        Rectangle bounds = clip.intersection(new Rectangle(0, 0, dst.width, dst.height));
+        int minY = Math.max(bounds.y, (int) Math.floor(edges.minY));
+        int maxY = Math.min(bounds.y + bounds.height, (int) Math.ceil(edges.maxY));
+        int minX = bounds.x;
+        int maxX = bounds.x + bounds.width;
+
+        edges.sortByTop();
+        int[] active = new int[edges.size];
+        int activeCount = 0;
+        int nextEdge = 0;
+        float[] crossings = new float[edges.size];
+        int[] directions = new int[edges.size];
+        for (int y = minY; y < maxY; y++) {
+            float centerY = y + 0.5f;
+            while (nextEdge < edges.size && edges.top(nextEdge) <= centerY) {
+                active[activeCount++] = nextEdge++;
+            }
+
+            int crossingCount = 0;
+            for (int i = 0; i < activeCount; ) {
+                int edge = active[i];
+                if (edges.bottom(edge) <= centerY) {
+                    active[i] = active[--activeCount];
+                    continue;
+                }
+                float x = edges.xAt(edge, centerY);
+                int direction = edges.direction(edge);
+                // insertion sort by x; there are only ever a few crossings per row
+                int j = crossingCount++;
+                while (j > 0 && crossings[j - 1] > x) {
+                    crossings[j] = crossings[j - 1];
+                    directions[j] = directions[j - 1];
+                    j--;
+                }
+                crossings[j] = x;
+                directions[j] = direction;
+                i++;
+            }
+
+            int winding = 0;
+            for (int i = 0; i < crossingCount - 1; i++) {
+                winding += evenOdd ? 1 : directions[i];
+                boolean inside = evenOdd ? (winding & 1) != 0 : winding != 0;
+                if (inside) {
+                    // pixels whose centers lie in [crossings[i], crossings[i + 1])
+                    int x0 = Math.max(minX, (int) Math.ceil(crossings[i] - 0.5f));
+                    int x1 = Math.min(maxX, (int) Math.ceil(crossings[i + 1] - 0.5f));
+                    if (x0 < x1) {
+                        dst.blendSpan(y, x0, x1, argb);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the {@code srcRect} part of {@code src}, sampling the nearest source pixel for each destination pixel.
+     *
+     * @param srcToDevice maps source pixel coordinates to device coordinates
+     * @param alpha       the alpha to draw with, 0-255
+     */
+    static void drawBitmap(PixelBuffer dst, PixelBuffer src, Rectangle srcRect, AffineTransform srcToDevice,
+                           Rectangle clip, int alpha) {
+        Rectangle srcBounds = srcRect.intersection(new Rectangle(0, 0, src.width, src.height));
+        if (srcBounds.isEmpty() || alpha == 0) {
+            return;
+        }
+        AffineTransform deviceToSrc;
+        try {
+            deviceToSrc = srcToDevice.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            return;
+        }
+
+        Rectangle2D deviceBounds = srcToDevice.createTransformedShape(srcBounds).getBounds2D();
+        Rectangle bounds = clip.intersection(new Rectangle(0, 0, dst.width, dst.height));
+        int minX = Math.max(bounds.x, (int) Math.floor(deviceBounds.getMinX()));
+        int maxX = Math.min(bounds.x + bounds.width, (int) Math.ceil(deviceBounds.getMaxX()));
+        int minY = Math.max(bounds.y, (int) Math.floor(deviceBounds.getMinY()));
+        int maxY = Math.min(bounds.y + bounds.height, (int) Math.ceil(deviceBounds.getMaxY()));
+
+        Point2D.Double point = new Point2D.Double();
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                point.setLocation(x + 0.5, y + 0.5);
+                deviceToSrc.transform(point, point);
+                int srcX = (int) Math.floor(point.x);
+                int srcY = (int) Math.floor(point.y);
+                if (srcBounds.contains(srcX, srcY)) {
+                    dst.blend(x, y, PixelBuffer.modulateAlpha(src.get(srcX, srcY), alpha));
+                }
+            }
+        }
+    }
+
+    static int alphaOf(Paint paint) {
+        return paint == null ? 0xFF : paint.getAlpha();
+    }
+
+    private static BasicStroke newStroke(float width, Paint paint) {
+        return new BasicStroke(width, capOf(paint), joinOf(paint), DEFAULT_MITER_LIMIT);
+    }
+
+    private static int capOf(Paint paint) {
+        Paint.Cap cap = shadowOf(paint).getCap();
+        if (cap == Paint.Cap.ROUND) return BasicStroke.CAP_ROUND;
+        if (cap == Paint.Cap.SQUARE) return BasicStroke.CAP_SQUARE;
+        return BasicStroke.CAP_BUTT;
+    }
+
+    private static int joinOf(Paint paint) {
+        Paint.Join join = shadowOf(paint).getJoin();
+        if (join == Paint.Join.ROUND) return BasicStroke.JOIN_ROUND;
+        if (join == Paint.Join.BEVEL) return BasicStroke.JOIN_BEVEL;
+        return BasicStroke.JOIN_MITER;
+    }
+
+    /**
+     * Non-horizontal edges as parallel arrays, each stored top to bottom with its original direction.
+     */
+    private static class EdgeList {
+        private float[] coords = new float[16 * 4];
+        private int[] directions = new int[16];
+        int size;
+        float minY = Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+
+        void add(float x0, float y0, float x1, float y1) {
+            if (y0 == y1) {
+                return;
+            }
+            if (size == directions.length) {
+                coords = Arrays.copyOf(coords, coords.length * 2);
+                directions = Arrays.copyOf(directions, directions.length * 2);
+            }
+            int direction = 1;
+            if (y0 > y1) {
+                float swap = x0; x0 = x1; x1 = swap;
+                swap = y0; y0 = y1; y1 = swap;
+                direction = -1;
+            }
+            int i = size * 4;
+            coords[i] = x0;
+            coords[i + 1] = y0;
+            coords[i + 2] = x1;
+            coords[i + 3] = y1;
+            directions[size++] = direction;
+            minY = Math.min(minY, y0);
+            maxY = Math.max(maxY, y1);
+        }
+
+        void sortByTop() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override public int compare(Integer a, Integer b) {
+                    return Float.compare(coords[a * 4 + 1], coords[b * 4 + 1]);
+                }
+            });
+            float[] sortedCoords = new float[coords.length];
+            int[] sortedDirections = new int[directions.length];
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(coords, order[i] * 4, sortedCoords, i * 4, 4);
+                sortedDirections[i] = directions[order[i]];
+            }
+            coords = sortedCoords;
+            directions = sortedDirections;
+        }
+
+        float top(int edge) {
+            return coords[edge * 4 + 1];
+        }
+
+        float bottom(int edge) {
+            return coords[edge * 4 + 3];
+        }
+
+        int direction(int edge) {
+            return directions[edge];
+        }
+
+        float xAt(int edge, float y) {
+            int i = edge * 4;
+            float x0 = coords[i], y0 = coords[i + 1], x1 = coords[i + 2], y1 = coords[i + 3];
+            return x0 + (x1 - x0) * (y - y0) / (y1 - y0);
+        }
+    }
+}
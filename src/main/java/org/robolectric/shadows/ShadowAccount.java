@@ -22,6 +22,12 @@ public class ShadowAccount {
         set(parcel.readString(), parcel.readString());
     }
 
+    @Implementation
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(realObject.name);
+        dest.writeString(realObject.type);
+    }
+
     @Implementation
     public String toString() {
         return "Account {name=" + realObject.name + ", type=" + realObject.type + "}";
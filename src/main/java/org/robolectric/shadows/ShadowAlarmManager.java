@@ -3,46 +3,115 @@ package org.robolectric.shadows;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Intent;
+import android.os.SystemClock;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
+import org.robolectric.util.Scheduler;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import static org.robolectric.Robolectric.shadowOf;
 
 /**
  * Shadows the {@code android.app.AlarmManager} class.
+ * <p/>
+ * Alarms are kept in order of when they're due, and looked up by their {@code Intent} when they're replaced or
+ * cancelled. By default they're only recorded; after {@link #setScheduler(Scheduler)} they also go off as the
+ * scheduler's clock passes their trigger times, sending their {@code PendingIntent}s, and repeating alarms go off
+ * again every interval.
  */
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(AlarmManager.class)
 public class ShadowAlarmManager {
 
-    private List<ScheduledAlarm> scheduledAlarms = new ArrayList<ScheduledAlarm>();
+    private final TreeSet<ScheduledAlarm> scheduledAlarms = new TreeSet<ScheduledAlarm>(new Comparator<ScheduledAlarm>() {
+        @Override public int compare(ScheduledAlarm a, ScheduledAlarm b) {
+            if (a.dueTime != b.dueTime) {
+                return a.dueTime < b.dueTime ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+        }
+    });
+    private final Map<IntentKey, ScheduledAlarm> alarmsByIntent = new HashMap<IntentKey, ScheduledAlarm>();
+    private long nextSequence;
+    private Scheduler scheduler;
+    private int firedAlarmCount;
+    private final Runnable fireDueAlarms = new Runnable() {
+        @Override public void run() {
+            fireDueAlarms();
+        }
+    };
 
     @Implementation
     public void set(int type, long triggerAtTime, PendingIntent operation) {
-	    internalSet(type, triggerAtTime, 0L, operation);
-    }
-
-	@Implementation
-	public void setRepeating (int type, long triggerAtTime, long interval, PendingIntent operation){
-		internalSet(type, triggerAtTime, interval, operation);
-	}
-
-	private void internalSet(int type, long triggerAtTime, long interval, PendingIntent operation) {
-		Intent intent = shadowOf(operation).getSavedIntent();
-		for (ScheduledAlarm scheduledAlarm : scheduledAlarms) {
-			Intent scheduledIntent = shadowOf(scheduledAlarm.operation).getSavedIntent();
-			if (scheduledIntent.filterEquals(intent)) {
-				scheduledAlarms.remove(scheduledAlarm);
-				break;
-			}
-		}
-		scheduledAlarms.add(new ScheduledAlarm(type, triggerAtTime, interval, operation));
-	}
-
-	/**
+        internalSet(type, triggerAtTime, 0L, operation);
+    }
+
+    @Implementation
+    public void setRepeating(int type, long triggerAtTime, long interval, PendingIntent operation) {
+        internalSet(type, triggerAtTime, interval, operation);
+    }
+
+    @Implementation
+    public void setInexactRepeating(int type, long triggerAtTime, long interval, PendingIntent operation) {
+        internalSet(type, triggerAtTime, interval, operation);
+    }
+
+    private void internalSet(int type, long triggerAtTime, long interval, PendingIntent operation) {
+        IntentKey key = new IntentKey(shadowOf(operation).getSavedIntent());
+        ScheduledAlarm replaced = alarmsByIntent.remove(key);
+        if (replaced != null) {
+            scheduledAlarms.remove(replaced);
+        }
+        ScheduledAlarm alarm = new ScheduledAlarm(type, triggerAtTime, interval, operation);
+        alarm.dueTime = dueTimeOf(alarm);
+        alarm.key = key;
+        add(key, alarm);
+        scheduleNextAlarm();
+    }
+
+    /**
+     * Non-Android accessor. Makes alarms go off as {@code scheduler}'s clock advances, e.g. with
+     * {@link org.robolectric.Robolectric#getUiThreadScheduler()} or
+     * {@link org.robolectric.Robolectric#getBackgroundScheduler()}. An alarm's trigger time is taken relative to the
+     * clock of its type ({@code System.currentTimeMillis()} or {@code SystemClock.elapsedRealtime()}) when it's set,
+     * so an alarm set for an hour from now goes off once the scheduler has advanced by an hour. Alarms due in the
+     * past go off right away. Pass {@code null} to only record alarms again.
+     */
+    public void setScheduler(Scheduler scheduler) {
+        if (this.scheduler != null) {
+            this.scheduler.remove(fireDueAlarms);
+        }
+        this.scheduler = scheduler;
+        List<ScheduledAlarm> alarms = new ArrayList<ScheduledAlarm>(scheduledAlarms);
+        scheduledAlarms.clear();
+        for (ScheduledAlarm alarm : alarms) {
+            alarm.dueTime = dueTimeOf(alarm);
+            scheduledAlarms.add(alarm);
+        }
+        scheduleNextAlarm();
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return how many times alarms have gone off on the scheduler
+     */
+    public int getFiredAlarmCount() {
+        return firedAlarmCount;
+    }
+
+    /**
      * Non-Android accessor consumes and returns the next scheduled alarm on the
      * AlarmManager's stack.
      *
@@ -52,38 +121,121 @@ public class ShadowAlarmManager {
     public ScheduledAlarm getNextScheduledAlarm() {
         if (scheduledAlarms.isEmpty()) {
             return null;
-        } else {
-            return scheduledAlarms.remove(0);
         }
+        ScheduledAlarm alarm = scheduledAlarms.first();
+        remove(alarm);
+        scheduleNextAlarm();
+        return alarm;
     }
 
     /**
-     * Non-Android accessor returns the most recent scheduled alarm without
+     * Non-Android accessor returns the next scheduled alarm without
      * consuming it.
      *
-     * @return the most recently scheduled alarm, wrapped in a
+     * @return the next scheduled alarm, wrapped in a
      *         {@link ShadowAlarmManager.ScheduledAlarm} object
      */
     public ScheduledAlarm peekNextScheduledAlarm() {
-        if (scheduledAlarms.isEmpty()) {
-            return null;
-        } else {
-            return scheduledAlarms.get(0);
-        }
+        return scheduledAlarms.isEmpty() ? null : scheduledAlarms.first();
     }
 
+    /**
+     * Non-Android accessor.
+     *
+     * @return the scheduled alarms, the next one due first, as an unmodifiable snapshot
+     */
     public List<ScheduledAlarm> getScheduledAlarms() {
-        return scheduledAlarms;
+        return Collections.unmodifiableList(new ArrayList<ScheduledAlarm>(scheduledAlarms));
     }
 
     @Implementation
     public void cancel(PendingIntent pendingIntent) {
-        final Intent intentTypeToRemove = shadowOf(pendingIntent).getSavedIntent();
-        for (ScheduledAlarm scheduledAlarm : new ArrayList<ScheduledAlarm>(scheduledAlarms)) {
-            final Intent alarmIntent = shadowOf(scheduledAlarm.operation).getSavedIntent();
-            if (intentTypeToRemove.filterEquals(alarmIntent)) {
-                scheduledAlarms.remove(scheduledAlarm);
+        ScheduledAlarm alarm = alarmsByIntent.get(new IntentKey(shadowOf(pendingIntent).getSavedIntent()));
+        if (alarm != null) {
+            remove(alarm);
+            scheduleNextAlarm();
+        }
+    }
+
+    private void add(IntentKey key, ScheduledAlarm alarm) {
+        alarm.sequence = nextSequence++;
+        alarmsByIntent.put(key, alarm);
+        scheduledAlarms.add(alarm);
+    }
+
+    private void remove(ScheduledAlarm alarm) {
+        scheduledAlarms.remove(alarm);
+        if (alarm.key != null && alarmsByIntent.get(alarm.key) == alarm) {
+            alarmsByIntent.remove(alarm.key);
+        }
+    }
+
+    /**
+     * @return when the alarm is due: on the scheduler's clock if there is a scheduler, otherwise its trigger time
+     */
+    private long dueTimeOf(ScheduledAlarm alarm) {
+        if (scheduler == null) {
+            return alarm.triggerAtTime;
+        }
+        long now = alarm.type == AlarmManager.RTC || alarm.type == AlarmManager.RTC_WAKEUP
+                ? System.currentTimeMillis() : SystemClock.elapsedRealtime();
+        return scheduler.getCurrentTime() + Math.max(0, alarm.triggerAtTime - now);
+    }
+
+    private void scheduleNextAlarm() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.remove(fireDueAlarms);
+        if (!scheduledAlarms.isEmpty()) {
+            scheduler.postDelayed(fireDueAlarms, Math.max(0, scheduledAlarms.first().dueTime - scheduler.getCurrentTime()));
+        }
+    }
+
+    private void fireDueAlarms() {
+        long now = scheduler.getCurrentTime();
+        while (!scheduledAlarms.isEmpty() && scheduledAlarms.first().dueTime <= now) {
+            ScheduledAlarm alarm = scheduledAlarms.first();
+            if (alarm.interval > 0) {
+                scheduledAlarms.remove(alarm);
+                alarm.triggerAtTime += alarm.interval;
+                alarm.dueTime += alarm.interval;
+                scheduledAlarms.add(alarm);
+            } else {
+                remove(alarm);
             }
+            firedAlarmCount++;
+            try {
+                alarm.operation.send();
+            } catch (PendingIntent.CanceledException e) {
+                // Android drops alarms whose PendingIntent has been cancelled
+                cancel(alarm.operation);
+            }
+        }
+        scheduleNextAlarm();
+    }
+
+    /**
+     * An {@code Intent} compared by {@link Intent#filterEquals(Intent)}, as {@code AlarmManager} identifies alarms.
+     * Holds a copy, so changing the original after the alarm is set doesn't change the key.
+     */
+    private static class IntentKey {
+        private final Intent intent;
+        private final int hashCode;
+
+        IntentKey(Intent intent) {
+            this.intent = new Intent(intent);
+            this.hashCode = intent.filterHashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntentKey && intent.filterEquals(((IntentKey) o).intent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
         }
     }
 
@@ -96,6 +248,9 @@ public class ShadowAlarmManager {
         public long triggerAtTime;
         public long interval;
         public PendingIntent operation;
+        private long dueTime;
+        private long sequence;
+        private IntentKey key;
 
         public ScheduledAlarm(int type, long triggerAtTime, PendingIntent operation) {
             this(type, triggerAtTime, 0, operation);
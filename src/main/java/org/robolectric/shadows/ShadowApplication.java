@@ -1,5 +1,6 @@
 package org.robolectric.shadows;
 
+import android.app.Activity;
 import android.app.Application;
 import android.appwidget.AppWidgetManager;
 import android.content.BroadcastReceiver;
@@ -9,9 +10,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.PowerManager;
@@ -23,14 +27,22 @@ import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 import org.robolectric.internal.RealObject;
 import org.robolectric.res.ResourceLoader;
+import org.robolectric.tester.android.content.FileSharedPreferences;
+import org.robolectric.tester.android.content.TestSharedPreferences;
 import org.robolectric.tester.org.apache.http.FakeHttpLayer;
+import org.robolectric.util.BackgroundThreadPool;
 import org.robolectric.util.Scheduler;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.robolectric.Robolectric.newInstanceOf;
 import static org.robolectric.Robolectric.shadowOf;
@@ -41,6 +53,8 @@ import static org.robolectric.Robolectric.shadowOf;
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(Application.class)
 public class ShadowApplication extends ShadowContextWrapper {
+    public static final String FILE_SHARED_PREFERENCES_PROPERTY = "robolectric.fileSharedPreferences";
+
     private static final Map<String, String> SYSTEM_SERVICE_MAP = new HashMap<String, String>();
 
     static {
@@ -82,11 +96,17 @@ public class ShadowApplication extends ShadowContextWrapper {
     private List<Intent> broadcastIntents = new ArrayList<Intent>();
     private List<ServiceConnection> unboundServiceConnections = new ArrayList<ServiceConnection>();
     private List<Wrapper> registeredReceivers = new ArrayList<Wrapper>();
+    private Map<String, List<Wrapper>> receiversByAction = new HashMap<String, List<Wrapper>>();
+    private List<Wrapper> receiversWithUnindexedFilters = new ArrayList<Wrapper>();
+    private long receiverRegistrationCount;
     private Map<String, Intent> stickyIntents = new HashMap<String, Intent>();
     private FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
     private Looper mainLooper = ShadowLooper.myLooper();
     private Scheduler backgroundScheduler = new Scheduler();
+    private BackgroundThreadPool backgroundThreadPool;
     private Map<String, Map<String, Object>> sharedPreferenceMap = new HashMap<String, Map<String, Object>>();
+    private boolean fileSharedPreferences = Boolean.getBoolean(FILE_SHARED_PREFERENCES_PROPERTY);
+    private Map<String, FileSharedPreferences> fileSharedPreferencesByName = new HashMap<String, FileSharedPreferences>();
     private ArrayList<Toast> shownToasts = new ArrayList<Toast>();
     private PowerManager.WakeLock latestWakeLock;
     private ShadowAlertDialog latestAlertDialog;
@@ -132,6 +152,34 @@ public class ShadowApplication extends ShadowContextWrapper {
         return backgroundScheduler;
     }
 
+    /**
+     * Runs background work from {@code AsyncTask} and {@link org.robolectric.util.RobolectricBackgroundExecutorService}
+     * on the given pool of real threads instead of the background scheduler. Pass {@code null} to go back to the
+     * background scheduler.
+     *
+     * @param backgroundThreadPool the pool, or null
+     */
+    public void setBackgroundThreadPool(BackgroundThreadPool backgroundThreadPool) {
+        this.backgroundThreadPool = backgroundThreadPool;
+    }
+
+    public BackgroundThreadPool getBackgroundThreadPool() {
+        return backgroundThreadPool;
+    }
+
+    /**
+     * Hands a task to the background thread pool if one is set, or posts it to the background scheduler otherwise.
+     *
+     * @param runnable the background work
+     */
+    public void postBackgroundTask(Runnable runnable) {
+        if (backgroundThreadPool != null) {
+            backgroundThreadPool.execute(runnable);
+        } else {
+            backgroundScheduler.post(runnable);
+        }
+    }
+
     @Override
     @Implementation
     public Context getApplicationContext() {
@@ -350,12 +398,74 @@ public class ShadowApplication extends ShadowContextWrapper {
     @Implementation
     public void sendBroadcast(Intent intent) {
         broadcastIntents.add(intent);
-		
-        List<Wrapper> copy = new ArrayList<Wrapper>();
-        copy.addAll(registeredReceivers);
-        for (Wrapper wrapper : copy) {
-            if (wrapper.intentFilter.matchAction(intent.getAction())) {
-                wrapper.broadcastReceiver.onReceive(realApplication, intent);
+
+        for (Wrapper wrapper : findReceivers(intent.getAction())) {
+            wrapper.broadcastReceiver.onReceive(realApplication, intent);
+        }
+    }
+
+    @Override
+    @Implementation
+    public void sendOrderedBroadcast(Intent intent, String receiverPermission) {
+        sendOrderedBroadcast(intent, receiverPermission, null, null, Activity.RESULT_OK, null, null);
+    }
+
+    /**
+     * Delivers the {@code Intent} to the matching receivers one at a time, highest {@link IntentFilter#getPriority()}
+     * first and in registration order among equal priorities. Each receiver sees the result left by the one before
+     * it and may abort the broadcast; {@code resultReceiver} always gets the final result, through
+     * {@code scheduler} if one is given. Permissions aren't checked.
+     */
+    @Override
+    @Implementation
+    public void sendOrderedBroadcast(Intent intent, String receiverPermission, BroadcastReceiver resultReceiver,
+                                     Handler scheduler, int initialCode, String initialData, Bundle initialExtras) {
+        broadcastIntents.add(intent);
+
+        List<Wrapper> receivers = findReceivers(intent.getAction());
+        Collections.sort(receivers, new Comparator<Wrapper>() {
+            @Override public int compare(Wrapper a, Wrapper b) {
+                int priorityA = a.intentFilter.getPriority();
+                int priorityB = b.intentFilter.getPriority();
+                return priorityA > priorityB ? -1 : priorityA == priorityB ? 0 : 1;
+            }
+        });
+
+        int resultCode = initialCode;
+        String resultData = initialData;
+        Bundle resultExtras = initialExtras;
+        for (Wrapper wrapper : receivers) {
+            ShadowBroadcastReceiver shadowReceiver = shadowOf(wrapper.broadcastReceiver);
+            shadowReceiver.startOrderedBroadcast(resultCode, resultData, resultExtras);
+            wrapper.broadcastReceiver.onReceive(realApplication, intent);
+            resultCode = shadowReceiver.getResultCode();
+            resultData = shadowReceiver.getResultData();
+            resultExtras = shadowReceiver.getResultExtras(false);
+            boolean aborted = shadowReceiver.getAbortBroadcast();
+            shadowReceiver.finishOrderedBroadcast();
+            if (aborted) {
+                break;
+            }
+        }
+
+        if (resultReceiver != null) {
+            final BroadcastReceiver finalReceiver = resultReceiver;
+            final Intent finalIntent = intent;
+            final int finalCode = resultCode;
+            final String finalData = resultData;
+            final Bundle finalExtras = resultExtras;
+            Runnable deliverResult = new Runnable() {
+                @Override public void run() {
+                    ShadowBroadcastReceiver shadowReceiver = shadowOf(finalReceiver);
+                    shadowReceiver.startOrderedBroadcast(finalCode, finalData, finalExtras);
+                    finalReceiver.onReceive(realApplication, finalIntent);
+                    shadowReceiver.finishOrderedBroadcast();
+                }
+            };
+            if (scheduler != null) {
+                scheduler.post(deliverResult);
+            } else {
+                deliverResult.run();
             }
         }
     }
@@ -383,11 +493,63 @@ public class ShadowApplication extends ShadowContextWrapper {
 
     Intent registerReceiverWithContext(BroadcastReceiver receiver, IntentFilter filter, Context context) {
         if (receiver != null) {
-            registeredReceivers.add(new Wrapper(receiver, filter, context));
+            Wrapper wrapper = new Wrapper(receiver, filter, context);
+            wrapper.registration = receiverRegistrationCount++;
+            registeredReceivers.add(wrapper);
+            if (isIndexable(filter)) {
+                // a filter can list an action more than once, but the receiver should only get it once
+                wrapper.indexedActions = new LinkedHashSet<String>();
+                Iterator<String> actions = filter.actionsIterator();
+                while (actions.hasNext()) {
+                    wrapper.indexedActions.add(actions.next());
+                }
+                for (String action : wrapper.indexedActions) {
+                    List<Wrapper> receivers = receiversByAction.get(action);
+                    if (receivers == null) {
+                        receivers = new ArrayList<Wrapper>();
+                        receiversByAction.put(action, receivers);
+                    }
+                    receivers.add(wrapper);
+                }
+            } else {
+                receiversWithUnindexedFilters.add(wrapper);
+            }
         }
         return getStickyIntent(filter);
     }
 
+    /**
+     * Plain {@code IntentFilter}s are indexed by the actions they have when registered, which is what they match on.
+     * Subclasses might match differently, so they're checked one by one on each broadcast.
+     */
+    private static boolean isIndexable(IntentFilter filter) {
+        return filter != null && filter.getClass() == IntentFilter.class;
+    }
+
+    /**
+     * @return the receivers whose filters match {@code action}, in registration order
+     */
+    private List<Wrapper> findReceivers(String action) {
+        List<Wrapper> indexed = receiversByAction.get(action);
+        List<Wrapper> matches = new ArrayList<Wrapper>(indexed == null ? Collections.<Wrapper>emptyList() : indexed);
+        if (receiversWithUnindexedFilters.isEmpty()) {
+            return matches;
+        }
+
+        List<Wrapper> merged = new ArrayList<Wrapper>(matches.size());
+        int next = 0;
+        for (Wrapper wrapper : receiversWithUnindexedFilters) {
+            if (wrapper.intentFilter != null && wrapper.intentFilter.matchAction(action)) {
+                while (next < matches.size() && matches.get(next).registration < wrapper.registration) {
+                    merged.add(matches.get(next++));
+                }
+                merged.add(wrapper);
+            }
+        }
+        merged.addAll(matches.subList(next, matches.size()));
+        return merged;
+    }
+
     private Intent getStickyIntent(IntentFilter filter) {
         for (Intent stickyIntent : stickyIntents.values()) {
             String action = null;
@@ -411,6 +573,7 @@ public class ShadowApplication extends ShadowContextWrapper {
             Wrapper wrapper = iterator.next();
             if (wrapper.broadcastReceiver == broadcastReceiver) {
                 iterator.remove();
+                removeFromIndex(wrapper);
                 found = true;
             }
         }
@@ -419,6 +582,19 @@ public class ShadowApplication extends ShadowContextWrapper {
         }
     }
 
+    private void removeFromIndex(Wrapper wrapper) {
+        if (wrapper.indexedActions == null) {
+            receiversWithUnindexedFilters.remove(wrapper);
+            return;
+        }
+        for (String action : wrapper.indexedActions) {
+            List<Wrapper> receivers = receiversByAction.get(action);
+            if (receivers != null && receivers.remove(wrapper) && receivers.isEmpty()) {
+                receiversByAction.remove(action);
+            }
+        }
+    }
+
     /**
      * Iterates through all of the registered receivers on this {@code Application} and if any of them match the given
      * {@code Context} object throws a {@code RuntimeException}
@@ -440,37 +616,25 @@ public class ShadowApplication extends ShadowContextWrapper {
     }
 
     public void assertNoBroadcastListenersOfActionRegistered(Context context, String action) {
-        for (Wrapper registeredReceiver : registeredReceivers) {
+        for (Wrapper registeredReceiver : findReceivers(action)) {
             if (registeredReceiver.context == context) {
-                Iterator<String> actions = registeredReceiver.intentFilter.actionsIterator();
-                while (actions.hasNext()) {
-                    if (actions.next().equals(action)) {
-                        RuntimeException e = new IllegalStateException("Unexpected BroadcastReceiver on " + context +
-                                " with action " + action + " "
-                                + registeredReceiver.broadcastReceiver + " that was originally registered here:");
-                        e.setStackTrace(registeredReceiver.exception.getStackTrace());
-                        throw e;
-                    }
-                }
+                RuntimeException e = new IllegalStateException("Unexpected BroadcastReceiver on " + context +
+                        " with action " + action + " "
+                        + registeredReceiver.broadcastReceiver + " that was originally registered here:");
+                e.setStackTrace(registeredReceiver.exception.getStackTrace());
+                throw e;
             }
         }
     }
 
     public boolean hasReceiverForIntent(Intent intent) {
-        for (Wrapper wrapper : registeredReceivers) {
-            if (wrapper.intentFilter.matchAction(intent.getAction())) {
-                return true;
-            }
-        }
-        return false;
+        return receiversByAction.containsKey(intent.getAction()) || !findReceivers(intent.getAction()).isEmpty();
     }
 
     public List<BroadcastReceiver> getReceiversForIntent(Intent intent) {
         ArrayList<BroadcastReceiver> broadcastReceivers = new ArrayList<BroadcastReceiver>();
-        for (Wrapper wrapper : registeredReceivers) {
-            if (wrapper.intentFilter.matchAction(intent.getAction())) {
-                broadcastReceivers.add(wrapper.getBroadcastReceiver());
-            }
+        for (Wrapper wrapper : findReceivers(intent.getAction())) {
+            broadcastReceivers.add(wrapper.getBroadcastReceiver());
         }
         return broadcastReceivers;
     }
@@ -478,10 +642,11 @@ public class ShadowApplication extends ShadowContextWrapper {
     /**
      * Non-Android accessor.
      *
-     * @return list of {@link Wrapper}s for registered receivers
+     * @return list of {@link Wrapper}s for registered receivers, in registration order; register and unregister
+     *         receivers through the {@code Context} rather than changing it
      */
     public List<Wrapper> getRegisteredReceivers() {
-        return registeredReceivers;
+        return Collections.unmodifiableList(registeredReceivers);
     }
 
     /**
@@ -523,6 +688,40 @@ public class ShadowApplication extends ShadowContextWrapper {
         return sharedPreferenceMap;
     }
 
+    /**
+     * @return the preferences called {@code name}: a {@link FileSharedPreferences} kept in
+     *         {@link ShadowContext#SHARED_PREFS_DIR} if file shared preferences are on, otherwise a
+     *         {@link TestSharedPreferences} on {@link #getSharedPreferenceMap()}
+     */
+    SharedPreferences sharedPreferences(String name, int mode) {
+        if (!fileSharedPreferences) {
+            return new TestSharedPreferences(sharedPreferenceMap, name, mode);
+        }
+        synchronized (fileSharedPreferencesByName) {
+            FileSharedPreferences preferences = fileSharedPreferencesByName.get(name);
+            if (preferences == null) {
+                File file = new File(SHARED_PREFS_DIR, name + ".xml");
+                preferences = new FileSharedPreferences(file, mode, backgroundScheduler);
+                fileSharedPreferencesByName.put(name, preferences);
+            }
+            return preferences;
+        }
+    }
+
+    /**
+     * Makes {@code getSharedPreferences()} and {@code PreferenceManager.getDefaultSharedPreferences()} return
+     * {@link FileSharedPreferences}, which load and save XML files the way Android does. Files put in
+     * {@link ShadowContext#SHARED_PREFS_DIR} beforehand are loaded. Defaults to the
+     * {@value #FILE_SHARED_PREFERENCES_PROPERTY} system property.
+     */
+    public void setFileSharedPreferences(boolean fileSharedPreferences) {
+        this.fileSharedPreferences = fileSharedPreferences;
+    }
+
+    public boolean isFileSharedPreferences() {
+        return fileSharedPreferences;
+    }
+
     public ShadowAlertDialog getLatestAlertDialog() {
         return latestAlertDialog;
     }
@@ -593,6 +792,8 @@ public class ShadowApplication extends ShadowContextWrapper {
         public IntentFilter intentFilter;
         public Context context;
         public Throwable exception;
+        private long registration;
+        private Set<String> indexedActions;
 
         public Wrapper(BroadcastReceiver broadcastReceiver, IntentFilter intentFilter, Context context) {
             this.broadcastReceiver = broadcastReceiver;
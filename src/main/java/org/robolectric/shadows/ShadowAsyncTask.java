@@ -22,7 +22,7 @@ public class ShadowAsyncTask<Params, Progress, Result> {
     
     private final FutureTask<Result> future;
     private final BackgroundWorker worker;
-    private AsyncTask.Status status = AsyncTask.Status.PENDING;
+    private volatile AsyncTask.Status status = AsyncTask.Status.PENDING;
     
 	public ShadowAsyncTask() {
 		worker = new BackgroundWorker();
@@ -80,7 +80,7 @@ public class ShadowAsyncTask<Params, Progress, Result> {
 
         worker.params = params;
 
-        Robolectric.getBackgroundScheduler().post(new Runnable() {
+        Robolectric.getShadowApplication().postBackgroundTask(new Runnable() {
             @Override public void run() {
             	future.run();
             }
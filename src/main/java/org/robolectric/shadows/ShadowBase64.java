@@ -4,7 +4,12 @@ import android.util.Base64;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import static android.util.Base64.*;
 
@@ -21,11 +26,13 @@ public class ShadowBase64 {
     /* package */ static abstract class Coder {
 
         public byte[] output;
+        /** Where in {@link #output} the coded data of the next call to process() goes. */
+        public int outputOffset;
         public int op;
 
         /**
          * Encode/decode another block of input data.  this.output is provided by the caller, and must be big enough to hold all
-         * the coded data.  On exit, this.opwill be set to the length of the coded data.
+         * the coded data from this.outputOffset on.  On exit, this.opwill be set to the length of the coded data.
          *
          * @param finish true if this is the final call to process for this object.  Will finalize the coder state and include any
          * final bytes in the output.
@@ -58,7 +65,27 @@ public class ShadowBase64 {
      */
     @Implementation
     public static byte[] decode(String str, int flags) {
-        return decode(str.getBytes(), flags);
+        int len = str.length();
+        Decoder decoder = new Decoder(flags, new byte[len * 3 / 4]);
+        byte[] chunk = SCRATCH.get().input;
+        int written = 0;
+        int start = 0;
+        do {
+            int end = Math.min(len, start + chunk.length);
+            for (int i = start; i < end; i++) {
+                char c = str.charAt(i);
+                // nothing outside Latin-1 is in the alphabet, and neither is NUL, so both are skipped
+                chunk[i - start] = c > 0xff ? 0 : (byte) c;
+            }
+            decoder.outputOffset = written;
+            if (!decoder.process(chunk, 0, end - start, end == len)) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            written += decoder.op;
+            start = end;
+        } while (start < len);
+
+        return trim(decoder.output, written);
     }
 
     /**
@@ -100,15 +127,19 @@ public class ShadowBase64 {
             throw new IllegalArgumentException("bad base-64");
         }
 
+        return trim(decoder.output, decoder.op);
+    }
+
+    private static byte[] trim(byte[] output, int len) {
         // Maybe we got lucky and allocated exactly enough output space.
-        if (decoder.op == decoder.output.length) {
-            return decoder.output;
+        if (len == output.length) {
+            return output;
         }
 
         // Need to shorten the array, so allocate a new one of the
         // right size and copy.
-        byte[] temp = new byte[decoder.op];
-        System.arraycopy(decoder.output, 0, temp, 0, decoder.op);
+        byte[] temp = new byte[len];
+        System.arraycopy(output, 0, temp, 0, len);
         return temp;
     }
 
@@ -199,7 +230,7 @@ public class ShadowBase64 {
             // the member variable is final.)
             int state = this.state;
             int value = this.value;
-            int op = 0;
+            int op = outputOffset;
             final byte[] output = this.output;
             final int[] alphabet = this.alphabet;
 
@@ -328,7 +359,7 @@ public class ShadowBase64 {
                 // more.
                 this.state = state;
                 this.value = value;
-                this.op = op;
+                this.op = op - outputOffset;
                 return true;
             }
 
@@ -366,7 +397,7 @@ public class ShadowBase64 {
             }
 
             this.state = state;
-            this.op = op;
+            this.op = op - outputOffset;
             return true;
         }
     }
@@ -436,6 +467,18 @@ public class ShadowBase64 {
      */
     @Implementation
     public static byte[] encode(byte[] input, int offset, int len, int flags) {
+        Encoder encoder = new Encoder(flags, new byte[encodedLength(len, flags)]);
+        encoder.process(input, offset, len, true);
+
+        assert encoder.op == encoder.output.length;
+
+        return encoder.output;
+    }
+
+    /**
+     * @return the exact number of bytes {@code len} bytes of input encode to with the given flags
+     */
+    public static int encodedLength(int len, int flags) {
         Encoder encoder = new Encoder(flags, null);
 
         // Compute the exact length of the array we will produce.
@@ -466,12 +509,185 @@ public class ShadowBase64 {
                           (encoder.do_cr ? 2 : 1);
         }
 
-        encoder.output = new byte[output_len];
+        return output_len;
+    }
+
+    /**
+     * @return the most bytes {@code len} bytes of Base64 could decode to
+     */
+    public static int maxDecodedLength(int len) {
+        return len * 3 / 4;
+    }
+
+    //  --------------------------------------------------------
+    //  caller-provided buffers and streams
+    //  --------------------------------------------------------
+
+    private static final int STREAM_CHUNK = 3 * 1024 * 4; // a multiple of 3 and 4, so only the last chunk has a tail
+
+    private static class Scratch {
+        final byte[] input = new byte[STREAM_CHUNK];
+        final byte[] output = new byte[STREAM_CHUNK * 2];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Base64-encode into a caller-provided array.
+     *
+     * @return the number of bytes written, which is {@link #encodedLength(int, int)}
+     * @throws ArrayIndexOutOfBoundsException if there's less than that much room in output
+     */
+    public static int encode(byte[] input, int offset, int len, byte[] output, int outputOffset, int flags) {
+        if (output.length - outputOffset < encodedLength(len, flags)) {
+            throw new ArrayIndexOutOfBoundsException("output needs " + encodedLength(len, flags) + " bytes");
+        }
+        Encoder encoder = new Encoder(flags, output);
+        encoder.outputOffset = outputOffset;
         encoder.process(input, offset, len, true);
+        return encoder.op;
+    }
 
-        assert encoder.op == output_len;
+    /**
+     * Decode Base64 into a caller-provided array.
+     *
+     * @return the number of bytes written
+     * @throws ArrayIndexOutOfBoundsException if there's less than {@link #maxDecodedLength(int)} room in output
+     * @throws IllegalArgumentException if the input contains incorrect padding
+     */
+    public static int decode(byte[] input, int offset, int len, byte[] output, int outputOffset, int flags) {
+        if (output.length - outputOffset < maxDecodedLength(len)) {
+            throw new ArrayIndexOutOfBoundsException("output needs " + maxDecodedLength(len) + " bytes");
+        }
+        Decoder decoder = new Decoder(flags, output);
+        decoder.outputOffset = outputOffset;
+        if (!decoder.process(input, offset, len, true)) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+        return decoder.op;
+    }
 
-        return encoder.output;
+    /**
+     * Base64-encode the input buffer's remaining bytes into the output buffer, advancing both.
+     *
+     * @return the number of bytes written
+     * @throws BufferOverflowException if output has less than {@link #encodedLength(int, int)} bytes remaining
+     */
+    public static int encode(ByteBuffer input, ByteBuffer output, int flags) {
+        int len = input.remaining();
+        int outputLen = encodedLength(len, flags);
+        if (output.remaining() < outputLen) {
+            throw new BufferOverflowException();
+        }
+        if (input.hasArray() && output.hasArray() && !output.isReadOnly()) {
+            encode(input.array(), input.arrayOffset() + input.position(), len,
+                    output.array(), output.arrayOffset() + output.position(), flags);
+            input.position(input.limit());
+            output.position(output.position() + outputLen);
+            return outputLen;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        Encoder encoder = new Encoder(flags, scratch.output);
+        do {
+            int chunkLen = Math.min(input.remaining(), STREAM_CHUNK);
+            input.get(scratch.input, 0, chunkLen);
+            encoder.process(scratch.input, 0, chunkLen, !input.hasRemaining());
+            output.put(scratch.output, 0, encoder.op);
+        } while (input.hasRemaining());
+        return outputLen;
+    }
+
+    /**
+     * Decode the input buffer's remaining Base64 into the output buffer, advancing both.
+     *
+     * @return the number of bytes written
+     * @throws BufferOverflowException if output has less than {@link #maxDecodedLength(int)} bytes remaining
+     * @throws IllegalArgumentException if the input contains incorrect padding
+     */
+    public static int decode(ByteBuffer input, ByteBuffer output, int flags) {
+        int len = input.remaining();
+        if (output.remaining() < maxDecodedLength(len)) {
+            throw new BufferOverflowException();
+        }
+        if (input.hasArray() && output.hasArray() && !output.isReadOnly()) {
+            int written = decode(input.array(), input.arrayOffset() + input.position(), len,
+                    output.array(), output.arrayOffset() + output.position(), flags);
+            input.position(input.limit());
+            output.position(output.position() + written);
+            return written;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        Decoder decoder = new Decoder(flags, scratch.output);
+        int written = 0;
+        do {
+            int chunkLen = Math.min(input.remaining(), STREAM_CHUNK);
+            input.get(scratch.input, 0, chunkLen);
+            if (!decoder.process(scratch.input, 0, chunkLen, !input.hasRemaining())) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            output.put(scratch.output, 0, decoder.op);
+            written += decoder.op;
+        } while (input.hasRemaining());
+        return written;
+    }
+
+    /**
+     * Base64-encode everything read from in and write it to out, a chunk at a time. Neither stream is closed.
+     *
+     * @return the number of bytes written
+     */
+    public static long encode(InputStream in, OutputStream out, int flags) throws IOException {
+        byte[] input = new byte[STREAM_CHUNK];
+        Encoder encoder = new Encoder(flags, new byte[STREAM_CHUNK * 2]);
+        long written = 0;
+        int len;
+        while ((len = readFully(in, input)) > 0) {
+            boolean finish = len < input.length;
+            encoder.process(input, 0, len, finish);
+            out.write(encoder.output, 0, encoder.op);
+            written += encoder.op;
+            if (finish) return written;
+        }
+        encoder.process(input, 0, 0, true);
+        out.write(encoder.output, 0, encoder.op);
+        return written + encoder.op;
+    }
+
+    /**
+     * Decode Base64 read from in and write it to out, a chunk at a time. Neither stream is closed.
+     *
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the input contains incorrect padding
+     */
+    public static long decode(InputStream in, OutputStream out, int flags) throws IOException {
+        byte[] input = new byte[STREAM_CHUNK];
+        Decoder decoder = new Decoder(flags, new byte[STREAM_CHUNK]);
+        long written = 0;
+        int len;
+        do {
+            len = readFully(in, input);
+            if (!decoder.process(input, 0, len, len < input.length)) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            out.write(decoder.output, 0, decoder.op);
+            written += decoder.op;
+        } while (len == input.length);
+        return written;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int len = 0;
+        int read;
+        while (len < buffer.length && (read = in.read(buffer, len, buffer.length - len)) != -1) {
+            len += read;
+        }
+        return len;
     }
 
     /* package */ static class Encoder extends Coder {
@@ -530,7 +746,7 @@ public class ShadowBase64 {
             // Using local variables makes the encoder about 9% faster.
             final byte[] alphabet = this.alphabet;
             final byte[] output = this.output;
-            int op = 0;
+            int op = outputOffset;
             int count = this.count;
 
             int p = offset;
@@ -660,7 +876,7 @@ public class ShadowBase64 {
                 }
             }
 
-            this.op = op;
+            this.op = op - outputOffset;
             this.count = count;
 
             return true;
@@ -1,19 +1,47 @@
 package org.robolectric.shadows;
 
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import org.robolectric.Robolectric;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 import org.robolectric.internal.RealObject;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
 
 import static org.robolectric.Robolectric.shadowOf;
 
+/**
+ * Shadow of {@code Bitmap}. By default bitmaps only have a size and a description of how they were made and drawn.
+ * <p/>
+ * In pixel rendering mode (see {@link #setPixelRenderingEnabled(boolean)}) bitmaps created while it's on are also
+ * backed by real ARGB pixels, kept outside the Java heap. {@link ShadowCanvas} draws into them, and
+ * {@code getPixel()}, {@code copyPixelsToBuffer()}, {@code compress()} etc. work on the actual pixel data.
+ */
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(Bitmap.class)
 public class ShadowBitmap {
+    public static final String PIXEL_RENDERING_PROPERTY = "robolectric.pixelRendering";
+
+    private static boolean pixelRenderingEnabled = Boolean.getBoolean(PIXEL_RENDERING_PROPERTY);
+
     @RealObject private Bitmap realBitmap;
 
     private int width;
@@ -23,9 +51,29 @@ public class ShadowBitmap {
     private String description = "";
     private int loadedFromResourceId = -1;
     private boolean recycled = false;
+    private PixelBuffer pixels;
+
+    /**
+     * Non-Android accessor.  Turns pixel rendering mode on or off for bitmaps created from now on. Defaults to the
+     * value of the {@code robolectric.pixelRendering} system property before each test.
+     */
+    public static void setPixelRenderingEnabled(boolean enabled) {
+        pixelRenderingEnabled = enabled;
+    }
+
+    public static boolean isPixelRenderingEnabled() {
+        return pixelRenderingEnabled;
+    }
+
+    public static void reset() {
+        pixelRenderingEnabled = Boolean.getBoolean(PIXEL_RENDERING_PROPERTY);
+    }
 
     @Implementation
     public boolean compress(Bitmap.CompressFormat format, int quality, OutputStream stream) {
+        if (pixels != null) {
+            return compressPixels(format, quality, stream);
+        }
         try {
             stream.write((description + " compressed as " + format + " with quality " + quality).getBytes());
         } catch (IOException e) {
@@ -43,9 +91,64 @@ public class ShadowBitmap {
         shadowBitmap.setWidth(width);
         shadowBitmap.setHeight(height);
         shadowBitmap.setConfig(config);
+        shadowBitmap.setMutable(true);
+        shadowBitmap.allocatePixelsIfRendering();
         return scaledBitmap;
     }
 
+    @Implementation
+    public static Bitmap createBitmap(int[] colors, int width, int height, Bitmap.Config config) {
+        return createBitmap(colors, 0, width, width, height, config);
+    }
+
+    @Implementation
+    public static Bitmap createBitmap(int[] colors, int offset, int stride, int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = createBitmap(width, height, config);
+        ShadowBitmap shadowBitmap = shadowOf(bitmap);
+        shadowBitmap.appendDescription(" from colors");
+        if (shadowBitmap.pixels != null) {
+            shadowBitmap.writePixels(colors, offset, stride, 0, 0, width, height);
+        }
+        shadowBitmap.setMutable(false);
+        return bitmap;
+    }
+
+    @Implementation
+    public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height) {
+        return createBitmap(source, x, y, width, height, null, false);
+    }
+
+    @Implementation
+    public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height, Matrix matrix, boolean filter) {
+        ShadowBitmap shadowSource = shadowOf(source);
+        AffineTransform transform = matrix == null ? new AffineTransform() : shadowOf(matrix).toAffineTransform();
+        // like Android, size the result by the rounded bounds of the transformed source rectangle
+        Rectangle2D deviceBounds = transform.createTransformedShape(new Rectangle(0, 0, width, height)).getBounds2D();
+        int newWidth = (int) Math.round(deviceBounds.getWidth());
+        int newHeight = (int) Math.round(deviceBounds.getHeight());
+
+        Bitmap bitmap = Robolectric.newInstanceOf(Bitmap.class);
+        ShadowBitmap shadowBitmap = shadowOf(bitmap);
+        shadowBitmap.appendDescription(shadowSource.getDescription());
+        shadowBitmap.appendDescription(" at (" + x + "," + y + ") with width " + width + " and height " + height);
+        if (matrix != null) {
+            shadowBitmap.appendDescription(" transformed by matrix");
+        }
+        shadowBitmap.setWidth(newWidth);
+        shadowBitmap.setHeight(newHeight);
+        shadowBitmap.setConfig(shadowSource.config);
+        shadowBitmap.allocatePixelsIfRendering();
+        if (shadowBitmap.pixels != null && shadowSource.pixels != null) {
+            AffineTransform srcToDevice = new AffineTransform();
+            srcToDevice.translate(-deviceBounds.getX(), -deviceBounds.getY());
+            srcToDevice.concatenate(transform);
+            srcToDevice.translate(-x, -y);
+            Rasterizer.drawBitmap(shadowBitmap.pixels, shadowSource.pixels, new Rectangle(x, y, width, height),
+                    srcToDevice, new Rectangle(0, 0, newWidth, newHeight), 0xFF);
+        }
+        return bitmap;
+    }
+
     @Implementation
     public static Bitmap createBitmap(Bitmap bitmap) {
         ShadowBitmap shadowBitmap = shadowOf(bitmap);
@@ -64,12 +167,22 @@ public class ShadowBitmap {
         }
         shadowBitmap.setWidth(dstWidth);
         shadowBitmap.setHeight(dstHeight);
+        shadowBitmap.setConfig(shadowOf(src).config);
+        shadowBitmap.allocatePixelsIfRendering();
+        PixelBuffer srcPixels = shadowOf(src).pixels;
+        if (shadowBitmap.pixels != null && srcPixels != null) {
+            AffineTransform srcToDevice = AffineTransform.getScaleInstance(
+                    (double) dstWidth / srcPixels.width, (double) dstHeight / srcPixels.height);
+            Rasterizer.drawBitmap(shadowBitmap.pixels, srcPixels, new Rectangle(0, 0, srcPixels.width, srcPixels.height),
+                    srcToDevice, new Rectangle(0, 0, dstWidth, dstHeight), 0xFF);
+        }
         return scaledBitmap;
     }
 
     @Implementation
     public void recycle() {
         recycled = true;
+        pixels = null;
     }
 
     @Implementation
@@ -79,6 +192,18 @@ public class ShadowBitmap {
 
     @Implementation
     public Bitmap copy(Bitmap.Config config, boolean isMutable) {
+        if (pixels != null) {
+            Bitmap copy = Robolectric.newInstanceOf(Bitmap.class);
+            ShadowBitmap shadowCopy = shadowOf(copy);
+            shadowCopy.setDescription(description);
+            shadowCopy.setWidth(width);
+            shadowCopy.setHeight(height);
+            shadowCopy.setConfig(config);
+            shadowCopy.setMutable(isMutable);
+            shadowCopy.pixels = pixels.copy(config);
+            return copy;
+        }
+
         ShadowBitmap shadowBitmap = shadowOf(realBitmap);
         shadowBitmap.setConfig(config);
         shadowBitmap.setMutable(isMutable);
@@ -184,4 +309,336 @@ public class ShadowBitmap {
     public Bitmap getRealBitmap() {
         return realBitmap;
     }
+
+    @Implementation
+    public final int getRowBytes() {
+        return width * PixelBuffer.bytesPerPixel(config);
+    }
+
+    @Implementation
+    public final int getByteCount() {
+        return getRowBytes() * height;
+    }
+
+    @Implementation
+    public final boolean hasAlpha() {
+        return config != Bitmap.Config.RGB_565;
+    }
+
+    @Implementation
+    public int getPixel(int x, int y) {
+        checkRecycled("Can't call getPixel() on a recycled bitmap");
+        checkPixelAccess(x, y);
+        return pixels == null ? 0 : pixels.get(x, y);
+    }
+
+    @Implementation
+    public void setPixel(int x, int y, int color) {
+        checkRecycled("Can't call setPixel() on a recycled bitmap");
+        checkMutable();
+        checkPixelAccess(x, y);
+        if (pixels != null) {
+            pixels.set(x, y, color);
+        }
+    }
+
+    @Implementation
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        checkRecycled("Can't call getPixels() on a recycled bitmap");
+        checkPixelsAccess(x, y, width, height, offset, stride, pixels);
+        for (int row = 0; row < height; row++) {
+            int rowOffset = offset + row * stride;
+            for (int column = 0; column < width; column++) {
+                pixels[rowOffset + column] = this.pixels == null ? 0 : this.pixels.get(x + column, y + row);
+            }
+        }
+    }
+
+    @Implementation
+    public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        checkRecycled("Can't call setPixels() on a recycled bitmap");
+        checkMutable();
+        checkPixelsAccess(x, y, width, height, offset, stride, pixels);
+        if (this.pixels != null) {
+            writePixels(pixels, offset, stride, x, y, width, height);
+        }
+    }
+
+    @Implementation
+    public void eraseColor(int color) {
+        checkRecycled("Can't erase a recycled bitmap");
+        checkMutable();
+        if (pixels != null) {
+            pixels.fill(color);
+        }
+    }
+
+    /**
+     * Copies the pixels out in the bitmap's own format, as Android does: premultiplied RGBA bytes for
+     * {@code ARGB_8888}, little-endian 16 bit values for {@code RGB_565} and {@code ARGB_4444}, alpha bytes for
+     * {@code ALPHA_8}. Pixels are written straight into {@code dst}, one at a time.
+     */
+    @Implementation
+    public void copyPixelsToBuffer(Buffer dst) {
+        checkRecycled("Can't copy a recycled bitmap");
+        if (!(dst instanceof ByteBuffer || dst instanceof ShortBuffer || dst instanceof IntBuffer)) {
+            throw new RuntimeException("unsupported Buffer subclass");
+        }
+        if (dst.remaining() * elementSize(dst) < getByteCount()) {
+            throw new RuntimeException("Buffer not large enough for pixels");
+        }
+
+        // pixels go into dst directly if it takes bytes, otherwise through a few bytes packed into its elements
+        ByteBuffer bytes = dst instanceof ByteBuffer ? (ByteBuffer) dst : ByteBuffer.allocate(8).order(order(dst));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                putPixel(bytes, pixels == null ? 0 : pixels.get(x, y));
+                if (bytes != dst) {
+                    flushElements(bytes, dst, false);
+                }
+            }
+        }
+        if (bytes != dst) {
+            flushElements(bytes, dst, true);
+        }
+    }
+
+    @Implementation
+    public void copyPixelsFromBuffer(Buffer src) {
+        checkRecycled("copyPixelsFromBuffer called on recycled bitmap");
+        if (!(src instanceof ByteBuffer || src instanceof ShortBuffer || src instanceof IntBuffer)) {
+            throw new RuntimeException("unsupported Buffer subclass");
+        }
+        int byteCount = getByteCount();
+        if (src.remaining() * elementSize(src) < byteCount) {
+            throw new RuntimeException("Buffer not large enough for pixels");
+        }
+        if (pixels == null) {
+            src.position(src.position() + byteCount / elementSize(src));
+            return;
+        }
+
+        // pixels come from src directly if it holds bytes, otherwise from its elements unpacked a few bytes at a time
+        ByteBuffer bytes = src instanceof ByteBuffer ? (ByteBuffer) src : ByteBuffer.allocate(8).order(order(src));
+        if (bytes != src) {
+            bytes.flip();
+        }
+        int bytesPerPixel = PixelBuffer.bytesPerPixel(config);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (bytes != src) {
+                    fillElements(bytes, src, bytesPerPixel);
+                }
+                pixels.set(x, y, getPixel(bytes));
+            }
+        }
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return whether this bitmap is backed by pixels, i.e. it was created in pixel rendering mode
+     */
+    public boolean hasPixels() {
+        return pixels != null;
+    }
+
+    PixelBuffer getPixelBuffer() {
+        return pixels;
+    }
+
+    void setPixelBuffer(PixelBuffer pixels) {
+        this.pixels = pixels;
+    }
+
+    private void allocatePixelsIfRendering() {
+        if (pixelRenderingEnabled && width > 0 && height > 0) {
+            pixels = new PixelBuffer(width, height, config);
+        }
+    }
+
+    private void writePixels(int[] colors, int offset, int stride, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            int rowOffset = offset + row * stride;
+            for (int column = 0; column < width; column++) {
+                pixels.set(x + column, y + row, colors[rowOffset + column]);
+            }
+        }
+    }
+
+    private void putPixel(ByteBuffer bytes, int argb) {
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        if (config == Bitmap.Config.ALPHA_8) {
+            bytes.put((byte) a);
+        } else if (config == Bitmap.Config.RGB_565) {
+            putShort(bytes, (r >> 3) << 11 | (g >> 2) << 5 | (b >> 3));
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            putShort(bytes, (premultiply(r, a) >> 4) << 12 | (premultiply(g, a) >> 4) << 8
+                    | (premultiply(b, a) >> 4) << 4 | (a >> 4));
+        } else {
+            bytes.put((byte) premultiply(r, a)).put((byte) premultiply(g, a)).put((byte) premultiply(b, a))
+                    .put((byte) a);
+        }
+    }
+
+    private int getPixel(ByteBuffer bytes) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return (bytes.get() & 0xFF) << 24;
+        } else if (config == Bitmap.Config.RGB_565) {
+            int value = getShort(bytes);
+            int r = (value >> 11) & 0x1F, g = (value >> 5) & 0x3F, b = value & 0x1F;
+            return 0xFF000000 | (r << 19 | r << 14) & 0xFF0000 | (g << 10 | g << 4) & 0xFF00 | (b << 3 | b >> 2);
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            int value = getShort(bytes);
+            int a = (value & 0xF) * 0x11;
+            return a << 24 | unpremultiply(((value >> 12) & 0xF) * 0x11, a) << 16
+                    | unpremultiply(((value >> 8) & 0xF) * 0x11, a) << 8 | unpremultiply(((value >> 4) & 0xF) * 0x11, a);
+        }
+        int r = bytes.get() & 0xFF, g = bytes.get() & 0xFF, b = bytes.get() & 0xFF, a = bytes.get() & 0xFF;
+        return a << 24 | unpremultiply(r, a) << 16 | unpremultiply(g, a) << 8 | unpremultiply(b, a);
+    }
+
+    private static void putShort(ByteBuffer bytes, int value) {
+        bytes.put((byte) value).put((byte) (value >> 8));
+    }
+
+    private static int getShort(ByteBuffer bytes) {
+        return (bytes.get() & 0xFF) | (bytes.get() & 0xFF) << 8;
+    }
+
+    private static int premultiply(int component, int alpha) {
+        return (component * alpha + 127) / 255;
+    }
+
+    private static int unpremultiply(int component, int alpha) {
+        return alpha == 0 ? 0 : Math.min(0xFF, (component * 255 + alpha / 2) / alpha);
+    }
+
+    /**
+     * Moves whole elements' worth of bytes, or with {@code padLast} the rest padded with zeros, into a short or int
+     * buffer.
+     */
+    private static void flushElements(ByteBuffer bytes, Buffer dst, boolean padLast) {
+        int elementSize = elementSize(dst);
+        if (padLast && bytes.position() % elementSize != 0) {
+            while (bytes.position() % elementSize != 0) {
+                bytes.put((byte) 0);
+            }
+        }
+        bytes.flip();
+        while (bytes.remaining() >= elementSize) {
+            if (dst instanceof ShortBuffer) {
+                ((ShortBuffer) dst).put(bytes.getShort());
+            } else {
+                ((IntBuffer) dst).put(bytes.getInt());
+            }
+        }
+        bytes.compact();
+    }
+
+    /**
+     * Unpacks elements of a short or int buffer until at least {@code count} bytes are ready to read.
+     */
+    private static void fillElements(ByteBuffer bytes, Buffer src, int count) {
+        if (bytes.remaining() >= count) {
+            return;
+        }
+        bytes.compact();
+        while (bytes.position() < count) {
+            if (src instanceof ShortBuffer) {
+                bytes.putShort(((ShortBuffer) src).get());
+            } else {
+                bytes.putInt(((IntBuffer) src).get());
+            }
+        }
+        bytes.flip();
+    }
+
+    private static ByteOrder order(Buffer buffer) {
+        return buffer instanceof ShortBuffer ? ((ShortBuffer) buffer).order() : ((IntBuffer) buffer).order();
+    }
+
+    private static int elementSize(Buffer buffer) {
+        if (buffer instanceof ShortBuffer) return 2;
+        if (buffer instanceof IntBuffer) return 4;
+        return 1;
+    }
+
+    private boolean compressPixels(Bitmap.CompressFormat format, int quality, OutputStream stream) {
+        // ImageIO can't write WEBP, so those come out as PNG
+        boolean jpeg = format == Bitmap.CompressFormat.JPEG;
+        BufferedImage image = new BufferedImage(width, height, jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, pixels.get(x, y));
+            }
+        }
+
+        try {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(jpeg ? "jpeg" : "png");
+            if (!writers.hasNext()) {
+                return false;
+            }
+            ImageWriter writer = writers.next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (jpeg) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.max(0, Math.min(100, quality)) / 100f);
+            }
+            ImageOutputStream imageStream = new MemoryCacheImageOutputStream(stream);
+            try {
+                writer.setOutput(imageStream);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+                imageStream.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkRecycled(String message) {
+        if (recycled) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private void checkMutable() {
+        if (pixels != null && !mutable) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private void checkPixelAccess(int x, int y) {
+        if (pixels == null) {
+            return;
+        }
+        if (x < 0 || x >= width) {
+            throw new IllegalArgumentException("x must be >= 0 and < bitmap.width()");
+        }
+        if (y < 0 || y >= height) {
+            throw new IllegalArgumentException("y must be >= 0 and < bitmap.height()");
+        }
+    }
+
+    private void checkPixelsAccess(int x, int y, int width, int height, int offset, int stride, int[] pixels) {
+        if (this.pixels == null) {
+            return;
+        }
+        if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height) {
+            throw new IllegalArgumentException("x, y, width and height must be within the bitmap");
+        }
+        if (Math.abs(stride) < width) {
+            throw new IllegalArgumentException("abs(stride) must be >= width");
+        }
+        int lastScanline = offset + (height - 1) * stride;
+        if (offset < 0 || offset + width > pixels.length || lastScanline < 0 || lastScanline + width > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+    }
 }
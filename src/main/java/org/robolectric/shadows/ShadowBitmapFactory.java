@@ -7,14 +7,31 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.net.Uri;
 import org.robolectric.Robolectric;
+import org.robolectric.AndroidManifest;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
+import org.robolectric.res.ResName;
+import org.robolectric.res.ResourcePath;
 import org.robolectric.util.Join;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.CRC32;
@@ -22,14 +39,82 @@ import java.util.zip.Checksum;
 
 import static org.robolectric.Robolectric.shadowOf;
 
+/**
+ * Shadow of {@code BitmapFactory}. By default decoded bitmaps are placeholders described by where they came from, 100
+ * pixels square unless {@link #provideWidthAndHeightHints(String, int, int) hints} say otherwise.
+ * <p/>
+ * {@link #setDecodeMode(DecodeMode)} makes it read the actual image data instead (PNG, JPEG, GIF and BMP; whatever
+ * {@code javax.imageio} reads): {@link DecodeMode#READ_BOUNDS} takes just the dimensions from the image header, and
+ * {@link DecodeMode#DECODE_PIXELS} decodes the image into the bitmap's pixels, as in
+ * {@link ShadowBitmap#setPixelRenderingEnabled(boolean) pixel rendering mode}. Resources are found in the app's
+ * {@code drawable} directories; decoded resources are kept in an LRU cache, which keeps its contents from test to test
+ * but not its hit count or size limit. Data that can't be read as an image still gives a placeholder.
+ */
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(BitmapFactory.class)
 public class ShadowBitmapFactory {
+    public enum DecodeMode {
+        /** Placeholder bitmaps, sized from hints. */
+        DESCRIBE,
+        /** Bitmaps sized from the image header, without pixels. */
+        READ_BOUNDS,
+        /** Bitmaps sized from the image and backed by its decoded pixels. */
+        DECODE_PIXELS
+    }
+
+    public static final long DEFAULT_DECODED_RESOURCE_CACHE_BYTES = 32 * 1024 * 1024;
+
+    private static final String[] IMAGE_EXTENSIONS = {".png", ".9.png", ".jpg", ".jpeg", ".gif", ".bmp", ".webp"};
+
     private static Map<String, Point> widthAndHeightMap = new HashMap<String, Point>();
+    private static DecodeMode decodeMode = DecodeMode.DESCRIBE;
+    private static final Map<String, File> resourceFiles = new HashMap<String, File>();
+    private static final DecodedResourceCache decodedResources = new DecodedResourceCache(DEFAULT_DECODED_RESOURCE_CACHE_BYTES);
+
+    /**
+     * Non-Android accessor.  Sets how bitmaps are decoded until the end of the test.
+     */
+    public static void setDecodeMode(DecodeMode decodeMode) {
+        ShadowBitmapFactory.decodeMode = decodeMode;
+    }
+
+    public static DecodeMode getDecodeMode() {
+        return decodeMode;
+    }
+
+    /**
+     * Non-Android accessor.  Sets how many bytes of decoded pixels the resource cache may hold until the end of the
+     * test.
+     */
+    public static void setDecodedResourceCacheSize(long maxBytes) {
+        decodedResources.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return how many resource decodes were served from the cache in this test, or since it was last cleared
+     */
+    public static int getDecodedResourceCacheHitCount() {
+        return decodedResources.getHitCount();
+    }
+
+    public static void clearDecodedResourceCache() {
+        decodedResources.clear();
+    }
 
     @Implementation
     public static Bitmap decodeResource(Resources res, int id, BitmapFactory.Options options) {
-        Bitmap bitmap = create("resource:" + getResourceName(id), options);
+        String name = "resource:" + getResourceName(id);
+        Bitmap bitmap;
+        if (decodeMode == DecodeMode.DESCRIBE) {
+            bitmap = create(name, options);
+        } else {
+            bitmap = decodeResource(name, id, options);
+            if (bitmap == null) {
+                return null;
+            }
+        }
         shadowOf(bitmap).setLoadedFromResourceId(id);
         return bitmap;
     }
@@ -45,12 +130,21 @@ public class ShadowBitmapFactory {
 
     @Implementation
     public static Bitmap decodeFile(String pathName) {
-        return create("file:" + pathName);
+        return decodeFile(pathName, null);
     }
 
     @Implementation
     public static Bitmap decodeFile(String pathName, BitmapFactory.Options options) {
-        return create("file:" + pathName, options);
+        String name = "file:" + pathName;
+        File file = new File(pathName);
+        if (decodeMode == DecodeMode.DESCRIBE || !file.isFile()) {
+            return create(name, options);
+        }
+        try {
+            return decode(name, new FileImageInputStream(file), options);
+        } catch (IOException e) {
+            return create(name, options);
+        }
     }
 
     @Implementation
@@ -60,7 +154,15 @@ public class ShadowBitmapFactory {
 
     @Implementation
     public static Bitmap decodeStream(InputStream is, Rect outPadding, BitmapFactory.Options opts) {
-        return create(is.toString().replaceFirst("stream for ", ""), opts);
+        String name = is.toString().replaceFirst("stream for ", "");
+        if (decodeMode == DecodeMode.DESCRIBE) {
+            return create(name, opts);
+        }
+        byte[] data = readFully(is);
+        if (data == null) {
+            return create(name, opts);
+        }
+        return decode(name, new MemoryCacheImageInputStream(new ByteArrayInputStream(data)), opts);
     }
 
     @Implementation
@@ -81,7 +183,10 @@ public class ShadowBitmapFactory {
         if (offset != 0 || length != data.length) {
             desc += " bytes " + offset + ".." + length;
         }
-        return create(desc, opts);
+        if (decodeMode == DecodeMode.DESCRIBE) {
+            return create(desc, opts);
+        }
+        return decode(desc, new MemoryCacheImageInputStream(new ByteArrayInputStream(data, offset, length)), opts);
     }
     
     static Bitmap create(String name) {
@@ -148,5 +253,316 @@ public class ShadowBitmapFactory {
 
     public static void reset() {
         widthAndHeightMap.clear();
+        decodeMode = DecodeMode.DESCRIBE;
+        resourceFiles.clear();
+        // decoded pixels outlive the test so later tests can reuse them, but the counters and limit don't
+        decodedResources.reset(DEFAULT_DECODED_RESOURCE_CACHE_BYTES);
+    }
+
+    private static Bitmap decodeResource(String name, int id, BitmapFactory.Options options) {
+        File file = findResourceFile(id);
+        if (file == null) {
+            return create(name, options);
+        }
+
+        BitmapFactory.Options opts = options == null ? new BitmapFactory.Options() : options;
+        boolean boundsOnly = decodeMode == DecodeMode.READ_BOUNDS || opts.inJustDecodeBounds;
+        DecodeKey key = new DecodeKey(id, file.getPath(), sampleSizeOf(opts), opts.inPreferredConfig, boundsOnly);
+        Decoded decoded = decodedResources.get(key);
+        if (decoded == null) {
+            try {
+                decoded = decode(new FileImageInputStream(file), opts, boundsOnly);
+            } catch (IOException e) {
+                decoded = null;
+            }
+            if (decoded == null) {
+                return create(name, options);
+            }
+            decodedResources.put(key, decoded);
+        }
+        return toBitmap(name, decoded, options);
+    }
+
+    private static Bitmap decode(String name, ImageInputStream input, BitmapFactory.Options options) {
+        BitmapFactory.Options opts = options == null ? new BitmapFactory.Options() : options;
+        boolean boundsOnly = decodeMode == DecodeMode.READ_BOUNDS || opts.inJustDecodeBounds;
+        Decoded decoded = decode(input, opts, boundsOnly);
+        return decoded == null ? create(name, options) : toBitmap(name, decoded, options);
+    }
+
+    /**
+     * @return the decoded image, or null if it isn't one ImageIO can read
+     */
+    private static Decoded decode(ImageInputStream input, BitmapFactory.Options options, boolean boundsOnly) {
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sampleSize = sampleSizeOf(options);
+                int width = Math.max(1, reader.getWidth(0) / sampleSize);
+                int height = Math.max(1, reader.getHeight(0) / sampleSize);
+                String[] mimeTypes = reader.getOriginatingProvider().getMIMETypes();
+                String mimeType = mimeTypes != null && mimeTypes.length > 0 ? mimeTypes[0] : null;
+                if (boundsOnly) {
+                    return new Decoded(width, height, mimeType, null);
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (sampleSize > 1) {
+                    param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+                }
+                BufferedImage image = reader.read(0, param);
+                Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+                PixelBuffer pixels = new PixelBuffer(width, height, config);
+                int[] row = new int[width];
+                for (int y = 0; y < height; y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    for (int x = 0; x < width; x++) {
+                        pixels.set(x, y, row[x]);
+                    }
+                }
+                return new Decoded(width, height, mimeType, pixels);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return a bitmap for the decoded image, or null if only the bounds were asked for, as on Android
+     */
+    private static Bitmap toBitmap(String name, Decoded decoded, BitmapFactory.Options options) {
+        if (options != null && options.inJustDecodeBounds) {
+            setOutFields(options, decoded);
+            return null;
+        }
+
+        Bitmap bitmap = create(name, options);
+        if (options != null) {
+            setOutFields(options, decoded);
+        }
+        ShadowBitmap shadowBitmap = shadowOf(bitmap);
+        shadowBitmap.setWidth(decoded.width);
+        shadowBitmap.setHeight(decoded.height);
+        Bitmap.Config config = options != null && options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        shadowBitmap.setConfig(config);
+        shadowBitmap.setMutable(options != null && options.inMutable);
+        if (decoded.pixels != null) {
+            // cached pixels are shared, so every bitmap gets its own copy
+            shadowBitmap.setPixelBuffer(decoded.pixels.copy(config));
+        }
+        return bitmap;
+    }
+
+    private static void setOutFields(BitmapFactory.Options options, Decoded decoded) {
+        options.outWidth = decoded.width;
+        options.outHeight = decoded.height;
+        options.outMimeType = decoded.mimeType;
+    }
+
+    private static int sampleSizeOf(BitmapFactory.Options options) {
+        return options != null && options.inSampleSize > 1 ? options.inSampleSize : 1;
+    }
+
+    /**
+     * @return the image file for a drawable resource, or null if there isn't one
+     */
+    private static File findResourceFile(int id) {
+        String resourceName = getResourceName(id);
+        if (resourceName == null) {
+            return null;
+        }
+        if (resourceFiles.containsKey(resourceName)) {
+            return resourceFiles.get(resourceName);
+        }
+
+        File file = null;
+        AndroidManifest appManifest = shadowOf(Robolectric.application).getAppManifest();
+        if (appManifest != null) {
+            ResName resName = new ResName(resourceName);
+            for (ResourcePath resourcePath : appManifest.getIncludedResourcePaths()) {
+                if (resourcePath.getPackageName().equals(resName.namespace)) {
+                    file = findImageFile(resourcePath.resourceBase, resName.type, resName.name);
+                    if (file != null) break;
+                }
+            }
+        }
+        resourceFiles.put(resourceName, file);
+        return file;
+    }
+
+    /**
+     * Looks in the unqualified directory for the resource type first, then the qualified ones in name order.
+     */
+    private static File findImageFile(File resourceBase, String type, String name) {
+        File[] dirs = resourceBase.listFiles();
+        if (dirs == null) {
+            return null;
+        }
+        Arrays.sort(dirs);
+        File file = findImageFile(new File(resourceBase, type), name);
+        for (int i = 0; file == null && i < dirs.length; i++) {
+            if (dirs[i].isDirectory() && dirs[i].getName().startsWith(type + "-")) {
+                file = findImageFile(dirs[i], name);
+            }
+        }
+        return file;
+    }
+
+    private static File findImageFile(File dir, String name) {
+        for (String extension : IMAGE_EXTENSIONS) {
+            File file = new File(dir, name + extension);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the stream's contents, or null if it can't be read (e.g. the placeholder streams
+     * {@link ShadowContentResolver} hands out)
+     */
+    private static byte[] readFully(InputStream is) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static class Decoded {
+        final int width;
+        final int height;
+        final String mimeType;
+        final PixelBuffer pixels;
+
+        Decoded(int width, int height, String mimeType, PixelBuffer pixels) {
+            this.width = width;
+            this.height = height;
+            this.mimeType = mimeType;
+            this.pixels = pixels;
+        }
+
+        long byteCount() {
+            return pixels == null ? 0 : (long) width * height * 4;
+        }
+    }
+
+    private static class DecodeKey {
+        private final int resourceId;
+        private final String path;
+        private final int sampleSize;
+        private final Bitmap.Config config;
+        private final boolean boundsOnly;
+
+        DecodeKey(int resourceId, String path, int sampleSize, Bitmap.Config config, boolean boundsOnly) {
+            this.resourceId = resourceId;
+            this.path = path;
+            this.sampleSize = sampleSize;
+            this.config = config;
+            this.boundsOnly = boundsOnly;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DecodeKey)) return false;
+
+            DecodeKey that = (DecodeKey) o;
+            return resourceId == that.resourceId && sampleSize == that.sampleSize && boundsOnly == that.boundsOnly
+                    && config == that.config && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = resourceId;
+            result = 31 * result + path.hashCode();
+            result = 31 * result + sampleSize;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            result = 31 * result + (boundsOnly ? 1 : 0);
+            return result;
+        }
+    }
+
+    /**
+     * Decoded resources, least recently used first, holding at most {@code maxBytes} of pixels.
+     */
+    private static class DecodedResourceCache {
+        private final LinkedHashMap<DecodeKey, Decoded> entries = new LinkedHashMap<DecodeKey, Decoded>(16, 0.75f, true);
+        private long maxBytes;
+        private long bytes;
+        private int hitCount;
+
+        DecodedResourceCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Decoded get(DecodeKey key) {
+            Decoded decoded = entries.get(key);
+            if (decoded != null) {
+                hitCount++;
+            }
+            return decoded;
+        }
+
+        synchronized void put(DecodeKey key, Decoded decoded) {
+            if (decoded.byteCount() > maxBytes) {
+                return;
+            }
+            Decoded old = entries.put(key, decoded);
+            if (old != null) {
+                bytes -= old.byteCount();
+            }
+            bytes += decoded.byteCount();
+            trim();
+        }
+
+        synchronized void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            trim();
+        }
+
+        synchronized int getHitCount() {
+            return hitCount;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+            hitCount = 0;
+        }
+
+        synchronized void reset(long maxBytes) {
+            hitCount = 0;
+            setMaxBytes(maxBytes);
+        }
+
+        private void trim() {
+            Iterator<Decoded> iterator = entries.values().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                bytes -= iterator.next().byteCount();
+                iterator.remove();
+            }
+        }
     }
 }
@@ -0,0 +1,93 @@
+package org.robolectric.shadows;
+
+import android.content.BroadcastReceiver;
+import android.os.Bundle;
+import org.robolectric.internal.Implementation;
+import org.robolectric.internal.Implements;
+
+/**
+ * Shadow of {@code BroadcastReceiver} that keeps the result of an ordered broadcast sent through
+ * {@link ShadowApplication#sendOrderedBroadcast}, so receivers can read and change it or abort the broadcast.
+ */
+@SuppressWarnings({"UnusedDeclaration"})
+@Implements(BroadcastReceiver.class)
+public class ShadowBroadcastReceiver {
+    private boolean orderedBroadcast;
+    private boolean abortBroadcast;
+    private int resultCode;
+    private String resultData;
+    private Bundle resultExtras;
+
+    @Implementation
+    public void setResult(int code, String data, Bundle extras) {
+        resultCode = code;
+        resultData = data;
+        resultExtras = extras;
+    }
+
+    @Implementation
+    public int getResultCode() {
+        return resultCode;
+    }
+
+    @Implementation
+    public void setResultCode(int code) {
+        resultCode = code;
+    }
+
+    @Implementation
+    public String getResultData() {
+        return resultData;
+    }
+
+    @Implementation
+    public void setResultData(String data) {
+        resultData = data;
+    }
+
+    @Implementation
+    public Bundle getResultExtras(boolean makeMap) {
+        if (resultExtras == null && makeMap) {
+            resultExtras = new Bundle();
+        }
+        return resultExtras;
+    }
+
+    @Implementation
+    public void setResultExtras(Bundle extras) {
+        resultExtras = extras;
+    }
+
+    @Implementation
+    public void abortBroadcast() {
+        if (orderedBroadcast) {
+            abortBroadcast = true;
+        }
+    }
+
+    @Implementation
+    public boolean getAbortBroadcast() {
+        return abortBroadcast;
+    }
+
+    @Implementation
+    public void clearAbortBroadcast() {
+        abortBroadcast = false;
+    }
+
+    @Implementation
+    public boolean isOrderedBroadcast() {
+        return orderedBroadcast;
+    }
+
+    void startOrderedBroadcast(int code, String data, Bundle extras) {
+        orderedBroadcast = true;
+        abortBroadcast = false;
+        setResult(code, data, extras);
+    }
+
+    void finishOrderedBroadcast() {
+        orderedBroadcast = false;
+        abortBroadcast = false;
+    }
+}
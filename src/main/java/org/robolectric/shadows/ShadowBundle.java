@@ -1,10 +1,12 @@
 package org.robolectric.shadows;
 
 import android.os.Bundle;
+import android.os.Parcel;
 import android.os.Parcelable;
 import org.robolectric.Robolectric;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
+import org.robolectric.internal.RealObject;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -17,12 +19,27 @@ import static org.robolectric.Robolectric.shadowOf_;
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(Bundle.class)
 public class ShadowBundle {
+    @RealObject private Bundle realBundle;
     Map<String, Object> map = new HashMap<String, Object>();
 
     public void __constructor__(Bundle b) {
         putAll(b);
     }
 
+    @Implementation
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeBundle(realBundle);
+    }
+
+    @Implementation
+    public void readFromParcel(Parcel parcel) {
+        map.clear();
+        Bundle bundle = parcel.readBundle();
+        if (bundle != null) {
+            map.putAll(((ShadowBundle) shadowOf_(bundle)).map);
+        }
+    }
+
     @Implementation
     public void clear() {
         map.clear();
@@ -2,14 +2,25 @@ package org.robolectric.shadows;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.ColorFilter;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,6 +33,10 @@ import static org.robolectric.Robolectric.shadowOf;
  * Broken.
  * This implementation is very specific to the application for which it was developed.
  * Todo: Reimplement. Consider using the same strategy of collecting a history of draw events and providing methods for writing queries based on type, number, and order of events.
+ * <p/>
+ * When the target bitmap has pixels (see {@link ShadowBitmap#setPixelRenderingEnabled(boolean)}), drawing is also
+ * rasterized into them, honoring the canvas's matrix, clip and save/restore stack. Paths are straight-line only, as
+ * {@link ShadowPath} records them.
  */
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(Canvas.class)
@@ -37,11 +52,22 @@ public class ShadowCanvas {
     private float scaleY = 1;
     private int height;
     private int width;
+    private AffineTransform matrix = new AffineTransform();
+    private Rectangle clip;
+    private List<SavedState> savedStates = new ArrayList<SavedState>();
 
     public void __constructor__(Bitmap bitmap) {
         this.targetBitmap = bitmap;
     }
 
+    @Implementation
+    public void setBitmap(Bitmap bitmap) {
+        this.targetBitmap = bitmap;
+        matrix = new AffineTransform();
+        clip = null;
+        savedStates.clear();
+    }
+
     public void appendDescription(String s) {
         shadowOf(targetBitmap).appendDescription(s);
     }
@@ -53,34 +79,271 @@ public class ShadowCanvas {
     @Implementation
     public void drawText(String text, float x, float y, Paint paint) {
         drawnTextEventHistory.add(new TextHistoryEvent(x, y, paint, text));
+
+        PixelBuffer pixels = getPixels();
+        if (pixels != null && text.length() > 0) {
+            Rasterizer.fill(pixels, Rasterizer.textOutline(text, x, y, paint), matrix, getClip(pixels), paint.getColor());
+        }
+    }
+
+    @Implementation
+    public void drawText(String text, int start, int end, float x, float y, Paint paint) {
+        drawText(text.substring(start, end), x, y, paint);
+    }
+
+    @Implementation
+    public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+        drawText(text.subSequence(start, end).toString(), x, y, paint);
+    }
+
+    @Implementation
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        drawText(new String(text, index, count), x, y, paint);
     }
 
     @Implementation
     public void translate(float x, float y) {
         this.translateX = x;
         this.translateY = y;
+        matrix.translate(x, y);
     }
 
     @Implementation
     public void scale(float sx, float sy) {
         this.scaleX = sx;
         this.scaleY = sy;
+        matrix.scale(sx, sy);
     }
 
     @Implementation
     public void scale(float sx, float sy, float px, float py) {
         this.scaleX = sx;
         this.scaleY = sy;
+        matrix.translate(px, py);
+        matrix.scale(sx, sy);
+        matrix.translate(-px, -py);
+    }
+
+    @Implementation
+    public void rotate(float degrees) {
+        matrix.rotate(Math.toRadians(degrees));
+    }
+
+    @Implementation
+    public void rotate(float degrees, float px, float py) {
+        matrix.rotate(Math.toRadians(degrees), px, py);
+    }
+
+    @Implementation
+    public void concat(Matrix matrix) {
+        this.matrix.concatenate(toAffineTransform(matrix));
+    }
+
+    @Implementation
+    public void setMatrix(Matrix matrix) {
+        this.matrix = matrix == null ? new AffineTransform() : toAffineTransform(matrix);
+    }
+
+    @Implementation
+    public int save() {
+        savedStates.add(new SavedState(matrix, clip));
+        return savedStates.size();
+    }
+
+    @Implementation
+    public int save(int saveFlags) {
+        return save();
+    }
+
+    @Implementation
+    public void restore() {
+        if (savedStates.isEmpty()) {
+            throw new IllegalStateException("Underflow in restore");
+        }
+        SavedState state = savedStates.remove(savedStates.size() - 1);
+        matrix = state.matrix;
+        clip = state.clip;
+    }
+
+    @Implementation
+    public int getSaveCount() {
+        return savedStates.size() + 1;
+    }
+
+    @Implementation
+    public void restoreToCount(int saveCount) {
+        if (saveCount < 1) {
+            throw new IllegalArgumentException("Underflow in restoreToCount");
+        }
+        while (getSaveCount() > saveCount) {
+            restore();
+        }
+    }
+
+    @Implementation
+    public boolean clipRect(float left, float top, float right, float bottom) {
+        Rectangle deviceRect = matrix.createTransformedShape(new Rectangle2D.Float(left, top, right - left, bottom - top)).getBounds();
+        clip = clip == null ? deviceRect : clip.intersection(deviceRect);
+        return !clip.isEmpty();
+    }
+
+    @Implementation
+    public boolean clipRect(int left, int top, int right, int bottom) {
+        return clipRect((float) left, (float) top, (float) right, (float) bottom);
+    }
+
+    @Implementation
+    public boolean clipRect(Rect rect) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    @Implementation
+    public boolean clipRect(RectF rect) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    /**
+     * Only {@link Region.Op#INTERSECT} and {@link Region.Op#REPLACE} change the clip; other ops are ignored.
+     */
+    @Implementation
+    public boolean clipRect(float left, float top, float right, float bottom, Region.Op op) {
+        if (op == Region.Op.REPLACE) {
+            clip = null;
+        }
+        if (op == Region.Op.INTERSECT || op == Region.Op.REPLACE) {
+            return clipRect(left, top, right, bottom);
+        }
+        return clip == null || !clip.isEmpty();
+    }
+
+    @Implementation
+    public boolean clipRect(Rect rect, Region.Op op) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom, op);
+    }
+
+    @Implementation
+    public boolean clipRect(RectF rect, Region.Op op) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom, op);
     }
 
     @Implementation
     public void drawPaint(Paint paint) {
         drawnPaint = paint;
+
+        PixelBuffer pixels = getPixels();
+        if (pixels != null) {
+            Rasterizer.fill(pixels, getClip(pixels), new AffineTransform(), getClip(pixels), paint.getColor());
+        }
     }
 
     @Implementation
     public void drawColor(int color) {
         appendDescription("draw color " + color);
+
+        PixelBuffer pixels = getPixels();
+        if (pixels != null) {
+            Rasterizer.fill(pixels, getClip(pixels), new AffineTransform(), getClip(pixels), color);
+        }
+    }
+
+    /**
+     * Only {@link PorterDuff.Mode#CLEAR} and {@link PorterDuff.Mode#SRC}, which replace the pixels in the clip, differ
+     * from {@link #drawColor(int)}.
+     */
+    @Implementation
+    public void drawColor(int color, PorterDuff.Mode mode) {
+        PixelBuffer pixels = getPixels();
+        if (pixels != null && (mode == PorterDuff.Mode.CLEAR || mode == PorterDuff.Mode.SRC)) {
+            appendDescription("draw color " + color);
+            Rectangle area = getClip(pixels);
+            int value = mode == PorterDuff.Mode.CLEAR ? 0 : color;
+            for (int y = area.y; y < area.y + area.height; y++) {
+                for (int x = area.x; x < area.x + area.width; x++) {
+                    pixels.set(x, y, value);
+                }
+            }
+        } else {
+            drawColor(color);
+        }
+    }
+
+    @Implementation
+    public void drawARGB(int a, int r, int g, int b) {
+        drawColor(Color.argb(a, r, g, b));
+    }
+
+    @Implementation
+    public void drawRGB(int r, int g, int b) {
+        drawColor(Color.rgb(r, g, b));
+    }
+
+    @Implementation
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        draw(new Rectangle2D.Float(left, top, right - left, bottom - top), paint);
+    }
+
+    @Implementation
+    public void drawRect(Rect rect, Paint paint) {
+        drawRect(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Implementation
+    public void drawRect(RectF rect, Paint paint) {
+        drawRect(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Implementation
+    public void drawOval(RectF oval, Paint paint) {
+        draw(new Ellipse2D.Float(oval.left, oval.top, oval.width(), oval.height()), paint);
+    }
+
+    @Implementation
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+        circlePaintEvents.add(new CirclePaintHistoryEvent(cx, cy, radius, paint));
+
+        draw(new Ellipse2D.Float(cx - radius, cy - radius, radius * 2, radius * 2), paint);
+    }
+
+    @Implementation
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+        PixelBuffer pixels = getPixels();
+        if (pixels != null) {
+            Rasterizer.stroke(pixels, new Line2D.Float(startX, startY, stopX, stopY), matrix, getClip(pixels), paint);
+        }
+    }
+
+    @Implementation
+    public void drawLines(float[] pts, int offset, int count, Paint paint) {
+        for (int i = offset; i + 3 < offset + count; i += 4) {
+            drawLine(pts[i], pts[i + 1], pts[i + 2], pts[i + 3], paint);
+        }
+    }
+
+    @Implementation
+    public void drawLines(float[] pts, Paint paint) {
+        drawLines(pts, 0, pts.length, paint);
+    }
+
+    @Implementation
+    public void drawPoint(float x, float y, Paint paint) {
+        PixelBuffer pixels = getPixels();
+        if (pixels != null) {
+            float size = Math.max(1, paint.getStrokeWidth());
+            Rasterizer.fill(pixels, new Rectangle2D.Float(x - size / 2, y - size / 2, size, size), matrix,
+                    getClip(pixels), paint.getColor());
+        }
+    }
+
+    @Implementation
+    public void drawPoints(float[] pts, int offset, int count, Paint paint) {
+        for (int i = offset; i + 1 < offset + count; i += 2) {
+            drawPoint(pts[i], pts[i + 1], paint);
+        }
+    }
+
+    @Implementation
+    public void drawPoints(float[] pts, Paint paint) {
+        drawPoints(pts, 0, pts.length, paint);
     }
 
     @Implementation
@@ -96,6 +359,8 @@ public class ShadowCanvas {
         if (scaleX != 1 && scaleY != 1) {
             appendDescription(" scaled by (" + scaleX + "," + scaleY + ")");
         }
+
+        drawBitmapPixels(bitmap, null, AffineTransform.getTranslateInstance(left, top), paint);
     }
 
     @Implementation
@@ -106,7 +371,35 @@ public class ShadowCanvas {
                 dst.left + "," + dst.top +
                 ") with height=" + dst.height() +
                 " and width=" + dst.width() +
-                " taken from " + src.toString());
+                (src == null ? "" : " taken from " + src.toString()));
+
+        drawBitmapRect(bitmap, src, new RectF(dst), paint);
+    }
+
+    @Implementation
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        describeBitmap(bitmap, paint);
+
+        appendDescription(" at (" +
+                dst.left + "," + dst.top +
+                ") with height=" + dst.height() +
+                " and width=" + dst.width() +
+                (src == null ? "" : " taken from " + src.toString()));
+
+        drawBitmapRect(bitmap, src, dst, paint);
+    }
+
+    private void drawBitmapRect(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        ShadowBitmap shadowBitmap = shadowOf(bitmap);
+        Rect srcRect = src != null ? src : new Rect(0, 0, shadowBitmap.getWidth(), shadowBitmap.getHeight());
+        if (srcRect.width() <= 0 || srcRect.height() <= 0) {
+            return;
+        }
+        AffineTransform srcToLocal = new AffineTransform();
+        srcToLocal.translate(dst.left, dst.top);
+        srcToLocal.scale(dst.width() / srcRect.width(), dst.height() / srcRect.height());
+        srcToLocal.translate(-srcRect.left, -srcRect.top);
+        drawBitmapPixels(bitmap, srcRect, srcToLocal, paint);
     }
 
     @Implementation
@@ -114,6 +407,8 @@ public class ShadowCanvas {
         describeBitmap(bitmap, paint);
 
         appendDescription(" transformed by matrix");
+
+        drawBitmapPixels(bitmap, null, toAffineTransform(matrix), paint);
     }
 
     @Implementation
@@ -122,6 +417,55 @@ public class ShadowCanvas {
 
         separateLines();
         appendDescription("Path " + shadowOf(path).getPoints().toString());
+
+        draw(toShape(path), paint);
+    }
+
+    private void draw(Shape shape, Paint paint) {
+        PixelBuffer pixels = getPixels();
+        if (pixels != null) {
+            Rasterizer.draw(pixels, shape, matrix, getClip(pixels), paint);
+        }
+    }
+
+    private void drawBitmapPixels(Bitmap bitmap, Rect src, AffineTransform srcToLocal, Paint paint) {
+        PixelBuffer pixels = getPixels();
+        PixelBuffer srcPixels = shadowOf(bitmap).getPixelBuffer();
+        if (pixels == null || srcPixels == null) {
+            return;
+        }
+        Rectangle srcRect = src == null
+                ? new Rectangle(0, 0, srcPixels.width, srcPixels.height)
+                : new Rectangle(src.left, src.top, src.width(), src.height());
+        AffineTransform srcToDevice = new AffineTransform(matrix);
+        srcToDevice.concatenate(srcToLocal);
+        Rasterizer.drawBitmap(pixels, srcPixels, srcRect, srcToDevice, getClip(pixels), Rasterizer.alphaOf(paint));
+    }
+
+    private PixelBuffer getPixels() {
+        return shadowOf(targetBitmap).getPixelBuffer();
+    }
+
+    private Rectangle getClip(PixelBuffer pixels) {
+        Rectangle bounds = new Rectangle(0, 0, pixels.width, pixels.height);
+        return clip == null ? bounds : clip.intersection(bounds);
+    }
+
+    private static AffineTransform toAffineTransform(Matrix matrix) {
+        return shadowOf(matrix).toAffineTransform();
+    }
+
+    private static Shape toShape(Path path) {
+        Path2D.Float shape = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        shape.moveTo(0, 0);
+        for (ShadowPath.Point point : shadowOf(path).getPoints()) {
+            if (point.getType() == ShadowPath.Point.Type.MOVE_TO) {
+                shape.moveTo(point.getX(), point.getY());
+            } else {
+                shape.lineTo(point.getX(), point.getY());
+            }
+        }
+        return shape;
     }
 
     private void describeBitmap(Bitmap bitmap, Paint paint) {
@@ -192,12 +536,12 @@ public class ShadowCanvas {
 
     @Implementation
     public int getWidth() {
-        return width;
+        return width != 0 ? width : shadowOf(targetBitmap).getWidth();
     }
 
     @Implementation
     public int getHeight() {
-        return height;
+        return height != 0 ? height : shadowOf(targetBitmap).getHeight();
     }
 
     public TextHistoryEvent getDrawnTextEvent(int i) {
@@ -208,6 +552,16 @@ public class ShadowCanvas {
         return drawnTextEventHistory.size();
     }
 
+    private static class SavedState {
+        private final AffineTransform matrix;
+        private final Rectangle clip;
+
+        SavedState(AffineTransform matrix, Rectangle clip) {
+            this.matrix = new AffineTransform(matrix);
+            this.clip = clip == null ? null : new Rectangle(clip);
+        }
+    }
+
     private static class PathPaintHistoryEvent {
         private Path drawnPath;
         private Paint pathPaint;
@@ -2,6 +2,7 @@ package org.robolectric.shadows;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.os.Parcel;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 
@@ -36,6 +37,32 @@ public class ShadowComponentName {
         this.cls = cls.getName();
     }
 
+    public void __constructor__(Parcel in) {
+        this.pkg = in.readString();
+        this.cls = in.readString();
+    }
+
+    @Implementation
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeString(pkg);
+        out.writeString(cls);
+    }
+
+    @Implementation
+    public static void writeToParcel(ComponentName c, Parcel out) {
+        if (c != null) {
+            c.writeToParcel(out, 0);
+        } else {
+            out.writeString(null);
+        }
+    }
+
+    @Implementation
+    public static ComponentName readFromParcel(Parcel in) {
+        String pkg = in.readString();
+        return pkg != null ? new ComponentName(pkg, in.readString()) : null;
+    }
+
     @Implementation
     public String getPackageName() {
         return pkg;
@@ -2,6 +2,7 @@ package org.robolectric.shadows;
 
 import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.Handler;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 import org.robolectric.internal.RealObject;
@@ -13,14 +14,41 @@ public class ShadowContentObserver {
 	@RealObject
 	private ContentObserver realObserver;
 
+	private Handler handler;
+
+	public void __constructor__(Handler handler) {
+		this.handler = handler;
+	}
+
 	@Implementation
-	public void dispatchChange( boolean selfChange, Uri uri ) {
-		realObserver.onChange(selfChange, uri);
+	public void dispatchChange( final boolean selfChange, final Uri uri ) {
+		if (handler == null) {
+			realObserver.onChange(selfChange, uri);
+		} else {
+			handler.post(new Runnable() {
+				@Override public void run() {
+					realObserver.onChange(selfChange, uri);
+				}
+			});
+		}
 	}
 	
 	@Implementation
 	public void dispatchChange( boolean selfChange ) {
-		realObserver.onChange(selfChange);		
+		dispatchChange(selfChange, null);
 	}
 
+	@Implementation
+	public void onChange( boolean selfChange, Uri uri ) {
+		realObserver.onChange(selfChange);
+	}
+
+	/**
+	 * Non-Android accessor.
+	 *
+	 * @return the handler the observer was created with, on whose looper it gets notifications; may be null
+	 */
+	public Handler getHandler() {
+		return handler;
+	}
 }
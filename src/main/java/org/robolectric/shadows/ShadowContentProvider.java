@@ -1,17 +1,47 @@
 package org.robolectric.shadows;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
 import org.robolectric.Robolectric;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
+import org.robolectric.internal.RealObject;
+
+import java.util.ArrayList;
 
 @Implements(ContentProvider.class)
 public class ShadowContentProvider {
+    @RealObject private ContentProvider realContentProvider;
 
 	@Implementation
 	public final Context getContext() {
 		return Robolectric.application;
 	}
 
+    @Implementation
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        for (ContentValues value : values) {
+            realContentProvider.insert(uri, value);
+        }
+        return values.length;
+    }
+
+    /**
+     * Applies the operations one by one, as Android's {@code ContentProvider} does. Providers that need the batch to be
+     * atomic override this to wrap it in a transaction.
+     */
+    @Implementation
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            results[i] = operations.get(i).apply(realContentProvider, results, i);
+        }
+        return results;
+    }
 }
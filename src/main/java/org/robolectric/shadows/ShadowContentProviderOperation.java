@@ -1,7 +1,11 @@
 package org.robolectric.shadows;
 
+import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderOperation.Builder;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.net.Uri;
 import org.robolectric.Robolectric;
 import org.robolectric.internal.Implementation;
@@ -9,6 +13,7 @@ import org.robolectric.internal.Implements;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 @Implements(ContentProviderOperation.class)
 public class ShadowContentProviderOperation {
@@ -51,6 +56,81 @@ public class ShadowContentProviderOperation {
     public Uri getUri() {
         return uri;
     }
+
+    /**
+     * Runs the operation against {@code provider}, resolving value back references from the results of the earlier
+     * operations in the batch.
+     */
+    @Implementation
+    public ContentProviderResult apply(ContentProvider provider, ContentProviderResult[] backRefs, int numBackRefs)
+            throws OperationApplicationException {
+        ContentValues contentValues = resolveValues(backRefs, numBackRefs);
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!selections.isEmpty()) {
+            Entry<String, String[]> entry = selections.entrySet().iterator().next();
+            selection = entry.getKey();
+            selectionArgs = entry.getValue();
+        }
+
+        if (isInsert) {
+            Uri newUri = provider.insert(uri, contentValues);
+            if (newUri == null) {
+                throw new OperationApplicationException("insert failed");
+            }
+            return new ContentProviderResult(newUri);
+        } else if (isUpdate) {
+            return new ContentProviderResult(provider.update(uri, contentValues, selection, selectionArgs));
+        } else if (isDelete) {
+            return new ContentProviderResult(provider.delete(uri, selection, selectionArgs));
+        }
+        throw new IllegalStateException("bad type for " + uri);
+    }
+
+    private ContentValues resolveValues(ContentProviderResult[] backRefs, int numBackRefs)
+            throws OperationApplicationException {
+        ContentValues contentValues = new ContentValues();
+        for (Entry<String, Object> entry : values.entrySet()) {
+            putValue(contentValues, entry.getKey(), entry.getValue());
+        }
+        for (Entry<String, Integer> entry : withValueBackReferences.entrySet()) {
+            int index = entry.getValue();
+            if (index >= numBackRefs) {
+                throw new ArrayIndexOutOfBoundsException("asked for back ref " + index
+                        + " but there are only " + numBackRefs + " back refs");
+            }
+            ContentProviderResult backRef = backRefs[index];
+            long value = backRef.uri != null ? Long.parseLong(backRef.uri.getLastPathSegment()) : backRef.count;
+            contentValues.put(entry.getKey(), value);
+        }
+        return contentValues;
+    }
+
+    private static void putValue(ContentValues contentValues, String key, Object value) {
+        if (value == null) {
+            contentValues.putNull(key);
+        } else if (value instanceof String) {
+            contentValues.put(key, (String) value);
+        } else if (value instanceof Integer) {
+            contentValues.put(key, (Integer) value);
+        } else if (value instanceof Long) {
+            contentValues.put(key, (Long) value);
+        } else if (value instanceof Boolean) {
+            contentValues.put(key, (Boolean) value);
+        } else if (value instanceof Float) {
+            contentValues.put(key, (Float) value);
+        } else if (value instanceof Double) {
+            contentValues.put(key, (Double) value);
+        } else if (value instanceof Short) {
+            contentValues.put(key, (Short) value);
+        } else if (value instanceof Byte) {
+            contentValues.put(key, (Byte) value);
+        } else if (value instanceof byte[]) {
+            contentValues.put(key, (byte[]) value);
+        } else {
+            throw new IllegalArgumentException("bad value type: " + value.getClass().getName());
+        }
+    }
     
     public void setUri(Uri uri) {
         this.uri = uri;
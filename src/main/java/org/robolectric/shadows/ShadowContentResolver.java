@@ -6,6 +6,7 @@ import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.PeriodicSync;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -19,28 +20,37 @@ import org.robolectric.tester.android.database.TestCursor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 
+/**
+ * Shadow for {@code ContentResolver}. Calls for a {@code content:} URI whose authority has a provider registered with
+ * {@link #registerProvider(String, ContentProvider)} go to that provider; other inserts, updates and deletes are
+ * recorded (up to {@link #setMaxRecordedStatements(int)} of each, or not at all after
+ * {@code setRecordingStatements(false)}) and queries return the cursors set up with {@code setCursor()}.
+ */
 @Implements(ContentResolver.class)
 public class ShadowContentResolver {
+    public static final int DEFAULT_MAX_RECORDED_STATEMENTS = 10000;
+
     private int nextDatabaseIdForInserts;
     private int nextDatabaseIdForUpdates;
 
     private TestCursor cursor;
-    private final List<InsertStatement> insertStatements = new ArrayList<InsertStatement>();
-    private final List<UpdateStatement> updateStatements = new ArrayList<UpdateStatement>();
-    private final List<DeleteStatement> deleteStatements = new ArrayList<DeleteStatement>();
+    private boolean recordingStatements = true;
+    private int maxRecordedStatements = DEFAULT_MAX_RECORDED_STATEMENTS;
+    private final ArrayDeque<InsertStatement> insertStatements = new ArrayDeque<InsertStatement>();
+    private final ArrayDeque<UpdateStatement> updateStatements = new ArrayDeque<UpdateStatement>();
+    private final ArrayDeque<DeleteStatement> deleteStatements = new ArrayDeque<DeleteStatement>();
     private List<NotifiedUri> notifiedUris = new ArrayList<NotifiedUri>();
     private HashMap<Uri, TestCursor> uriCursorMap = new HashMap<Uri, TestCursor>();
     private final Map<String, ArrayList<ContentProviderOperation>> contentProviderOperations = new HashMap<String, ArrayList<ContentProviderOperation>>();
     private ContentProviderResult[] contentProviderResults;
 
-    private final Map<Uri, ContentObserver> contentObservers = new HashMap<Uri,ContentObserver>();
+    private final ContentObserverDispatcher contentObservers = new ContentObserverDispatcher();
     
     private static final Map<String, Map<Account, Status>>  syncableAccounts =
             new HashMap<String, Map<Account, Status>>();
@@ -119,8 +129,9 @@ public class ShadowContentResolver {
         if (provider != null) {
             return provider.insert(url, values);
         } else {
-            InsertStatement insertStatement = new InsertStatement(url, new ContentValues(values));
-            insertStatements.add(insertStatement);
+            if (recordingStatements) {
+                record(insertStatements, new InsertStatement(url, new ContentValues(values)));
+            }
             return Uri.parse(url.toString() + "/" + nextDatabaseIdForInserts++);
         }
     }
@@ -131,8 +142,9 @@ public class ShadowContentResolver {
         if (provider != null) {
             return provider.update(uri, values, where, selectionArgs);
         } else {
-            UpdateStatement updateStatement = new UpdateStatement(uri, new ContentValues(values), where, selectionArgs);
-            updateStatements.add(updateStatement);
+            if (recordingStatements) {
+                record(updateStatements, new UpdateStatement(uri, new ContentValues(values), where, selectionArgs));
+            }
             return nextDatabaseIdForUpdates++;
         }
     }
@@ -161,8 +173,9 @@ public class ShadowContentResolver {
         if (provider != null) {
             return provider.delete(url, where, selectionArgs);
         } else {
-            DeleteStatement deleteStatement = new DeleteStatement(url, where, selectionArgs);
-            deleteStatements.add(deleteStatement);
+            if (recordingStatements) {
+                record(deleteStatements, new DeleteStatement(url, where, selectionArgs));
+            }
             return 1;
         }
     }
@@ -177,18 +190,15 @@ public class ShadowContentResolver {
         }
     }
 
+    /**
+     * Records the notification and passes it on to the registered observers as Android does: observers of
+     * {@code uri} and of URIs below it, and observers of URIs above it that asked for descendants. Observers with a
+     * {@code Handler} get it on the handler's looper, once however often the URI changes before that looper runs.
+     */
     @Implementation
     public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
         notifiedUris.add(new NotifiedUri(uri, observer, syncToNetwork));
-        
-        // TODO does not support multiple observers for a URI
-        ContentObserver obs = contentObservers.get(uri);
-        if ( obs != null && obs != observer  ) {
-        	obs.dispatchChange( false, uri );
-        }
-    	if ( observer != null && observer.deliverSelfNotifications() ) {
-    		observer.dispatchChange( true, uri );
-    	}
+        contentObservers.notifyChange(uri, observer);
     }
 
     @Implementation
@@ -196,8 +206,18 @@ public class ShadowContentResolver {
         notifyChange(uri, observer, false);
     }
 
+    /**
+     * Hands the whole batch to the provider registered for {@code authority} in one {@code applyBatch()} call, so a
+     * provider that runs its batches in a transaction runs this one in a single transaction. Without a provider the
+     * operations are recorded and the results set with {@link #setContentProviderResult} are returned.
+     */
     @Implementation
-    public ContentProviderResult[] applyBatch(String authority, ArrayList<ContentProviderOperation> operations) {
+    public ContentProviderResult[] applyBatch(String authority, ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProvider provider = providers.get(authority);
+        if (provider != null) {
+            return provider.applyBatch(operations);
+        }
         contentProviderOperations.put(authority, operations);
         return contentProviderResults;
     }
@@ -289,8 +309,20 @@ public class ShadowContentResolver {
         }
     }
 
+    /**
+     * Routes calls for {@code authority} to {@code provider}. As in a manifest, several authorities can be given
+     * separated by semicolons.
+     */
     public static void registerProvider(String authority, ContentProvider provider) {
-        providers.put(authority, provider);
+        for (String name : authority.split(";")) {
+            providers.put(name, provider);
+        }
+    }
+
+    public static void unregisterProvider(String authority) {
+        for (String name : authority.split(";")) {
+            providers.remove(name);
+        }
     }
 
     public static Status getStatus(Account account, String authority) {
@@ -327,12 +359,59 @@ public class ShadowContentResolver {
         nextDatabaseIdForUpdates = nextId;
     }
 
+    /**
+     * Non-Android accessor. Turns recording of inserts, updates and deletes that don't go to a provider on or off;
+     * it's on by default.
+     */
+    public void setRecordingStatements(boolean recordingStatements) {
+        this.recordingStatements = recordingStatements;
+    }
+
+    public boolean isRecordingStatements() {
+        return recordingStatements;
+    }
+
+    /**
+     * Non-Android accessor. Keeps only the latest {@code maxRecordedStatements} inserts, updates and deletes of each
+     * kind. Defaults to {@value #DEFAULT_MAX_RECORDED_STATEMENTS}.
+     */
+    public void setMaxRecordedStatements(int maxRecordedStatements) {
+        if (maxRecordedStatements < 0) {
+            throw new IllegalArgumentException("maxRecordedStatements must be >= 0");
+        }
+        this.maxRecordedStatements = maxRecordedStatements;
+        trim(insertStatements);
+        trim(updateStatements);
+        trim(deleteStatements);
+    }
+
+    private <T> void record(ArrayDeque<T> statements, T statement) {
+        statements.add(statement);
+        trim(statements);
+    }
+
+    private void trim(ArrayDeque<?> statements) {
+        while (statements.size() > maxRecordedStatements) {
+            statements.removeFirst();
+        }
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return a snapshot of the recorded inserts, oldest first
+     */
     public List<InsertStatement> getInsertStatements() {
-        return insertStatements;
+        return new ArrayList<InsertStatement>(insertStatements);
     }
 
+    /**
+     * Non-Android accessor.
+     *
+     * @return a snapshot of the recorded updates, oldest first
+     */
     public List<UpdateStatement> getUpdateStatements() {
-        return updateStatements;
+        return new ArrayList<UpdateStatement>(updateStatements);
     }
 
     public List<Uri> getDeletedUris() {
@@ -343,8 +422,13 @@ public class ShadowContentResolver {
         return uris;
     }
 
+    /**
+     * Non-Android accessor.
+     *
+     * @return a snapshot of the recorded deletes, oldest first
+     */
     public List<DeleteStatement> getDeleteStatements() {
-        return deleteStatements;
+        return new ArrayList<DeleteStatement>(deleteStatements);
     }
 
     public List<NotifiedUri> getNotifiedUris() {
@@ -364,22 +448,17 @@ public class ShadowContentResolver {
     
     @Implementation
     public void registerContentObserver( Uri uri, boolean notifyForDescendents, ContentObserver observer) {
-        // TODO does not support multiple observers for a URI
-    	contentObservers.put( uri, observer );
+        if (uri == null || observer == null) {
+            throw new IllegalArgumentException("You must pass a valid uri and observer");
+        }
+        contentObservers.register(uri, notifyForDescendents, observer);
     }
     
     @Implementation
     public void unregisterContentObserver( ContentObserver observer ) {
-    	if ( observer != null && contentObservers.containsValue( observer ) ) {
-    		Set<Entry<Uri,ContentObserver>> entries = contentObservers.entrySet();
-    		for ( Entry<Uri,ContentObserver> e : entries ) {
-    			ContentObserver other = e.getValue();
-    			if ( observer == other || observer.equals(other) ) {
-    	        	contentObservers.remove( e.getKey() );
-    	        	return;
-    			}
-    		}
-    	}
+        if (observer != null) {
+            contentObservers.unregister(observer);
+        }
     }
     
     /**
@@ -397,7 +476,35 @@ public class ShadowContentResolver {
      * @return
      */
     public ContentObserver getContentObserver( Uri uri ) {
-    	return contentObservers.get(uri);
+        List<ContentObserver> observers = contentObservers.getObservers(uri);
+        return observers.isEmpty() ? null : observers.get(0);
+    }
+
+    /**
+     * Non-Android accessor.  Returns the content observers registered with
+     * exactly the given URI, in the order they were registered.
+     */
+    public List<ContentObserver> getContentObservers( Uri uri ) {
+        return contentObservers.getObservers(uri);
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return how many change notifications have reached content observers
+     */
+    public int getDeliveredChangeCount() {
+        return contentObservers.getDeliveredCount();
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return how many change notifications were dropped because the same change was still waiting for the
+     *         observer's looper
+     */
+    public int getCoalescedChangeCount() {
+        return contentObservers.getCoalescedCount();
     }
 
     private TestCursor getCursor(Uri uri) {
@@ -34,6 +34,7 @@ abstract public class ShadowContext {
     public static final File FILES_DIR = createTempDir("android-tmp");
     public static final File EXTERNAL_FILES_DIR = createTempDir("android-external-files");
     public static final File DATABASE_DIR = createTempDir("android-database");
+    public static final File SHARED_PREFS_DIR = createTempDir("android-shared-prefs");
 
     @RealObject private Context realContext;
     private ShadowApplication shadowApplication;
@@ -178,6 +179,7 @@ abstract public class ShadowContext {
         clearFiles(EXTERNAL_CACHE_DIR);
         clearFiles(EXTERNAL_FILES_DIR);
         clearFiles(DATABASE_DIR);
+        clearFiles(SHARED_PREFS_DIR);
     }
 
     public static void clearFiles(File dir) {
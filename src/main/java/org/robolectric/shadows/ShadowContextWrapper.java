@@ -13,13 +13,14 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 import org.robolectric.AndroidManifest;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 import org.robolectric.internal.RealObject;
 import org.robolectric.res.builder.RobolectricPackageManager;
-import org.robolectric.tester.android.content.TestSharedPreferences;
 
 import java.io.File;
 import java.util.HashSet;
@@ -76,6 +77,18 @@ public class ShadowContextWrapper extends ShadowContext {
         getApplicationContext().sendBroadcast(intent);
     }
 
+    @Implementation
+    public void sendOrderedBroadcast(Intent intent, String receiverPermission) {
+        getApplicationContext().sendOrderedBroadcast(intent, receiverPermission);
+    }
+
+    @Implementation
+    public void sendOrderedBroadcast(Intent intent, String receiverPermission, BroadcastReceiver resultReceiver,
+                                     Handler scheduler, int initialCode, String initialData, Bundle initialExtras) {
+        getApplicationContext().sendOrderedBroadcast(intent, receiverPermission, resultReceiver, scheduler,
+                initialCode, initialData, initialExtras);
+    }
+
     public List<Intent> getBroadcastIntents() {
         return ((ShadowApplication) shadowOf(getApplicationContext())).getBroadcastIntents();
     }
@@ -152,7 +165,7 @@ public class ShadowContextWrapper extends ShadowContext {
 
     @Implementation
     public SharedPreferences getSharedPreferences(String name, int mode) {
-        return new TestSharedPreferences(getShadowApplication().getSharedPreferenceMap(), name, mode);
+        return getShadowApplication().sharedPreferences(name, mode);
     }
 
     @Implementation
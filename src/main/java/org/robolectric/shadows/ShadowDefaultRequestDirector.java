@@ -155,7 +155,8 @@ public class ShadowDefaultRequestDirector {
             return Robolectric.getFakeHttpLayer().emulateRequest(httpHost, httpRequest, httpContext, realObject);
         } else {
             Robolectric.getFakeHttpLayer().addRequestInfo(new HttpRequestInfo(httpRequest, httpHost, httpContext, redirector));
-            HttpResponse response = redirector.execute(httpHost, httpRequest, httpContext);
+            HttpResponse response = Robolectric.getFakeHttpLayer().recordHttpResponse(httpRequest,
+                    redirector.execute(httpHost, httpRequest, httpContext));
             Robolectric.getFakeHttpLayer().addHttpResponse(response);
             return response;
         }
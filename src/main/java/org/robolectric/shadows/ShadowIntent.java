@@ -5,6 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Parcel;
 import android.os.Parcelable;
 import org.robolectric.Robolectric;
 import org.robolectric.internal.Implementation;
@@ -70,6 +71,50 @@ public class ShadowIntent {
         uri = other.uri;
     }
 
+    @Implementation
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeString(action);
+        Uri.writeToParcel(out, data);
+        out.writeString(type);
+        out.writeInt(this.flags);
+        out.writeString(packageName);
+        ComponentName.writeToParcel(componentName, out);
+        out.writeInt(categories.size());
+        for (String category : categories) {
+            out.writeString(category);
+        }
+        out.writeBundle(extras);
+        out.writeString(uri);
+    }
+
+    @Implementation
+    public void readFromParcel(Parcel in) {
+        action = in.readString();
+        data = Uri.CREATOR.createFromParcel(in);
+        type = in.readString();
+        flags = in.readInt();
+        packageName = in.readString();
+        componentName = ComponentName.readFromParcel(in);
+        intentClass = null;
+        if (componentName != null) {
+            try {
+                intentClass = Class.forName(componentName.getClassName());
+            } catch (ClassNotFoundException e) {
+                // ignore
+            }
+        }
+        categories.clear();
+        for (int count = in.readInt(); count > 0; count--) {
+            categories.add(in.readString());
+        }
+        extras.clear();
+        Bundle inExtras = in.readBundle();
+        if (inExtras != null) {
+            extras.putAll(inExtras);
+        }
+        uri = in.readString();
+    }
+
     @Implementation
     public static Intent createChooser(Intent target, CharSequence title) {
         Intent intent = new Intent(Intent.ACTION_CHOOSER);
@@ -545,6 +590,31 @@ public class ShadowIntent {
         return true;
     }
 
+    @Implementation
+    // cribbed from Android source
+    public int filterHashCode() {
+        int code = 0;
+        if (getAction() != null) {
+            code += getAction().hashCode();
+        }
+        if (getData() != null) {
+            code += getData().hashCode();
+        }
+        if (getType() != null) {
+            code += getType().hashCode();
+        }
+        if (getPackage() != null) {
+            code += getPackage().hashCode();
+        }
+        if (getComponent() != null) {
+            code += getComponent().hashCode();
+        }
+        if (getCategories() != null) {
+            code += getCategories().hashCode();
+        }
+        return code;
+    }
+
     /**
      * Compares an {@code Intent} with a {@code ShadowIntent} (obtained via a call to
      * {@link Robolectric#shadowOf(android.content.Intent)})
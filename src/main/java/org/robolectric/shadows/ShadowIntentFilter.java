@@ -30,6 +30,7 @@ public class ShadowIntentFilter {
     List<String> schemes = new ArrayList<String>();
     List<IntentFilter.AuthorityEntry> authoritites = new ArrayList<IntentFilter.AuthorityEntry>();
     List<String> categories = new ArrayList<String>();
+    int priority;
     
     public void __constructor__(String action) {
         actions.add(action);
@@ -44,6 +45,16 @@ public class ShadowIntentFilter {
         actions.add(action);
     }
 
+    @Implementation
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    @Implementation
+    public int getPriority() {
+        return priority;
+    }
+
     @Implementation
     public String getAction(int index) {
         return actions.get(index);
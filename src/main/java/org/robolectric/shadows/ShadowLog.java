@@ -5,15 +5,41 @@ import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Records log entries so tests can look at them, and optionally prints them.
+ * <p/>
+ * Only the most recent {@link #setMaxLogs(int) maxLogs} entries overall and {@link #setMaxLogsPerTag(int)
+ * maxLogsPerTag} entries per tag are kept, so chatty code can't fill up the heap. Logging is safe from any thread;
+ * entries for different tags don't contend with each other.
+ */
 @Implements(Log.class)
 public class ShadowLog {
-    private static Map<String,List<LogItem>> logsByTag = new HashMap<String,List<LogItem>>();
-    private static List<LogItem> logs = new ArrayList<LogItem>();
+    public static final int DEFAULT_MAX_LOGS = 50000;
+    public static final int DEFAULT_MAX_LOGS_PER_TAG = 10000;
+
+    private static final int ASYNC_QUEUE_CAPACITY = 8192;
+    private static final int ASYNC_BATCH_SIZE = 512;
+
+    private static final ConcurrentMap<String, TagLog> logsByTag = new ConcurrentHashMap<String, TagLog>();
+    private static volatile TagLog nullTagLog;
+    private static volatile LogRing logs = new LogRing(DEFAULT_MAX_LOGS);
+    private static volatile int maxLogsPerTag = DEFAULT_MAX_LOGS_PER_TAG;
+    private static volatile AsyncWriter asyncWriter;
+
+    /**
+     * If set, every entry is printed here on the logging thread as it's logged.
+     */
     public static PrintStream stream;
 
     @Implementation
@@ -84,66 +110,145 @@ public class ShadowLog {
 
     @Implementation
     public static boolean isLoggable(String tag, int level) {
-        return stream != null || level >= Log.INFO;
+        return stream != null || asyncWriter != null || level >= Log.INFO;
     }
 
     private static void addLog(int level, String tag, String msg, Throwable throwable) {
+        PrintStream stream = ShadowLog.stream;
         if (stream != null) {
             logToStream(stream, level, tag, msg, throwable);
         }
-        
+
         LogItem item = new LogItem(level, tag, msg, throwable);
-        List<LogItem> itemList = null;
-        
-        if (!logsByTag.containsKey(tag)) {
-        	itemList = new ArrayList<LogItem>();
-        	logsByTag.put(tag, itemList);
-        } else {
-        	itemList = logsByTag.get(tag);
+        AsyncWriter asyncWriter = ShadowLog.asyncWriter;
+        if (asyncWriter != null) {
+            asyncWriter.enqueue(item);
         }
-        
-        itemList.add(item);
+
+        tagLogFor(tag).add(item);
         logs.add(item);
     }
 
+    private static TagLog tagLogFor(String tag) {
+        if (tag == null) {
+            TagLog tagLog = nullTagLog;
+            if (tagLog == null) {
+                synchronized (ShadowLog.class) {
+                    if (nullTagLog == null) {
+                        nullTagLog = new TagLog();
+                    }
+                    tagLog = nullTagLog;
+                }
+            }
+            return tagLog;
+        }
+
+        TagLog tagLog = logsByTag.get(tag);
+        if (tagLog == null) {
+            TagLog newTagLog = new TagLog();
+            tagLog = logsByTag.putIfAbsent(tag, newTagLog);
+            if (tagLog == null) {
+                tagLog = newTagLog;
+            }
+        }
+        return tagLog;
+    }
+
     private static void logToStream(PrintStream ps, int level, String tag, String msg, Throwable throwable) {
-        final char c;
-        switch (level) {
-            case Log.ASSERT: c = 'A'; break;
-            case Log.DEBUG:  c = 'D'; break;
-            case Log.ERROR:  c = 'E'; break;
-            case Log.WARN:   c = 'W'; break;
-            case Log.INFO:   c = 'I'; break;
-            case Log.VERBOSE:c = 'V'; break;
-            default:         c = '?';
-        }
-        ps.println(c + "/" + tag + ": " + msg);
+        ps.println(levelChar(level) + "/" + tag + ": " + msg);
         if (throwable != null) {
             throwable.printStackTrace(ps);
         }
     }
 
+    private static char levelChar(int level) {
+        switch (level) {
+            case Log.ASSERT: return 'A';
+            case Log.DEBUG:  return 'D';
+            case Log.ERROR:  return 'E';
+            case Log.WARN:   return 'W';
+            case Log.INFO:   return 'I';
+            case Log.VERBOSE:return 'V';
+            default:         return '?';
+        }
+    }
+
     /**
-     * Non-Android accessor.  Returns ordered list of all log entries.
-     * @return
+     * Non-Android accessor.  Returns ordered list of the most recent log entries.
+     * @return a snapshot of the entries, oldest first
      */
     public static List<LogItem> getLogs() {
-    	return logs;
+        return logs.snapshot();
     }
-    
+
     /**
-     * Non-Android accessor.  Returns ordered list of all log items for a specific tag.
-     * 
+     * Non-Android accessor.  Returns ordered list of the most recent log items for a specific tag.
+     *
      * @param tag
-     * @return
+     * @return a snapshot of the entries, oldest first, or null if nothing was logged with the tag since the last reset
      */
     public static List<LogItem> getLogsForTag( String tag ) {
-    	return logsByTag.get(tag);
+        TagLog tagLog = tag == null ? nullTagLog : logsByTag.get(tag);
+        return tagLog == null ? null : tagLog.snapshot();
+    }
+
+    /**
+     * Non-Android accessor.  Sets how many of the most recent entries {@link #getLogs()} keeps, discarding any logged
+     * so far. Reset to {@link #DEFAULT_MAX_LOGS} before each test.
+     */
+    public static void setMaxLogs(int maxLogs) {
+        if (maxLogs < 1) throw new IllegalArgumentException("maxLogs must be positive: " + maxLogs);
+        logs = new LogRing(maxLogs);
+    }
+
+    /**
+     * Non-Android accessor.  Sets how many of the most recent entries {@link #getLogsForTag(String)} keeps for each
+     * tag. Takes effect as tags are next logged to; reset to {@link #DEFAULT_MAX_LOGS_PER_TAG} before each test.
+     */
+    public static void setMaxLogsPerTag(int maxLogsPerTag) {
+        if (maxLogsPerTag < 1) throw new IllegalArgumentException("maxLogsPerTag must be positive: " + maxLogsPerTag);
+        ShadowLog.maxLogsPerTag = maxLogsPerTag;
+    }
+
+    /**
+     * Non-Android accessor.  Prints every entry to {@code out} from a background thread, in batches, so logging
+     * doesn't wait for I/O. Used for {@code robolectric.logging=<file>}.
+     *
+     * @param out where to print, or null to stop printing; any previous async stream is closed once everything
+     *            already logged to it has been printed
+     */
+    public static synchronized void setAsyncStream(PrintStream out) {
+        AsyncWriter oldWriter = asyncWriter;
+        asyncWriter = out == null ? null : new AsyncWriter(out);
+        if (oldWriter != null) {
+            oldWriter.finish();
+        }
+    }
+
+    public static boolean hasAsyncStream() {
+        return asyncWriter != null;
+    }
+
+    /**
+     * Non-Android accessor.  Waits until everything logged so far has been printed to the
+     * {@link #setAsyncStream(PrintStream) async stream}, if there is one.
+     */
+    public static void flushAsyncStream() {
+        AsyncWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
     }
 
     public static void reset() {
-        logs.clear();
+        if (logs.capacity() == DEFAULT_MAX_LOGS) {
+            logs.clear();
+        } else {
+            logs = new LogRing(DEFAULT_MAX_LOGS);
+        }
+        maxLogsPerTag = DEFAULT_MAX_LOGS_PER_TAG;
         logsByTag.clear();
+        nullTagLog = null;
     }
 
     public static class LogItem {
@@ -152,6 +257,8 @@ public class ShadowLog {
         public final String msg;
         public final Throwable throwable;
 
+        private long sequence = -1;
+
         public LogItem(int type, String tag, String msg, Throwable throwable) {
             this.type = type;
             this.tag = tag;
@@ -159,4 +266,171 @@ public class ShadowLog {
             this.throwable = throwable;
         }
     }
+
+    /**
+     * The entries for one tag, each guarded by its own lock.
+     */
+    private static class TagLog {
+        private final ArrayDeque<LogItem> items = new ArrayDeque<LogItem>();
+
+        synchronized void add(LogItem item) {
+            int max = maxLogsPerTag;
+            while (items.size() >= max) {
+                items.removeFirst();
+            }
+            items.addLast(item);
+        }
+
+        synchronized List<LogItem> snapshot() {
+            return new ArrayList<LogItem>(items);
+        }
+    }
+
+    /**
+     * A fixed size ring of the most recent entries, which writers fill without locking: each takes the next sequence
+     * number and stores its entry in that number's slot.
+     */
+    private static class LogRing {
+        private final AtomicReferenceArray<LogItem> slots;
+        private final AtomicLong next = new AtomicLong();
+        private volatile long start;
+
+        LogRing(int capacity) {
+            slots = new AtomicReferenceArray<LogItem>(capacity);
+        }
+
+        int capacity() {
+            return slots.length();
+        }
+
+        void add(LogItem item) {
+            long sequence = next.getAndIncrement();
+            item.sequence = sequence;
+            slots.set(slotFor(sequence), item);
+        }
+
+        List<LogItem> snapshot() {
+            long end = next.get();
+            long first = Math.max(start, end - slots.length());
+            List<LogItem> items = new ArrayList<LogItem>((int) (end - first));
+            for (long sequence = first; sequence < end; sequence++) {
+                LogItem item = slots.get(slotFor(sequence));
+                // skip slots still being written, or already overwritten by a later entry
+                if (item != null && item.sequence == sequence) {
+                    items.add(item);
+                }
+            }
+            return items;
+        }
+
+        void clear() {
+            long end = next.get();
+            for (long sequence = Math.max(start, end - slots.length()); sequence < end; sequence++) {
+                slots.set(slotFor(sequence), null);
+            }
+            start = end;
+        }
+
+        private int slotFor(long sequence) {
+            return (int) (sequence % slots.length());
+        }
+    }
+
+    private static class AsyncWriter implements Runnable {
+        private static final LogItem FLUSH = new LogItem(0, null, null, null);
+        private static final LogItem FINISH = new LogItem(0, null, null, null);
+
+        private final BlockingQueue<LogItem> queue = new LinkedBlockingQueue<LogItem>(ASYNC_QUEUE_CAPACITY);
+        private final PrintStream out;
+        private final Thread thread;
+        private final Object flushLock = new Object();
+        private long flushesRequested;
+        private long flushesDone;
+
+        AsyncWriter(PrintStream out) {
+            this.out = out;
+            thread = new Thread(this, "robolectric-log-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void enqueue(LogItem item) {
+            try {
+                // block rather than drop entries when the writer falls behind
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void flush() {
+            long flush;
+            synchronized (flushLock) {
+                flush = ++flushesRequested;
+            }
+            enqueue(FLUSH);
+            synchronized (flushLock) {
+                while (flushesDone < flush && thread.isAlive()) {
+                    try {
+                        flushLock.wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        void finish() {
+            enqueue(FINISH);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override public void run() {
+            List<LogItem> batch = new ArrayList<LogItem>(ASYNC_BATCH_SIZE);
+            StringBuilder buf = new StringBuilder();
+            boolean finished = false;
+            while (!finished) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(batch, ASYNC_BATCH_SIZE - 1);
+
+                int flushes = 0;
+                for (LogItem item : batch) {
+                    if (item == FLUSH) {
+                        flushes++;
+                    } else if (item == FINISH) {
+                        finished = true;
+                    } else {
+                        buf.append(levelChar(item.type)).append('/').append(item.tag).append(": ").append(item.msg)
+                                .append('\n');
+                        if (item.throwable != null) {
+                            out.print(buf);
+                            buf.setLength(0);
+                            item.throwable.printStackTrace(out);
+                        }
+                    }
+                }
+                out.print(buf);
+                out.flush();
+                buf.setLength(0);
+                batch.clear();
+
+                if (flushes > 0) {
+                    synchronized (flushLock) {
+                        flushesDone += flushes;
+                        flushLock.notifyAll();
+                    }
+                }
+            }
+            out.close();
+        }
+    }
 }
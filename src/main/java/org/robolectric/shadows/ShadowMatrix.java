@@ -4,17 +4,17 @@ import android.graphics.Matrix;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 
+import java.awt.geom.AffineTransform;
+
 import static org.robolectric.Robolectric.shadowOf;
 
+/**
+ * Shadow for {@code Matrix} which keeps the full 3x3 matrix, so scales, rotations, skews and translations (with or
+ * without a pivot point) compose as they do on a device.
+ */
 @SuppressWarnings({"UnusedDeclaration"})
 @Implements(Matrix.class)
 public class ShadowMatrix {
-    private float scaleX = 1;
-    private float transX;
-
-    private float scaleY = 1;
-    private float transY;
-
     // scaleX=0, skewX=1,  transX=2
     // skewY=3,  scaleY=4, transY=5
     // persp0=6, persp1=7, persp2=8
@@ -23,52 +23,260 @@ public class ShadowMatrix {
 
     // drag down: Matrix{[1.0, 0.0, -1.3872986][0.0, 1.0, 0.37722778][0.0, 0.0, 1.0]}
 
+    private final float[] values = identity();
 
     public void __constructor__(Matrix src) {
         set(src);
     }
 
+    @Implementation
+    public void reset() {
+        System.arraycopy(identity(), 0, values, 0, 9);
+    }
+
     @Implementation
     public void set(Matrix src) {
-        transX = shadowOf(src).transX;
-        scaleX = shadowOf(src).scaleX;
+        if (src == null) {
+            reset();
+        } else {
+            System.arraycopy(shadowOf(src).values, 0, values, 0, 9);
+        }
+    }
 
-        transY = shadowOf(src).transY;
-        scaleY = shadowOf(src).scaleY;
+    @Implementation
+    public boolean isIdentity() {
+        float[] identity = identity();
+        for (int i = 0; i < 9; i++) {
+            if (values[i] != identity[i]) return false;
+        }
+        return true;
+    }
+
+    @Implementation
+    public void getValues(float[] values) {
+        System.arraycopy(this.values, 0, values, 0, 9);
+    }
+
+    @Implementation
+    public void setValues(float[] values) {
+        System.arraycopy(values, 0, this.values, 0, 9);
     }
 
     @Implementation
     public void setTranslate(float dx, float dy) {
-        transX = dx;
-        transY = dy;
+        setTo(translate(dx, dy));
     }
 
     @Implementation
-    public void postTranslate(float dx, float dy) {
-        transX += dx;
-        transY += dy;
+    public void setScale(float sx, float sy) {
+        setTo(scale(sx, sy));
     }
 
-    public float getTransX() {
-        return transX;
+    @Implementation
+    public void setScale(float sx, float sy, float px, float py) {
+        setTo(aroundPivot(scale(sx, sy), px, py));
     }
 
-    public float getTransY() {
-        return transY;
+    @Implementation
+    public void setRotate(float degrees) {
+        setTo(rotate(degrees));
     }
 
     @Implementation
-    public boolean postScale(float sx, float sy, float px, float py) {
-        scaleX *= sx;
-        scaleY *= sy;
+    public void setRotate(float degrees, float px, float py) {
+        setTo(aroundPivot(rotate(degrees), px, py));
+    }
+
+    @Implementation
+    public void setSkew(float kx, float ky) {
+        setTo(skew(kx, ky));
+    }
+
+    @Implementation
+    public void setSkew(float kx, float ky, float px, float py) {
+        setTo(aroundPivot(skew(kx, ky), px, py));
+    }
+
+    @Implementation
+    public boolean setConcat(Matrix a, Matrix b) {
+        setTo(multiply(shadowOf(a).values, shadowOf(b).values));
         return true;
     }
 
+    @Implementation
+    public boolean preTranslate(float dx, float dy) {
+        return preConcat(translate(dx, dy));
+    }
+
+    @Implementation
+    public boolean preScale(float sx, float sy) {
+        return preConcat(scale(sx, sy));
+    }
+
+    @Implementation
+    public boolean preScale(float sx, float sy, float px, float py) {
+        return preConcat(aroundPivot(scale(sx, sy), px, py));
+    }
+
+    @Implementation
+    public boolean preRotate(float degrees) {
+        return preConcat(rotate(degrees));
+    }
+
+    @Implementation
+    public boolean preRotate(float degrees, float px, float py) {
+        return preConcat(aroundPivot(rotate(degrees), px, py));
+    }
+
+    @Implementation
+    public boolean preSkew(float kx, float ky) {
+        return preConcat(skew(kx, ky));
+    }
+
+    @Implementation
+    public boolean preSkew(float kx, float ky, float px, float py) {
+        return preConcat(aroundPivot(skew(kx, ky), px, py));
+    }
+
+    @Implementation
+    public boolean preConcat(Matrix other) {
+        return preConcat(shadowOf(other).values);
+    }
+
+    @Implementation
+    public boolean postTranslate(float dx, float dy) {
+        return postConcat(translate(dx, dy));
+    }
+
+    @Implementation
+    public boolean postScale(float sx, float sy) {
+        return postConcat(scale(sx, sy));
+    }
+
+    @Implementation
+    public boolean postScale(float sx, float sy, float px, float py) {
+        return postConcat(aroundPivot(scale(sx, sy), px, py));
+    }
+
+    @Implementation
+    public boolean postRotate(float degrees) {
+        return postConcat(rotate(degrees));
+    }
+
+    @Implementation
+    public boolean postRotate(float degrees, float px, float py) {
+        return postConcat(aroundPivot(rotate(degrees), px, py));
+    }
+
+    @Implementation
+    public boolean postSkew(float kx, float ky) {
+        return postConcat(skew(kx, ky));
+    }
+
+    @Implementation
+    public boolean postSkew(float kx, float ky, float px, float py) {
+        return postConcat(aroundPivot(skew(kx, ky), px, py));
+    }
+
+    @Implementation
+    public boolean postConcat(Matrix other) {
+        return postConcat(shadowOf(other).values);
+    }
+
+    public float getTransX() {
+        return values[2];
+    }
+
+    public float getTransY() {
+        return values[5];
+    }
+
     public float getScaleX() {
-        return scaleX;
+        return values[0];
     }
 
     public float getScaleY() {
-        return scaleY;
+        return values[4];
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return the same transformation as an {@code AffineTransform}
+     * @throws IllegalArgumentException if the matrix has a perspective component, which an {@code AffineTransform}
+     *         can't express
+     */
+    public AffineTransform toAffineTransform() {
+        if (values[6] != 0 || values[7] != 0 || values[8] != 1) {
+            throw new IllegalArgumentException("perspective matrices aren't supported: " + toShortString());
+        }
+        return new AffineTransform(values[0], values[3], values[1], values[4], values[2], values[5]);
+    }
+
+    @Implementation
+    public String toShortString() {
+        return "[" + values[0] + ", " + values[1] + ", " + values[2] + "]["
+                + values[3] + ", " + values[4] + ", " + values[5] + "]["
+                + values[6] + ", " + values[7] + ", " + values[8] + "]";
+    }
+
+    @Override @Implementation
+    public String toString() {
+        return "Matrix{" + toShortString() + "}";
+    }
+
+    private void setTo(float[] matrix) {
+        System.arraycopy(matrix, 0, values, 0, 9);
+    }
+
+    private boolean preConcat(float[] matrix) {
+        setTo(multiply(values, matrix));
+        return true;
+    }
+
+    private boolean postConcat(float[] matrix) {
+        setTo(multiply(matrix, values));
+        return true;
+    }
+
+    private static float[] identity() {
+        return new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+    }
+
+    private static float[] translate(float dx, float dy) {
+        return new float[]{1, 0, dx, 0, 1, dy, 0, 0, 1};
+    }
+
+    private static float[] scale(float sx, float sy) {
+        return new float[]{sx, 0, 0, 0, sy, 0, 0, 0, 1};
+    }
+
+    private static float[] rotate(float degrees) {
+        double radians = Math.toRadians(degrees);
+        float sin = (float) Math.sin(radians);
+        float cos = (float) Math.cos(radians);
+        return new float[]{cos, -sin, 0, sin, cos, 0, 0, 0, 1};
+    }
+
+    private static float[] skew(float kx, float ky) {
+        return new float[]{1, kx, 0, ky, 1, 0, 0, 0, 1};
+    }
+
+    private static float[] aroundPivot(float[] matrix, float px, float py) {
+        return multiply(translate(px, py), multiply(matrix, translate(-px, -py)));
+    }
+
+    private static float[] multiply(float[] a, float[] b) {
+        float[] result = new float[9];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                float sum = 0;
+                for (int i = 0; i < 3; i++) {
+                    sum += a[row * 3 + i] * b[i * 3 + column];
+                }
+                result[row * 3 + column] = sum;
+            }
+        }
+        return result;
     }
 }
@@ -17,7 +17,7 @@ import org.robolectric.internal.RealObject;
 @Implements(Paint.class)
 public class ShadowPaint {
 
-    private int color;
+    private int color = 0xFF000000;
     private Paint.Style style;
     private Paint.Cap cap;
     private Paint.Join join;
@@ -27,7 +27,7 @@ public class ShadowPaint {
     private float shadowDy;
     private int shadowColor;
     private Shader shader;
-    private int alpha;
+    private int alpha = 0xFF;
     private ColorFilter filter;
     private boolean antiAlias;
     private boolean dither;
@@ -61,7 +61,8 @@ public class ShadowPaint {
 
     @Implementation
     public void setAlpha(int alpha) {
-        this.alpha = alpha;
+        this.alpha = alpha & 0xFF;
+        color = (this.alpha << 24) | (color & 0xFFFFFF);
     }
 
 
@@ -73,6 +74,7 @@ public class ShadowPaint {
     @Implementation
     public void setColor(int color) {
         this.color = color;
+        alpha = color >>> 24;
     }
 
     @Implementation
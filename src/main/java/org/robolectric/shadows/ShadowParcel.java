@@ -1,5 +1,8 @@
 package org.robolectric.shadows;
 
+import android.accounts.Account;
+import android.content.ComponentName;
+import android.content.Intent;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Parcel;
@@ -9,17 +12,113 @@ import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
 import org.robolectric.internal.RealObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static org.robolectric.Robolectric.shadowOf_;
+
+/**
+ * Keeps parcel data in a little-endian byte buffer laid out the way Android's native Parcel does: every value is
+ * 4-byte aligned, strings are length-prefixed, null-terminated UTF-16, and {@link #writeValue(Object)} tags values
+ * with their type. {@link #dataSize()} is therefore the size the data would have on a device.
+ * <p/>
+ * Parcelables are written with {@code writeToParcel()} and read back through their {@code CREATOR}, or an equivalent
+ * for the framework classes whose shadows support it ({@code Intent}, {@code Bundle}, {@code Uri},
+ * {@code ComponentName} and {@code Account}), so a round trip gives a copy. Binders, and other framework Parcelables (those in
+ * {@code android.*}, whose shadows don't marshal themselves), are kept as live objects, with a 16-byte reference in
+ * the data the size of a native {@code flat_binder_object}. Like a parcel containing binders on a device, a parcel
+ * containing live objects can't be {@link #marshall()}ed.
+ */
 @Implements(Parcel.class)
 @SuppressWarnings("unchecked")
 public class ShadowParcel {
-    private ArrayList parcelData = new ArrayList();
-    private int index = 0;
+    private static final int VAL_NULL = -1;
+    private static final int VAL_STRING = 0;
+    private static final int VAL_INTEGER = 1;
+    private static final int VAL_MAP = 2;
+    private static final int VAL_BUNDLE = 3;
+    private static final int VAL_PARCELABLE = 4;
+    private static final int VAL_SHORT = 5;
+    private static final int VAL_LONG = 6;
+    private static final int VAL_FLOAT = 7;
+    private static final int VAL_DOUBLE = 8;
+    private static final int VAL_BOOLEAN = 9;
+    private static final int VAL_CHARSEQUENCE = 10;
+    private static final int VAL_LIST = 11;
+    private static final int VAL_BYTEARRAY = 13;
+    private static final int VAL_STRINGARRAY = 14;
+    private static final int VAL_IBINDER = 15;
+    private static final int VAL_PARCELABLEARRAY = 16;
+    private static final int VAL_OBJECTARRAY = 17;
+    private static final int VAL_INTARRAY = 18;
+    private static final int VAL_LONGARRAY = 19;
+    private static final int VAL_BYTE = 20;
+    private static final int VAL_SERIALIZABLE = 21;
+    private static final int VAL_BOOLEANARRAY = 23;
+
+    private static final int BUNDLE_MAGIC = 0x4C444E42; // 'B' 'N' 'D' 'L'
+    private static final int LIVE_OBJECT_SIZE = 16;
+    private static final int LIVE_OBJECT_TYPE = 0x73622a85; // BINDER_TYPE_BINDER
+    private static final Map<String, Parcelable.Creator<?>> FRAMEWORK_CREATORS = new HashMap<String, Parcelable.Creator<?>>();
+
+    static {
+        // the framework's own CREATORs are instrumented away, except Uri's, which calls through
+        FRAMEWORK_CREATORS.put("android.content.Intent", new Parcelable.Creator<Intent>() {
+            @Override public Intent createFromParcel(Parcel source) {
+                Intent intent = new Intent();
+                intent.readFromParcel(source);
+                return intent;
+            }
+
+            @Override public Intent[] newArray(int size) {
+                return new Intent[size];
+            }
+        });
+        FRAMEWORK_CREATORS.put("android.os.Bundle", new Parcelable.Creator<Bundle>() {
+            @Override public Bundle createFromParcel(Parcel source) {
+                return source.readBundle();
+            }
+
+            @Override public Bundle[] newArray(int size) {
+                return new Bundle[size];
+            }
+        });
+        FRAMEWORK_CREATORS.put("android.content.ComponentName", new Parcelable.Creator<ComponentName>() {
+            @Override public ComponentName createFromParcel(Parcel source) {
+                return new ComponentName(source);
+            }
+
+            @Override public ComponentName[] newArray(int size) {
+                return new ComponentName[size];
+            }
+        });
+        FRAMEWORK_CREATORS.put("android.accounts.Account", new Parcelable.Creator<Account>() {
+            @Override public Account createFromParcel(Parcel source) {
+                return new Account(source);
+            }
+
+            @Override public Account[] newArray(int size) {
+                return new Account[size];
+            }
+        });
+    }
+
+    private ByteBuffer data = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+    private int dataSize;
+    private final List<Object> liveObjects = new ArrayList<Object>();
 
     @RealObject
     private Parcel realParcel;
@@ -30,135 +129,575 @@ public class ShadowParcel {
     }
 
     @Implementation
-    public void writeString(String str) {
-        if (str == null) {
-            return;
+    public void recycle() {
+        data.clear();
+        dataSize = 0;
+        liveObjects.clear();
+    }
+
+    @Implementation
+    public int dataSize() {
+        return dataSize;
+    }
+
+    @Implementation
+    public int dataAvail() {
+        return Math.max(0, dataSize - data.position());
+    }
+
+    @Implementation
+    public int dataPosition() {
+        return data.position();
+    }
+
+    /**
+     * @deprecated use {@link #dataPosition()}
+     */
+    @Deprecated
+    public int getIndex() {
+        return dataPosition();
+    }
+
+    /**
+     * @deprecated the parcel now holds Android's wire format rather than a list of written values; this returns its
+     *             bytes up to {@link #dataSize()}
+     */
+    @Deprecated
+    public List getParcelData() {
+        List<Byte> bytes = new ArrayList<Byte>(dataSize());
+        for (int i = 0; i < dataSize(); i++) {
+            bytes.add(data.get(i));
         }
-        parcelData.add(str);
+        return bytes;
+    }
+
+    @Implementation
+    public int dataCapacity() {
+        return data.capacity();
+    }
+
+    @Implementation
+    public void setDataSize(int size) {
+        if (size > data.capacity()) {
+            grow(size);
+        }
+        dataSize = size;
+        if (data.position() > size) {
+            data.position(size);
+        }
+    }
+
+    @Implementation
+    public void setDataPosition(int pos) {
+        if (pos > data.capacity()) {
+            grow(pos);
+        }
+        data.position(pos);
+    }
+
+    @Implementation
+    public void setDataCapacity(int size) {
+        if (size > data.capacity()) {
+            grow(size);
+        }
+    }
+
+    @Implementation
+    public byte[] marshall() {
+        if (!liveObjects.isEmpty()) {
+            throw new RuntimeException("Tried to marshall a Parcel that contained Binder objects.");
+        }
+        return Arrays.copyOf(data.array(), dataSize);
+    }
+
+    @Implementation
+    public void unmarshall(byte[] bytes, int offset, int length) {
+        recycle();
+        if (length > data.capacity()) {
+            grow(length);
+        }
+        System.arraycopy(bytes, offset, data.array(), 0, length);
+        dataSize = length;
     }
 
     @Implementation
     public void writeInt(int i) {
-        parcelData.add(i);
+        ensureCapacity(4);
+        data.putInt(i);
+        wrote();
     }
 
     @Implementation
     public void writeLong(long i) {
-        parcelData.add(i);
+        ensureCapacity(8);
+        data.putLong(i);
+        wrote();
     }
 
     @Implementation
     public void writeFloat(float f) {
-        parcelData.add(f);
+        ensureCapacity(4);
+        data.putFloat(f);
+        wrote();
     }
 
     @Implementation
     public void writeDouble(double f) {
-        parcelData.add(f);
+        ensureCapacity(8);
+        data.putDouble(f);
+        wrote();
     }
 
     @Implementation
-    @SuppressWarnings("unchecked")
     public void writeByte(byte b) {
-        parcelData.add(b);
+        writeInt(b);
     }
 
     @Implementation
-    public void writeStrongBinder(IBinder binder) {
-        if (binder == null) {
-            return;
-        }
-        parcelData.add(binder);
-    }
-
-    @Implementation
-    public final void writeMap(Map map) {
-        if (map == null) {
+    public void writeString(String str) {
+        if (str == null) {
             writeInt(-1);
             return;
         }
-        Set<Map.Entry<String,Object>> entries = map.entrySet();
-        writeInt(entries.size());
-        for (Map.Entry<String,Object> e : entries) {
-            parcelData.add(e.getKey());
-            parcelData.add(e.getValue());
+        int length = str.length();
+        int paddedSize = pad((length + 1) * 2);
+        ensureCapacity(4 + paddedSize);
+        data.putInt(length);
+        int start = data.position();
+        for (int i = 0; i < length; i++) {
+            data.putChar(str.charAt(i));
         }
+        fill(start + paddedSize);
     }
 
     @Implementation
-    public String readString() {
-        return index < parcelData.size() ? (String) parcelData.get(index++) : null;
+    public int readInt() {
+        return canRead(4) ? data.getInt() : 0;
     }
 
     @Implementation
-    public int readInt() {
-        return index < parcelData.size() ? (Integer) parcelData.get(index++) : 0;
+    public long readLong() {
+        return canRead(8) ? data.getLong() : 0;
     }
 
     @Implementation
     public float readFloat() {
-        return index < parcelData.size() ? (Float) parcelData.get(index++) : 0;
+        return canRead(4) ? data.getFloat() : 0;
     }
 
     @Implementation
     public double readDouble() {
-        return index < parcelData.size() ? (Double) parcelData.get(index++) : 0;
+        return canRead(8) ? data.getDouble() : 0;
     }
 
     @Implementation
     public byte readByte() {
-        return index < parcelData.size() ? (Byte) parcelData.get(index++) : 0;
+        return (byte) readInt();
     }
 
     @Implementation
-    public long readLong() {
-        return index < parcelData.size() ? (Long) parcelData.get(index++) : 0;
+    public String readString() {
+        if (!canRead(4)) {
+            return null;
+        }
+        int length = data.getInt();
+        if (length < 0) {
+            return null;
+        }
+        int paddedSize = pad((length + 1) * 2);
+        if (!canRead(paddedSize)) {
+            return null;
+        }
+        int start = data.position();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = data.getChar();
+        }
+        data.position(start + paddedSize);
+        return new String(chars);
     }
 
     @Implementation
-    public Bundle readBundle() {
-        return index < parcelData.size() ? (Bundle) parcelData.get(index++) : null;
+    public void writeStrongBinder(IBinder binder) {
+        writeLiveObject(binder);
     }
 
     @Implementation
     public IBinder readStrongBinder() {
-        return index < parcelData.size() ? (IBinder) parcelData.get(index++) : null;
+        return (IBinder) readLiveObject();
+    }
+
+    @Implementation
+    public void writeByteArray(byte[] b) {
+        writeByteArray(b, 0, b == null ? 0 : b.length);
+    }
+
+    @Implementation
+    public void writeByteArray(byte[] b, int offset, int len) {
+        if (b == null) {
+            writeInt(-1);
+            return;
+        }
+        if (offset < 0 || len < 0 || offset + len > b.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        ensureCapacity(4 + pad(len));
+        data.putInt(len);
+        int start = data.position();
+        data.put(b, offset, len);
+        fill(start + pad(len));
+    }
+
+    @Implementation
+    public byte[] createByteArray() {
+        int n = readInt();
+        if (n < 0 || !canRead(pad(n))) {
+            return null;
+        }
+        byte[] val = new byte[n];
+        int start = data.position();
+        data.get(val);
+        data.position(start + pad(n));
+        return val;
+    }
+
+    @Implementation
+    public void readByteArray(byte[] val) {
+        byte[] read = createByteArray();
+        if (read == null || read.length != val.length) throw new RuntimeException("bad array lengths");
+        System.arraycopy(read, 0, val, 0, val.length);
+    }
+
+    @Implementation
+    public final void writeMap(Map map) {
+        if (map == null) {
+            writeInt(-1);
+            return;
+        }
+        Set<Map.Entry<Object, Object>> entries = map.entrySet();
+        writeInt(entries.size());
+        for (Map.Entry<Object, Object> e : entries) {
+            writeValue(e.getKey());
+            writeValue(e.getValue());
+        }
     }
 
     @Implementation
-    public final HashMap readHashMap(ClassLoader loader)
-    {
+    public final HashMap readHashMap(ClassLoader loader) {
         int count = readInt();
         if (count < 0) {
             return null;
         }
         HashMap map = new HashMap(count);
-        for (int i = 0; i < count; ++i) {
-            Object key = parcelData.get(index++);
-            Object value = parcelData.get(index++);
-            map.put(key, value);
-        }
+        readMapInternal(map, count, loader);
         return map;
     }
 
     @Implementation
-    public Bundle readBundle(ClassLoader loader) {
-        return readBundle();
+    public final void readMap(Map outVal, ClassLoader loader) {
+        readMapInternal(outVal, readInt(), loader);
+    }
+
+    private void readMapInternal(Map outVal, int count, ClassLoader loader) {
+        for (int i = 0; i < count; i++) {
+            Object key = readValue(loader);
+            Object value = readValue(loader);
+            outVal.put(key, value);
+        }
+    }
+
+    @Implementation
+    public final void writeList(List val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.size());
+        for (Object item : val) {
+            writeValue(item);
+        }
+    }
+
+    @Implementation
+    public final ArrayList readArrayList(ClassLoader loader) {
+        int n = readInt();
+        if (n < 0) {
+            return null;
+        }
+        ArrayList l = new ArrayList(n);
+        for (int i = 0; i < n; i++) {
+            l.add(readValue(loader));
+        }
+        return l;
     }
 
     @Implementation
     public void writeBundle(Bundle bundle) {
-        parcelData.add(bundle);
+        if (bundle == null) {
+            writeInt(-1);
+            return;
+        }
+        int lengthPosition = data.position();
+        writeInt(-1); // patched below
+        writeInt(BUNDLE_MAGIC);
+        int start = data.position();
+        Map<String, Object> map = ((ShadowBundle) shadowOf_(bundle)).map;
+        writeInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            writeString(entry.getKey());
+            writeValue(entry.getValue());
+        }
+        int end = data.position();
+        data.putInt(lengthPosition, end - start);
+    }
+
+    @Implementation
+    public Bundle readBundle() {
+        return readBundle(null);
+    }
+
+    @Implementation
+    public Bundle readBundle(ClassLoader loader) {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        Bundle bundle = new Bundle();
+        if (length == 0) {
+            return bundle;
+        }
+        int magic = readInt();
+        if (magic != BUNDLE_MAGIC) {
+            throw new IllegalStateException("Bad magic number for Bundle: 0x" + Integer.toHexString(magic));
+        }
+        Map<String, Object> map = ((ShadowBundle) shadowOf_(bundle)).map;
+        int count = readInt();
+        for (int i = 0; i < count; i++) {
+            String key = readString();
+            map.put(key, readValue(loader));
+        }
+        return bundle;
     }
 
     @Implementation
     public void writeParcelable(Parcelable p, int flags) {
-        parcelData.add(p);
+        if (p == null) {
+            writeString(null);
+            return;
+        }
+        String name = p.getClass().getName();
+        writeString(name);
+        if (isUnmarshallableFrameworkClass(name)) {
+            writeLiveObject(p);
+        } else {
+            p.writeToParcel(realParcel, flags);
+        }
     }
 
     @Implementation
     public Parcelable readParcelable(ClassLoader cl) {
-        return index < parcelData.size() ? (Parcelable) parcelData.get(index++) : null;
+        String name = readString();
+        if (name == null) {
+            return null;
+        }
+        if (isUnmarshallableFrameworkClass(name)) {
+            return (Parcelable) readLiveObject();
+        }
+        Parcelable.Creator creator = FRAMEWORK_CREATORS.get(name);
+        if (creator == null) {
+            creator = getCreator(name, cl);
+        }
+        return (Parcelable) creator.createFromParcel(realParcel);
+    }
+
+    @Implementation
+    public final void writeSerializable(Serializable s) {
+        if (s == null) {
+            writeString(null);
+            return;
+        }
+        writeString(s.getClass().getName());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(s);
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Parcelable encountered IOException writing serializable object (name = "
+                    + s.getClass().getName() + ")", e);
+        }
+        writeByteArray(bytes.toByteArray());
+    }
+
+    @Implementation
+    public final Serializable readSerializable() {
+        String name = readString();
+        if (name == null) {
+            return null;
+        }
+        byte[] bytes = createByteArray();
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return (Serializable) in.readObject();
+        } catch (IOException e) {
+            throw new RuntimeException("Parcelable encountered IOException reading a Serializable object (name = " + name + ")", e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Parcelable encountered ClassNotFoundException reading a Serializable object (name = " + name + ")", e);
+        }
+    }
+
+    @Implementation
+    public final void writeValue(Object v) {
+        if (v == null) {
+            writeInt(VAL_NULL);
+        } else if (v instanceof String) {
+            writeInt(VAL_STRING);
+            writeString((String) v);
+        } else if (v instanceof Integer) {
+            writeInt(VAL_INTEGER);
+            writeInt((Integer) v);
+        } else if (v instanceof Map) {
+            writeInt(VAL_MAP);
+            writeMap((Map) v);
+        } else if (v instanceof Bundle) {
+            writeInt(VAL_BUNDLE);
+            writeBundle((Bundle) v);
+        } else if (v instanceof Parcelable) {
+            writeInt(VAL_PARCELABLE);
+            writeParcelable((Parcelable) v, 0);
+        } else if (v instanceof Short) {
+            writeInt(VAL_SHORT);
+            writeInt(((Short) v).intValue());
+        } else if (v instanceof Long) {
+            writeInt(VAL_LONG);
+            writeLong((Long) v);
+        } else if (v instanceof Float) {
+            writeInt(VAL_FLOAT);
+            writeFloat((Float) v);
+        } else if (v instanceof Double) {
+            writeInt(VAL_DOUBLE);
+            writeDouble((Double) v);
+        } else if (v instanceof Boolean) {
+            writeInt(VAL_BOOLEAN);
+            writeInt((Boolean) v ? 1 : 0);
+        } else if (v instanceof CharSequence) {
+            // as TextUtils writes plain text; spans aren't kept
+            writeInt(VAL_CHARSEQUENCE);
+            writeInt(1);
+            writeString(v.toString());
+        } else if (v instanceof List) {
+            writeInt(VAL_LIST);
+            writeList((List) v);
+        } else if (v instanceof boolean[]) {
+            writeInt(VAL_BOOLEANARRAY);
+            writeBooleanArray((boolean[]) v);
+        } else if (v instanceof byte[]) {
+            writeInt(VAL_BYTEARRAY);
+            writeByteArray((byte[]) v);
+        } else if (v instanceof String[]) {
+            writeInt(VAL_STRINGARRAY);
+            writeStringArray((String[]) v);
+        } else if (v instanceof IBinder) {
+            writeInt(VAL_IBINDER);
+            writeStrongBinder((IBinder) v);
+        } else if (v instanceof Parcelable[]) {
+            writeInt(VAL_PARCELABLEARRAY);
+            Parcelable[] parcelables = (Parcelable[]) v;
+            writeInt(parcelables.length);
+            for (Parcelable parcelable : parcelables) {
+                writeParcelable(parcelable, 0);
+            }
+        } else if (v instanceof Object[]) {
+            writeInt(VAL_OBJECTARRAY);
+            Object[] objects = (Object[]) v;
+            writeInt(objects.length);
+            for (Object object : objects) {
+                writeValue(object);
+            }
+        } else if (v instanceof int[]) {
+            writeInt(VAL_INTARRAY);
+            writeIntArray((int[]) v);
+        } else if (v instanceof long[]) {
+            writeInt(VAL_LONGARRAY);
+            writeLongArray((long[]) v);
+        } else if (v instanceof Byte) {
+            writeInt(VAL_BYTE);
+            writeInt((Byte) v);
+        } else if (v instanceof Serializable) {
+            writeInt(VAL_SERIALIZABLE);
+            writeSerializable((Serializable) v);
+        } else {
+            throw new RuntimeException("Parcel: unable to marshal value " + v);
+        }
+    }
+
+    @Implementation
+    public final Object readValue(ClassLoader loader) {
+        int type = readInt();
+        switch (type) {
+            case VAL_NULL:
+                return null;
+            case VAL_STRING:
+                return readString();
+            case VAL_INTEGER:
+                return readInt();
+            case VAL_MAP:
+                return readHashMap(loader);
+            case VAL_BUNDLE:
+                return readBundle(loader);
+            case VAL_PARCELABLE:
+                return readParcelable(loader);
+            case VAL_SHORT:
+                return (short) readInt();
+            case VAL_LONG:
+                return readLong();
+            case VAL_FLOAT:
+                return readFloat();
+            case VAL_DOUBLE:
+                return readDouble();
+            case VAL_BOOLEAN:
+                return readInt() == 1;
+            case VAL_CHARSEQUENCE:
+                readInt();
+                return readString();
+            case VAL_LIST:
+                return readArrayList(loader);
+            case VAL_BOOLEANARRAY:
+                return createBooleanArray();
+            case VAL_BYTEARRAY:
+                return createByteArray();
+            case VAL_STRINGARRAY:
+                return createStringArray();
+            case VAL_IBINDER:
+                return readStrongBinder();
+            case VAL_PARCELABLEARRAY: {
+                int n = readInt();
+                Parcelable[] parcelables = new Parcelable[n];
+                for (int i = 0; i < n; i++) {
+                    parcelables[i] = readParcelable(loader);
+                }
+                return parcelables;
+            }
+            case VAL_OBJECTARRAY: {
+                int n = readInt();
+                Object[] objects = new Object[n];
+                for (int i = 0; i < n; i++) {
+                    objects[i] = readValue(loader);
+                }
+                return objects;
+            }
+            case VAL_INTARRAY:
+                return createIntArray();
+            case VAL_LONGARRAY:
+                return createLongArray();
+            case VAL_BYTE:
+                return readByte();
+            case VAL_SERIALIZABLE:
+                return readSerializable();
+            default:
+                int off = data.position() - 4;
+                throw new RuntimeException("Parcel " + realParcel + ": Unmarshalling unknown type code " + type + " at offset " + off);
+        }
     }
 
     @Implementation
@@ -172,12 +711,31 @@ public class ShadowParcel {
 
     @Implementation
     public void writeFloatArray(float[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
         writeInt(val.length);
         for (float f : val) writeFloat(f);
     }
 
+    @Implementation
+    public float[] createFloatArray() {
+        int n = readInt();
+        if (n < 0 || !canRead(n * 4)) return null;
+        float[] val = new float[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = readFloat();
+        }
+        return val;
+    }
+
     @Implementation
     public void writeDoubleArray(double[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
         writeInt(val.length);
         for (double f : val) writeDouble(f);
     }
@@ -191,8 +749,23 @@ public class ShadowParcel {
         }
     }
 
+    @Implementation
+    public double[] createDoubleArray() {
+        int n = readInt();
+        if (n < 0 || !canRead(n * 8)) return null;
+        double[] val = new double[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = readDouble();
+        }
+        return val;
+    }
+
     @Implementation
     public void writeIntArray(int[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
         writeInt(val.length);
         for (int f : val) writeInt(f);
     }
@@ -206,8 +779,23 @@ public class ShadowParcel {
         }
     }
 
+    @Implementation
+    public int[] createIntArray() {
+        int n = readInt();
+        if (n < 0 || !canRead(n * 4)) return null;
+        int[] val = new int[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = readInt();
+        }
+        return val;
+    }
+
     @Implementation
     public void writeLongArray(long[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
         writeInt(val.length);
         for (long f : val) writeLong(f);
     }
@@ -221,8 +809,53 @@ public class ShadowParcel {
         }
     }
 
+    @Implementation
+    public long[] createLongArray() {
+        int n = readInt();
+        if (n < 0 || !canRead(n * 8)) return null;
+        long[] val = new long[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = readLong();
+        }
+        return val;
+    }
+
+    @Implementation
+    public void writeBooleanArray(boolean[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for (boolean b : val) writeInt(b ? 1 : 0);
+    }
+
+    @Implementation
+    public void readBooleanArray(boolean[] val) {
+        int n = readInt();
+        if (val.length != n) throw new RuntimeException("bad array lengths");
+        for (int i = 0; i < val.length; i++) {
+            val[i] = readInt() != 0;
+        }
+    }
+
+    @Implementation
+    public boolean[] createBooleanArray() {
+        int n = readInt();
+        if (n < 0 || !canRead(n * 4)) return null;
+        boolean[] val = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = readInt() != 0;
+        }
+        return val;
+    }
+
     @Implementation
     public void writeStringArray(String[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
         writeInt(val.length);
         for (String f : val) writeString(f);
     }
@@ -249,7 +882,7 @@ public class ShadowParcel {
             return null;
         }
     }
-    
+
     @Implementation
     public void writeStringList(List<String> strings) {
         if (strings == null) {
@@ -338,12 +971,89 @@ public class ShadowParcel {
         }
     }
 
-    public int getIndex() {
-        return index;
+    private void writeLiveObject(Object object) {
+        ensureCapacity(LIVE_OBJECT_SIZE);
+        data.putInt(LIVE_OBJECT_TYPE);
+        data.putInt(0); // flags
+        if (object == null) {
+            data.putInt(-1);
+        } else {
+            data.putInt(liveObjects.size());
+            liveObjects.add(object);
+        }
+        data.putInt(0); // cookie
+        wrote();
     }
 
-    public List getParcelData() {
-        return parcelData;
+    private Object readLiveObject() {
+        if (!canRead(LIVE_OBJECT_SIZE)) {
+            return null;
+        }
+        int start = data.position();
+        int index = data.getInt(start + 8);
+        data.position(start + LIVE_OBJECT_SIZE);
+        return index >= 0 && index < liveObjects.size() ? liveObjects.get(index) : null;
     }
 
+    private static boolean isUnmarshallableFrameworkClass(String className) {
+        if (!className.startsWith("android.") && !className.startsWith("com.android.")) {
+            return false;
+        }
+        return !FRAMEWORK_CREATORS.containsKey(className) && !className.startsWith("android.net.Uri$");
+    }
+
+    private static Parcelable.Creator getCreator(String name, ClassLoader classLoader) {
+        try {
+            Class<?> parcelableClass = Class.forName(name, true,
+                    classLoader == null ? ShadowParcel.class.getClassLoader() : classLoader);
+            Field creatorField = parcelableClass.getField("CREATOR");
+            creatorField.setAccessible(true);
+            Parcelable.Creator creator = (Parcelable.Creator) creatorField.get(null);
+            if (creator == null) {
+                throw new RuntimeException("Parcelable protocol requires a Parcelable.Creator object called CREATOR on class " + name);
+            }
+            return creator;
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("ClassNotFoundException when unmarshalling: " + name, e);
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException("Parcelable protocol requires a Parcelable.Creator object called CREATOR on class " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("IllegalAccessException when unmarshalling: " + name, e);
+        }
+    }
+
+    private static int pad(int size) {
+        return (size + 3) & ~3;
+    }
+
+    private boolean canRead(int bytes) {
+        return data.position() + bytes <= dataSize;
+    }
+
+    private void ensureCapacity(int bytes) {
+        int required = data.position() + bytes;
+        if (required > data.capacity()) {
+            grow(Math.max(required, (required * 3) / 2));
+        }
+    }
+
+    private void grow(int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        System.arraycopy(data.array(), 0, bigger.array(), 0, Math.min(dataSize, capacity));
+        bigger.position(data.position());
+        data = bigger;
+    }
+
+    private void fill(int end) {
+        while (data.position() < end) {
+            data.put((byte) 0);
+        }
+        wrote();
+    }
+
+    private void wrote() {
+        if (data.position() > dataSize) {
+            dataSize = data.position();
+        }
+    }
 }
@@ -6,12 +6,12 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import org.robolectric.internal.Implementation;
 import org.robolectric.internal.Implements;
-import org.robolectric.tester.android.content.TestSharedPreferences;
 
 import static org.robolectric.Robolectric.shadowOf;
 
 /**
- * Shadow for {@code PreferenceManager} that returns instances of the {@link org.robolectric.tester.android.content.TestSharedPreferences} utility class
+ * Shadow for {@code PreferenceManager} that returns instances of the {@link org.robolectric.tester.android.content.TestSharedPreferences} utility class,
+ * or of {@link org.robolectric.tester.android.content.FileSharedPreferences} if the application uses file shared preferences
  */
 @Implements(PreferenceManager.class)
 public class ShadowPreferenceManager {
@@ -19,7 +19,8 @@ public class ShadowPreferenceManager {
     @Implementation
     public static SharedPreferences getDefaultSharedPreferences(Context context) {
         ShadowApplication shadowApplication = shadowOf((Application) context.getApplicationContext());
-        return new TestSharedPreferences(shadowApplication.getSharedPreferenceMap(), "__default__", Context.MODE_PRIVATE);
+        String name = shadowApplication.isFileSharedPreferences() ? context.getPackageName() + "_preferences" : "__default__";
+        return shadowApplication.sharedPreferences(name, Context.MODE_PRIVATE);
     }
 
 }
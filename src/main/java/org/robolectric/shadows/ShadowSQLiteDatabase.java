@@ -18,14 +18,18 @@ import org.robolectric.internal.RealObject;
 import org.robolectric.util.DatabaseConfig;
 import org.robolectric.util.SQLite.*;
 
+import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -42,6 +46,8 @@ import static org.robolectric.util.SQLite.*;
  */
 @Implements(SQLiteDatabase.class)
 public class ShadowSQLiteDatabase  {
+    public static final int DEFAULT_MAX_QUERY_LOG_SIZE = 10000;
+
     @RealObject	SQLiteDatabase realSQLiteDatabase;
     private static Connection connection;
     private final ReentrantLock mLock = new ReentrantLock(true);
@@ -51,6 +57,8 @@ public class ShadowSQLiteDatabase  {
     private boolean throwOnInsert;
     private Set<Cursor> cursors = new HashSet<Cursor>();
     private List<String> querySql = new ArrayList<String>();
+    private final LinkedList<QueryLogEntry> queryLog = new LinkedList<QueryLogEntry>();
+    private int maxQueryLogSize = DEFAULT_MAX_QUERY_LOG_SIZE;
 
     @Implementation
     public void setLockingEnabled(boolean lockingEnabled) {
@@ -112,20 +120,22 @@ public class ShadowSQLiteDatabase  {
                                      ContentValues initialValues, int conflictAlgorithm) throws android.database.SQLException {
 
         try {
-            SQLStringAndBindings sqlInsertString = buildInsertString(table, initialValues, conflictAlgorithm);
-            PreparedStatement insert = connection.prepareStatement(sqlInsertString.sql, Statement.RETURN_GENERATED_KEYS);
+            long start = System.nanoTime();
+            SQLStringAndBindings sqlInsertString = buildUnscrubbedInsertString(table, initialValues, conflictAlgorithm);
+            PreparedStatement insert = connection.prepareStatement(DatabaseConfig.getScrubSQL(sqlInsertString.sql), Statement.RETURN_GENERATED_KEYS);
             Iterator<Object> columns = sqlInsertString.columnValues.iterator();
             int i = 1;
             long result = -1;
             while (columns.hasNext()) {
                 insert.setObject(i++, columns.next());
             }
-            insert.executeUpdate();
+            int rowCount = insert.executeUpdate();
             ResultSet resultSet = insert.getGeneratedKeys();
             if (resultSet.next()) {
                 result = resultSet.getLong(1);
             }
             resultSet.close();
+            logQuery(sqlInsertString.sql, System.nanoTime() - start, 0, rowCount);
             return result;
         } catch (SQLException e) {
             throw new android.database.SQLException(e.getLocalizedMessage());
@@ -145,7 +155,10 @@ public class ShadowSQLiteDatabase  {
         String sql = SQLiteQueryBuilder.buildQueryString(distinct, table,
                 columns, where, groupBy, having, orderBy, limit);
         querySql.add(sql);
+        String callerSql = where == selection ? sql : SQLiteQueryBuilder.buildQueryString(distinct, table,
+                columns, selection, groupBy, having, orderBy, limit);
 
+        long start = System.nanoTime();
         ResultSet resultSet;
         try {
             Statement statement = connection.createStatement(DatabaseConfig.getResultSetType(), ResultSet.CONCUR_READ_ONLY);
@@ -154,8 +167,10 @@ public class ShadowSQLiteDatabase  {
             throw new RuntimeException("SQL exception in query", e);
         }
 
+        long executed = System.nanoTime();
         SQLiteCursor cursor = new SQLiteCursor(null, null, null, null);
         shadowOf(cursor).setResultSet(resultSet, sql);
+        logQuery(callerSql, executed - start, System.nanoTime() - executed, shadowOf(cursor).getCount());
         cursors.add(cursor);
         return cursor;
     }
@@ -176,6 +191,7 @@ public class ShadowSQLiteDatabase  {
 
     @Implementation
     public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        long start = System.nanoTime();
         SQLStringAndBindings sqlUpdateString = buildUpdateString(table, values, whereClause, whereArgs);
 
         try {
@@ -186,7 +202,10 @@ public class ShadowSQLiteDatabase  {
                 statement.setObject(i++, columns.next());
             }
 
-            return statement.executeUpdate();
+            int rowCount = statement.executeUpdate();
+            logQuery(whereArgs == null ? sqlUpdateString.sql : buildUpdateString(table, values, whereClause, null).sql,
+                    System.nanoTime() - start, 0, rowCount);
+            return rowCount;
         } catch (SQLException e) {
             throw new RuntimeException("SQL exception in update", e);
         }
@@ -194,10 +213,13 @@ public class ShadowSQLiteDatabase  {
 
     @Implementation
     public int delete(String table, String whereClause, String[] whereArgs) {
+        long start = System.nanoTime();
         String sql = buildDeleteString(table, whereClause, whereArgs);
 
         try {
-            return connection.prepareStatement(sql).executeUpdate();
+            int rowCount = connection.prepareStatement(sql).executeUpdate();
+            logQuery(whereArgs == null ? sql : buildDeleteString(table, whereClause, null), System.nanoTime() - start, 0, rowCount);
+            return rowCount;
         } catch (SQLException e) {
             throw new RuntimeException("SQL exception in delete", e);
         }
@@ -210,8 +232,10 @@ public class ShadowSQLiteDatabase  {
         }
 
         try {
+            long start = System.nanoTime();
             String scrubbedSql = DatabaseConfig.getScrubSQL(sql);
             connection.createStatement().execute(scrubbedSql);
+            logQuery(sql, System.nanoTime() - start, 0, -1);
         } catch (java.sql.SQLException e) {
             android.database.SQLException ase = new android.database.SQLException();
             ase.initCause(e);
@@ -266,6 +290,7 @@ public class ShadowSQLiteDatabase  {
             sqlBody = buildWhereClause(sql, selectionArgs);
         }
         
+        long start = System.nanoTime();
         ResultSet resultSet;
         try {
             SQLiteStatement stmt = compileStatement(sql);
@@ -282,8 +307,10 @@ public class ShadowSQLiteDatabase  {
           }
           //TODO: assert rawquery with args returns actual values
           
+        long executed = System.nanoTime();
         SQLiteCursor cursor = (SQLiteCursor) cursorFactory.newCursor(null, null, null, null);
         shadowOf(cursor).setResultSet(resultSet, sqlBody);
+        logQuery(sql, executed - start, System.nanoTime() - executed, shadowOf(cursor).getCount());
         cursors.add(cursor);
         return cursor;
     }
@@ -423,6 +450,125 @@ public class ShadowSQLiteDatabase  {
         return querySql;
     }
 
+    /**
+     * Returns an entry for every statement run through this database by {@code query()}, {@code rawQuery()},
+     * {@code insert()}, {@code update()}, {@code delete()} or {@code execSQL()}, in execution order. Statements are
+     * logged as the caller wrote them, before scrubbing or binding arguments: {@code execSQL()} and {@code rawQuery()}
+     * log the caller's SQL, and the other methods the SQLite statement their arguments describe, with a {@code ?} for
+     * each argument and value. Only the most recent {@link #setMaxQueryLogSize(int)} are kept.
+     *
+     * @return the query log
+     */
+    public List<QueryLogEntry> getQueryLog() {
+        return Collections.unmodifiableList(new ArrayList<QueryLogEntry>(queryLog));
+    }
+
+    /**
+     * Sets how many statements the query log keeps, dropping the oldest ones beyond that. Defaults to
+     * {@value #DEFAULT_MAX_QUERY_LOG_SIZE}; zero turns the log off.
+     */
+    public void setMaxQueryLogSize(int maxQueryLogSize) {
+        if (maxQueryLogSize < 0) {
+            throw new IllegalArgumentException("maxQueryLogSize must be >= 0");
+        }
+        this.maxQueryLogSize = maxQueryLogSize;
+        trimQueryLog();
+    }
+
+    /**
+     * Returns the logged statements sorted by total time spent, slowest first.
+     *
+     * @return the query log, slowest statements first
+     */
+    public List<QueryLogEntry> getSlowestQueries() {
+        List<QueryLogEntry> sorted = new ArrayList<QueryLogEntry>(queryLog);
+        Collections.sort(sorted, new Comparator<QueryLogEntry>() {
+            @Override public int compare(QueryLogEntry a, QueryLogEntry b) {
+                long aNanos = a.getTotalNanos();
+                long bNanos = b.getTotalNanos();
+                return aNanos < bNanos ? 1 : (aNanos == bNanos ? 0 : -1);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Dumps the query log to the given stream, slowest statements first.
+     */
+    public void dumpQueryLog(PrintStream out) {
+        long totalNanos = 0;
+        for (QueryLogEntry entry : queryLog) {
+            totalNanos += entry.getTotalNanos();
+        }
+        out.println(queryLog.size() + " statements, " + totalNanos / 1000 + "us total");
+        for (QueryLogEntry entry : getSlowestQueries()) {
+            out.println("  " + entry);
+        }
+    }
+
+    private void logQuery(String sql, long executionNanos, long materializationNanos, int rowCount) {
+        queryLog.add(new QueryLogEntry(sql, executionNanos, materializationNanos, rowCount));
+        trimQueryLog();
+    }
+
+    private void trimQueryLog() {
+        while (queryLog.size() > maxQueryLogSize) {
+            queryLog.removeFirst();
+        }
+    }
+
+    /**
+     * Timing and row count for a single statement executed against the database.
+     */
+    public static class QueryLogEntry {
+        private final String sql;
+        private final long executionNanos;
+        private final long materializationNanos;
+        private final int rowCount;
+
+        public QueryLogEntry(String sql, long executionNanos, long materializationNanos, int rowCount) {
+            this.sql = sql;
+            this.executionNanos = executionNanos;
+            this.materializationNanos = materializationNanos;
+            this.rowCount = rowCount;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return time spent building and executing the statement
+         */
+        public long getExecutionNanos() {
+            return executionNanos;
+        }
+
+        /**
+         * @return time spent copying the result rows into the returned {@code Cursor}; zero for statements
+         *         which don't return a cursor
+         */
+        public long getMaterializationNanos() {
+            return materializationNanos;
+        }
+
+        public long getTotalNanos() {
+            return executionNanos + materializationNanos;
+        }
+
+        /**
+         * @return rows returned by a query or affected by an insert, update or delete; -1 for {@code execSQL()}
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @Override public String toString() {
+            return getTotalNanos() / 1000 + "us (execute " + executionNanos / 1000 + "us, materialize "
+                    + materializationNanos / 1000 + "us) rows=" + rowCount + ": " + sql;
+        }
+    }
+
     private static class Transaction {
         final Transaction parent;
         boolean success;
@@ -0,0 +1,424 @@
+package org.robolectric.tester.android.content;
+
+import android.content.SharedPreferences;
+import org.robolectric.util.Scheduler;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * {@code SharedPreferences} kept in an XML file in Android's format, behaving like Android's own implementation:
+ * <ul>
+ * <li>values are read from an in-memory map, which edits replace rather than change (copy on write);</li>
+ * <li>{@link Editor#commit()} updates the map and writes the file before returning;</li>
+ * <li>{@link Editor#apply()} updates the map and posts the write to a {@link Scheduler} (normally the background
+ * scheduler); if several applies are pending when it runs, only the latest state is written;</li>
+ * <li>listeners are held weakly.</li>
+ * </ul>
+ * An existing file is loaded when the preferences are created, so tests can start from prepared preferences.
+ * {@link #getDiskWriteCount()} and {@link #getSkippedWriteCount()} tell how much I/O the code under test caused.
+ */
+public class FileSharedPreferences implements SharedPreferences {
+    private static final Object CONTENT = new Object();
+
+    private final File file;
+    private final File backupFile;
+    private final int mode;
+    private final Scheduler writeScheduler;
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+
+    private volatile Map<String, Object> map;
+    private long memoryStateGeneration;
+    private long diskStateGeneration;
+    private int diskWriteCount;
+    private int skippedWriteCount;
+
+    /**
+     * @param file           the XML file to load from and write to
+     * @param mode           the mode passed to {@code getSharedPreferences()}
+     * @param writeScheduler where {@link Editor#apply()} posts its writes
+     */
+    public FileSharedPreferences(File file, int mode, Scheduler writeScheduler) {
+        this.file = file;
+        this.backupFile = new File(file.getPath() + ".bak");
+        this.mode = mode;
+        this.writeScheduler = writeScheduler;
+        this.map = load();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return how many times the file has been written
+     */
+    public synchronized int getDiskWriteCount() {
+        return diskWriteCount;
+    }
+
+    /**
+     * Non-Android accessor.
+     *
+     * @return how many applied edits didn't need their own write, because a later edit's write covered them
+     */
+    public synchronized int getSkippedWriteCount() {
+        return skippedWriteCount;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<String, Object>(map);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = (String) map.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> value = (Set<String>) map.get(key);
+        return value != null ? value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) map.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) map.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) map.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) map.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FileEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, CONTENT);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    public boolean hasListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            return listeners.containsKey(listener);
+        }
+    }
+
+    private void notifyListeners(List<String> changedKeys) {
+        if (changedKeys.isEmpty()) {
+            return;
+        }
+        List<OnSharedPreferenceChangeListener> listenersToNotify;
+        synchronized (listeners) {
+            listenersToNotify = new ArrayList<OnSharedPreferenceChangeListener>(listeners.keySet());
+        }
+        for (int i = changedKeys.size() - 1; i >= 0; i--) {
+            for (OnSharedPreferenceChangeListener listener : listenersToNotify) {
+                listener.onSharedPreferenceChanged(this, changedKeys.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the given state unless the file already holds it or (for applied edits) a later state is on its way.
+     */
+    private synchronized void writeToFile(Map<String, Object> state, long generation, boolean fromCommit) {
+        if (diskStateGeneration >= generation || (!fromCommit && generation != memoryStateGeneration)) {
+            skippedWriteCount++;
+            return;
+        }
+        try {
+            write(state);
+        } catch (IOException e) {
+            throw new RuntimeException("couldn't write " + file, e);
+        }
+        diskStateGeneration = generation;
+        diskWriteCount++;
+    }
+
+    private Map<String, Object> load() {
+        if (backupFile.exists()) {
+            file.delete();
+            backupFile.renameTo(file);
+        }
+        if (!file.exists()) {
+            return new HashMap<String, Object>();
+        }
+
+        try {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+            Map<String, Object> values = new HashMap<String, Object>();
+            NodeList children = document.getDocumentElement().getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child instanceof Element) {
+                    Element element = (Element) child;
+                    values.put(element.getAttribute("name"), readValue(element));
+                }
+            }
+            return values;
+        } catch (Exception e) {
+            throw new RuntimeException("couldn't read " + file, e);
+        }
+    }
+
+    private static Object readValue(Element element) {
+        String tag = element.getTagName();
+        String value = element.getAttribute("value");
+        if ("string".equals(tag)) {
+            return element.getTextContent();
+        } else if ("int".equals(tag)) {
+            return Integer.parseInt(value);
+        } else if ("long".equals(tag)) {
+            return Long.parseLong(value);
+        } else if ("float".equals(tag)) {
+            return Float.parseFloat(value);
+        } else if ("boolean".equals(tag)) {
+            return Boolean.parseBoolean(value);
+        } else if ("set".equals(tag)) {
+            Set<String> strings = new HashSet<String>();
+            NodeList children = element.getElementsByTagName("string");
+            for (int i = 0; i < children.getLength(); i++) {
+                strings.add(children.item(i).getTextContent());
+            }
+            return strings;
+        }
+        throw new IllegalArgumentException("unknown preference type <" + tag + ">");
+    }
+
+    private void write(Map<String, Object> state) throws IOException {
+        file.getParentFile().mkdirs();
+        if (file.exists() && !backupFile.exists() && !file.renameTo(backupFile)) {
+            throw new IOException("couldn't back up " + file);
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(state).entrySet()) {
+                writeValue(writer, entry.getKey(), entry.getValue());
+            }
+            writer.write("</map>\n");
+        } finally {
+            writer.close();
+        }
+        backupFile.delete();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(Writer writer, String name, Object value) throws IOException {
+        String nameAttribute = " name=\"" + escape(name) + "\"";
+        if (value instanceof String) {
+            writer.write("    <string" + nameAttribute + ">" + escape((String) value) + "</string>\n");
+        } else if (value instanceof Set) {
+            writer.write("    <set" + nameAttribute + ">\n");
+            for (String string : (Set<String>) value) {
+                writer.write("        <string>" + escape(string) + "</string>\n");
+            }
+            writer.write("    </set>\n");
+        } else {
+            String tag = value instanceof Integer ? "int" : value instanceof Long ? "long"
+                    : value instanceof Float ? "float" : "boolean";
+            writer.write("    <" + tag + nameAttribute + " value=\"" + value + "\" />\n");
+        }
+    }
+
+    private static String escape(String text) {
+        StringBuilder buf = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': buf.append("&amp;"); break;
+                case '<': buf.append("&lt;"); break;
+                case '>': buf.append("&gt;"); break;
+                case '"': buf.append("&quot;"); break;
+                default: buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    private class FileEditor implements Editor {
+        private final Map<String, Object> modified = new HashMap<String, Object>();
+        private boolean clear;
+
+        @Override
+        public synchronized Editor putString(String key, String value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putStringSet(String key, Set<String> values) {
+            modified.put(key, values == null ? null : Collections.unmodifiableSet(new HashSet<String>(values)));
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            // a null value means remove, as putString(key, null) does on Android
+            modified.put(key, null);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            MemoryCommit commit = commitToMemory();
+            if (commit.changed) {
+                writeToFile(commit.state, commit.generation, true);
+            }
+            notifyListeners(commit.changedKeys);
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            final MemoryCommit commit = commitToMemory();
+            if (commit.changed) {
+                writeScheduler.post(new Runnable() {
+                    @Override public void run() {
+                        writeToFile(commit.state, commit.generation, false);
+                    }
+                });
+            }
+            notifyListeners(commit.changedKeys);
+        }
+
+        private MemoryCommit commitToMemory() {
+            synchronized (FileSharedPreferences.this) {
+                synchronized (this) {
+                    Map<String, Object> state = new HashMap<String, Object>(map);
+                    List<String> changedKeys = new ArrayList<String>();
+                    boolean changed = false;
+                    if (clear) {
+                        changed = !state.isEmpty();
+                        state.clear();
+                        clear = false;
+                    }
+                    for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                        String key = entry.getKey();
+                        Object value = entry.getValue();
+                        if (value == null) {
+                            if (!state.containsKey(key)) continue;
+                            state.remove(key);
+                        } else {
+                            if (value.equals(state.get(key))) continue;
+                            state.put(key, value);
+                        }
+                        changed = true;
+                        changedKeys.add(key);
+                    }
+                    modified.clear();
+
+                    if (changed) {
+                        memoryStateGeneration++;
+                        map = state;
+                    }
+                    return new MemoryCommit(map, memoryStateGeneration, changed, changedKeys);
+                }
+            }
+        }
+    }
+
+    private static class MemoryCommit {
+        final Map<String, Object> state;
+        final long generation;
+        final boolean changed;
+        final List<String> changedKeys;
+
+        MemoryCommit(Map<String, Object> state, long generation, boolean changed, List<String> changedKeys) {
+            this.state = state;
+            this.generation = generation;
+            this.changed = changed;
+            this.changedKeys = changedKeys;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.robolectric.tester.org.apache.http;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A ring buffer of the most recent entries, oldest first. Once {@code limit} entries are held, adding another drops
+ * the oldest. With a negative limit it grows without bound. Removing the oldest entry is constant time.
+ */
+class BoundedHistory<T> extends AbstractList<T> implements RandomAccess {
+    private Object[] elements = new Object[16];
+    private int head = 0;
+    private int size = 0;
+    private int limit;
+
+    BoundedHistory(int limit) {
+        this.limit = limit;
+    }
+
+    void setLimit(int limit) {
+        this.limit = limit;
+        if (limit >= 0) {
+            while (size > limit) {
+                removeFirst();
+            }
+        }
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    @Override public boolean add(T element) {
+        if (limit == 0) {
+            return false;
+        }
+        if (limit > 0 && size == limit) {
+            removeFirst();
+        }
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) % elements.length] = element;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return (T) elements[(head + index) % elements.length];
+    }
+
+    @Override public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    T removeFirst() {
+        if (size == 0) {
+            return null;
+        }
+        T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        size--;
+        modCount++;
+        return element;
+    }
+
+    T getLast() {
+        return size == 0 ? null : get(size - 1);
+    }
+
+    @Override public void clear() {
+        elements = new Object[16];
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+
+    private void grow() {
+        Object[] grown = new Object[elements.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = elements[(head + i) % elements.length];
+        }
+        elements = grown;
+        head = 0;
+    }
+}
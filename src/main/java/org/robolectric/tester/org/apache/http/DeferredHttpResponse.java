@@ -0,0 +1,138 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.params.HttpParams;
+
+import java.util.Locale;
+
+/**
+ * The response to a request made under a {@link NetworkProfile} on the background scheduler's own thread, which can't
+ * wait for it: every call fails until the scheduler has been advanced to its delivery time, then goes to the response.
+ */
+class DeferredHttpResponse implements HttpResponse {
+    private final ScheduledArrival arrival;
+    private final HttpResponse response;
+
+    DeferredHttpResponse(ScheduledArrival arrival, HttpResponse response) {
+        this.arrival = arrival;
+        this.response = response;
+    }
+
+    private HttpResponse delivered() {
+        arrival.checkArrived("the response");
+        return response;
+    }
+
+    @Override public StatusLine getStatusLine() {
+        return delivered().getStatusLine();
+    }
+
+    @Override public void setStatusLine(StatusLine statusLine) {
+        delivered().setStatusLine(statusLine);
+    }
+
+    @Override public void setStatusLine(ProtocolVersion protocolVersion, int code) {
+        delivered().setStatusLine(protocolVersion, code);
+    }
+
+    @Override public void setStatusLine(ProtocolVersion protocolVersion, int code, String reason) {
+        delivered().setStatusLine(protocolVersion, code, reason);
+    }
+
+    @Override public void setStatusCode(int code) {
+        delivered().setStatusCode(code);
+    }
+
+    @Override public void setReasonPhrase(String reason) {
+        delivered().setReasonPhrase(reason);
+    }
+
+    @Override public HttpEntity getEntity() {
+        return delivered().getEntity();
+    }
+
+    @Override public void setEntity(HttpEntity entity) {
+        delivered().setEntity(entity);
+    }
+
+    @Override public Locale getLocale() {
+        return delivered().getLocale();
+    }
+
+    @Override public void setLocale(Locale locale) {
+        delivered().setLocale(locale);
+    }
+
+    @Override public ProtocolVersion getProtocolVersion() {
+        return delivered().getProtocolVersion();
+    }
+
+    @Override public boolean containsHeader(String name) {
+        return delivered().containsHeader(name);
+    }
+
+    @Override public Header[] getHeaders(String name) {
+        return delivered().getHeaders(name);
+    }
+
+    @Override public Header getFirstHeader(String name) {
+        return delivered().getFirstHeader(name);
+    }
+
+    @Override public Header getLastHeader(String name) {
+        return delivered().getLastHeader(name);
+    }
+
+    @Override public Header[] getAllHeaders() {
+        return delivered().getAllHeaders();
+    }
+
+    @Override public void addHeader(Header header) {
+        delivered().addHeader(header);
+    }
+
+    @Override public void addHeader(String name, String value) {
+        delivered().addHeader(name, value);
+    }
+
+    @Override public void setHeader(Header header) {
+        delivered().setHeader(header);
+    }
+
+    @Override public void setHeader(String name, String value) {
+        delivered().setHeader(name, value);
+    }
+
+    @Override public void setHeaders(Header[] headers) {
+        delivered().setHeaders(headers);
+    }
+
+    @Override public void removeHeader(Header header) {
+        delivered().removeHeader(header);
+    }
+
+    @Override public void removeHeaders(String name) {
+        delivered().removeHeaders(name);
+    }
+
+    @Override public HeaderIterator headerIterator() {
+        return delivered().headerIterator();
+    }
+
+    @Override public HeaderIterator headerIterator(String name) {
+        return delivered().headerIterator(name);
+    }
+
+    @Override public HttpParams getParams() {
+        return delivered().getParams();
+    }
+
+    @Override public void setParams(HttpParams params) {
+        delivered().setParams(params);
+    }
+}
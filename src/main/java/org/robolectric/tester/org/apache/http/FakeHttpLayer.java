@@ -9,36 +9,52 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.RequestDirector;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultRequestDirector;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.robolectric.Robolectric;
 import org.robolectric.shadows.HttpResponseGenerator;
+import org.robolectric.util.Scheduler;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
+/**
+ * Answers requests from pending responses and response rules, and keeps a history of them. Requests may arrive on
+ * other threads, e.g. from a {@link FakeHttpServer}, so the rules, pending responses and history are guarded by the
+ * layer's own monitor; a request only holds it while its response is chosen and recorded, not while it is delivered.
+ */
 public class FakeHttpLayer {
+    public static final int UNLIMITED_HISTORY = -1;
+
     List<HttpResponseGenerator> pendingHttpResponses = new ArrayList<HttpResponseGenerator>();
-    List<HttpRequestInfo> httpRequestInfos = new ArrayList<HttpRequestInfo>();
-    List<HttpResponse> httpResponses = new ArrayList<HttpResponse>();
-    List<HttpEntityStub.ResponseRule> httpResponseRules = new ArrayList<HttpEntityStub.ResponseRule>();
+    BoundedHistory<HttpRequestInfo> httpRequestInfos = new BoundedHistory<HttpRequestInfo>(UNLIMITED_HISTORY);
+    BoundedHistory<HttpResponse> httpResponses = new BoundedHistory<HttpResponse>(UNLIMITED_HISTORY);
+    List<HttpHistoryListener> httpHistoryListeners = new ArrayList<HttpHistoryListener>();
+    private long sentHttpRequestCount = 0;
+    ResponseRuleIndex httpResponseRules = new ResponseRuleIndex();
     HttpResponse defaultHttpResponse;
     private HttpResponse defaultResponse;
     private boolean interceptHttpRequests = true;
     private boolean logHttpRequests = false;
+    private HttpCassette.Recorder cassetteRecorder;
+    private NetworkProfile networkProfile;
+    private Map<HttpEntityStub.ResponseRule, NetworkProfile> ruleNetworkProfiles = new IdentityHashMap<HttpEntityStub.ResponseRule, NetworkProfile>();
 
-    public HttpRequestInfo getLastSentHttpRequestInfo() {
-        List<HttpRequestInfo> requestInfos = Robolectric.getFakeHttpLayer().getSentHttpRequestInfos();
-        if (requestInfos.isEmpty()) {
-            return null;
-        }
-        return requestInfos.get(requestInfos.size() - 1);
+    public synchronized HttpRequestInfo getLastSentHttpRequestInfo() {
+        return httpRequestInfos.getLast();
     }
 
     public void addPendingHttpResponse(int statusCode, String responseBody, Header... headers) {
@@ -54,7 +70,7 @@ public class FakeHttpLayer {
         });
     }
 
-    public void addPendingHttpResponse(HttpResponseGenerator httpResponseGenerator) {
+    public synchronized void addPendingHttpResponse(HttpResponseGenerator httpResponseGenerator) {
         pendingHttpResponses.add(httpResponseGenerator);
     }
 
@@ -84,11 +100,37 @@ public class FakeHttpLayer {
         addHttpResponseRule(new RequestMatcherResponseRule(requestMatcher, responses));
     }
 
-    public void addHttpResponseRule(HttpEntityStub.ResponseRule responseRule) {
-        httpResponseRules.add(0, responseRule);
+    public synchronized void addHttpResponseRule(HttpEntityStub.ResponseRule responseRule) {
+        httpResponseRules.add(responseRule);
+    }
+
+    public void addHttpResponseRule(RequestMatcher requestMatcher, HttpResponse response, NetworkProfile networkProfile) {
+        addHttpResponseRule(new RequestMatcherResponseRule(requestMatcher, response), networkProfile);
+    }
+
+    /**
+     * Add a response rule whose responses are delivered under the given network conditions, instead of those set with
+     * {@link #setNetworkProfile(NetworkProfile)}.
+     */
+    public synchronized void addHttpResponseRule(HttpEntityStub.ResponseRule responseRule, NetworkProfile networkProfile) {
+        ruleNetworkProfiles.put(responseRule, networkProfile);
+        addHttpResponseRule(responseRule);
     }
 
-    public void setDefaultHttpResponse(HttpResponse defaultHttpResponse) {
+    /**
+     * Sets the network conditions under which responses are delivered, unless their rule has its own.
+     *
+     * @param networkProfile the conditions to simulate, or null to return responses instantly (the default)
+     */
+    public synchronized void setNetworkProfile(NetworkProfile networkProfile) {
+        this.networkProfile = networkProfile;
+    }
+
+    public synchronized NetworkProfile getNetworkProfile() {
+        return networkProfile;
+    }
+
+    public synchronized void setDefaultHttpResponse(HttpResponse defaultHttpResponse) {
         this.defaultHttpResponse = defaultHttpResponse;
     }
 
@@ -96,27 +138,32 @@ public class FakeHttpLayer {
         setDefaultHttpResponse(new TestHttpResponse(statusCode, responseBody));
     }
 
-    private HttpResponse findResponse(HttpRequest httpRequest) throws HttpException, IOException {
+    private synchronized FoundResponse findResponse(HttpRequest httpRequest) throws HttpException, IOException {
         if (!pendingHttpResponses.isEmpty()) {
-            return pendingHttpResponses.remove(0).getResponse(httpRequest);
+            return new FoundResponse(pendingHttpResponses.remove(0).getResponse(httpRequest), networkProfile);
         }
 
-        for (HttpEntityStub.ResponseRule httpResponseRule : httpResponseRules) {
-            if (httpResponseRule.matches(httpRequest)) {
-                return httpResponseRule.getResponse();
+        HttpEntityStub.ResponseRule httpResponseRule = httpResponseRules.findMatch(httpRequest);
+        if (httpResponseRule != null) {
+            NetworkProfile profile = ruleNetworkProfiles.containsKey(httpResponseRule)
+                    ? ruleNetworkProfiles.get(httpResponseRule) : networkProfile;
+            if (httpResponseRule instanceof HttpResponseGenerator) {
+                return new FoundResponse(((HttpResponseGenerator) httpResponseRule).getResponse(httpRequest), profile);
             }
+            return new FoundResponse(httpResponseRule.getResponse(), profile);
         }
 
         System.err.println("Unexpected HTTP call " + httpRequest.getRequestLine());
 
-        return defaultHttpResponse;
+        return new FoundResponse(defaultHttpResponse, networkProfile);
     }
 
     public HttpResponse emulateRequest(HttpHost httpHost, HttpRequest httpRequest, HttpContext httpContext, RequestDirector requestDirector) throws HttpException, IOException {
         if (logHttpRequests) {
             System.out.println("  <-- " + httpRequest.getRequestLine());
         }
-        HttpResponse httpResponse = findResponse(httpRequest);
+        FoundResponse found = findResponse(httpRequest);
+        HttpResponse httpResponse = found.response;
         if (logHttpRequests) {
             System.out.println("  --> " + (httpResponse == null ? null : httpResponse.getStatusLine().getStatusCode()));
         }
@@ -132,22 +179,83 @@ public class FakeHttpLayer {
             } else if (HttpConnectionParams.getSoTimeout(params) < 0) {
                 throw new ConnectTimeoutException("The operation timed out");
             }
+
+            if (found.networkProfile != null) {
+                return deliverOverNetwork(found.networkProfile, httpHost, httpRequest, httpContext, requestDirector, httpResponse);
+            }
         }
 
         addRequestInfo(new HttpRequestInfo(httpRequest, httpHost, httpContext, requestDirector));
         addHttpResponse(httpResponse);
         return httpResponse;
     }
-    public boolean hasPendingResponses() {
+
+    private HttpResponse deliverOverNetwork(NetworkProfile profile, HttpHost httpHost, HttpRequest httpRequest, HttpContext httpContext, RequestDirector requestDirector, HttpResponse httpResponse) throws IOException {
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        long latency = profile.nextLatency(httpRequest);
+        int socketTimeout = getSocketTimeout(httpRequest, requestDirector);
+        if (socketTimeout > 0 && latency > socketTimeout) {
+            if (!scheduler.isAssociatedThread()) {
+                ScheduledArrival.after(scheduler, socketTimeout, null).await("the socket timeout");
+            }
+            throw new SocketTimeoutException("Read timed out");
+        }
+
+        HttpEntity entity = httpResponse.getEntity();
+        byte[] content = profile.getBandwidth() > 0 && entity != null ? EntityUtils.toByteArray(entity) : null;
+        addRequestInfo(new HttpRequestInfo(httpRequest, httpHost, httpContext, requestDirector));
+        ScheduledArrival arrival;
+        final HttpResponse deliveredResponse;
+        synchronized (scheduler) {
+            long deliveryTime = scheduler.getCurrentTime() + latency;
+            if (content == null) {
+                deliveredResponse = httpResponse;
+            } else {
+                BasicHttpResponse trickledResponse = new BasicHttpResponse(httpResponse.getStatusLine());
+                trickledResponse.setHeaders(httpResponse.getAllHeaders());
+                trickledResponse.setParams(httpResponse.getParams());
+                trickledResponse.setEntity(new TricklingHttpEntity(entity, content, scheduler, deliveryTime, profile.getBandwidth()));
+                deliveredResponse = trickledResponse;
+            }
+            arrival = new ScheduledArrival(scheduler, deliveryTime, new Runnable() {
+                @Override public void run() {
+                    addHttpResponse(deliveredResponse);
+                }
+            });
+        }
+
+        if (arrival.hasArrived()) {
+            return deliveredResponse;
+        }
+        if (scheduler.isAssociatedThread()) {
+            return new DeferredHttpResponse(arrival, deliveredResponse);
+        }
+        arrival.await("the response");
+        return deliveredResponse;
+    }
+
+    private static int getSocketTimeout(HttpRequest httpRequest, RequestDirector requestDirector) {
+        int socketTimeout = HttpConnectionParams.getSoTimeout(httpRequest.getParams());
+        if (socketTimeout == 0 && requestDirector instanceof DefaultRequestDirector) {
+            HttpParams directorParams = Robolectric.shadowOf((DefaultRequestDirector) requestDirector).getHttpParams();
+            if (directorParams != null) {
+                socketTimeout = HttpConnectionParams.getSoTimeout(directorParams);
+            }
+        }
+        return socketTimeout;
+    }
+
+    public synchronized boolean hasPendingResponses() {
         return !pendingHttpResponses.isEmpty();
     }
 
-    public boolean hasRequestInfos() {
+    public synchronized boolean hasRequestInfos() {
         return !httpRequestInfos.isEmpty();
     }
 
-    public void clearRequestInfos() {
+    public synchronized void clearRequestInfos() {
         httpRequestInfos.clear();
+        sentHttpRequestCount = 0;
     }
 
     /**
@@ -159,15 +267,19 @@ public class FakeHttpLayer {
      *
      * @param requestInfo
      */
-    public void addRequestInfo(HttpRequestInfo requestInfo) {
+    public synchronized void addRequestInfo(HttpRequestInfo requestInfo) {
+        sentHttpRequestCount++;
         httpRequestInfos.add(requestInfo);
+        for (HttpHistoryListener listener : httpHistoryListeners) {
+            listener.onHttpRequestSent(requestInfo);
+        }
     }
 
-    public boolean hasResponseRules() {
+    public synchronized boolean hasResponseRules() {
         return !httpResponseRules.isEmpty();
     }
 
-    public boolean hasRequestMatchingRule(RequestMatcher rule) {
+    public synchronized boolean hasRequestMatchingRule(RequestMatcher rule) {
         for (HttpRequestInfo requestInfo : httpRequestInfos) {
             if (rule.matches(requestInfo.httpRequest)) {
                 return true;
@@ -180,12 +292,12 @@ public class FakeHttpLayer {
         return defaultResponse;
     }
 
-    public HttpRequestInfo getSentHttpRequestInfo(int index) {
+    public synchronized HttpRequestInfo getSentHttpRequestInfo(int index) {
         return httpRequestInfos.get(index);
     }
 
-    public HttpRequestInfo getNextSentHttpRequestInfo() {
-        return httpRequestInfos.size() > 0 ? httpRequestInfos.remove(0) : null;
+    public synchronized HttpRequestInfo getNextSentHttpRequestInfo() {
+        return httpRequestInfos.removeFirst();
     }
 
     public void logHttpRequests() {
@@ -196,15 +308,60 @@ public class FakeHttpLayer {
         logHttpRequests = false;
     }
 
-    public List<HttpRequestInfo> getSentHttpRequestInfos() {
+    /**
+     * @return a copy of the retained request history; see {@link #getSentHttpRequestInfoHistory()} for a view that
+     * doesn't copy
+     */
+    public synchronized List<HttpRequestInfo> getSentHttpRequestInfos() {
         return new ArrayList<HttpRequestInfo>(httpRequestInfos);
     }
 
-    public void clearHttpResponseRules() {
+    /**
+     * @return a read-only live view of the retained request history, oldest first; only read it while no requests
+     * are arriving on other threads
+     */
+    public List<HttpRequestInfo> getSentHttpRequestInfoHistory() {
+        return Collections.unmodifiableList(httpRequestInfos);
+    }
+
+    /**
+     * @return the number of requests sent since the last {@link #clearRequestInfos()}, including any which have since
+     * been dropped from the history or taken with {@link #getNextSentHttpRequestInfo()}
+     */
+    public synchronized long getSentHttpRequestCount() {
+        return sentHttpRequestCount;
+    }
+
+    /**
+     * Limits how many requests and responses are retained for assertions. Once the limit is reached the oldest entries
+     * are dropped; with a limit of zero nothing is retained, which suits soak tests that only watch the traffic
+     * through an {@link HttpHistoryListener}. Defaults to {@link #UNLIMITED_HISTORY}.
+     *
+     * @param limit the maximum number of requests (and of responses) to retain, or {@link #UNLIMITED_HISTORY}
+     */
+    public synchronized void setHttpHistoryLimit(int limit) {
+        httpRequestInfos.setLimit(limit);
+        httpResponses.setLimit(limit);
+    }
+
+    public synchronized int getHttpHistoryLimit() {
+        return httpRequestInfos.getLimit();
+    }
+
+    public synchronized void addHttpHistoryListener(HttpHistoryListener listener) {
+        httpHistoryListeners.add(listener);
+    }
+
+    public synchronized void removeHttpHistoryListener(HttpHistoryListener listener) {
+        httpHistoryListeners.remove(listener);
+    }
+
+    public synchronized void clearHttpResponseRules() {
         httpResponseRules.clear();
+        ruleNetworkProfiles.clear();
     }
 
-    public void clearPendingHttpResponses() {
+    public synchronized void clearPendingHttpResponses() {
         pendingHttpResponses.clear();
     }
 
@@ -217,7 +374,7 @@ public class FakeHttpLayer {
      *
      * @return List of all HTTP Responses logged by the fake http layer.
      */
-    public List<HttpResponse> getHttpResponses() {
+    public synchronized List<HttpResponse> getHttpResponses() {
         return new ArrayList<HttpResponse>(httpResponses);
     }
 
@@ -227,24 +384,26 @@ public class FakeHttpLayer {
      *
      * @param response The final response received by the server
      */
-    public void addHttpResponse(HttpResponse response) {
+    public synchronized void addHttpResponse(HttpResponse response) {
         this.httpResponses.add(response);
+        for (HttpHistoryListener listener : httpHistoryListeners) {
+            listener.onHttpResponseReceived(response);
+        }
     }
 
     /**
      * Helper method that returns the latest received response from the server.
      * @return The latest HTTP response or null, if no responses are available
      */
-    public HttpResponse getLastHttpResponse() {
-        if (httpResponses.isEmpty()) return null;
-        return httpResponses.get(httpResponses.size()-1) ;
+    public synchronized HttpResponse getLastHttpResponse() {
+        return httpResponses.getLast();
     }
 
     /**
      * Call this method if you want to ensure that there's no http responses logged from this point until
      * the next response arrives. Helpful to ensure that the state is "clear" before actions are executed.
      */
-    public void clearHttpResponses() {
+    public synchronized void clearHttpResponses() {
         this.httpResponses.clear();
     }
 
@@ -262,6 +421,60 @@ public class FakeHttpLayer {
         return interceptHttpRequests;
     }
 
+    /**
+     * Records every real HTTP response received while {@link #interceptHttpRequests(boolean) intercepting} is off
+     * into the given cassette, until this is called again with null. Closing the recorder is up to the caller.
+     *
+     * @param recorder the cassette to record to, or null to stop recording
+     */
+    public void recordHttpResponsesTo(HttpCassette.Recorder recorder) {
+        this.cassetteRecorder = recorder;
+    }
+
+    /**
+     * As a consumer of the fake http call, you should never call this method. This should be used solely
+     * by components that exercise real http calls.
+     *
+     * @return the response to hand back to the caller, which has a buffered copy of the entity if it was recorded
+     */
+    public HttpResponse recordHttpResponse(HttpRequest request, HttpResponse response) throws IOException {
+        if (cassetteRecorder == null) {
+            return response;
+        }
+
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+        if (entity != null) {
+            ByteArrayEntity bufferedEntity = new ByteArrayEntity(body);
+            bufferedEntity.setContentType(entity.getContentType());
+            bufferedEntity.setContentEncoding(entity.getContentEncoding());
+            response.setEntity(bufferedEntity);
+        }
+        cassetteRecorder.record(request.getRequestLine().getMethod(), request.getRequestLine().getUri(),
+                response.getStatusLine().getStatusCode(), response.getAllHeaders(), body);
+        return response;
+    }
+
+    private static class FoundResponse {
+        final HttpResponse response;
+        final NetworkProfile networkProfile;
+
+        FoundResponse(HttpResponse response, NetworkProfile networkProfile) {
+            this.response = response;
+            this.networkProfile = networkProfile;
+        }
+    }
+
+    /**
+     * Is told about every request and response as it passes through the fake HTTP layer, whether or not it is
+     * retained in the history.
+     */
+    public interface HttpHistoryListener {
+        void onHttpRequestSent(HttpRequestInfo requestInfo);
+
+        void onHttpResponseReceived(HttpResponse response);
+    }
+
     public static class RequestMatcherResponseRule implements HttpEntityStub.ResponseRule {
         private RequestMatcher requestMatcher;
         private HttpResponse responseToGive;
@@ -294,6 +507,10 @@ public class FakeHttpLayer {
             return requestMatcher.matches(request);
         }
 
+        RequestMatcher getRequestMatcher() {
+            return requestMatcher;
+        }
+
         @Override
         public HttpResponse getResponse() throws HttpException, IOException {
             if (httpException != null) throw httpException;
@@ -323,6 +540,14 @@ public class FakeHttpLayer {
             return request.getRequestLine().getMethod().equals(method) &&
                     request.getRequestLine().getUri().equals(uri);
         }
+
+        String getMethod() {
+            return method;
+        }
+
+        String getUri() {
+            return uri;
+        }
     }
 
     public static class UriRequestMatcher implements RequestMatcher {
@@ -336,6 +561,10 @@ public class FakeHttpLayer {
         public boolean matches(HttpRequest request) {
             return request.getRequestLine().getUri().equals(uri);
         }
+
+        String getUri() {
+            return uri;
+        }
     }
 
     public static class RequestMatcherBuilder implements RequestMatcher {
@@ -396,7 +625,8 @@ public class FakeHttpLayer {
 
         @Override
         public boolean matches(HttpRequest request) {
-            URI uri = URI.create(request.getRequestLine().getUri());
+            ParsedHttpRequest parsedRequest = ParsedHttpRequest.of(request);
+            URI uri = parsedRequest.getUri();
             if (method != null && !method.equals(request.getRequestLine().getMethod())) {
                 return false;
             }
@@ -410,17 +640,12 @@ public class FakeHttpLayer {
                 return false;
             }
             if (params.size() > 0) {
-                Map<String, String> requestParams = ParamsParser.parseParams(request);
-                if (!requestParams.equals(params)) {
+                if (!parsedRequest.getParams().equals(params)) {
                     return false;
                 }
             }
             if (headers.size() > 0) {
-                Map<String, String> actualRequestHeaders = new HashMap<String, String>();
-                for (Header header : request.getAllHeaders()) {
-                    actualRequestHeaders.put(header.getName(), header.getValue());
-                }
-                if (!headers.equals(actualRequestHeaders)) {
+                if (!headers.equals(parsedRequest.getHeaders())) {
                     return false;
                 }
             }
@@ -0,0 +1,651 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP/1.1 server on the loopback interface which answers requests from a {@link FakeHttpLayer}'s rules and
+ * pending responses, for clients such as {@code HttpURLConnection} which don't go through {@code DefaultHttpClient}.
+ * <p/>
+ * A single thread serves every connection with a non-blocking selector, so any number of clients can be connected at
+ * once. Requests are answered on worker threads, so a slow response (e.g. under a {@link NetworkProfile}) only holds
+ * up its own connection. Connections are kept alive unless the client asks otherwise, and pipelined requests are
+ * answered in order. Request bodies may be sent with a {@code Content-Length} or chunked; request headers may take up
+ * to {@link #MAX_HEADER_BYTES}.
+ * {@link #getConnectionCount()} and {@link #getRequestCount()} show how well a client reuses its connections.
+ * <p/>
+ * Rules see an absolute request URI built from the {@code Host} header, or from the virtual host given to the
+ * constructor so that rules written for {@code http://example.com/...} also apply here.
+ *
+ * <pre>
+ * FakeHttpServer server = new FakeHttpServer(Robolectric.getFakeHttpLayer(), "example.com").start();
+ * URL url = server.getUrl("/foo");
+ * ...
+ * server.shutdown();
+ * </pre>
+ */
+public class FakeHttpServer {
+    /**
+     * The most bytes a request line and headers may take; longer ones are answered with 431.
+     */
+    public static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    private static final byte[] END_OF_HEADERS = {'\r', '\n', '\r', '\n'};
+    private static final byte[] END_OF_LINE = {'\r', '\n'};
+
+    private final FakeHttpLayer fakeHttpLayer;
+    private final String virtualHost;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final Queue<Answer> answers = new ConcurrentLinkedQueue<Answer>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread thread;
+    private volatile boolean running;
+
+    public FakeHttpServer(FakeHttpLayer fakeHttpLayer) {
+        this(fakeHttpLayer, null);
+    }
+
+    /**
+     * @param fakeHttpLayer the layer whose rules answer requests
+     * @param virtualHost   the host (and optional port) rules should see in request URIs, or null to use the
+     *                      {@code Host} header
+     */
+    public FakeHttpServer(FakeHttpLayer fakeHttpLayer, String virtualHost) {
+        this.fakeHttpLayer = fakeHttpLayer;
+        this.virtualHost = virtualHost;
+    }
+
+    public synchronized FakeHttpServer start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("already started");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger workerCount = new AtomicInteger();
+
+            @Override public Thread newThread(Runnable runnable) {
+                Thread worker = new Thread(runnable, "robolectric-fake-http-server-worker-" + workerCount.incrementAndGet());
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override public void run() {
+                serve();
+            }
+        }, "robolectric-fake-http-server");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    public synchronized void shutdown() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        workers.shutdownNow();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            thread = null;
+            answers.clear();
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @param path a path starting with "/", optionally with a query
+     * @return the URL of that path on this server
+     */
+    public URL getUrl(String path) {
+        try {
+            return new URL("http", "127.0.0.1", getPort(), path);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * @return the number of requests answered so far
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+                Answer answer;
+                while ((answer = answers.poll()) != null) {
+                    try {
+                        answer.connection.answered(answer.response);
+                    } catch (IOException e) {
+                        closeQuietly(answer.connection.key);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.write();
+                        }
+                    } catch (IOException e) {
+                        closeQuietly(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(key, channel));
+            connectionCount.incrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Asks the layer for the response to a request, and serializes it; runs on a worker thread.
+     *
+     * @return the response's bytes, or null to drop the connection
+     */
+    private List<ByteBuffer> answer(Connection.ParsedRequest parsed) {
+        HttpResponse response;
+        try {
+            response = fakeHttpLayer.emulateRequest(null, parsed.request, null, null);
+        } catch (IOException e) {
+            // a simulated network failure; the client sees the connection drop
+            return null;
+        } catch (Exception e) {
+            response = simpleResponse(500, String.valueOf(e.getMessage()));
+        }
+        try {
+            List<ByteBuffer> serialized = serialize(response, parsed.method.equals("HEAD"), parsed.close);
+            requestCount.incrementAndGet();
+            return serialized;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<ByteBuffer> serialize(HttpResponse response, boolean omitBody, boolean close) throws IOException {
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.getStatusLine().getStatusCode()).append(' ')
+                .append(reasonPhrase(response)).append("\r\n");
+        for (Header header : response.getAllHeaders()) {
+            String name = header.getName();
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")
+                    || name.equalsIgnoreCase("Connection")) {
+                continue;
+            }
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (entity != null && entity.getContentType() != null && response.getFirstHeader("Content-Type") == null) {
+            head.append("Content-Type: ").append(entity.getContentType().getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        if (close) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(2);
+        buffers.add(ByteBuffer.wrap(head.toString().getBytes("ISO-8859-1")));
+        if (!omitBody) {
+            buffers.add(ByteBuffer.wrap(body));
+        }
+        return buffers;
+    }
+
+    private class Connection {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        /** Bytes received but not yet parsed, from 0 up to its position. */
+        private ByteBuffer pending = ByteBuffer.allocate(8192);
+        private final Deque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+        private ParsedRequest parsing;
+        private boolean answering;
+        private boolean inputShutdown;
+        private boolean closeAfterWriting;
+
+        Connection(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int count;
+            while ((count = channel.read(readBuffer)) > 0) {
+                readBuffer.flip();
+                if (pending.remaining() < readBuffer.remaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + readBuffer.remaining()));
+                    pending.flip();
+                    grown.put(pending);
+                    pending = grown;
+                }
+                pending.put(readBuffer);
+                readBuffer.clear();
+            }
+            if (count == -1) {
+                inputShutdown = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+
+            handleRequests();
+            closeIfDone();
+        }
+
+        void write() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                writeQueue.poll();
+            }
+            if (!closeIfDone()) {
+                key.interestOps(inputShutdown ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Called on the selector thread once a worker has answered the request in flight.
+         */
+        void answered(List<ByteBuffer> response) throws IOException {
+            answering = false;
+            if (!key.isValid()) {
+                return;
+            }
+            if (response == null) {
+                closeQuietly(key);
+                return;
+            }
+            queue(response, closeAfterWriting);
+            handleRequests();
+        }
+
+        /**
+         * Parses requests from the received bytes and hands them to a worker one at a time, so pipelined requests
+         * are answered in order.
+         */
+        private void handleRequests() throws IOException {
+            try {
+                while (!answering && !closeAfterWriting) {
+                    if (parsing == null) {
+                        parsing = parseHeaders();
+                        if (parsing == null) return;
+                    }
+                    if (!parsing.readBody()) return;
+
+                    final ParsedRequest request = parsing;
+                    parsing = null;
+                    answering = true;
+                    closeAfterWriting = request.close;
+                    workers.execute(new Runnable() {
+                        @Override public void run() {
+                            answers.add(new Answer(Connection.this, answer(request)));
+                            selector.wakeup();
+                        }
+                    });
+                }
+            } catch (BadRequestException e) {
+                parsing = null;
+                queue(serialize(simpleResponse(e.statusCode, e.getMessage()), false, true), true);
+            }
+        }
+
+        private void queue(List<ByteBuffer> response, boolean close) {
+            writeQueue.addAll(response);
+            closeAfterWriting = close;
+            key.interestOps(inputShutdown ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * @return whether the connection was closed because nothing more will be written to it
+         */
+        private boolean closeIfDone() {
+            if (writeQueue.isEmpty() && !answering && (closeAfterWriting || inputShutdown)) {
+                closeQuietly(key);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the request whose headers have all arrived, or null if they haven't yet
+         */
+        private ParsedRequest parseHeaders() throws IOException {
+            int headerEnd = indexOf(pending, 0, END_OF_HEADERS);
+            if (headerEnd == -1) {
+                if (pending.position() > MAX_HEADER_BYTES) {
+                    throw new BadRequestException(431, "Request Header Fields Too Large");
+                }
+                return null;
+            }
+            if (headerEnd > MAX_HEADER_BYTES) {
+                throw new BadRequestException(431, "Request Header Fields Too Large");
+            }
+
+            String[] lines = new String(pending.array(), 0, headerEnd, "ISO-8859-1").split("\r\n");
+            consume(headerEnd + END_OF_HEADERS.length);
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                throw new BadRequestException(400, "Bad Request");
+            }
+            String method = requestLine[0];
+            String target = requestLine[1];
+            String protocol = requestLine[2];
+
+            HttpEntityEnclosingRequestBase request = method.equals("POST") ? new HttpPost() : new LoopbackRequest(method);
+            String host = null;
+            int contentLength = 0;
+            boolean chunked = false;
+            boolean close = protocol.equals("HTTP/1.0");
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon == -1) continue;
+                String name = lines[i].substring(0, colon).trim();
+                String value = lines[i].substring(colon + 1).trim();
+                request.addHeader(name, value);
+                if (name.equalsIgnoreCase("Host")) {
+                    host = value;
+                } else if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = parseContentLength(value);
+                    if (contentLength < 0) {
+                        throw new BadRequestException(400, "Bad Content-Length");
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    if (!value.equalsIgnoreCase("chunked")) {
+                        throw new BadRequestException(501, "Unsupported Transfer-Encoding: " + value);
+                    }
+                    chunked = true;
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close") || (close && !value.equalsIgnoreCase("keep-alive"));
+                }
+            }
+
+            String authority = virtualHost != null ? virtualHost : host != null ? host : "127.0.0.1:" + getPort();
+            request.setURI(URI.create(target.startsWith("/") ? "http://" + authority + target : target));
+            return new ParsedRequest(request, method, close, chunked ? -1 : contentLength);
+        }
+
+        /**
+         * Drops the first {@code count} received bytes.
+         */
+        private void consume(int count) {
+            pending.flip();
+            pending.position(count);
+            pending.compact();
+        }
+
+        private class ParsedRequest {
+            final HttpEntityEnclosingRequestBase request;
+            final String method;
+            final boolean close;
+            /** The body's length, or -1 if it's chunked. */
+            final int contentLength;
+            private ByteArrayOutputStream chunkedBody;
+            private boolean readingTrailers;
+
+            ParsedRequest(HttpEntityEnclosingRequestBase request, String method, boolean close, int contentLength) {
+                this.request = request;
+                this.method = method;
+                this.close = close;
+                this.contentLength = contentLength;
+            }
+
+            /**
+             * Takes the body from the received bytes, once it has all arrived.
+             *
+             * @return whether the body is complete
+             */
+            boolean readBody() throws IOException {
+                byte[] body;
+                if (contentLength >= 0) {
+                    if (pending.position() < contentLength) {
+                        return false;
+                    }
+                    body = new byte[contentLength];
+                    System.arraycopy(pending.array(), 0, body, 0, contentLength);
+                    consume(contentLength);
+                } else {
+                    if (!readChunks()) {
+                        return false;
+                    }
+                    body = chunkedBody.toByteArray();
+                }
+
+                if (body.length > 0) {
+                    ByteArrayEntity entity = new ByteArrayEntity(body);
+                    entity.setContentType(request.getFirstHeader("Content-Type"));
+                    request.setEntity(entity);
+                }
+                return true;
+            }
+
+            /**
+             * Decodes the chunks that have arrived so far.
+             *
+             * @return whether the last chunk and the trailers have arrived
+             */
+            private boolean readChunks() throws IOException {
+                if (chunkedBody == null) {
+                    chunkedBody = new ByteArrayOutputStream();
+                }
+                while (true) {
+                    int lineEnd = indexOf(pending, 0, END_OF_LINE);
+                    if (lineEnd == -1) {
+                        if (pending.position() > MAX_HEADER_BYTES) {
+                            throw new BadRequestException(readingTrailers ? 431 : 400,
+                                    readingTrailers ? "Request Header Fields Too Large" : "Bad chunk size");
+                        }
+                        return false;
+                    }
+                    if (readingTrailers) {
+                        consume(lineEnd + END_OF_LINE.length);
+                        if (lineEnd == 0) {
+                            return true;
+                        }
+                        continue;
+                    }
+
+                    String sizeLine = new String(pending.array(), 0, lineEnd, "ISO-8859-1");
+                    int extension = sizeLine.indexOf(';');
+                    int size = parseChunkSize(extension == -1 ? sizeLine : sizeLine.substring(0, extension));
+                    if (size == 0) {
+                        consume(lineEnd + END_OF_LINE.length);
+                        readingTrailers = true;
+                        continue;
+                    }
+                    int dataStart = lineEnd + END_OF_LINE.length;
+                    if (pending.position() < dataStart + size + END_OF_LINE.length) {
+                        return false;
+                    }
+                    if (indexOf(pending, dataStart + size, END_OF_LINE) != dataStart + size) {
+                        throw new BadRequestException(400, "Bad chunk");
+                    }
+                    chunkedBody.write(pending.array(), dataStart, size);
+                    consume(dataStart + size + END_OF_LINE.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * A worker's answer to a connection's request, waiting to be picked up by the selector thread.
+     */
+    private static class Answer {
+        final Connection connection;
+        final List<ByteBuffer> response;
+
+        Answer(Connection connection, List<ByteBuffer> response) {
+            this.connection = connection;
+            this.response = response;
+        }
+    }
+
+    /**
+     * A request the server answers itself, with the given status, and then closes the connection.
+     */
+    private static class BadRequestException extends IOException {
+        final int statusCode;
+
+        BadRequestException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+    }
+
+    private static class LoopbackRequest extends HttpEntityEnclosingRequestBase {
+        private final String method;
+
+        LoopbackRequest(String method) {
+            this.method = method;
+        }
+
+        @Override public String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * @return the length, or -1 if it isn't a valid one
+     */
+    private static int parseContentLength(String value) {
+        try {
+            return Math.max(-1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the size, or throws if it isn't a valid one
+     */
+    private static int parseChunkSize(String value) throws BadRequestException {
+        try {
+            int size = Integer.parseInt(value.trim(), 16);
+            if (size >= 0) {
+                return size;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new BadRequestException(400, "Bad chunk size");
+    }
+
+    private static HttpResponse simpleResponse(int statusCode, String body) {
+        return new TestHttpResponse(statusCode, body);
+    }
+
+    private static String reasonPhrase(HttpResponse response) {
+        String reasonPhrase = response.getStatusLine().getReasonPhrase();
+        if (reasonPhrase == null || reasonPhrase.length() == 0) {
+            reasonPhrase = EnglishReasonPhraseCatalog.INSTANCE.getReason(response.getStatusLine().getStatusCode(), null);
+        }
+        return reasonPhrase == null ? "" : reasonPhrase;
+    }
+
+    /**
+     * @return the index of {@code target} in the buffer's bytes from {@code from} up to its position, or -1
+     */
+    private static int indexOf(ByteBuffer buffer, int from, byte[] target) {
+        byte[] bytes = buffer.array();
+        outer:
+        for (int i = from; i <= buffer.position() - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
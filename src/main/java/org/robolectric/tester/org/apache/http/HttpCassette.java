@@ -0,0 +1,316 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.robolectric.shadows.HttpResponseGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file of recorded HTTP responses which can be replayed through the {@link FakeHttpLayer}.
+ * <p/>
+ * Record a cassette by running requests against a real (usually local) server with
+ * {@link FakeHttpLayer#interceptHttpRequests(boolean) interceptHttpRequests(false)} and
+ * {@link FakeHttpLayer#recordHttpResponsesTo(HttpCassette.Recorder)}. Replay it with
+ * {@code Robolectric.getFakeHttpLayer().addHttpResponseRule(HttpCassette.load(file))}.
+ * <p/>
+ * A loaded cassette is memory-mapped. Only the request keys, status codes and headers are read up front; response
+ * bodies are streamed straight out of the mapped file, so large payloads never get copied onto the heap.
+ * Requests are matched on method and URI. Repeated requests get the recorded responses in order, and the last one
+ * again once they run out. {@link #matches(HttpRequest)} only looks the request up; a recorded response is used up
+ * when {@link #getResponse(HttpRequest)} produces it, so concurrent requests each get their own. Called without a
+ * request, {@link #getResponse()} plays the responses in the order they were recorded, skipping any already used.
+ * <p/>
+ * File layout: a magic number and version, then one record per response (method, URI, status code, headers, body),
+ * then an index of record offsets, then the offset of that index as the last eight bytes. Strings are written as an
+ * int length followed by UTF-8 bytes.
+ */
+public class HttpCassette implements HttpEntityStub.ResponseRule, HttpResponseGenerator {
+    private static final int MAGIC = 0x52434153; // "RCAS"
+    private static final int VERSION = 1;
+
+    private final Map<String, List<Entry>> entries = new HashMap<String, List<Entry>>();
+    private final List<Entry> recording = new ArrayList<Entry>();
+    private final Map<String, Integer> playCounts = new HashMap<String, Integer>();
+    private int nextInRecording;
+
+    private HttpCassette(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a cassette file");
+        }
+
+        long indexOffset = buffer.getLong(buffer.limit() - 8);
+        buffer.position((int) indexOffset);
+        int entryCount = buffer.getInt();
+        long[] offsets = new long[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            offsets[i] = buffer.getLong();
+        }
+
+        for (long offset : offsets) {
+            buffer.position((int) offset);
+            String method = readString(buffer);
+            String uri = readString(buffer);
+            int statusCode = buffer.getInt();
+            Header[] headers = new Header[buffer.getInt()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = new BasicHeader(readString(buffer), readString(buffer));
+            }
+            int bodyLength = buffer.getInt();
+            ByteBuffer body = buffer.slice();
+            body.limit(bodyLength);
+
+            String key = key(method, uri);
+            List<Entry> entriesForKey = entries.get(key);
+            if (entriesForKey == null) {
+                entriesForKey = new ArrayList<Entry>();
+                entries.put(key, entriesForKey);
+            }
+            Entry entry = new Entry(key, entriesForKey.size(), statusCode, headers, body);
+            entriesForKey.add(entry);
+            recording.add(entry);
+        }
+    }
+
+    /**
+     * Memory-maps a cassette file recorded by a {@link Recorder}.
+     *
+     * @param file the cassette file
+     * @return the cassette, ready to be added as a response rule
+     * @throws IOException if the file can't be read or isn't a cassette
+     */
+    public static HttpCassette load(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new HttpCassette(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public boolean matches(HttpRequest request) {
+        return entries.containsKey(key(request));
+    }
+
+    /**
+     * Takes the next recorded response for the request.
+     *
+     * @return the response, or null if nothing was recorded for the request
+     */
+    @Override
+    public synchronized HttpResponse getResponse(HttpRequest request) {
+        String key = key(request);
+        List<Entry> entriesForKey = entries.get(key);
+        if (entriesForKey == null) {
+            return null;
+        }
+
+        Integer playCount = playCounts.get(key);
+        int index = playCount == null ? 0 : playCount;
+        playCounts.put(key, index + 1);
+        return new CassetteHttpResponse(entriesForKey.get(Math.min(index, entriesForKey.size() - 1)));
+    }
+
+    /**
+     * Takes the earliest recorded response that hasn't been used yet, whatever its request.
+     *
+     * @return the response, or the last one recorded again once they've all been used
+     */
+    @Override
+    public synchronized HttpResponse getResponse() {
+        if (recording.isEmpty()) {
+            return null;
+        }
+
+        while (nextInRecording < recording.size()) {
+            Entry entry = recording.get(nextInRecording++);
+            Integer playCount = playCounts.get(entry.key);
+            if (playCount == null || playCount <= entry.indexForKey) {
+                // everything recorded before this entry has been used, including earlier responses to its request
+                playCounts.put(entry.key, entry.indexForKey + 1);
+                return new CassetteHttpResponse(entry);
+            }
+        }
+        return new CassetteHttpResponse(recording.get(recording.size() - 1));
+    }
+
+    public int size() {
+        int size = 0;
+        for (List<Entry> entriesForKey : entries.values()) {
+            size += entriesForKey.size();
+        }
+        return size;
+    }
+
+    private static String key(HttpRequest request) {
+        return key(request.getRequestLine().getMethod(), request.getRequestLine().getUri());
+    }
+
+    private static String key(String method, String uri) {
+        return method + " " + uri;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static class Entry {
+        final String key;
+        final int indexForKey;
+        final int statusCode;
+        final Header[] headers;
+        final ByteBuffer body;
+
+        Entry(String key, int indexForKey, int statusCode, Header[] headers, ByteBuffer body) {
+            this.key = key;
+            this.indexForKey = indexForKey;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static class CassetteHttpResponse extends TestHttpResponse {
+        private final HttpEntity entity;
+
+        CassetteHttpResponse(final Entry entry) {
+            super(entry.statusCode, new byte[0], entry.headers);
+            entity = new HttpEntityStub() {
+                @Override public long getContentLength() {
+                    return entry.body.limit();
+                }
+
+                @Override public Header getContentType() {
+                    return getFirstHeader("Content-Type");
+                }
+
+                @Override public Header getContentEncoding() {
+                    return getFirstHeader("Content-Encoding");
+                }
+
+                @Override public boolean isChunked() {
+                    return false;
+                }
+
+                @Override public boolean isStreaming() {
+                    return true;
+                }
+
+                @Override public InputStream getContent() {
+                    return new ByteBufferInputStream(entry.body.duplicate());
+                }
+
+                @Override public void writeTo(OutputStream outputStream) throws IOException {
+                    ByteBuffer body = entry.body.duplicate();
+                    byte[] chunk = new byte[Math.min(body.remaining(), 8192)];
+                    while (body.hasRemaining()) {
+                        int length = Math.min(chunk.length, body.remaining());
+                        body.get(chunk, 0, length);
+                        outputStream.write(chunk, 0, length);
+                    }
+                }
+
+                @Override public void consumeContent() {
+                }
+            };
+        }
+
+        @Override public HttpEntity getEntity() {
+            return entity;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Writes responses to a new cassette file. {@link #close()} must be called to write the index.
+     */
+    public static class Recorder {
+        private final DataOutputStream out;
+        private final List<Long> offsets = new ArrayList<Long>();
+
+        public Recorder(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void record(String method, String uri, int statusCode, Header[] headers, byte[] body) throws IOException {
+            offsets.add((long) out.size());
+            writeString(method);
+            writeString(uri);
+            out.writeInt(statusCode);
+            out.writeInt(headers.length);
+            for (Header header : headers) {
+                writeString(header.getName());
+                writeString(header.getValue());
+            }
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        public void close() throws IOException {
+            long indexOffset = out.size();
+            out.writeInt(offsets.size());
+            for (Long offset : offsets) {
+                out.writeLong(offset);
+            }
+            out.writeLong(indexOffset);
+            out.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
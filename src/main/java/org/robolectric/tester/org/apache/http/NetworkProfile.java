@@ -0,0 +1,91 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.HttpRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Simulated network conditions for responses from the {@link FakeHttpLayer}. Time passes on the background
+ * scheduler's virtual clock, so a slow network costs a test nothing in real time and behaves the same on every run.
+ * <p/>
+ * When a request is made its delivery time is fixed at latency (plus up to {@code jitter} more) from the current
+ * time, and a task posted on the background scheduler for that time delivers the response; only advancing the
+ * scheduler gets it there. If the request's socket timeout is shorter than the latency, a
+ * {@code SocketTimeoutException} is thrown instead. With a bandwidth set, the response entity's bytes arrive at that
+ * rate from the delivery time on.
+ * <p/>
+ * A request made on another thread, e.g. with {@link org.robolectric.Robolectric#useBackgroundThreadPool(int)} or
+ * through a {@link FakeHttpServer}, waits for its delivery time (or its timeout) to pass and reads entity bytes as
+ * they arrive. One made on the test thread, which drives the scheduler and so can't wait for it, gets a response
+ * that can be read once the scheduler has been advanced to its delivery time, and times out straight away:
+ *
+ * <pre>
+ * Robolectric.getFakeHttpLayer().setNetworkProfile(new NetworkProfile().latency(300).jitter(100).bandwidth(8 * 1024));
+ * HttpResponse response = new DefaultHttpClient().execute(new HttpGet("http://example.com/"));
+ * Robolectric.getBackgroundScheduler().advanceBy(400);
+ * assertThat(response.getStatusLine().getStatusCode()).isEqualTo(200);
+ * </pre>
+ *
+ * Jitter is drawn per request from the seed, the request line, and how many times that request line has been sent
+ * before, so it doesn't depend on the order in which threads get to the layer.
+ */
+public class NetworkProfile {
+    private long latencyMs;
+    private long jitterMs;
+    private long bytesPerSecond;
+    private long seed;
+    private final Map<String, Integer> requestCounts = new HashMap<String, Integer>();
+
+    public NetworkProfile latency(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    public NetworkProfile jitter(long jitterMs) {
+        this.jitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond the rate at which response entities are delivered, or 0 for no limit
+     */
+    public NetworkProfile bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    public synchronized NetworkProfile seed(long seed) {
+        this.seed = seed;
+        requestCounts.clear();
+        return this;
+    }
+
+    public long getLatency() {
+        return latencyMs;
+    }
+
+    public long getJitter() {
+        return jitterMs;
+    }
+
+    public long getBandwidth() {
+        return bytesPerSecond;
+    }
+
+    long nextLatency(HttpRequest request) {
+        if (jitterMs <= 0) {
+            return latencyMs;
+        }
+        String requestLine = request.getRequestLine().getMethod() + " " + request.getRequestLine().getUri();
+        int count;
+        synchronized (this) {
+            Integer previous = requestCounts.get(requestLine);
+            count = previous == null ? 0 : previous;
+            requestCounts.put(requestLine, count + 1);
+        }
+        Random random = new Random(seed * 31 * 31 + requestLine.hashCode() * 31L + count);
+        return latencyMs + (long) (random.nextDouble() * (jitterMs + 1));
+    }
+}
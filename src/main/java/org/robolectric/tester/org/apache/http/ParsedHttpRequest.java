@@ -0,0 +1,77 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parts of an {@code HttpRequest} that request matchers look at, each parsed at most once. While
+ * {@link FakeHttpLayer} is looking for a rule to answer a request, every matcher asking for that request gets the
+ * same instance.
+ */
+class ParsedHttpRequest {
+    private static final ThreadLocal<ParsedHttpRequest> CURRENT = new ThreadLocal<ParsedHttpRequest>();
+
+    private final HttpRequest request;
+    private URI uri;
+    private Map<String, String> params;
+    private Map<String, String> headers;
+
+    ParsedHttpRequest(HttpRequest request) {
+        this.request = request;
+    }
+
+    static ParsedHttpRequest of(HttpRequest request) {
+        ParsedHttpRequest current = CURRENT.get();
+        if (current != null && current.request == request) {
+            return current;
+        }
+        return new ParsedHttpRequest(request);
+    }
+
+    /**
+     * Shares this parsed request with all matchers run on this thread until {@link #unshare()} is called.
+     */
+    void share() {
+        CURRENT.set(this);
+    }
+
+    void unshare() {
+        CURRENT.remove();
+    }
+
+    String getMethod() {
+        return request.getRequestLine().getMethod();
+    }
+
+    String getUriString() {
+        return request.getRequestLine().getUri();
+    }
+
+    URI getUri() {
+        if (uri == null) {
+            uri = URI.create(getUriString());
+        }
+        return uri;
+    }
+
+    Map<String, String> getParams() {
+        if (params == null) {
+            params = ParamsParser.parseParams(request);
+        }
+        return params;
+    }
+
+    Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new HashMap<String, String>();
+            for (Header header : request.getAllHeaders()) {
+                headers.put(header.getName(), header.getValue());
+            }
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,168 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.HttpRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds {@link FakeHttpLayer}'s response rules, most recently added first.
+ * <p/>
+ * Rules whose matcher pins down an exact URI, or a path (optionally with a method and host), are kept in hash buckets
+ * so that a request only has to be tested against the rules that could possibly match it, plus any rules with
+ * regex or custom matchers. The most recently added matching rule still wins.
+ */
+class ResponseRuleIndex {
+    private static final String ANY = "*";
+
+    private final Map<String, List<IndexedRule>> byMethodAndUri = new HashMap<String, List<IndexedRule>>();
+    private final Map<String, List<IndexedRule>> byUri = new HashMap<String, List<IndexedRule>>();
+    private final Map<String, List<IndexedRule>> byMethodHostAndPath = new HashMap<String, List<IndexedRule>>();
+    private final List<IndexedRule> unindexed = new ArrayList<IndexedRule>();
+    private long nextSequence = 0;
+    private int size = 0;
+
+    void add(HttpEntityStub.ResponseRule rule) {
+        IndexedRule indexedRule = new IndexedRule(rule, nextSequence++);
+        size++;
+
+        if (rule instanceof FakeHttpLayer.RequestMatcherResponseRule) {
+            RequestMatcher matcher = ((FakeHttpLayer.RequestMatcherResponseRule) rule).getRequestMatcher();
+            if (matcher instanceof FakeHttpLayer.DefaultRequestMatcher) {
+                FakeHttpLayer.DefaultRequestMatcher defaultMatcher = (FakeHttpLayer.DefaultRequestMatcher) matcher;
+                bucket(byMethodAndUri, defaultMatcher.getMethod() + " " + defaultMatcher.getUri()).add(indexedRule);
+                return;
+            }
+            if (matcher instanceof FakeHttpLayer.UriRequestMatcher) {
+                bucket(byUri, ((FakeHttpLayer.UriRequestMatcher) matcher).getUri()).add(indexedRule);
+                return;
+            }
+            if (matcher instanceof FakeHttpLayer.RequestMatcherBuilder) {
+                FakeHttpLayer.RequestMatcherBuilder builder = (FakeHttpLayer.RequestMatcherBuilder) matcher;
+                if (builder.getPath() != null) {
+                    String key = key(orAny(builder.getMethod()), orAny(builder.getHostname()), builder.getPath());
+                    bucket(byMethodHostAndPath, key).add(indexedRule);
+                    return;
+                }
+            }
+        }
+        unindexed.add(indexedRule);
+    }
+
+    /**
+     * @return the most recently added rule matching the request, or null
+     */
+    HttpEntityStub.ResponseRule findMatch(HttpRequest request) {
+        ParsedHttpRequest parsedRequest = new ParsedHttpRequest(request);
+        parsedRequest.share();
+        try {
+            List<List<IndexedRule>> candidates = new ArrayList<List<IndexedRule>>();
+            String method = parsedRequest.getMethod();
+            String uri = parsedRequest.getUriString();
+            addCandidates(candidates, byMethodAndUri.get(method + " " + uri));
+            addCandidates(candidates, byUri.get(uri));
+            if (!byMethodHostAndPath.isEmpty()) {
+                addPathCandidates(candidates, parsedRequest);
+            }
+            addCandidates(candidates, unindexed);
+            return newestMatch(candidates, request);
+        } finally {
+            parsedRequest.unshare();
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        byMethodAndUri.clear();
+        byUri.clear();
+        byMethodHostAndPath.clear();
+        unindexed.clear();
+        size = 0;
+    }
+
+    private void addPathCandidates(List<List<IndexedRule>> candidates, ParsedHttpRequest parsedRequest) {
+        String host;
+        String path;
+        try {
+            host = parsedRequest.getUri().getHost();
+            path = parsedRequest.getUri().getRawPath();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        String method = parsedRequest.getMethod();
+        addCandidates(candidates, byMethodHostAndPath.get(key(method, String.valueOf(host), path)));
+        addCandidates(candidates, byMethodHostAndPath.get(key(method, ANY, path)));
+        addCandidates(candidates, byMethodHostAndPath.get(key(ANY, String.valueOf(host), path)));
+        addCandidates(candidates, byMethodHostAndPath.get(key(ANY, ANY, path)));
+    }
+
+    private static void addCandidates(List<List<IndexedRule>> candidates, List<IndexedRule> rules) {
+        if (rules != null && !rules.isEmpty()) {
+            candidates.add(rules);
+        }
+    }
+
+    /**
+     * Walks the candidate lists (each in ascending insertion order) from newest to oldest, merging them as it goes.
+     */
+    private static HttpEntityStub.ResponseRule newestMatch(List<List<IndexedRule>> candidates, HttpRequest request) {
+        int[] positions = new int[candidates.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = candidates.get(i).size() - 1;
+        }
+
+        while (true) {
+            int newestList = -1;
+            long newestSequence = -1;
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] >= 0) {
+                    long sequence = candidates.get(i).get(positions[i]).sequence;
+                    if (sequence > newestSequence) {
+                        newestSequence = sequence;
+                        newestList = i;
+                    }
+                }
+            }
+            if (newestList == -1) {
+                return null;
+            }
+
+            IndexedRule candidate = candidates.get(newestList).get(positions[newestList]--);
+            if (candidate.rule.matches(request)) {
+                return candidate.rule;
+            }
+        }
+    }
+
+    private static List<IndexedRule> bucket(Map<String, List<IndexedRule>> index, String key) {
+        List<IndexedRule> rules = index.get(key);
+        if (rules == null) {
+            rules = new ArrayList<IndexedRule>();
+            index.put(key, rules);
+        }
+        return rules;
+    }
+
+    private static String key(String method, String host, String path) {
+        return method + " " + host + " " + path;
+    }
+
+    private static String orAny(String value) {
+        return value == null ? ANY : value;
+    }
+
+    private static class IndexedRule {
+        final HttpEntityStub.ResponseRule rule;
+        final long sequence;
+
+        IndexedRule(HttpEntityStub.ResponseRule rule, long sequence) {
+            this.rule = rule;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.robolectric.util.Scheduler;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Something that arrives when a scheduler's clock reaches a fixed time, e.g. a response under a
+ * {@link NetworkProfile}. A task posted for that time marks it arrived, so only advancing the scheduler gets it
+ * there; other threads can wait for it, but the scheduler's own thread can't.
+ */
+class ScheduledArrival {
+    private final Scheduler scheduler;
+    private final long arrivalTime;
+    private final Runnable onArrival;
+    private boolean arrived;
+
+    /**
+     * @param onArrival run when it arrives, before anyone waiting is woken; may be null
+     */
+    ScheduledArrival(Scheduler scheduler, long arrivalTime, Runnable onArrival) {
+        this.scheduler = scheduler;
+        this.arrivalTime = arrivalTime;
+        this.onArrival = onArrival;
+        synchronized (scheduler) {
+            long delay = arrivalTime - scheduler.getCurrentTime();
+            if (delay > 0) {
+                scheduler.postDelayed(new Runnable() {
+                    @Override public void run() {
+                        arrive();
+                    }
+                }, delay);
+                return;
+            }
+        }
+        arrive();
+    }
+
+    static ScheduledArrival after(Scheduler scheduler, long delayMillis, Runnable onArrival) {
+        synchronized (scheduler) {
+            return new ScheduledArrival(scheduler, scheduler.getCurrentTime() + delayMillis, onArrival);
+        }
+    }
+
+    long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    synchronized boolean hasArrived() {
+        return arrived;
+    }
+
+    /**
+     * @throws IllegalStateException if it hasn't arrived yet
+     */
+    void checkArrived(String what) {
+        if (!hasArrived()) {
+            throw notYet(what);
+        }
+    }
+
+    /**
+     * Waits for the scheduler to be advanced to the arrival time.
+     *
+     * @throws IllegalStateException if called on the scheduler's own thread before the arrival time, since the clock
+     *                               can't move while it waits
+     */
+    synchronized void await(String what) throws InterruptedIOException {
+        if (arrived) {
+            return;
+        }
+        if (scheduler.isAssociatedThread()) {
+            throw notYet(what);
+        }
+        while (!arrived) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for " + what);
+            }
+        }
+    }
+
+    IllegalStateException notYet(String what) {
+        return new IllegalStateException(what + " doesn't arrive until the background scheduler reaches " + arrivalTime
+                + "ms (it's at " + scheduler.getCurrentTime() + "ms); advance it first");
+    }
+
+    private void arrive() {
+        if (onArrival != null) {
+            onArrival.run();
+        }
+        synchronized (this) {
+            arrived = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.robolectric.util.Scheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Delivers an entity's content at a fixed rate of virtual time from a start time on: reads return the bytes that
+ * have arrived by the scheduler's current time. Threads other than the scheduler's wait for more to arrive; on the
+ * scheduler's own thread reading ahead of the clock fails.
+ */
+class TricklingHttpEntity extends HttpEntityWrapper {
+    private final byte[] content;
+    private final Scheduler scheduler;
+    private final long startTime;
+    private final long bytesPerSecond;
+
+    TricklingHttpEntity(HttpEntity wrappedEntity, byte[] content, Scheduler scheduler, long startTime, long bytesPerSecond) {
+        super(wrappedEntity);
+        this.content = content;
+        this.scheduler = scheduler;
+        this.startTime = startTime;
+        this.bytesPerSecond = bytesPerSecond;
+        // keeps a task queued until the last byte arrives, so advancing the scheduler moves its clock that far
+        new ScheduledArrival(scheduler, arrivalTimeOf(content.length), null);
+    }
+
+    @Override public long getContentLength() {
+        return content.length;
+    }
+
+    @Override public InputStream getContent() throws IOException {
+        return new TricklingInputStream();
+    }
+
+    @Override public void writeTo(OutputStream outputStream) throws IOException {
+        InputStream in = getContent();
+        try {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override public boolean isStreaming() {
+        return true;
+    }
+
+    private long arrivalTimeOf(long byteCount) {
+        return startTime + (byteCount * 1000 + bytesPerSecond - 1) / bytesPerSecond;
+    }
+
+    private int arrivedByteCount() {
+        long elapsed = scheduler.getCurrentTime() - startTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (int) Math.min(content.length, elapsed * bytesPerSecond / 1000);
+    }
+
+    private class TricklingInputStream extends InputStream {
+        private int position;
+
+        @Override public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= content.length) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            int arrived = arrivedByteCount();
+            if (arrived <= position) {
+                long nextByteTime = arrivalTimeOf(position + 1);
+                if (scheduler.isAssociatedThread()) {
+                    throw new IllegalStateException("byte " + position + " of the response doesn't arrive until the"
+                            + " background scheduler reaches " + nextByteTime + "ms; advance it first");
+                }
+                new ScheduledArrival(scheduler, nextByteTime, null).await("byte " + position + " of the response");
+                arrived = arrivedByteCount();
+            }
+            int count = Math.min(length, arrived - position);
+            System.arraycopy(content, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override public int available() {
+            return Math.max(0, arrivedByteCount() - position);
+        }
+    }
+}
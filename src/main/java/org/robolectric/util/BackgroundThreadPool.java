@@ -0,0 +1,128 @@
+package org.robolectric.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of real threads which can stand in for the background {@link Scheduler}, so that
+ * {@code AsyncTask}s and {@link RobolectricBackgroundExecutorService} tasks really run concurrently.
+ * Work handed back to the UI thread scheduler from a pool thread is queued there until the test runs it.
+ *
+ * @see org.robolectric.Robolectric#useBackgroundThreadPool(int)
+ */
+public class BackgroundThreadPool {
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    public static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final ExecutorService executorService;
+    private int pendingTaskCount = 0;
+    private Throwable failure;
+
+    public BackgroundThreadPool(int threadCount) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "robolectric-background-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void execute(final Runnable runnable) {
+        synchronized (this) {
+            pendingTaskCount++;
+        }
+        try {
+            executorService.execute(new Runnable() {
+                @Override public void run() {
+                    try {
+                        runnable.run();
+                    } catch (Throwable t) {
+                        synchronized (BackgroundThreadPool.this) {
+                            if (failure == null) failure = t;
+                        }
+                    } finally {
+                        synchronized (BackgroundThreadPool.this) {
+                            pendingTaskCount--;
+                            BackgroundThreadPool.this.notifyAll();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                pendingTaskCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    public synchronized int getPendingTaskCount() {
+        return pendingTaskCount;
+    }
+
+    /**
+     * Waits up to {@value #DEFAULT_IDLE_TIMEOUT_MILLIS}ms for the pool to become idle.
+     *
+     * @see #awaitIdle(long, TimeUnit)
+     */
+    public void awaitIdle() {
+        awaitIdle(DEFAULT_IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Blocks until every task handed to this pool, including tasks posted by other tasks, has finished. If any task
+     * threw, the first failure is rethrown here on the test thread.
+     *
+     * @throws IllegalStateException if tasks are still running after {@code timeout}
+     */
+    public synchronized void awaitIdle(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pendingTaskCount > 0) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new IllegalStateException(pendingTaskCount + " background task(s) still running after "
+                        + unit.toMillis(timeout) + "ms");
+            }
+            try {
+                wait(remainingMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (failure != null) {
+            Throwable t = failure;
+            failure = null;
+            throw new RuntimeException("An error occurred on a background thread", t);
+        }
+    }
+
+    /**
+     * Interrupts running tasks and waits up to {@value #SHUTDOWN_TIMEOUT_MILLIS}ms for them to stop, so they can't
+     * leak into the next test.
+     *
+     * @throws IllegalStateException if tasks are still running after that
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+        boolean terminated;
+        try {
+            terminated = executorService.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (!terminated) {
+            throw new IllegalStateException("background tasks still running " + SHUTDOWN_TIMEOUT_MILLIS
+                    + "ms after shutdown; they ignored interruption");
+        }
+    }
+}
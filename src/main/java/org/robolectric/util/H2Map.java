@@ -4,9 +4,26 @@ import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 
 public class H2Map implements DatabaseConfig.DatabaseMap {
+    private static final int SCRUBBED_SQL_CACHE_SIZE = 512;
+
+    private static final Pattern AUTOINCREMENT = Pattern.compile("(?i:autoincrement)");
+    private static final Pattern INTEGER = Pattern.compile("(?i:integer)");
+    private static final Pattern CONFLICT_ALGORITHM = Pattern.compile("INSERT OR (?:ROLLBACK|ABORT|FAIL|IGNORE|REPLACE) INTO");
+
+    private final Map<String, String> scrubbedSqlCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > SCRUBBED_SQL_CACHE_SIZE;
+                }
+            });
 
     @Override
     public String getDriverClassName() {
@@ -19,7 +36,8 @@ public class H2Map implements DatabaseConfig.DatabaseMap {
     }
 
     /**
-     * Maps the SQL to the H2 Implementation
+     * Maps the SQL to the H2 Implementation. Results are cached by the original statement, so
+     * repeated statements are only translated once.
      *
      * @param sql the original SQL statement
      * @return the modified SQL statement.
@@ -27,21 +45,32 @@ public class H2Map implements DatabaseConfig.DatabaseMap {
      */
     @Override
     public String getScrubSQL(String sql) throws SQLException {
+        String scrubbedSQL = scrubbedSqlCache.get(sql);
+        if (scrubbedSQL == null) {
+            if (sql.contains("PRIMARY KEY AUTOINCREMENT") && !sql.contains("INTEGER PRIMARY KEY AUTOINCREMENT")) {
+                throw new SQLException("AUTOINCREMENT is only allowed on an INTEGER PRIMARY KEY");
+            }
 
-        if (sql.contains("PRIMARY KEY AUTOINCREMENT") && !sql.contains("INTEGER PRIMARY KEY AUTOINCREMENT")) {
-            throw new SQLException("AUTOINCREMENT is only allowed on an INTEGER PRIMARY KEY");
+            scrubbedSQL = scrub(sql);
+            scrubbedSqlCache.put(sql, scrubbedSQL);
         }
+        return scrubbedSQL;
+    }
 
+    /**
+     * Dialect rewriting stage, run once per distinct statement. Subclasses may override this to
+     * add their own rewrites on top of (or instead of) the default sqlite-to-h2 mapping.
+     *
+     * @param sql the original SQL statement, already validated
+     * @return the modified SQL statement.
+     */
+    protected String scrub(String sql) {
         // Map 'autoincrement' (sqlite) to 'auto_increment' (h2).
-        String scrubbedSQL = sql.replaceAll("(?i:autoincrement)", "auto_increment");
-        // Map 'integer' (sqlite) to 'bigint(19)' (h2).  	
-        scrubbedSQL = scrubbedSQL.replaceAll("(?i:integer)", "bigint(19)");
+        String scrubbedSQL = AUTOINCREMENT.matcher(sql).replaceAll("auto_increment");
+        // Map 'integer' (sqlite) to 'bigint(19)' (h2).
+        scrubbedSQL = INTEGER.matcher(scrubbedSQL).replaceAll("bigint(19)");
         // h2 doesn't understand conflict algorithms
-        scrubbedSQL = scrubbedSQL.replaceAll("INSERT OR ROLLBACK INTO", "INSERT INTO");
-        scrubbedSQL = scrubbedSQL.replaceAll("INSERT OR ABORT INTO", "INSERT INTO");
-        scrubbedSQL = scrubbedSQL.replaceAll("INSERT OR FAIL INTO", "INSERT INTO");
-        scrubbedSQL = scrubbedSQL.replaceAll("INSERT OR IGNORE INTO", "INSERT INTO");
-        scrubbedSQL = scrubbedSQL.replaceAll("INSERT OR REPLACE INTO", "INSERT INTO");
+        scrubbedSQL = CONFLICT_ALGORITHM.matcher(scrubbedSQL).replaceAll("INSERT INTO");
         return scrubbedSQL;
     }
 
@@ -1,92 +1,141 @@
 package org.robolectric.util;
 
 import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowApplication;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
-public class RobolectricBackgroundExecutorService implements ExecutorService {
+/**
+ * An {@code ExecutorService} which runs its tasks on the background scheduler, or on the background thread pool if
+ * one is in use (see {@link Robolectric#useBackgroundThreadPool(int)}).
+ * <p/>
+ * With the background scheduler, {@code invokeAll()} and {@code invokeAny()} wait for the scheduler to run their
+ * tasks, so calling them on the scheduler's own thread while it is paused throws {@code IllegalStateException}
+ * rather than blocking forever.
+ */
+public class RobolectricBackgroundExecutorService extends AbstractExecutorService {
+    private boolean shutdown;
+    private final Set<Task> pendingTasks = new LinkedHashSet<Task>();
+
     @Override
-    public void shutdown() {
-        throw new UnsupportedOperationException();
+    public synchronized void shutdown() {
+        shutdown = true;
     }
 
+    /**
+     * Stops accepting tasks and drops the ones that haven't started; tasks already running are left to finish.
+     *
+     * @return the tasks that never started
+     */
     @Override
-    public List<Runnable> shutdownNow() {
-        throw new UnsupportedOperationException();
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> neverStarted = new ArrayList<Runnable>();
+        for (Iterator<Task> iterator = pendingTasks.iterator(); iterator.hasNext(); ) {
+            Task task = iterator.next();
+            if (!task.started) {
+                task.cancelled = true;
+                neverStarted.add(task.runnable);
+                iterator.remove();
+            }
+        }
+        notifyAll();
+        return neverStarted;
     }
 
     @Override
-    public boolean isShutdown() {
-        throw new UnsupportedOperationException();
+    public synchronized boolean isShutdown() {
+        return shutdown;
     }
 
     @Override
-    public boolean isTerminated() {
-        throw new UnsupportedOperationException();
+    public synchronized boolean isTerminated() {
+        return shutdown && pendingTasks.isEmpty();
     }
 
     @Override
-    public boolean awaitTermination(long l, TimeUnit timeUnit) throws InterruptedException {
-        throw new UnsupportedOperationException();
+    public synchronized boolean awaitTermination(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
     }
 
     @Override
-    public <T> Future<T> submit(Callable<T> tCallable) {
-        return schedule(new FutureTask<T>(tCallable));
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        checkCanWaitForTasks("invokeAll");
+        return super.invokeAll(tasks);
     }
 
     @Override
-    public <T> Future<T> submit(Runnable runnable, T t) {
-        return schedule(new FutureTask<T>(runnable, t));
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        checkCanWaitForTasks("invokeAny");
+        return super.invokeAny(tasks);
     }
 
     @Override
-    public Future<?> submit(Runnable runnable) {
-        return submit(runnable, null);
-    }
+    public void execute(final Runnable runnable) {
+        final Task task = new Task(runnable);
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("executor has been shut down");
+            }
+            pendingTasks.add(task);
+        }
 
-    private <T> Future<T> schedule(final FutureTask<T> futureTask) {
-        Robolectric.getShadowApplication().getBackgroundScheduler().post(new Runnable() {
+        Robolectric.getShadowApplication().postBackgroundTask(new Runnable() {
             @Override
             public void run() {
-                futureTask.run();
+                synchronized (RobolectricBackgroundExecutorService.this) {
+                    if (task.cancelled) {
+                        return;
+                    }
+                    task.started = true;
+                }
+                try {
+                    runnable.run();
+                } finally {
+                    synchronized (RobolectricBackgroundExecutorService.this) {
+                        pendingTasks.remove(task);
+                        RobolectricBackgroundExecutorService.this.notifyAll();
+                    }
+                }
             }
         });
-
-        return futureTask;
     }
 
-    @Override
-    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> callables) throws InterruptedException {
-        throw new UnsupportedOperationException();
+    private void checkCanWaitForTasks(String methodName) {
+        ShadowApplication shadowApplication = Robolectric.getShadowApplication();
+        Scheduler scheduler = shadowApplication.getBackgroundScheduler();
+        if (shadowApplication.getBackgroundThreadPool() == null && scheduler.isPaused() && scheduler.isAssociatedThread()) {
+            throw new IllegalStateException(methodName + "() would wait forever: the background scheduler is paused"
+                    + " and only this thread can run it; unpause it or use Robolectric.useBackgroundThreadPool()");
+        }
     }
 
-    @Override
-    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> callables, long l, TimeUnit timeUnit) throws InterruptedException {
-        throw new UnsupportedOperationException();
-    }
+    private static class Task {
+        final Runnable runnable;
+        boolean started;
+        boolean cancelled;
 
-    @Override
-    public <T> T invokeAny(Collection<? extends Callable<T>> callables) throws InterruptedException, ExecutionException {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public <T> T invokeAny(Collection<? extends Callable<T>> callables, long l, TimeUnit timeUnit) throws InterruptedException, ExecutionException, TimeoutException {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void execute(Runnable runnable) {
-        submit(runnable);
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
     }
 }
-
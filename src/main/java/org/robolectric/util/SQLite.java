@@ -26,6 +26,15 @@ public class SQLite {
      * @return insert string
      */
     public static SQLStringAndBindings buildInsertString(String table, ContentValues values, int conflictAlgorithm) throws SQLException {
+        SQLStringAndBindings insert = buildUnscrubbedInsertString(table, values, conflictAlgorithm);
+        return new SQLStringAndBindings(DatabaseConfig.getScrubSQL(insert.sql), insert.columnValues);
+    }
+
+    /**
+     * Like {@link #buildInsertString(String, ContentValues, int)}, but in SQLite's dialect rather than the test
+     * database's.
+     */
+    public static SQLStringAndBindings buildUnscrubbedInsertString(String table, ContentValues values, int conflictAlgorithm) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("INSERT ");
@@ -39,8 +48,7 @@ public class SQLite {
         sb.append(columnsValueClause.sql);
         sb.append(";");
 
-        String sql = DatabaseConfig.getScrubSQL(sb.toString());
-        return new SQLStringAndBindings(sql, columnsValueClause.columnValues);
+        return new SQLStringAndBindings(sb.toString(), columnsValueClause.columnValues);
     }
 
     /**
@@ -1,12 +1,30 @@
 package org.robolectric.util;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.ListIterator;
-
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Runs posted {@code Runnable}s in virtual time.
+ *
+ * Runnables are kept in a binary heap ordered by scheduled time, with a posting sequence number to keep runnables
+ * scheduled for the same time in FIFO order. Removed runnables are marked as cancelled and discarded when they reach
+ * the head of the queue, or all at once when they make up more than half of it, so posting and removing the same
+ * runnable over and over doesn't grow the heap. A count of runnables per scheduled time gives the last one directly.
+ */
 public class Scheduler {
-    private List<PostedRunnable> postedRunnables = new ArrayList<PostedRunnable>();
+    private final PriorityQueue<PostedRunnable> postedRunnables = new PriorityQueue<PostedRunnable>();
+    private final Map<Runnable, Deque<PostedRunnable>> postedRunnablesByRunnable = new IdentityHashMap<Runnable, Deque<PostedRunnable>>();
+    private final TreeMap<Long, Integer> scheduledTimeCounts = new TreeMap<Long, Integer>();
+    private int enqueuedTaskCount = 0;
+    private int cancelledTaskCount = 0;
+    private long nextSequence = 0;
+    private long nextFrontOfQueueSequence = -1;
     private long currentTime = 0;
     private boolean paused = false;
     private Thread associatedThread = Thread.currentThread();
@@ -29,10 +47,17 @@ public class Scheduler {
         return paused;
     }
 
+    /**
+     * @return whether the calling thread is the one this scheduler was created on, which runs unpaused tasks as soon
+     *         as they're posted
+     */
+    public boolean isAssociatedThread() {
+        return Thread.currentThread() == associatedThread;
+    }
+
     public synchronized void postDelayed(Runnable runnable, long delayMillis) {
         if ((!isConstantlyIdling && (paused || delayMillis > 0)) || Thread.currentThread() != associatedThread) {
-            postedRunnables.add(new PostedRunnable(runnable, currentTime + delayMillis));
-            Collections.sort(postedRunnables);
+            enqueue(new PostedRunnable(runnable, currentTime + delayMillis, nextSequence++));
         } else {
             runnable.run();
         }
@@ -44,18 +69,23 @@ public class Scheduler {
 
     public synchronized void postAtFrontOfQueue(Runnable runnable) {
         if (paused || Thread.currentThread() != associatedThread) {
-            postedRunnables.add(0, new PostedRunnable(runnable, currentTime));
+            enqueue(new PostedRunnable(runnable, currentTime, nextFrontOfQueueSequence--));
         } else {
             runnable.run();
         }
     }
 
     public synchronized void remove(Runnable runnable) {
-        ListIterator<PostedRunnable> iterator = postedRunnables.listIterator();
-        while (iterator.hasNext()) {
-            PostedRunnable next = iterator.next();
-            if (next.runnable == runnable) {
-                iterator.remove();
+        Deque<PostedRunnable> posted = postedRunnablesByRunnable.remove(runnable);
+        if (posted != null) {
+            for (PostedRunnable postedRunnable : posted) {
+                postedRunnable.cancelled = true;
+                uncountScheduledTime(postedRunnable.scheduledTime);
+            }
+            enqueuedTaskCount -= posted.size();
+            cancelledTaskCount += posted.size();
+            if (cancelledTaskCount > postedRunnables.size() / 2) {
+                discardCancelled();
             }
         }
     }
@@ -65,7 +95,7 @@ public class Scheduler {
             return false;
         }
 
-        return advanceTo(postedRunnables.get(postedRunnables.size() - 1).scheduledTime);
+        return advanceTo(Math.max(currentTime, scheduledTimeCounts.lastKey()));
     }
 
     public synchronized boolean advanceToNextPostedRunnable() {
@@ -73,7 +103,7 @@ public class Scheduler {
             return false;
         }
 
-        return advanceTo(postedRunnables.get(0).scheduledTime);
+        return advanceTo(peekNext().scheduledTime);
     }
 
     public synchronized boolean advanceBy(long intervalMs) {
@@ -86,14 +116,35 @@ public class Scheduler {
             return false;
         }
 
-        int runCount = 0;
-        while (nextTaskIsScheduledBefore(endingTime)) {
-            runOneTask();
-            ++runCount;
-        }
-        currentTime = endingTime;
+        return drainTo(endingTime) > 0;
+    }
+
+    /**
+     * Like {@link #advanceBy(long)}, but always moves the clock, even when nothing is queued, and reports what ran.
+     *
+     * @param intervalMs how far to move the clock
+     * @return the number of tasks run and the virtual time that elapsed
+     */
+    public synchronized BatchResult advanceByInBatch(long intervalMs) {
+        return advanceToInBatch(currentTime + intervalMs);
+    }
 
-        return runCount > 0;
+    /**
+     * Runs every task due at or before {@code endingTime} in a single pass, then moves the clock to
+     * {@code endingTime}. Tasks posted while draining run in the same pass if they are due by then. The clock jumps
+     * straight across idle stretches, so advancing through hours of virtual time only costs as much as the tasks
+     * scheduled in it.
+     *
+     * @param endingTime the virtual time to advance to
+     * @return the number of tasks run and the virtual time that elapsed
+     */
+    public synchronized BatchResult advanceToInBatch(long endingTime) {
+        long startTime = currentTime;
+        if (endingTime - currentTime < 0) {
+            return new BatchResult(0, 0);
+        }
+        int runCount = drainTo(endingTime);
+        return new BatchResult(runCount, currentTime - startTime);
     }
 
     public synchronized boolean runOneTask() {
@@ -101,7 +152,7 @@ public class Scheduler {
             return false;
         }
 
-        PostedRunnable postedRunnable = postedRunnables.remove(0);
+        PostedRunnable postedRunnable = pollNext();
         currentTime = postedRunnable.scheduledTime;
         postedRunnable.run();
         return true;
@@ -113,7 +164,7 @@ public class Scheduler {
         }
 
         while (howMany > 0) {
-            PostedRunnable postedRunnable = postedRunnables.remove(0);
+            PostedRunnable postedRunnable = pollNext();
             currentTime = postedRunnable.scheduledTime;
             postedRunnable.run();
             howMany--;
@@ -122,7 +173,7 @@ public class Scheduler {
     }
 
     public synchronized int enqueuedTaskCount() {
-        return postedRunnables.size();
+        return enqueuedTaskCount;
     }
 
     public synchronized boolean areAnyRunnable() {
@@ -131,30 +182,64 @@ public class Scheduler {
 
     public synchronized void reset() {
         postedRunnables.clear();
+        postedRunnablesByRunnable.clear();
+        scheduledTimeCounts.clear();
+        enqueuedTaskCount = 0;
+        cancelledTaskCount = 0;
         paused = false;
         isConstantlyIdling = false;
     }
 
     public synchronized int size() {
-        return postedRunnables.size();
+        return enqueuedTaskCount;
     }
 
     public void idleConstantly(boolean shouldIdleConstantly) {
         isConstantlyIdling = shouldIdleConstantly;
     }
 
+    /**
+     * Outcome of {@link #advanceToInBatch(long)} or {@link #advanceByInBatch(long)}.
+     */
+    public static class BatchResult {
+        private final int tasksRun;
+        private final long elapsedTime;
+
+        BatchResult(int tasksRun, long elapsedTime) {
+            this.tasksRun = tasksRun;
+            this.elapsedTime = elapsedTime;
+        }
+
+        public int getTasksRun() {
+            return tasksRun;
+        }
+
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+    }
+
     class PostedRunnable implements Comparable<PostedRunnable> {
         Runnable runnable;
         long scheduledTime;
+        long sequence;
+        boolean cancelled;
 
-        PostedRunnable(Runnable runnable, long scheduledTime) {
+        PostedRunnable(Runnable runnable, long scheduledTime, long sequence) {
             this.runnable = runnable;
             this.scheduledTime = scheduledTime;
+            this.sequence = sequence;
         }
 
         @Override
         public int compareTo(PostedRunnable postedRunnable) {
-            return (int) (scheduledTime - postedRunnable.scheduledTime);
+            if (scheduledTime != postedRunnable.scheduledTime) {
+                return scheduledTime < postedRunnable.scheduledTime ? -1 : 1;
+            }
+            if (sequence != postedRunnable.sequence) {
+                return sequence < postedRunnable.sequence ? -1 : 1;
+            }
+            return 0;
         }
 
         public void run() {
@@ -162,7 +247,83 @@ public class Scheduler {
         }
     }
 
+    private void enqueue(PostedRunnable postedRunnable) {
+        postedRunnables.add(postedRunnable);
+        Deque<PostedRunnable> posted = postedRunnablesByRunnable.get(postedRunnable.runnable);
+        if (posted == null) {
+            posted = new ArrayDeque<PostedRunnable>(2);
+            postedRunnablesByRunnable.put(postedRunnable.runnable, posted);
+        }
+        posted.add(postedRunnable);
+        Integer count = scheduledTimeCounts.get(postedRunnable.scheduledTime);
+        scheduledTimeCounts.put(postedRunnable.scheduledTime, count == null ? 1 : count + 1);
+        enqueuedTaskCount++;
+    }
+
+    private void uncountScheduledTime(long scheduledTime) {
+        int count = scheduledTimeCounts.get(scheduledTime);
+        if (count == 1) {
+            scheduledTimeCounts.remove(scheduledTime);
+        } else {
+            scheduledTimeCounts.put(scheduledTime, count - 1);
+        }
+    }
+
+    private void discardCancelled() {
+        List<PostedRunnable> live = new ArrayList<PostedRunnable>(enqueuedTaskCount);
+        for (PostedRunnable postedRunnable : postedRunnables) {
+            if (!postedRunnable.cancelled) {
+                live.add(postedRunnable);
+            }
+        }
+        postedRunnables.clear();
+        postedRunnables.addAll(live);
+        cancelledTaskCount = 0;
+    }
+
+    private PostedRunnable peekNext() {
+        PostedRunnable next = postedRunnables.peek();
+        while (next != null && next.cancelled) {
+            postedRunnables.poll();
+            cancelledTaskCount--;
+            next = postedRunnables.peek();
+        }
+        return next;
+    }
+
+    private PostedRunnable pollNext() {
+        PostedRunnable next = peekNext();
+        if (next != null) {
+            postedRunnables.poll();
+            Deque<PostedRunnable> posted = postedRunnablesByRunnable.get(next.runnable);
+            posted.removeFirstOccurrence(next);
+            if (posted.isEmpty()) {
+                postedRunnablesByRunnable.remove(next.runnable);
+            }
+            uncountScheduledTime(next.scheduledTime);
+            enqueuedTaskCount--;
+        }
+        return next;
+    }
+
+    private int drainTo(long endingTime) {
+        int runCount = 0;
+        PostedRunnable next;
+        while ((next = peekNext()) != null && next.scheduledTime <= endingTime) {
+            pollNext();
+            currentTime = next.scheduledTime;
+            next.run();
+            ++runCount;
+        }
+        currentTime = endingTime;
+        return runCount;
+    }
+
+    int heapSize() {
+        return postedRunnables.size();
+    }
+
     private boolean nextTaskIsScheduledBefore(long endingTime) {
-        return enqueuedTaskCount() > 0 && postedRunnables.get(0).scheduledTime <= endingTime;
+        return enqueuedTaskCount() > 0 && peekNext().scheduledTime <= endingTime;
     }
 }
@@ -5,10 +5,15 @@ import org.junit.Test;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.model.InitializationError;
 import org.robolectric.bytecode.Setup;
+import org.robolectric.internal.TestPhaseTimer;
 import org.robolectric.util.Transcript;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.lang.reflect.Method;
 
+import static org.fest.assertions.api.Assertions.assertThat;
 import static org.robolectric.util.TestUtil.resourceFile;
 
 public class TestRunnerSequenceTest {
@@ -29,6 +34,30 @@ public class TestRunnerSequenceTest {
         );
     }
 
+    @Test public void shouldWritePhaseTimingsWhenEnabled() throws Exception {
+        File timingsFile = File.createTempFile("phase-timings", ".json");
+        System.setProperty(TestPhaseTimer.PROPERTY, timingsFile.getPath());
+        try {
+            transcript = new Transcript();
+            new TestRunnerSequenceTest.Runner(SimpleTest.class).run(new RunNotifier());
+        } finally {
+            System.clearProperty(TestPhaseTimer.PROPERTY);
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(timingsFile));
+        String line = reader.readLine();
+        assertThat(reader.readLine()).isNull();
+        reader.close();
+        timingsFile.delete();
+
+        assertThat(line).startsWith("{\"test\": \"" + SimpleTest.class.getName() + "#shouldDoNothingMuch\", \"phases\": {");
+        for (String phase : new String[]{"loadTestClass", "createDelegateRunner", "resetClassHandler", "configureShadows",
+                "resetStaticState", "resourceLoading", "setupApplicationState", "beforeTest", "internalBeforeTest",
+                "testBody", "internalAfterTest"}) {
+            assertThat(line).contains("\"" + phase + "\": ");
+        }
+    }
+
     public static class SimpleTest {
         @Test public void shouldDoNothingMuch() throws Exception {
             transcript.add("TEST!");
@@ -83,6 +83,19 @@ abstract public class InstrumentingClassLoaderTestBase { // don't end in "Test"
         assertNotNull(exampleClass.getField(AsmInstrumentingClassLoader.CLASS_HANDLER_DATA_FIELD_NAME));
     }
 
+    @Test
+    public void instrumentedClassesShouldExposeTheirShadowThroughShadowedObject() throws Exception {
+        Class<?> exampleClass = loadClass(AnExampleClass.class);
+        assertTrue(ShadowedObject.class.isAssignableFrom(exampleClass));
+
+        Object exampleInstance = exampleClass.newInstance();
+        Object shadow = new Object();
+        ((ShadowedObject) exampleInstance).$$robo$setData(shadow);
+
+        assertSame(shadow, ((ShadowedObject) exampleInstance).$$robo$getData());
+        assertSame(shadow, exampleClass.getField(InstrumentingClassLoader.CLASS_HANDLER_DATA_FIELD_NAME).get(exampleInstance));
+    }
+
     @Test
     public void callingNormalMethodShouldInvokeClassHandler() throws Exception {
         Class<?> exampleClass = loadClass(AnExampleClass.class);
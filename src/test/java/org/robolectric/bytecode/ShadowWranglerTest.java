@@ -14,7 +14,10 @@ import org.robolectric.util.I18nException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
+import static java.util.Arrays.asList;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.*;
 import static org.robolectric.Robolectric.bindShadowClass;
@@ -46,6 +49,18 @@ public class ShadowWranglerTest {
         assertSame(foo, shadowOf(foo).realFooCtor);
     }
 
+    @Test
+    public void shadowClassBoundAfterAShadowWasCreated_shouldBeUsedForNewInstances() throws Exception {
+        bindShadowClass(ShadowFoo.class);
+        Foo foo1 = new Foo(name);
+        assertEquals(ShadowFoo.class, shadowOf_(foo1).getClass());
+
+        bindShadowClass(ShadowFoo_WithDefaultConstructorAndNoConstructorDelegate.class);
+        Foo foo2 = new Foo(name);
+        assertEquals(ShadowFoo_WithDefaultConstructorAndNoConstructorDelegate.class, shadowOf_(foo2).getClass());
+        assertEquals(ShadowFoo.class, shadowOf_(foo1).getClass());
+    }
+
     @Test
     public void testRealObjectAnnotatedFieldsAreSetBeforeConstructorIsCalled() throws Exception {
         bindShadowClass(ShadowFoo.class);
@@ -58,6 +73,22 @@ public class ShadowWranglerTest {
         assertSame(foo, shadowOf(foo).realFooInParentConstructor);
     }
 
+    @Test
+    public void shadowFactoriesShouldConstructShadowsAndSetRealObjectFieldsWithoutReflection() throws Exception {
+        Field parentRealObjectField = ShadowFooParent.class.getDeclaredField("realFoo");
+        assertFalse(Modifier.isPrivate(parentRealObjectField.getModifiers()));
+
+        ShadowFactory factory = ShadowFactories.create(ShadowFoo.class, ShadowFoo.class.getConstructor(Foo.class),
+                asList(ShadowFoo.class.getDeclaredField("realFooField"), parentRealObjectField));
+        assertThat(factory.getClass().getName()).startsWith(ShadowFoo.class.getName() + "$$RoboShadowFactory");
+
+        Foo foo = new Foo(name);
+        ShadowFoo shadowFoo = (ShadowFoo) factory.newShadow(foo);
+        assertSame(foo, shadowFoo.realFooCtor);
+        assertSame(foo, shadowFoo.realFooField);
+        assertSame(foo, parentRealObjectField.get(shadowFoo));
+    }
+
     @Test
     public void testMethodDelegation() throws Exception {
         bindShadowClass(ShadowFoo.class);
@@ -157,6 +188,43 @@ public class ShadowWranglerTest {
         foo.getName();
     }
 
+    @Test
+    public void profiler_shouldCountCallsTimeAndCallThroughs() throws Exception {
+        bindShadowClass(ShadowFoo.class);
+        bindShadowClass(CallThroughShadowFoo.class);
+        ShadowProfiler profiler = new ShadowProfiler();
+        Robolectric.getShadowWrangler().setProfiler(profiler);
+        try {
+            Foo foo = new Foo(name);
+            foo.getName();
+            foo.getName();
+            assertEquals(42, new CallThroughFoo().answer());
+        } finally {
+            Robolectric.getShadowWrangler().setProfiler(null);
+        }
+
+        ShadowProfiler.MethodStats getName = findStats(profiler, Foo.class.getName() + ".getName()");
+        assertThat(getName.getCallCount()).isEqualTo(2);
+        assertThat(getName.getCallThroughCount()).isEqualTo(0);
+        assertThat(getName.getNanos()).isGreaterThan(0);
+
+        ShadowProfiler.MethodStats answer = findStats(profiler, CallThroughFoo.class.getName() + ".answer()");
+        assertThat(answer.getCallCount()).isEqualTo(1);
+        assertThat(answer.getCallThroughCount()).isEqualTo(1);
+
+        assertThat(profiler.toJson()).contains("\"method\": \"getName\", \"paramTypes\": [], \"calls\": 2,");
+
+        profiler.reset();
+        assertThat(profiler.getStats()).isEmpty();
+    }
+
+    private static ShadowProfiler.MethodStats findStats(ShadowProfiler profiler, String methodSignature) {
+        for (ShadowProfiler.MethodStats stats : profiler.getStats()) {
+            if (stats.getMethodSignature().equals(methodSignature)) return stats;
+        }
+        return null;
+    }
+
     private ShadowFoo shadowOf(Foo foo) {
         return (ShadowFoo) shadowOf_(foo);
     }
@@ -192,6 +260,17 @@ public class ShadowWranglerTest {
     public static class ShadowTextFoo {
     }
 
+    @Implements(value = CallThroughFoo.class, callThroughByDefault = true)
+    public static class CallThroughShadowFoo {
+    }
+
+    @Instrument
+    public static class CallThroughFoo {
+        public int answer() {
+            return 42;
+        }
+    }
+
     @Instrument
     public static class TextFoo extends Foo {
         public TextFoo(String s) {
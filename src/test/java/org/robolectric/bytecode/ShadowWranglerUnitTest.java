@@ -47,4 +47,29 @@ public class ShadowWranglerUnitTest {
         assertThat(result.getKey()).isEqualTo(1);
         assertThat(result.getValue()).isEqualTo("one");
     }
+
+    @Test
+    public void defaultShadowClasses_shouldSurviveResetAndBeOverriddenByLaterBindings() throws Exception {
+        shadowWrangler.startRecordingDefaultShadowClasses();
+        shadowWrangler.bindShadowClass("a.Real", "a.DefaultShadow", false);
+        shadowWrangler.bindShadowClass("b.Real", "b.DefaultShadow", false);
+        shadowWrangler.finishRecordingDefaultShadowClasses();
+
+        assertThat(shadowWrangler.getShadowConfig("a.Real")).isNull();
+
+        shadowWrangler.bindShadowClass("a.Real", "a.EarlierShadow", false);
+        shadowWrangler.applyDefaultShadowClasses();
+        shadowWrangler.bindShadowClass("b.Real", "b.TestShadow", true);
+
+        assertThat(shadowWrangler.getShadowConfig("a.Real").shadowClassName).isEqualTo("a.DefaultShadow");
+        assertThat(shadowWrangler.getShadowConfig("b.Real").shadowClassName).isEqualTo("b.TestShadow");
+        assertThat(shadowWrangler.getShadowConfig("b.Real").callThroughByDefault).isTrue();
+
+        shadowWrangler.reset();
+        assertThat(shadowWrangler.getShadowConfig("a.Real")).isNull();
+
+        shadowWrangler.applyDefaultShadowClasses();
+        assertThat(shadowWrangler.hasDefaultShadowClasses()).isTrue();
+        assertThat(shadowWrangler.getShadowConfig("b.Real").shadowClassName).isEqualTo("b.DefaultShadow");
+    }
 }
@@ -4,14 +4,18 @@ package org.robolectric.shadows;
 import android.app.Activity;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.TestRunners;
+import org.robolectric.util.Scheduler;
 
 import java.util.Date;
 
@@ -136,6 +140,85 @@ public class AlarmManagerTest {
         assertEquals(0, shadowAlarmManager.getScheduledAlarms().size());
     }
 
+    @Test
+    public void cancel_shouldFindAlarmsWhoseIntentChangedAfterTheyWereSet() {
+        Intent intent = new Intent("someAction");
+        alarmManager.set(AlarmManager.RTC, 1337, PendingIntent.getBroadcast(activity, 0, intent, 0));
+        intent.setAction("changedAction");
+
+        alarmManager.cancel(PendingIntent.getBroadcast(activity, 0, new Intent("someAction"), 0));
+        assertEquals(0, shadowAlarmManager.getScheduledAlarms().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getScheduledAlarms_shouldBeUnmodifiable() {
+        alarmManager.set(AlarmManager.RTC, 1337, PendingIntent.getBroadcast(activity, 0, new Intent("someAction"), 0));
+
+        shadowAlarmManager.getScheduledAlarms().clear();
+    }
+
+    @Test
+    public void getScheduledAlarms_shouldBeInTriggerTimeOrder() {
+        alarmManager.set(AlarmManager.RTC, 3000, PendingIntent.getBroadcast(activity, 0, new Intent("c"), 0));
+        alarmManager.set(AlarmManager.RTC, 1000, PendingIntent.getBroadcast(activity, 0, new Intent("a"), 0));
+        alarmManager.set(AlarmManager.RTC, 2000, PendingIntent.getBroadcast(activity, 0, new Intent("b"), 0));
+
+        assertThat(shadowAlarmManager.peekNextScheduledAlarm().triggerAtTime).isEqualTo(1000);
+        assertThat(shadowAlarmManager.getScheduledAlarms().get(1).triggerAtTime).isEqualTo(2000);
+        assertThat(shadowAlarmManager.getScheduledAlarms().get(2).triggerAtTime).isEqualTo(3000);
+    }
+
+    @Test
+    public void shouldFireAlarmsAsTheSchedulerAdvances() {
+        CountingReceiver receiver = new CountingReceiver();
+        activity.registerReceiver(receiver, new IntentFilter("alarm"));
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        shadowAlarmManager.setScheduler(scheduler);
+
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                PendingIntent.getBroadcast(activity, 0, new Intent("alarm"), 0));
+
+        scheduler.advanceBy(AlarmManager.INTERVAL_HOUR - 1);
+        assertThat(receiver.count).isEqualTo(0);
+        scheduler.advanceBy(1);
+        assertThat(receiver.count).isEqualTo(1);
+        assertThat(shadowAlarmManager.getScheduledAlarms()).isEmpty();
+    }
+
+    @Test
+    public void shouldFireRepeatingAlarmsEveryInterval() {
+        CountingReceiver receiver = new CountingReceiver();
+        activity.registerReceiver(receiver, new IntentFilter("sync"));
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        shadowAlarmManager.setScheduler(scheduler);
+        long start = System.currentTimeMillis() + AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+
+        alarmManager.setRepeating(AlarmManager.RTC, start, AlarmManager.INTERVAL_FIFTEEN_MINUTES,
+                PendingIntent.getBroadcast(activity, 0, new Intent("sync"), 0));
+        scheduler.advanceBy(AlarmManager.INTERVAL_DAY * 3);
+
+        assertThat(receiver.count).isEqualTo(3 * 24 * 4);
+        assertThat(shadowAlarmManager.getFiredAlarmCount()).isEqualTo(3 * 24 * 4);
+        assertThat(shadowAlarmManager.peekNextScheduledAlarm().triggerAtTime)
+                .isEqualTo(start + 3 * AlarmManager.INTERVAL_DAY);
+    }
+
+    @Test
+    public void cancel_shouldStopAlarmsFiring() {
+        CountingReceiver receiver = new CountingReceiver();
+        activity.registerReceiver(receiver, new IntentFilter("alarm"));
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        shadowAlarmManager.setScheduler(scheduler);
+
+        alarmManager.setRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + 1000, 1000,
+                PendingIntent.getBroadcast(activity, 0, new Intent("alarm"), 0));
+        scheduler.advanceBy(2000);
+        alarmManager.cancel(PendingIntent.getBroadcast(activity, 0, new Intent("alarm"), 0));
+        scheduler.advanceBy(5000);
+
+        assertThat(receiver.count).isEqualTo(2);
+    }
+
     private void assertScheduledAlarm(long now, PendingIntent pendingIntent,
                                       ShadowAlarmManager.ScheduledAlarm scheduledAlarm) {
 	    assertRepeatingScheduledAlarm(now, 0L, pendingIntent, scheduledAlarm);
@@ -151,6 +234,15 @@ public class AlarmManagerTest {
         assertThat(scheduledAlarm.interval).isEqualTo(interval);
     }
 
+    private static class CountingReceiver extends BroadcastReceiver {
+        int count;
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            count++;
+        }
+    }
+
     private static class MyActivity extends Activity {
         @Override
         protected void onDestroy() {
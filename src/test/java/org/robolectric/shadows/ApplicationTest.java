@@ -28,6 +28,7 @@ import org.robolectric.res.ResourceLoader;
 import org.robolectric.util.TestBroadcastReceiver;
 
 import java.io.FileDescriptor;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -254,6 +255,84 @@ public class ApplicationTest {
         assertTrue(shadowApplication.getReceiversForIntent(new Intent("Foo")).size() == 2);
     }
 
+    @Test
+    public void sendBroadcast_shouldDeliverToMatchingReceiversInRegistrationOrder() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        Robolectric.application.registerReceiver(new RecordingReceiver("a", calls), new IntentFilter("Foo"));
+        Robolectric.application.registerReceiver(new RecordingReceiver("b", calls), new IntentFilter("Bar"));
+        Robolectric.application.registerReceiver(new RecordingReceiver("c", calls), new IntentFilter("Foo") {});
+        Robolectric.application.registerReceiver(new RecordingReceiver("d", calls), new IntentFilter("Foo"));
+
+        Robolectric.application.sendBroadcast(new Intent("Foo"));
+
+        assertThat(calls).containsExactly("a", "c", "d");
+    }
+
+    @Test
+    public void sendBroadcast_shouldDeliverOnceToAFilterListingAnActionTwice() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        IntentFilter filter = new IntentFilter("Foo");
+        filter.addAction("Bar");
+        filter.addAction("Foo");
+        Robolectric.application.registerReceiver(new RecordingReceiver("a", calls), filter);
+
+        Robolectric.application.sendBroadcast(new Intent("Foo"));
+
+        assertThat(calls).containsExactly("a");
+    }
+
+    @Test
+    public void unregisterReceiver_shouldStopDeliveryForAllItsActions() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        BroadcastReceiver receiver = new RecordingReceiver("a", calls);
+        IntentFilter filter = new IntentFilter("Foo");
+        filter.addAction("Bar");
+        Robolectric.application.registerReceiver(receiver, filter);
+        Robolectric.application.unregisterReceiver(receiver);
+
+        Robolectric.application.sendBroadcast(new Intent("Foo"));
+        Robolectric.application.sendBroadcast(new Intent("Bar"));
+
+        assertThat(calls).isEmpty();
+        assertFalse(shadowOf(Robolectric.application).hasReceiverForIntent(new Intent("Bar")));
+    }
+
+    @Test
+    public void sendOrderedBroadcast_shouldDeliverByPriorityAndPassTheResultAlong() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        Robolectric.application.registerReceiver(new RecordingReceiver("low", calls), filterWithPriority("Foo", 1));
+        Robolectric.application.registerReceiver(new BroadcastReceiver() {
+            @Override public void onReceive(Context context, Intent intent) {
+                calls.add("high:" + getResultCode() + ":" + isOrderedBroadcast());
+                setResult(2, "data", null);
+            }
+        }, filterWithPriority("Foo", 10));
+        BroadcastReceiver resultReceiver = new BroadcastReceiver() {
+            @Override public void onReceive(Context context, Intent intent) {
+                calls.add("result:" + getResultCode() + ":" + getResultData());
+            }
+        };
+
+        Robolectric.application.sendOrderedBroadcast(new Intent("Foo"), null, resultReceiver, null, 1, null, null);
+
+        assertThat(calls).containsExactly("high:1:true", "low", "result:2:data");
+    }
+
+    @Test
+    public void sendOrderedBroadcast_shouldStopWhenAReceiverAborts() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        Robolectric.application.registerReceiver(new RecordingReceiver("low", calls), filterWithPriority("Foo", 1));
+        Robolectric.application.registerReceiver(new BroadcastReceiver() {
+            @Override public void onReceive(Context context, Intent intent) {
+                abortBroadcast();
+            }
+        }, filterWithPriority("Foo", 10));
+
+        new Activity().sendOrderedBroadcast(new Intent("Foo"), null);
+
+        assertThat(calls).isEmpty();
+    }
+
     @Test
     public void broadcasts_shouldBeLogged() {
         Intent broadcastIntent = new Intent("foo");
@@ -264,6 +343,27 @@ public class ApplicationTest {
         assertEquals(broadcastIntent, broadcastIntents.get(0));
     }
 
+    private static IntentFilter filterWithPriority(String action, int priority) {
+        IntentFilter filter = new IntentFilter(action);
+        filter.setPriority(priority);
+        return filter;
+    }
+
+    private static class RecordingReceiver extends BroadcastReceiver {
+        private final String name;
+        private final List<String> calls;
+
+        RecordingReceiver(String name, List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            calls.add(name);
+        }
+    }
+
     private static class NullBinder implements IBinder {
         @Override
         public String getInterfaceDescriptor() throws RemoteException {
@@ -117,6 +117,26 @@ public class AsyncTaskTest {
         assertThat(asyncTask.getStatus()).isEqualTo(AsyncTask.Status.FINISHED);
     }
 
+    @Test
+    public void withBackgroundThreadPool_shouldRunInBackgroundOnPoolThreadAndQueueResultOnUiThread() throws Exception {
+        Robolectric.useBackgroundThreadPool(2);
+        final Thread testThread = Thread.currentThread();
+        AsyncTask<String, String, String> asyncTask = new MyAsyncTask() {
+            @Override protected String doInBackground(String... strings) {
+                transcript.add("doInBackground on test thread: " + (Thread.currentThread() == testThread));
+                return "c";
+            }
+        };
+
+        asyncTask.execute("a");
+        Robolectric.runBackgroundTasks();
+        transcript.assertEventsSoFar("onPreExecute", "doInBackground on test thread: false");
+        assertEquals("c", asyncTask.get());
+
+        Robolectric.runUiThreadTasks();
+        transcript.assertEventsSoFar("onPostExecute c");
+    }
+
     private class MyAsyncTask extends AsyncTask<String, String, String> {
         @Override protected void onPreExecute() {
             transcript.add("onPreExecute");
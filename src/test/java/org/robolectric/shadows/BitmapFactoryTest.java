@@ -2,6 +2,7 @@ package org.robolectric.shadows;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
 import android.net.Uri;
 import android.provider.MediaStore;
 import org.junit.Test;
@@ -10,6 +11,8 @@ import org.robolectric.R;
 import org.robolectric.Robolectric;
 import org.robolectric.TestRunners;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -177,4 +180,106 @@ public class BitmapFactoryTest {
         assertThat(bm.getWidth()).isEqualTo(1);
         assertThat(bm.getHeight()).isEqualTo(1);
     }
+
+    @Test
+    public void decodeResource_shouldReadDimensionsFromTheImage() throws Exception {
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.READ_BOUNDS);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 4;
+
+        Bitmap bitmap = BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l0_red, options);
+        assertThat(bitmap.getWidth()).isEqualTo(25);
+        assertThat(bitmap.getHeight()).isEqualTo(25);
+        assertThat(options.outMimeType).isEqualTo("image/png");
+        assertThat(shadowOf(bitmap).hasPixels()).isFalse();
+        assertThat(shadowOf(bitmap).getLoadedFromResourceId()).isEqualTo(R.drawable.l0_red);
+    }
+
+    @Test
+    public void decodeResource_withJustDecodeBounds_shouldOnlySetOutFields() throws Exception {
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+
+        assertThat(BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white, options)).isNull();
+        assertThat(options.outWidth).isEqualTo(100);
+        assertThat(options.outHeight).isEqualTo(100);
+    }
+
+    @Test
+    public void decodeResource_shouldDecodePixelsAndCacheThem() throws Exception {
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        ShadowBitmapFactory.clearDecodedResourceCache();
+
+        Bitmap bitmap = BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+        assertThat(bitmap.getPixel(50, 50)).isEqualTo(Color.WHITE);
+        assertThat(bitmap.isMutable()).isFalse();
+
+        Bitmap again = BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+        assertThat(ShadowBitmapFactory.getDecodedResourceCacheHitCount()).isEqualTo(1);
+        assertThat(again.getPixel(50, 50)).isEqualTo(Color.WHITE);
+        assertThat(again).isNotSameAs(bitmap);
+    }
+
+    @Test
+    public void decodeResource_shouldEvictLeastRecentlyUsedResources() throws Exception {
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        ShadowBitmapFactory.clearDecodedResourceCache();
+        ShadowBitmapFactory.setDecodedResourceCacheSize(100 * 100 * 4);
+        try {
+            BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+            BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l0_red);
+            BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l0_red);
+            BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+            assertThat(ShadowBitmapFactory.getDecodedResourceCacheHitCount()).isEqualTo(1);
+        } finally {
+            ShadowBitmapFactory.setDecodedResourceCacheSize(ShadowBitmapFactory.DEFAULT_DECODED_RESOURCE_CACHE_BYTES);
+        }
+    }
+
+    @Test
+    public void reset_shouldResetTheCacheCountersAndLimitButKeepItsPixels() throws Exception {
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        ShadowBitmapFactory.clearDecodedResourceCache();
+        ShadowBitmapFactory.setDecodedResourceCacheSize(100 * 100 * 4);
+        BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+        BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+        assertThat(ShadowBitmapFactory.getDecodedResourceCacheHitCount()).isEqualTo(1);
+
+        ShadowBitmapFactory.reset();
+        assertThat(ShadowBitmapFactory.getDecodedResourceCacheHitCount()).isEqualTo(0);
+
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l0_red);
+        BitmapFactory.decodeResource(Robolectric.application.getResources(), R.drawable.l7_white);
+        assertThat(ShadowBitmapFactory.getDecodedResourceCacheHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void decodeByteArrayAndStream_shouldDecodeImageData() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap original = Bitmap.createBitmap(3, 2, Bitmap.Config.ARGB_8888);
+        original.eraseColor(Color.BLUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        original.compress(Bitmap.CompressFormat.PNG, 100, out);
+        byte[] png = out.toByteArray();
+
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        Bitmap fromBytes = BitmapFactory.decodeByteArray(png, 0, png.length);
+        assertThat(fromBytes.getWidth()).isEqualTo(3);
+        assertThat(fromBytes.getHeight()).isEqualTo(2);
+        assertThat(fromBytes.getPixel(2, 1)).isEqualTo(Color.BLUE);
+
+        Bitmap fromStream = BitmapFactory.decodeStream(new ByteArrayInputStream(png));
+        assertThat(fromStream.getPixel(0, 0)).isEqualTo(Color.BLUE);
+    }
+
+    @Test
+    public void decodeStream_shouldFallBackToPlaceholdersForDataThatIsntAnImage() throws Exception {
+        ShadowBitmapFactory.setDecodeMode(ShadowBitmapFactory.DecodeMode.DECODE_PIXELS);
+        InputStream inputStream = Robolectric.application.getContentResolver().openInputStream(Uri.parse("content:/path"));
+        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
+        assertEquals("Bitmap for content:/path", shadowOf(bitmap).getDescription());
+        assertEquals(100, bitmap.getWidth());
+    }
 }
@@ -6,12 +6,21 @@ import android.graphics.Canvas;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
+import android.graphics.Color;
 import android.graphics.Paint;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.TestRunners;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
 import static org.junit.Assert.*;
 import static org.robolectric.Robolectric.shadowOf;
 
@@ -135,4 +144,140 @@ public class BitmapTest {
     	assertEquals(shadowOf(bitmapCopy).getConfig(), Config.ARGB_8888);
     	assertTrue(shadowOf(bitmapCopy).isMutable());
     }
+
+    @Test
+    public void shouldNotHavePixelsUnlessPixelRenderingIsEnabled() {
+        assertFalse(shadowOf(Bitmap.createBitmap(10, 10, Config.ARGB_8888)).hasPixels());
+
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        assertTrue(shadowOf(Bitmap.createBitmap(10, 10, Config.ARGB_8888)).hasPixels());
+    }
+
+    @Test
+    public void shouldGetAndSetPixels() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(3, 2, Config.ARGB_8888);
+        assertEquals(0, bitmap.getPixel(1, 1));
+
+        bitmap.setPixel(1, 1, Color.RED);
+        bitmap.setPixels(new int[]{Color.GREEN, Color.BLUE}, 0, 2, 0, 0, 2, 1);
+
+        int[] pixels = new int[6];
+        bitmap.getPixels(pixels, 0, 3, 0, 0, 3, 2);
+        assertArrayEquals(new int[]{Color.GREEN, Color.BLUE, 0, 0, Color.RED, 0}, pixels);
+    }
+
+    @Test
+    public void shouldReduceColorsToTheConfigsPrecision() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Config.RGB_565);
+        bitmap.setPixel(0, 0, 0x80123456);
+
+        assertEquals(0xFF103452, bitmap.getPixel(0, 0));
+        assertFalse(bitmap.hasAlpha());
+        assertEquals(2, bitmap.getRowBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getPixel_shouldRejectCoordinatesOutsideTheBitmap() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap.createBitmap(3, 2, Config.ARGB_8888).getPixel(3, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setPixel_shouldRejectImmutableBitmaps() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(new int[]{Color.RED}, 1, 1, Config.ARGB_8888);
+        bitmap.setPixel(0, 0, Color.BLUE);
+    }
+
+    @Test
+    public void shouldCopyPixelsToAndFromBuffers() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(new int[]{Color.RED, 0x80FFFFFF}, 2, 1, Config.ARGB_8888);
+
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.getByteCount());
+        bitmap.copyPixelsToBuffer(buffer);
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0, 0, (byte) 0xFF, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80},
+                buffer.array());
+
+        Bitmap copy = Bitmap.createBitmap(2, 1, Config.ARGB_8888);
+        buffer.rewind();
+        copy.copyPixelsFromBuffer(buffer);
+        assertEquals(Color.RED, copy.getPixel(0, 0));
+        assertEquals(0x80FFFFFF, copy.getPixel(1, 0));
+    }
+
+    @Test
+    public void shouldCopyPixelsToAndFromShortAndIntBuffers() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(new int[]{Color.RED, Color.BLUE, Color.GREEN}, 3, 1, Config.RGB_565);
+
+        IntBuffer ints = IntBuffer.allocate(2);
+        bitmap.copyPixelsToBuffer(ints);
+        assertEquals(0, ints.remaining());
+        ShortBuffer shorts = ShortBuffer.allocate(3);
+        bitmap.copyPixelsToBuffer(shorts);
+        assertEquals((short) 0xF800, shorts.get(0));
+
+        Bitmap fromInts = Bitmap.createBitmap(3, 1, Config.RGB_565);
+        ints.rewind();
+        fromInts.copyPixelsFromBuffer(ints);
+        Bitmap fromShorts = Bitmap.createBitmap(3, 1, Config.RGB_565);
+        shorts.rewind();
+        fromShorts.copyPixelsFromBuffer(shorts);
+        for (Bitmap copy : new Bitmap[]{fromInts, fromShorts}) {
+            assertEquals(Color.RED, copy.getPixel(0, 0));
+            assertEquals(Color.BLUE, copy.getPixel(1, 0));
+            assertEquals(Color.GREEN, copy.getPixel(2, 0));
+        }
+    }
+
+    @Test
+    public void shouldScaleAndCopyPixels() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(new int[]{Color.RED, Color.BLUE}, 2, 1, Config.ARGB_8888);
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, 4, 2, false);
+        assertEquals(Color.RED, scaled.getPixel(1, 1));
+        assertEquals(Color.BLUE, scaled.getPixel(2, 0));
+
+        Bitmap cropped = Bitmap.createBitmap(scaled, 2, 0, 2, 2);
+        assertEquals(Color.BLUE, cropped.getPixel(0, 0));
+
+        Bitmap copy = bitmap.copy(Config.ARGB_8888, true);
+        copy.setPixel(0, 0, Color.GREEN);
+        assertEquals(Color.RED, bitmap.getPixel(0, 0));
+    }
+
+    @Test
+    public void shouldRotateWhenCreatingBitmapsWithAMatrix() {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(new int[]{Color.RED, Color.BLUE}, 2, 1, Config.ARGB_8888);
+        Matrix matrix = new Matrix();
+        matrix.setRotate(90);
+        matrix.postTranslate(5, 5);
+
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, 2, 1, matrix, false);
+        assertEquals(1, rotated.getWidth());
+        assertEquals(2, rotated.getHeight());
+        assertEquals(Color.RED, rotated.getPixel(0, 0));
+        assertEquals(Color.BLUE, rotated.getPixel(0, 1));
+    }
+
+    @Test
+    public void compress_shouldEncodeThePixels() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(2, 2, Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        bitmap.setPixel(1, 1, Color.RED);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(bitmap.compress(Bitmap.CompressFormat.PNG, 100, out));
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, image.getWidth());
+        assertEquals(Color.BLUE, image.getRGB(0, 0));
+        assertEquals(Color.RED, image.getRGB(1, 1));
+    }
 }
@@ -8,6 +8,7 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -189,4 +190,145 @@ public class CanvasTest {
         assertEquals("hello", shadowCanvas.getDrawnTextEvent(0).text);
         assertEquals("hello 2", shadowCanvas.getDrawnTextEvent(1).text);
     }
+
+    @Test
+    public void shouldRasterizeRectsAndCirclesIntoBitmapsWithPixels() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+
+        canvas.drawColor(Color.WHITE);
+        paint.setColor(Color.RED);
+        canvas.drawRect(2, 2, 6, 6, paint);
+        paint.setColor(Color.BLUE);
+        canvas.drawCircle(15, 15, 3, paint);
+
+        assertEquals(Color.WHITE, bitmap.getPixel(1, 1));
+        assertEquals(Color.RED, bitmap.getPixel(2, 2));
+        assertEquals(Color.RED, bitmap.getPixel(5, 5));
+        assertEquals(Color.WHITE, bitmap.getPixel(6, 6));
+        assertEquals(Color.BLUE, bitmap.getPixel(15, 15));
+        assertEquals(Color.WHITE, bitmap.getPixel(15, 19));
+        assertThat(shadowOf(canvas).hasDrawnCircle()).isTrue();
+        assertEquals(20, canvas.getWidth());
+    }
+
+    @Test
+    public void shouldHonorTheMatrixClipAndSaveStack() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setColor(Color.GREEN);
+
+        canvas.save();
+        canvas.translate(10, 10);
+        canvas.scale(2, 2);
+        canvas.clipRect(0, 0, 2, 2);
+        canvas.drawRect(new RectF(0, 0, 5, 5), paint);
+        canvas.restore();
+        canvas.drawRect(0, 0, 1, 1, paint);
+
+        assertEquals(Color.GREEN, bitmap.getPixel(10, 10));
+        assertEquals(Color.GREEN, bitmap.getPixel(13, 13));
+        assertEquals(0, bitmap.getPixel(14, 14));
+        assertEquals(0, bitmap.getPixel(9, 9));
+        assertEquals(Color.GREEN, bitmap.getPixel(0, 0));
+        assertEquals(1, canvas.getSaveCount());
+    }
+
+    @Test
+    public void shouldStrokeLinesAndPaths() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setColor(Color.BLACK);
+        paint.setStrokeWidth(2);
+
+        canvas.drawLine(0, 5, 20, 5, paint);
+
+        Path path = new Path();
+        path.moveTo(10, 10);
+        path.lineTo(18, 10);
+        path.lineTo(18, 18);
+        path.lineTo(10, 18);
+        path.lineTo(10, 10);
+        paint.setStyle(Paint.Style.STROKE);
+        canvas.drawPath(path, paint);
+
+        assertEquals(Color.BLACK, bitmap.getPixel(7, 4));
+        assertEquals(Color.BLACK, bitmap.getPixel(7, 5));
+        assertEquals(0, bitmap.getPixel(7, 7));
+        assertEquals(Color.BLACK, bitmap.getPixel(14, 10));
+        assertEquals(0, bitmap.getPixel(14, 14));
+    }
+
+    @Test
+    public void shouldDrawBitmapsWithThePaintsAlpha() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap source = Bitmap.createBitmap(new int[]{Color.RED, Color.BLUE}, 2, 1, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        Canvas canvas = new Canvas(bitmap);
+
+        canvas.drawBitmap(source, 1, 1, null);
+        canvas.drawBitmap(source, null, new Rect(4, 4, 8, 6), null);
+        Paint halfTransparent = new Paint();
+        halfTransparent.setAlpha(0x80);
+        canvas.drawBitmap(source, 0, 8, halfTransparent);
+
+        assertEquals(Color.RED, bitmap.getPixel(1, 1));
+        assertEquals(Color.BLUE, bitmap.getPixel(2, 1));
+        assertEquals(Color.RED, bitmap.getPixel(5, 5));
+        assertEquals(Color.BLUE, bitmap.getPixel(6, 4));
+        assertEquals(0xFFFF7F7F, bitmap.getPixel(0, 8));
+    }
+
+    @Test
+    public void shouldDrawBitmapsWithTheWholeMatrix() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap source = Bitmap.createBitmap(new int[]{Color.RED, Color.BLUE}, 2, 1, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        Canvas canvas = new Canvas(bitmap);
+        Matrix matrix = new Matrix();
+        matrix.setRotate(90);
+        matrix.postTranslate(3, 2);
+
+        canvas.drawBitmap(source, matrix, null);
+        assertEquals(Color.RED, bitmap.getPixel(2, 2));
+        assertEquals(Color.BLUE, bitmap.getPixel(2, 3));
+        assertEquals(Color.WHITE, bitmap.getPixel(3, 2));
+
+        Matrix skew = new Matrix();
+        skew.setSkew(1, 0);
+        canvas.concat(skew);
+        canvas.drawBitmap(source, 0, 6, null);
+        assertEquals(Color.RED, bitmap.getPixel(6, 6));
+        assertEquals(Color.BLUE, bitmap.getPixel(7, 6));
+        assertEquals(Color.WHITE, bitmap.getPixel(0, 6));
+    }
+
+    @Test
+    public void shouldRasterizeText() throws Exception {
+        ShadowBitmap.setPixelRenderingEnabled(true);
+        Bitmap bitmap = Bitmap.createBitmap(40, 20, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setTextSize(16);
+
+        canvas.drawText("H", 2, 16, paint);
+
+        int drawn = 0;
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 20; y++) {
+                if (bitmap.getPixel(x, y) == Color.BLACK) drawn++;
+            }
+        }
+        assertThat(drawn).isGreaterThan(10);
+        assertEquals(0, bitmap.getPixel(30, 10));
+        assertThat(shadowOf(canvas).getTextHistoryCount()).isEqualTo(1);
+    }
 }
@@ -27,6 +27,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -351,6 +352,82 @@ public class ContentResolverTest {
         assertThat(contentResolver.update(unrelated, new ContentValues(), null, null)).isEqualTo(0);
     }
     
+    @Test
+    public void applyBatch_shouldApplyTheOperationsInOneProviderBatch() throws Exception {
+        RecordingProvider provider = new RecordingProvider();
+        ShadowContentResolver.registerProvider(AUTHORITY, provider);
+        Uri uri = Uri.parse("content://" + AUTHORITY + "/items");
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(uri).withValue("name", "foo").build());
+        operations.add(ContentProviderOperation.newInsert(uri).withValueBackReference("parent", 0).build());
+        operations.add(ContentProviderOperation.newUpdate(uri).withSelection("_id = ?", new String[]{"1"})
+                .withValue("name", "bar").build());
+        operations.add(ContentProviderOperation.newDelete(uri).withSelection("_id = ?", new String[]{"2"}).build());
+
+        ContentProviderResult[] results = contentResolver.applyBatch(AUTHORITY, operations);
+
+        assertThat(provider.batches).isEqualTo(1);
+        assertThat(provider.calls).containsExactly("insert name=foo", "insert parent=1", "update _id = ?", "delete _id = ?");
+        assertThat(results[0].uri).isEqualTo(Uri.parse("content://" + AUTHORITY + "/items/1"));
+        assertThat(results[1].uri).isEqualTo(Uri.parse("content://" + AUTHORITY + "/items/2"));
+        assertThat(results[2].count).isEqualTo(3);
+        assertThat(results[3].count).isEqualTo(4);
+        assertThat(shadowContentResolver.getContentProviderOperations(AUTHORITY)).isEmpty();
+    }
+
+    @Test
+    public void bulkInsert_shouldInsertEachValueThroughTheProvider() throws Exception {
+        RecordingProvider provider = new RecordingProvider();
+        ShadowContentResolver.registerProvider(AUTHORITY, provider);
+        ContentValues values = new ContentValues();
+        values.put("name", "foo");
+
+        int count = contentResolver.bulkInsert(Uri.parse("content://" + AUTHORITY + "/items"), new ContentValues[]{values, values});
+
+        assertThat(count).isEqualTo(2);
+        assertThat(provider.calls).containsExactly("insert name=foo", "insert name=foo");
+    }
+
+    @Test
+    public void registerProvider_shouldRouteEveryAuthorityInTheList() throws Exception {
+        RecordingProvider provider = new RecordingProvider();
+        ShadowContentResolver.registerProvider("one;two", provider);
+
+        contentResolver.delete(Uri.parse("content://one/items"), null, null);
+        contentResolver.delete(Uri.parse("content://two/items"), null, null);
+        ShadowContentResolver.unregisterProvider("two");
+        contentResolver.delete(Uri.parse("content://two/items"), null, null);
+
+        assertThat(provider.calls).containsExactly("delete null", "delete null");
+        assertThat(shadowContentResolver.getDeletedUris()).containsExactly(Uri.parse("content://two/items"));
+    }
+
+    @Test
+    public void shouldOnlyKeepTheLatestStatements() throws Exception {
+        shadowContentResolver.setMaxRecordedStatements(2);
+        for (int i = 0; i < 5; i++) {
+            ContentValues values = new ContentValues();
+            values.put("i", i);
+            contentResolver.insert(EXTERNAL_CONTENT_URI, values);
+        }
+
+        assertThat(shadowContentResolver.getInsertStatements().size()).isEqualTo(2);
+        assertThat(shadowContentResolver.getInsertStatements().get(0).getContentValues().getAsInteger("i")).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotRecordStatementsWhenRecordingIsOff() throws Exception {
+        shadowContentResolver.setRecordingStatements(false);
+
+        assertNotNull(contentResolver.insert(EXTERNAL_CONTENT_URI, new ContentValues()));
+        contentResolver.update(EXTERNAL_CONTENT_URI, new ContentValues(), null, null);
+        contentResolver.delete(EXTERNAL_CONTENT_URI, null, null);
+
+        assertThat(shadowContentResolver.getInsertStatements()).isEmpty();
+        assertThat(shadowContentResolver.getUpdateStatements()).isEmpty();
+        assertThat(shadowContentResolver.getDeleteStatements()).isEmpty();
+    }
+
     @Test
     public void shouldRegisterContentObservers() throws Exception {
     	TestContentObserver co = new TestContentObserver(null);
@@ -386,6 +463,126 @@ public class ContentResolverTest {
     }
     
    
+    @Test
+    public void shouldNotifyEveryObserverOfAUri() throws Exception {
+        CountingObserver first = new CountingObserver(null);
+        CountingObserver second = new CountingObserver(null);
+        contentResolver.registerContentObserver(EXTERNAL_CONTENT_URI, false, first);
+        contentResolver.registerContentObserver(EXTERNAL_CONTENT_URI, false, second);
+
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, null);
+
+        assertThat(first.uris).containsExactly(EXTERNAL_CONTENT_URI);
+        assertThat(second.uris).containsExactly(EXTERNAL_CONTENT_URI);
+        assertThat(shadowContentResolver.getContentObservers(EXTERNAL_CONTENT_URI)).containsExactly(first, second);
+    }
+
+    @Test
+    public void shouldNotifyObserversOfAncestorsOnlyIfTheyWantDescendants() throws Exception {
+        Uri parent = Uri.parse("content://" + AUTHORITY + "/items");
+        Uri child = Uri.parse("content://" + AUTHORITY + "/items/1");
+        CountingObserver descendants = new CountingObserver(null);
+        CountingObserver exact = new CountingObserver(null);
+        CountingObserver childObserver = new CountingObserver(null);
+        contentResolver.registerContentObserver(parent, true, descendants);
+        contentResolver.registerContentObserver(parent, false, exact);
+        contentResolver.registerContentObserver(child, false, childObserver);
+
+        contentResolver.notifyChange(child, null);
+        assertThat(descendants.uris).containsExactly(child);
+        assertThat(exact.uris).isEmpty();
+        assertThat(childObserver.uris).containsExactly(child);
+
+        contentResolver.notifyChange(parent, null);
+        assertThat(exact.uris).containsExactly(parent);
+        assertThat(childObserver.uris).containsExactly(child, parent);
+
+        contentResolver.notifyChange(Uri.parse("content://" + AUTHORITY + "/other"), null);
+        assertThat(descendants.uris).containsExactly(child, parent);
+    }
+
+    @Test
+    public void shouldNotNotifyTheOriginatingObserverUnlessItAsks() throws Exception {
+        CountingObserver observer = new CountingObserver(null);
+        contentResolver.registerContentObserver(EXTERNAL_CONTENT_URI, false, observer);
+
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, observer);
+
+        assertThat(observer.uris).isEmpty();
+    }
+
+    @Test
+    public void shouldCoalesceChangesUntilTheObserversLooperRuns() throws Exception {
+        CountingObserver observer = new CountingObserver(new Handler());
+        Uri other = Uri.parse("content://" + AUTHORITY + "/other");
+        contentResolver.registerContentObserver(EXTERNAL_CONTENT_URI, false, observer);
+        contentResolver.registerContentObserver(other, false, observer);
+
+        Robolectric.pauseMainLooper();
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, null);
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, null);
+        contentResolver.notifyChange(other, null);
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, null);
+        assertThat(observer.uris).isEmpty();
+
+        Robolectric.unPauseMainLooper();
+        assertThat(observer.uris).containsExactly(EXTERNAL_CONTENT_URI, other);
+        assertThat(shadowContentResolver.getDeliveredChangeCount()).isEqualTo(2);
+        assertThat(shadowContentResolver.getCoalescedChangeCount()).isEqualTo(2);
+
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, null);
+        assertThat(observer.uris).containsExactly(EXTERNAL_CONTENT_URI, other, EXTERNAL_CONTENT_URI);
+    }
+
+    @Test
+    public void shouldCallObserversThatOnlyImplementTheOldOnChange() throws Exception {
+        final List<Boolean> changes = new ArrayList<Boolean>();
+        ContentObserver observer = new ContentObserver(null) {
+            @Override public void onChange(boolean selfChange) {
+                changes.add(selfChange);
+            }
+        };
+        contentResolver.registerContentObserver(EXTERNAL_CONTENT_URI, false, observer);
+
+        contentResolver.notifyChange(EXTERNAL_CONTENT_URI, null);
+
+        assertThat(changes).containsExactly(false);
+    }
+
+    static class RecordingProvider extends ContentProvider {
+        final List<String> calls = new ArrayList<String>();
+        int batches;
+        private int nextId = 1;
+
+        @Override public boolean onCreate() {
+            return true;
+        }
+        @Override public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+        @Override public String getType(Uri uri) {
+            return null;
+        }
+        @Override public Uri insert(Uri uri, ContentValues values) {
+            Map.Entry<String, Object> value = values.valueSet().iterator().next();
+            calls.add("insert " + value.getKey() + "=" + value.getValue());
+            return Uri.withAppendedPath(uri, String.valueOf(nextId++));
+        }
+        @Override public int delete(Uri uri, String selection, String[] selectionArgs) {
+            calls.add("delete " + selection);
+            return 4;
+        }
+        @Override public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            calls.add("update " + selection);
+            return 3;
+        }
+        @Override public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            batches++;
+            return super.applyBatch(operations);
+        }
+    }
+
     static class QueryParamTrackingTestCursor extends TestCursor {
         public Uri uri;
         public String[] projection;
@@ -403,6 +600,19 @@ public class ContentResolverTest {
         }
     }
     
+    private static class CountingObserver extends ContentObserver {
+        final List<Uri> uris = new ArrayList<Uri>();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            uris.add(uri);
+        }
+    }
+
 	private class TestContentObserver extends ContentObserver {
 		public TestContentObserver(Handler handler) {
 			super(handler);
@@ -8,8 +8,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.robolectric.Robolectric;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.List;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -604,6 +607,86 @@ public abstract class DatabaseTestBase {
         assertThat(database.inTransaction()).isFalse();
     }
 
+    @Test
+    public void shouldLogStatementsWithRowCounts() throws Exception {
+        int loggedDuringSetUp = shDatabase.getQueryLog().size();
+        long id = addChuck();
+        updateName(id, "Norris");
+        Cursor cursor = database.query("rawtable", new String[]{"first_column"}, null, null, null, null, null);
+        database.delete("rawtable", null, null);
+
+        List<ShadowSQLiteDatabase.QueryLogEntry> log = shDatabase.getQueryLog();
+        log = log.subList(loggedDuringSetUp, log.size());
+        assertThat(log.size()).isEqualTo(4);
+        assertThat(log.get(0).getSql()).contains("INSERT INTO table_name");
+        assertThat(log.get(0).getRowCount()).isEqualTo(1);
+        assertThat(log.get(1).getSql()).contains("UPDATE table_name");
+        assertThat(log.get(1).getRowCount()).isEqualTo(1);
+        assertThat(log.get(2).getSql()).isEqualTo("SELECT first_column FROM rawtable");
+        assertThat(log.get(2).getRowCount()).isEqualTo(cursor.getCount()).isEqualTo(2);
+        assertThat(log.get(3).getSql()).contains("DELETE FROM rawtable");
+        assertThat(log.get(3).getRowCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldSortSlowestQueriesFirst() throws Exception {
+        database.query("rawtable", new String[]{"first_column"}, null, null, null, null, null);
+
+        List<ShadowSQLiteDatabase.QueryLogEntry> slowest = shDatabase.getSlowestQueries();
+        assertThat(slowest.size()).isEqualTo(shDatabase.getQueryLog().size());
+        for (int i = 1; i < slowest.size(); i++) {
+            assertThat(slowest.get(i - 1).getTotalNanos()).isGreaterThanOrEqualTo(slowest.get(i).getTotalNanos());
+        }
+    }
+
+    @Test
+    public void shouldLogTheCallersSql() throws Exception {
+        String sql = "CREATE TABLE logged (id INTEGER PRIMARY KEY AUTOINCREMENT, name VARCHAR(255))";
+        database.execSQL(sql);
+        database.rawQuery("SELECT name FROM logged WHERE id = ?", new String[]{"1"});
+
+        List<ShadowSQLiteDatabase.QueryLogEntry> log = shDatabase.getQueryLog();
+        assertThat(log.get(log.size() - 2).getSql()).isEqualTo(sql);
+        assertThat(log.get(log.size() - 1).getSql()).isEqualTo("SELECT name FROM logged WHERE id = ?");
+    }
+
+    @Test
+    public void shouldLogBuiltStatementsWithTheirArgumentsUnbound() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put("first_column", "Norris");
+        database.update("rawtable", values, "first_column = ?", new String[]{"Chuck"});
+        database.query("rawtable", new String[]{"first_column"}, "first_column = ?", new String[]{"Norris"}, null, null, null);
+        database.delete("rawtable", "first_column = ?", new String[]{"Norris"});
+
+        List<ShadowSQLiteDatabase.QueryLogEntry> log = shDatabase.getQueryLog();
+        log = log.subList(log.size() - 3, log.size());
+        assertThat(log.get(0).getSql()).isEqualTo("UPDATE rawtable SET first_column=? WHERE first_column = ?;");
+        assertThat(log.get(1).getSql()).isEqualTo("SELECT first_column FROM rawtable WHERE first_column = ?");
+        assertThat(log.get(2).getSql()).isEqualTo("DELETE FROM rawtable WHERE first_column = ?;");
+    }
+
+    @Test
+    public void shouldDumpTheQueryLogToTheGivenStream() throws Exception {
+        database.query("rawtable", new String[]{"first_column"}, null, null, null, null, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        shDatabase.dumpQueryLog(new PrintStream(out, true));
+        assertThat(out.toString()).contains("SELECT first_column FROM rawtable");
+    }
+
+    @Test
+    public void shouldOnlyKeepTheMostRecentStatements() throws Exception {
+        shDatabase.setMaxQueryLogSize(2);
+        database.query("rawtable", new String[]{"first_column"}, null, null, null, null, null);
+        database.query("rawtable", new String[]{"second_column"}, null, null, null, null, null);
+        database.query("rawtable", new String[]{"name"}, null, null, null, null, null);
+
+        List<ShadowSQLiteDatabase.QueryLogEntry> log = shDatabase.getQueryLog();
+        assertThat(log.size()).isEqualTo(2);
+        assertThat(log.get(0).getSql()).isEqualTo("SELECT second_column FROM rawtable");
+        assertThat(log.get(1).getSql()).isEqualTo("SELECT name FROM rawtable");
+    }
+
     protected long addChuck() {
         return addPerson(1234L, "Chuck");
     }
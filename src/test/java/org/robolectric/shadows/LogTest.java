@@ -197,6 +197,94 @@ public class LogTest {
         ShadowLog.stream = old;
     }
 
+    @Test
+    public void shouldKeepOnlyTheMostRecentLogs() throws Exception {
+        ShadowLog.setMaxLogs(3);
+        for (int i = 1; i <= 5; i++) {
+            Log.d(i % 2 == 0 ? "even" : "odd", Integer.toString(i));
+        }
+
+        List<LogItem> allItems = ShadowLog.getLogs();
+        assertThat(allItems.size()).isEqualTo(3);
+        assertThat(allItems.get(0).msg).isEqualTo("3");
+        assertThat(allItems.get(2).msg).isEqualTo("5");
+    }
+
+    @Test
+    public void shouldKeepOnlyTheMostRecentLogsForEachTag() throws Exception {
+        ShadowLog.setMaxLogsPerTag(2);
+        Log.d("chatty", "1");
+        Log.d("chatty", "2");
+        Log.d("quiet", "3");
+        Log.d("chatty", "4");
+
+        List<LogItem> chattyItems = ShadowLog.getLogsForTag("chatty");
+        assertThat(chattyItems.size()).isEqualTo(2);
+        assertThat(chattyItems.get(0).msg).isEqualTo("2");
+        assertThat(chattyItems.get(1).msg).isEqualTo("4");
+        assertThat(ShadowLog.getLogsForTag("quiet").size()).isEqualTo(1);
+        assertThat(ShadowLog.getLogs().size()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldForgetLogsOnReset() throws Exception {
+        Log.d("tag", "msg");
+        Log.d(null, "msg");
+        ShadowLog.reset();
+
+        assertThat(ShadowLog.getLogs()).isEmpty();
+        assertThat(ShadowLog.getLogsForTag("tag")).isNull();
+        assertThat(ShadowLog.getLogsForTag(null)).isNull();
+    }
+
+    @Test
+    public void shouldRecordLogsFromConcurrentThreads() throws Exception {
+        final int threadCount = 4;
+        final int logsPerThread = 1000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final String tag = "thread" + t;
+            threads[t] = new Thread() {
+                @Override public void run() {
+                    for (int i = 0; i < logsPerThread; i++) {
+                        Log.d(tag, Integer.toString(i));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(ShadowLog.getLogs().size()).isEqualTo(threadCount * logsPerThread);
+        for (int t = 0; t < threadCount; t++) {
+            assertUniformLogsForTag("thread" + t, logsPerThread);
+        }
+    }
+
+    @Test
+    public void shouldLogToAsyncStream() throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream old = ShadowLog.stream;
+        ShadowLog.stream = null;
+        ShadowLog.setAsyncStream(new PrintStream(bos));
+        try {
+            assertTrue(Log.isLoggable("FOO", Log.VERBOSE));
+            Log.d("tag", "msg");
+            Log.w("tag", new RuntimeException());
+            ShadowLog.flushAsyncStream();
+
+            String output = new String(bos.toByteArray());
+            assertThat(output).startsWith("D/tag: msg\n");
+            assertTrue(output.contains("RuntimeException"));
+        } finally {
+            ShadowLog.setAsyncStream(null);
+            ShadowLog.stream = old;
+        }
+        assertFalse(ShadowLog.hasAsyncStream());
+    }
+
     private void assertLogged(int type, String tag, String msg, Throwable throwable) {
         LogItem lastLog = ShadowLog.getLogs().get(0);
         assertEquals(type, lastLog.type);
@@ -0,0 +1,62 @@
+package org.robolectric.shadows;
+
+import android.graphics.Matrix;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.TestRunners;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Robolectric.shadowOf;
+
+@RunWith(TestRunners.WithDefaults.class)
+public class MatrixTest {
+    @Test
+    public void shouldComposePreAndPostOperationsInAndroidsOrder() throws Exception {
+        Matrix matrix = new Matrix();
+        assertTrue(matrix.isIdentity());
+
+        matrix.setScale(2, 3);
+        matrix.postTranslate(10, 20);
+        matrix.preTranslate(1, 1);
+        assertFalse(matrix.isIdentity());
+
+        float[] values = new float[9];
+        matrix.getValues(values);
+        assertArrayEquals(new float[]{2, 0, 12, 0, 3, 23, 0, 0, 1}, values, 0.0001f);
+    }
+
+    @Test
+    public void shouldHonorPivotsAndRotations() throws Exception {
+        Matrix matrix = new Matrix();
+        matrix.postScale(2, 2, 5, 5);
+        assertMaps(matrix, 5, 5, 5, 5);
+        assertMaps(matrix, 6, 5, 7, 5);
+
+        matrix.setRotate(90, 1, 1);
+        assertMaps(matrix, 2, 1, 1, 2);
+
+        Matrix copy = new Matrix(matrix);
+        matrix.reset();
+        assertMaps(copy, 2, 1, 1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toAffineTransform_shouldRejectPerspective() throws Exception {
+        Matrix matrix = new Matrix();
+        matrix.setValues(new float[]{1, 0, 0, 0, 1, 0, 0.5f, 0, 1});
+        shadowOf(matrix).toAffineTransform();
+    }
+
+    private static void assertMaps(Matrix matrix, float x, float y, float expectedX, float expectedY) {
+        AffineTransform transform = shadowOf(matrix).toAffineTransform();
+        Point2D point = transform.transform(new Point2D.Float(x, y), null);
+        assertEquals(expectedX, point.getX(), 0.0001);
+        assertEquals(expectedY, point.getY(), 0.0001);
+    }
+}
@@ -1,13 +1,15 @@
 package org.robolectric.shadows;
 
+import android.accounts.Account;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Parcel;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.robolectric.Robolectric;
 import org.robolectric.TestRunners;
 
 import java.util.ArrayList;
@@ -18,24 +20,23 @@ import java.util.List;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.robolectric.Robolectric.shadowOf;
 
 @RunWith(TestRunners.WithDefaults.class)
 public class ParcelTest {
 
     private Parcel parcel;
-    private ShadowParcel shadowParcel;
 
     @Before
     public void setup() {
         parcel = Parcel.obtain();
-        shadowParcel = Robolectric.shadowOf(parcel);
     }
 
     @Test
     public void testObtain() {
         assertThat(parcel).isNotNull();
-        assertThat(shadowParcel.getIndex()).isEqualTo(0);
-        assertThat(shadowParcel.getParcelData().size()).isEqualTo(0);
+        assertThat(parcel.dataPosition()).isEqualTo(0);
+        assertThat(parcel.dataSize()).isEqualTo(0);
     }
 
     @Test
@@ -62,15 +63,17 @@ public class ParcelTest {
     public void testReadWriteSingleString() {
         String val = "test";
         parcel.writeString(val);
+        parcel.setDataPosition(0);
         assertThat(parcel.readString()).isEqualTo(val);
     }
 
     @Test
     public void testWriteNullString() {
         parcel.writeString(null);
+        assertThat(parcel.dataSize()).isEqualTo(4);
+        parcel.setDataPosition(0);
         assertThat(parcel.readString()).isNull();
-        assertThat(shadowParcel.getIndex()).isEqualTo(0);
-        assertThat(shadowParcel.getParcelData().size()).isEqualTo(0);
+        assertThat(parcel.dataPosition()).isEqualTo(4);
     }
 
     @Test
@@ -78,6 +81,7 @@ public class ParcelTest {
         for (int i = 0; i < 10; ++i) {
             parcel.writeString(Integer.toString(i));
         }
+        parcel.setDataPosition(0);
         for (int i = 0; i < 10; ++i) {
             assertThat(parcel.readString()).isEqualTo(Integer.toString(i));
         }
@@ -89,6 +93,7 @@ public class ParcelTest {
     public void testReadWriteSingleInt() {
         int val = 5;
         parcel.writeInt(val);
+        parcel.setDataPosition(0);
         assertThat(parcel.readInt()).isEqualTo(val);
     }
 
@@ -97,6 +102,7 @@ public class ParcelTest {
         final int[] ints = {1, 2};
         parcel.writeIntArray(ints);
         final int[] ints2 = new int[ints.length];
+        parcel.setDataPosition(0);
         parcel.readIntArray(ints2);
         assertTrue(Arrays.equals(ints, ints2));
     }
@@ -106,6 +112,7 @@ public class ParcelTest {
         final long[] longs = {1, 2};
         parcel.writeLongArray(longs);
         final long[] longs2 = new long[longs.length];
+        parcel.setDataPosition(0);
         parcel.readLongArray(longs2);
         assertTrue(Arrays.equals(longs, longs2));
     }
@@ -114,6 +121,7 @@ public class ParcelTest {
     public void testReadWriteSingleFloat() {
         float val = 5.2f;
         parcel.writeFloat(val);
+        parcel.setDataPosition(0);
         assertThat(parcel.readFloat()).isEqualTo(val);
     }
 
@@ -122,6 +130,7 @@ public class ParcelTest {
         final float[] floats = {1.1f, 2.0f};
         parcel.writeFloatArray(floats);
         final float[] floats2 = new float[floats.length];
+        parcel.setDataPosition(0);
         parcel.readFloatArray(floats2);
         assertTrue(Arrays.equals(floats, floats2));
     }
@@ -131,6 +140,7 @@ public class ParcelTest {
         final double[] doubles = {1.1f, 2.0f};
         parcel.writeDoubleArray(doubles);
         final double[] doubles2 = new double[doubles.length];
+        parcel.setDataPosition(0);
         parcel.readDoubleArray(doubles2);
         assertTrue(Arrays.equals(doubles, doubles2));
     }
@@ -140,6 +150,7 @@ public class ParcelTest {
         final String[] strings = {"foo", "bar"};
         parcel.writeStringArray(strings);
         final String[] strings2 = new String[strings.length];
+        parcel.setDataPosition(0);
         parcel.readStringArray(strings2);
         assertTrue(Arrays.equals(strings, strings2));
     }
@@ -149,6 +160,7 @@ public class ParcelTest {
         for (int i = 0; i < 10; ++i) {
             parcel.writeInt(i);
         }
+        parcel.setDataPosition(0);
         for (int i = 0; i < 10; ++i) {
             assertThat(parcel.readInt()).isEqualTo(i);
         }
@@ -160,6 +172,7 @@ public class ParcelTest {
     public void testReadWriteSingleByte() {
         byte val = 1;
         parcel.writeByte(val);
+        parcel.setDataPosition(0);
         assertThat(parcel.readByte()).isEqualTo(val);
     }
 
@@ -168,6 +181,7 @@ public class ParcelTest {
         for (byte i = Byte.MIN_VALUE; i < Byte.MAX_VALUE; ++i) {
             parcel.writeByte(i);
         }
+        parcel.setDataPosition(0);
         for (byte i = Byte.MIN_VALUE; i < Byte.MAX_VALUE; ++i) {
             assertThat(parcel.readByte()).isEqualTo(i);
         }
@@ -182,6 +196,7 @@ public class ParcelTest {
             parcel.writeString(Integer.toString(i));
             parcel.writeInt(i);
         }
+        parcel.setDataPosition(0);
         for (int i = 0; i < 10; ++i) {
             assertThat(parcel.readString()).isEqualTo(Integer.toString(i));
             assertThat(parcel.readInt()).isEqualTo(i);
@@ -191,24 +206,26 @@ public class ParcelTest {
         assertThat(parcel.readInt()).isEqualTo(0);
     }
 
-    @Test(expected = ClassCastException.class)
-    public void testWriteStringReadInt() {
+    @Test
+    public void testWriteStringReadInt_shouldReadTheStringLength() {
         String val = "test";
         parcel.writeString(val);
-        parcel.readInt();
+        parcel.setDataPosition(0);
+        assertThat(parcel.readInt()).isEqualTo(4);
     }
 
-    @Test(expected = ClassCastException.class)
-    public void testWriteIntReadString() {
+    @Test
+    public void testWriteIntReadString_shouldReturnNullIfTheLengthRunsPastTheData() {
         int val = 9;
         parcel.writeInt(val);
-        parcel.readString();
+        assertThat(parcel.readString()).isNull();
     }
 
     @Test
     public void testReadWriteSingleLong() {
         long val = 5;
         parcel.writeLong(val);
+        parcel.setDataPosition(0);
         assertThat(parcel.readLong()).isEqualTo(val);
     }
 
@@ -217,6 +234,7 @@ public class ParcelTest {
         for (long i = 0; i < 10; ++i) {
             parcel.writeLong(i);
         }
+        parcel.setDataPosition(0);
         for (long i = 0; i < 10; ++i) {
             assertThat(parcel.readLong()).isEqualTo(i);
         }
@@ -230,6 +248,7 @@ public class ParcelTest {
             parcel.writeString(Long.toString(i));
             parcel.writeLong(i);
         }
+        parcel.setDataPosition(0);
         for (long i = 0; i < 10; ++i) {
             assertThat(parcel.readString()).isEqualTo(Long.toString(i));
             assertThat(parcel.readLong()).isEqualTo(i);
@@ -239,18 +258,19 @@ public class ParcelTest {
         assertThat(parcel.readLong()).isEqualTo(0l);
     }
 
-    @Test(expected = ClassCastException.class)
-    public void testWriteStringReadLong() {
+    @Test
+    public void testWriteStringReadLong_shouldReadTheRawBytes() {
         String val = "test";
         parcel.writeString(val);
-        parcel.readLong();
+        parcel.setDataPosition(0);
+        assertThat(parcel.readLong()).isEqualTo(4L | ((long) 't' << 32) | ((long) 'e' << 48));
     }
 
-    @Test(expected = ClassCastException.class)
-    public void testWriteLongReadString() {
+    @Test
+    public void testWriteLongReadString_shouldReturnNullIfTheLengthRunsPastTheData() {
         long val = 9;
         parcel.writeLong(val);
-        parcel.readString();
+        assertThat(parcel.readString()).isNull();
     }
 
     @Test
@@ -258,6 +278,7 @@ public class ParcelTest {
         Intent i1 = new Intent("anAction");
         parcel.writeParcelable(i1, 0);
 
+        parcel.setDataPosition(0);
         Intent i2 = parcel.readParcelable(Intent.class.getClassLoader());
         assertEquals(i1, i2);
     }
@@ -267,12 +288,15 @@ public class ParcelTest {
         Bundle b1 = new Bundle();
         b1.putString("hello", "world");
         parcel.writeBundle(b1);
+        parcel.setDataPosition(0);
         Bundle b2 = parcel.readBundle();
 
         assertEquals(b1, b2);
         assertEquals("world", b2.getString("hello"));
 
+        int position = parcel.dataPosition();
         parcel.writeBundle(b1);
+        parcel.setDataPosition(position);
         b2 = parcel.readBundle(null /* ClassLoader */);
         assertEquals(b1, b2);
         assertEquals("world", b2.getString("hello"));
@@ -283,6 +307,7 @@ public class ParcelTest {
         parcel.writeInt(2);
         parcel.writeString("str1");
         parcel.writeString("str2");
+        parcel.setDataPosition(0);
         List<String> actual = parcel.createStringArrayList();
         assertEquals(2, actual.size());
         assertEquals("str1", actual.get(0));
@@ -296,6 +321,7 @@ public class ParcelTest {
         normals.add(normal);
 
         parcel.writeTypedList(normals);
+        parcel.setDataPosition(0);
         ArrayList<TestParcelable> rehydrated = parcel.createTypedArrayList(TestParcelable.CREATOR);
 
         assertEquals(1, rehydrated.size());
@@ -309,6 +335,7 @@ public class ParcelTest {
         original.add("str1");
         original.add("str2");
         parcel.writeStringList(original);
+        parcel.setDataPosition(0);
         parcel.readStringList(rehydrated);
         assertEquals(2, rehydrated.size());
         assertEquals("str1", rehydrated.get(0));
@@ -319,6 +346,7 @@ public class ParcelTest {
     public void testReadWriteStrongBinder() throws Exception {
         Binder expected = new Binder();
         parcel.writeStrongBinder(expected);
+        parcel.setDataPosition(0);
         assertEquals(expected, parcel.readStrongBinder());
     }
 
@@ -327,6 +355,7 @@ public class ParcelTest {
         HashMap<String, String> original = new HashMap<String, String>();
         original.put("key", "value");
         parcel.writeMap(original);
+        parcel.setDataPosition(0);
         HashMap<String, String> rehydrated = parcel.readHashMap(null);
 
         assertEquals("value", rehydrated.get("key"));
@@ -339,7 +368,178 @@ public class ParcelTest {
     			"b2"
     	};
     	parcel.writeStringArray(strs);
+    	parcel.setDataPosition(0);
     	String[] newStrs = parcel.createStringArray();
     	assertTrue(Arrays.equals(strs, newStrs));
     }
+
+    @Test
+    public void testStringsAreLengthPrefixedNullTerminatedUtf16AlignedToFourBytes() {
+        parcel.writeString("test");
+        assertThat(parcel.dataSize()).isEqualTo(4 + 12);
+        parcel.writeString("");
+        assertThat(parcel.dataSize()).isEqualTo(16 + 4 + 4);
+        parcel.writeByte((byte) 1);
+        assertThat(parcel.dataSize()).isEqualTo(24 + 4);
+    }
+
+    @Test
+    public void testSetDataPosition_shouldAllowRereadingAndOverwriting() {
+        parcel.writeInt(1);
+        parcel.writeLong(2);
+        parcel.writeString("three");
+        assertThat(parcel.dataPosition()).isEqualTo(parcel.dataSize());
+
+        parcel.setDataPosition(4);
+        assertThat(parcel.readLong()).isEqualTo(2);
+        assertThat(parcel.dataAvail()).isEqualTo(parcel.dataSize() - 12);
+
+        parcel.setDataPosition(0);
+        parcel.writeInt(10);
+        parcel.setDataPosition(0);
+        assertThat(parcel.readInt()).isEqualTo(10);
+        assertThat(parcel.readLong()).isEqualTo(2);
+        assertThat(parcel.readString()).isEqualTo("three");
+    }
+
+    @Test
+    public void testMarshallAndUnmarshall() {
+        parcel.writeInt(7);
+        parcel.writeString("hello");
+        parcel.writeDoubleArray(new double[]{1.5, 2.5});
+        byte[] bytes = parcel.marshall();
+        assertThat(bytes.length).isEqualTo(parcel.dataSize());
+
+        Parcel other = Parcel.obtain();
+        other.unmarshall(bytes, 0, bytes.length);
+        assertThat(other.dataSize()).isEqualTo(bytes.length);
+        other.setDataPosition(0);
+        assertThat(other.readInt()).isEqualTo(7);
+        assertThat(other.readString()).isEqualTo("hello");
+        assertTrue(Arrays.equals(new double[]{1.5, 2.5}, other.createDoubleArray()));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMarshall_shouldFailIfTheParcelContainsBinders() {
+        parcel.writeStrongBinder(new Binder());
+        parcel.marshall();
+    }
+
+    @Test
+    public void testWriteNullStrongBinder() {
+        parcel.writeStrongBinder(null);
+        parcel.writeInt(1);
+        parcel.setDataPosition(0);
+        assertThat(parcel.readStrongBinder()).isNull();
+        assertThat(parcel.readInt()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReadWriteParcelable_shouldMarshalApplicationParcelables() {
+        parcel.writeParcelable(new TestParcelable(42), 0);
+        parcel.writeParcelable(null, 0);
+        byte[] bytes = parcel.marshall();
+
+        Parcel other = Parcel.obtain();
+        other.unmarshall(bytes, 0, bytes.length);
+        other.setDataPosition(0);
+        TestParcelable rehydrated = other.readParcelable(TestParcelable.class.getClassLoader());
+        assertThat(rehydrated.contents).isEqualTo(42);
+        assertThat(other.readParcelable(null)).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedAccessors_shouldDelegateToDataPositionAndSize() {
+        parcel.writeInt(7);
+        parcel.writeLong(8);
+
+        assertThat(shadowOf(parcel).getIndex()).isEqualTo(parcel.dataPosition());
+        assertThat(shadowOf(parcel).getParcelData().size()).isEqualTo(parcel.dataSize());
+    }
+
+    @Test
+    public void testReadWriteParcelable_shouldMarshalFrameworkParcelablesIntoCopies() {
+        Intent intent = new Intent("anAction", Uri.parse("content://foo/bar"));
+        intent.setClassName("org.example", "org.example.SomeActivity");
+        intent.addCategory(Intent.CATEGORY_DEFAULT);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        intent.putExtra("extra", "value");
+        Bundle bundle = new Bundle();
+        bundle.putInt("answer", 42);
+        Uri uri = new Uri.Builder().scheme("http").authority("example.com").appendPath("x").build();
+        parcel.writeParcelable(intent, 0);
+        parcel.writeParcelable(bundle, 0);
+        parcel.writeParcelable(uri, 0);
+        parcel.writeParcelable(new ComponentName("org.example", "org.example.Other"), 0);
+        parcel.writeParcelable(new Account("name", "type"), 0);
+        byte[] bytes = parcel.marshall();
+
+        Parcel other = Parcel.obtain();
+        other.unmarshall(bytes, 0, bytes.length);
+        other.setDataPosition(0);
+        Intent rehydratedIntent = other.readParcelable(null);
+        Bundle rehydratedBundle = other.readParcelable(null);
+        Uri rehydratedUri = other.readParcelable(null);
+        ComponentName rehydratedComponent = other.readParcelable(null);
+        Account rehydratedAccount = other.readParcelable(null);
+
+        assertThat(rehydratedIntent).isNotSameAs(intent);
+        assertEquals(intent, rehydratedIntent);
+        assertThat(rehydratedIntent.getComponent()).isEqualTo(intent.getComponent());
+        assertThat(rehydratedIntent.getData()).isEqualTo(intent.getData());
+        assertThat(rehydratedIntent.getFlags()).isEqualTo(Intent.FLAG_ACTIVITY_NEW_TASK);
+        assertThat(rehydratedIntent.hasCategory(Intent.CATEGORY_DEFAULT)).isTrue();
+        assertThat(rehydratedIntent.getStringExtra("extra")).isEqualTo("value");
+        assertThat(rehydratedBundle).isNotSameAs(bundle);
+        assertEquals(bundle, rehydratedBundle);
+        assertThat(rehydratedUri).isEqualTo(uri);
+        assertThat(rehydratedComponent).isEqualTo(new ComponentName("org.example", "org.example.Other"));
+        assertThat(rehydratedAccount).isEqualTo(new Account("name", "type"));
+        assertThat(other.dataAvail()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReadWriteValue() {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("list", Arrays.asList("a", null, 3L));
+        map.put("ints", new int[]{1, 2});
+        map.put("bool", true);
+        parcel.writeValue(map);
+        parcel.writeValue("end");
+        byte[] bytes = parcel.marshall();
+
+        Parcel other = Parcel.obtain();
+        other.unmarshall(bytes, 0, bytes.length);
+        other.setDataPosition(0);
+        HashMap<String, Object> rehydrated = (HashMap<String, Object>) other.readValue(null);
+        assertThat((List<Object>) rehydrated.get("list")).containsExactly("a", null, 3L);
+        assertTrue(Arrays.equals(new int[]{1, 2}, (int[]) rehydrated.get("ints")));
+        assertThat(rehydrated.get("bool")).isEqualTo(true);
+        assertThat(other.readValue(null)).isEqualTo("end");
+    }
+
+    @Test
+    public void testBundlesAreMarshalled() {
+        Bundle bundle = new Bundle();
+        bundle.putString("hello", "world");
+        bundle.putInt("answer", 42);
+        parcel.writeBundle(bundle);
+        byte[] bytes = parcel.marshall();
+
+        Parcel other = Parcel.obtain();
+        other.unmarshall(bytes, 0, bytes.length);
+        other.setDataPosition(0);
+        Bundle rehydrated = other.readBundle();
+        assertEquals(bundle, rehydrated);
+        assertThat(other.dataAvail()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRecycle_shouldClearTheData() {
+        parcel.writeInt(1);
+        parcel.recycle();
+        assertThat(parcel.dataSize()).isEqualTo(0);
+        assertThat(parcel.dataPosition()).isEqualTo(0);
+    }
 }
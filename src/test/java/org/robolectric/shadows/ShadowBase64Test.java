@@ -2,9 +2,16 @@ package org.robolectric.shadows;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Random;
 
+import static android.util.Base64.CRLF;
 import static android.util.Base64.DEFAULT;
+import static android.util.Base64.NO_WRAP;
+import static android.util.Base64.URL_SAFE;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 public class ShadowBase64Test {
@@ -21,4 +28,60 @@ public class ShadowBase64Test {
         byte[] decodedBytes = ShadowBase64.decode("U29tZSBuaWNlIFN0cmluZw==", DEFAULT);
         assertThat(new String(decodedBytes)).isEqualTo("Some nice String");
     }
+
+    @Test
+    public void testDecodeStringSkipsWhitespaceAndNonAscii() throws Exception {
+        byte[] decodedBytes = ShadowBase64.decode("U29tZSBu\naWNl\u2028IFN0cmluZw==", DEFAULT);
+        assertThat(new String(decodedBytes)).isEqualTo("Some nice String");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeBadPadding() throws Exception {
+        ShadowBase64.decode("U29tZSBuaWNlIFN0cmluZw=", DEFAULT);
+    }
+
+    @Test
+    public void testEncodeAndDecodeIntoCallerBuffers() throws Exception {
+        byte[] input = "Some nice String".getBytes("UTF-8");
+        byte[] encoded = new byte[2 + ShadowBase64.encodedLength(input.length, NO_WRAP)];
+        int encodedLength = ShadowBase64.encode(input, 0, input.length, encoded, 2, NO_WRAP);
+        assertThat(new String(encoded, 2, encodedLength, "US-ASCII")).isEqualTo("U29tZSBuaWNlIFN0cmluZw==");
+
+        byte[] decoded = new byte[1 + ShadowBase64.maxDecodedLength(encodedLength)];
+        int decodedLength = ShadowBase64.decode(encoded, 2, encodedLength, decoded, 1, NO_WRAP);
+        assertThat(new String(decoded, 1, decodedLength, "UTF-8")).isEqualTo("Some nice String");
+    }
+
+    @Test
+    public void testByteBuffersAndStreamsAgreeWithArrays() throws Exception {
+        byte[] input = new byte[100000];
+        new Random(42).nextBytes(input);
+
+        for (int flags : new int[]{DEFAULT, NO_WRAP, URL_SAFE | CRLF}) {
+            byte[] expected = ShadowBase64.encode(input, flags);
+
+            ByteBuffer encoded = ByteBuffer.allocateDirect(ShadowBase64.encodedLength(input.length, flags));
+            ShadowBase64.encode(ByteBuffer.wrap(input), encoded, flags);
+            encoded.flip();
+            byte[] encodedBytes = new byte[encoded.remaining()];
+            encoded.duplicate().get(encodedBytes);
+            assertThat(encodedBytes).isEqualTo(expected);
+
+            ByteBuffer decoded = ByteBuffer.allocateDirect(ShadowBase64.maxDecodedLength(encoded.remaining()));
+            ShadowBase64.decode(encoded, decoded, flags);
+            decoded.flip();
+            byte[] decodedBytes = new byte[decoded.remaining()];
+            decoded.get(decodedBytes);
+            assertThat(decodedBytes).isEqualTo(input);
+
+            ByteArrayOutputStream encodedOut = new ByteArrayOutputStream();
+            assertThat(ShadowBase64.encode(new ByteArrayInputStream(input), encodedOut, flags)).isEqualTo(expected.length);
+            assertThat(encodedOut.toByteArray()).isEqualTo(expected);
+
+            ByteArrayOutputStream decodedOut = new ByteArrayOutputStream();
+            ShadowBase64.decode(new ByteArrayInputStream(expected), decodedOut, flags);
+            assertThat(decodedOut.toByteArray()).isEqualTo(input);
+            assertThat(ShadowBase64.decode(new String(expected, "US-ASCII"), flags)).isEqualTo(input);
+        }
+    }
 }
@@ -0,0 +1,160 @@
+package org.robolectric.tester.android.content;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.TestRunners;
+import org.robolectric.shadows.ShadowContext;
+import org.robolectric.util.Scheduler;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.Robolectric.shadowOf;
+
+@RunWith(TestRunners.WithDefaults.class)
+public class FileSharedPreferencesTest {
+    private File file;
+    private Scheduler scheduler;
+    private FileSharedPreferences preferences;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(ShadowContext.SHARED_PREFS_DIR, "prefs.xml");
+        scheduler = new Scheduler();
+        preferences = new FileSharedPreferences(file, Context.MODE_PRIVATE, scheduler);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        shadowOf(Robolectric.application).setFileSharedPreferences(false);
+    }
+
+    @Test
+    public void commit_shouldWriteValuesThatCanBeLoadedAgain() throws Exception {
+        Set<String> strings = new HashSet<String>();
+        strings.add("a");
+        strings.add("<b & \"c\">");
+        preferences.edit()
+                .putBoolean("boolean", true)
+                .putFloat("float", 1.5f)
+                .putInt("int", 2)
+                .putLong("long", 3L)
+                .putString("string", "<foo & \"bar\">")
+                .putStringSet("stringSet", strings)
+                .commit();
+
+        assertThat(file.exists()).isTrue();
+        assertThat(preferences.getDiskWriteCount()).isEqualTo(1);
+
+        FileSharedPreferences loaded = new FileSharedPreferences(file, Context.MODE_PRIVATE, scheduler);
+        assertThat(loaded.getBoolean("boolean", false)).isTrue();
+        assertThat(loaded.getFloat("float", 0)).isEqualTo(1.5f);
+        assertThat(loaded.getInt("int", 0)).isEqualTo(2);
+        assertThat(loaded.getLong("long", 0)).isEqualTo(3L);
+        assertThat(loaded.getString("string", null)).isEqualTo("<foo & \"bar\">");
+        assertThat(loaded.getStringSet("stringSet", null)).isEqualTo(strings);
+    }
+
+    @Test
+    public void commit_shouldNotWriteWhenNothingChanged() throws Exception {
+        preferences.edit().putInt("int", 1).commit();
+        preferences.edit().putInt("int", 1).commit();
+        preferences.edit().remove("missing").commit();
+
+        assertThat(preferences.getDiskWriteCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void apply_shouldUpdateMemoryAtOnceAndWriteOnTheScheduler() throws Exception {
+        scheduler.pause();
+        preferences.edit().putString("string", "foo").apply();
+
+        assertThat(preferences.getString("string", null)).isEqualTo("foo");
+        assertThat(file.exists()).isFalse();
+
+        scheduler.advanceToLastPostedRunnable();
+        assertThat(file.exists()).isTrue();
+        assertThat(preferences.getDiskWriteCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void apply_shouldOnlyWriteTheLatestState() throws Exception {
+        scheduler.pause();
+        preferences.edit().putInt("int", 1).apply();
+        preferences.edit().putInt("int", 2).apply();
+        preferences.edit().putInt("int", 3).apply();
+        scheduler.advanceToLastPostedRunnable();
+
+        assertThat(preferences.getDiskWriteCount()).isEqualTo(1);
+        assertThat(preferences.getSkippedWriteCount()).isEqualTo(2);
+        assertThat(new FileSharedPreferences(file, Context.MODE_PRIVATE, scheduler).getInt("int", 0)).isEqualTo(3);
+    }
+
+    @Test
+    public void clear_shouldRemoveEverythingBeforeApplyingNewValues() throws Exception {
+        preferences.edit().putInt("a", 1).putInt("b", 2).commit();
+        preferences.edit().clear().putInt("c", 3).commit();
+
+        assertThat(preferences.getAll().keySet()).containsOnly("c");
+    }
+
+    @Test
+    public void shouldNotifyListenersOfChangedKeys() throws Exception {
+        final List<String> changedKeys = new ArrayList<String>();
+        SharedPreferences.OnSharedPreferenceChangeListener listener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                changedKeys.add(key);
+            }
+        };
+        preferences.registerOnSharedPreferenceChangeListener(listener);
+        preferences.edit().putInt("int", 1).commit();
+        preferences.edit().putInt("int", 1).commit();
+        preferences.unregisterOnSharedPreferenceChangeListener(listener);
+        preferences.edit().putInt("int", 2).commit();
+
+        assertThat(changedKeys).containsExactly("int");
+    }
+
+    @Test
+    public void application_shouldLoadPreparedFilesWhenFileSharedPreferencesAreOn() throws Exception {
+        FileWriter writer = new FileWriter(new File(ShadowContext.SHARED_PREFS_DIR, "settings.xml"));
+        writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n" +
+                "<map>\n" +
+                "    <string name=\"name\">value</string>\n" +
+                "    <int name=\"count\" value=\"42\" />\n" +
+                "</map>\n");
+        writer.close();
+        shadowOf(Robolectric.application).setFileSharedPreferences(true);
+
+        Activity activity = new Activity();
+        SharedPreferences settings = activity.getSharedPreferences("settings", Context.MODE_PRIVATE);
+        assertThat(settings).isInstanceOf(FileSharedPreferences.class);
+        assertThat(settings.getString("name", null)).isEqualTo("value");
+        assertThat(settings.getInt("count", 0)).isEqualTo(42);
+        assertThat(Robolectric.application.getSharedPreferences("settings", Context.MODE_PRIVATE)).isSameAs(settings);
+    }
+
+    @Test
+    public void defaultSharedPreferences_shouldUseThePackageNameWhenFileSharedPreferencesAreOn() throws Exception {
+        shadowOf(Robolectric.application).setFileSharedPreferences(true);
+
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(Robolectric.application);
+        preferences.edit().putBoolean("flag", true).commit();
+
+        String fileName = Robolectric.application.getPackageName() + "_preferences.xml";
+        assertThat(new File(ShadowContext.SHARED_PREFS_DIR, fileName).exists()).isTrue();
+    }
+}
@@ -1,22 +1,37 @@
 package org.robolectric.tester.org.apache.http;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.util.EntityUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
 import org.robolectric.TestRunners;
+import org.robolectric.util.Scheduler;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(TestRunners.WithDefaults.class)
 public class FakeHttpLayerTest {
@@ -92,4 +107,218 @@ public class FakeHttpLayerTest {
         assertFalse(requestMatcherBuilder.matches(noMatch));
         assertTrue(requestMatcherBuilder.matches(match));
     }
+
+    @Test
+    public void emulateRequest_shouldUseMostRecentlyAddedMatchingRuleAcrossIndexedAndCustomMatchers() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/foo", new TestHttpResponse(200, "exact"));
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.UriRegexMatcher("GET", ".*/foo"), new TestHttpResponse(200, "regex"));
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/bar", new TestHttpResponse(200, "bar"));
+
+        assertThat(bodyOf(fakeHttpLayer, new HttpGet("http://example.com/foo"))).isEqualTo("regex");
+        assertThat(bodyOf(fakeHttpLayer, new HttpGet("http://example.com/bar"))).isEqualTo("bar");
+
+        fakeHttpLayer.addHttpResponseRule("http://example.com/foo", "uri");
+        assertThat(bodyOf(fakeHttpLayer, new HttpGet("http://example.com/foo"))).isEqualTo("uri");
+    }
+
+    @Test
+    public void emulateRequest_shouldMatchRequestMatcherBuilderRulesByMethodHostAndPath() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherBuilder().path("foo"),
+                new TestHttpResponse(200, "any host"));
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherBuilder().method("POST").host("example.com").path("foo"),
+                new TestHttpResponse(200, "post to example.com"));
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherBuilder().method("GET").host("example.com").path("foo").param("a", "1"),
+                new TestHttpResponse(200, "with param"));
+
+        assertThat(bodyOf(fakeHttpLayer, new HttpGet("http://other.com/foo"))).isEqualTo("any host");
+        assertThat(bodyOf(fakeHttpLayer, new HttpPost("http://example.com/foo"))).isEqualTo("post to example.com");
+        assertThat(bodyOf(fakeHttpLayer, new HttpGet("http://example.com/foo?a=1"))).isEqualTo("with param");
+        assertThat(bodyOf(fakeHttpLayer, new HttpGet("http://example.com/foo?a=2"))).isEqualTo("any host");
+    }
+
+    @Test
+    public void httpHistoryLimit_shouldKeepOnlyTheMostRecentRequestsAndResponses() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.UriRegexMatcher("GET", ".*"), new TestHttpResponse(200, "ok"));
+        fakeHttpLayer.setHttpHistoryLimit(2);
+
+        for (int i = 0; i < 5; i++) {
+            fakeHttpLayer.emulateRequest(null, new HttpGet("http://example.com/" + i), null, null);
+        }
+
+        assertThat(fakeHttpLayer.getSentHttpRequestCount()).isEqualTo(5);
+        assertThat(fakeHttpLayer.getSentHttpRequestInfoHistory()).hasSize(2);
+        assertThat(fakeHttpLayer.getSentHttpRequestInfo(0).getHttpRequest().getRequestLine().getUri()).isEqualTo("http://example.com/3");
+        assertThat(fakeHttpLayer.getLastSentHttpRequestInfo().getHttpRequest().getRequestLine().getUri()).isEqualTo("http://example.com/4");
+        assertThat(fakeHttpLayer.getHttpResponses()).hasSize(2);
+        assertTrue(fakeHttpLayer.hasRequestMatchingRule(new FakeHttpLayer.UriRequestMatcher("http://example.com/4")));
+        assertFalse(fakeHttpLayer.hasRequestMatchingRule(new FakeHttpLayer.UriRequestMatcher("http://example.com/0")));
+
+        assertThat(fakeHttpLayer.getNextSentHttpRequestInfo().getHttpRequest().getRequestLine().getUri()).isEqualTo("http://example.com/3");
+        assertThat(fakeHttpLayer.getSentHttpRequestInfos()).hasSize(1);
+    }
+
+    @Test
+    public void httpHistoryListener_shouldSeeTrafficEvenWhenNothingIsRetained() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.UriRegexMatcher("GET", ".*"), new TestHttpResponse(200, "ok"));
+        fakeHttpLayer.setHttpHistoryLimit(0);
+        final List<String> events = new ArrayList<String>();
+        fakeHttpLayer.addHttpHistoryListener(new FakeHttpLayer.HttpHistoryListener() {
+            @Override public void onHttpRequestSent(HttpRequestInfo requestInfo) {
+                events.add("request " + requestInfo.getHttpRequest().getRequestLine().getUri());
+            }
+
+            @Override public void onHttpResponseReceived(HttpResponse response) {
+                events.add("response " + response.getStatusLine().getStatusCode());
+            }
+        });
+
+        fakeHttpLayer.emulateRequest(null, new HttpGet("http://example.com/"), null, null);
+
+        assertThat(events).containsExactly("request http://example.com/", "response 200");
+        assertFalse(fakeHttpLayer.hasRequestInfos());
+        assertThat(fakeHttpLayer.getLastHttpResponse()).isNull();
+    }
+
+    @Test
+    public void networkProfile_shouldDeliverResponsesOnceTheBackgroundSchedulerReachesThem() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule("http://example.com/", "ok");
+        fakeHttpLayer.setNetworkProfile(new NetworkProfile().latency(300));
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        long startTime = scheduler.getCurrentTime();
+
+        HttpResponse response = fakeHttpLayer.emulateRequest(null, new HttpGet("http://example.com/"), null, null);
+        assertThat(scheduler.getCurrentTime()).isEqualTo(startTime);
+        assertTrue(fakeHttpLayer.hasRequestInfos());
+        scheduler.advanceBy(299);
+        assertNotDelivered(response);
+        assertThat(fakeHttpLayer.getLastHttpResponse()).isNull();
+
+        scheduler.advanceBy(1);
+        assertThat(EntityUtils.toString(response.getEntity())).isEqualTo("ok");
+        assertThat(fakeHttpLayer.getLastHttpResponse()).isNotNull();
+        assertThat(scheduler.getCurrentTime() - startTime).isEqualTo(300);
+    }
+
+    @Test
+    public void networkProfile_shouldTimeOutWhenLatencyExceedsTheSocketTimeout() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule("http://example.com/", "ok");
+        fakeHttpLayer.setNetworkProfile(new NetworkProfile().latency(5000));
+        HttpGet request = new HttpGet("http://example.com/");
+        HttpConnectionParams.setSoTimeout(request.getParams(), 1000);
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        long startTime = scheduler.getCurrentTime();
+
+        try {
+            fakeHttpLayer.emulateRequest(null, request, null, null);
+            fail("expected a timeout");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertThat(scheduler.getCurrentTime()).isEqualTo(startTime);
+        assertThat(scheduler.size()).isEqualTo(0);
+        assertFalse(fakeHttpLayer.hasRequestInfos());
+    }
+
+    @Test
+    public void networkProfile_shouldTrickleEntityContentAtTheConfiguredBandwidth() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule("http://example.com/", new TestHttpResponse(200, new byte[2000]));
+        fakeHttpLayer.setNetworkProfile(new NetworkProfile().bandwidth(1000));
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+        long startTime = scheduler.getCurrentTime();
+
+        HttpResponse response = fakeHttpLayer.emulateRequest(null, new HttpGet("http://example.com/"), null, null);
+        InputStream content = response.getEntity().getContent();
+        byte[] buffer = new byte[4096];
+        scheduler.advanceBy(500);
+        assertThat(content.read(buffer)).isEqualTo(500);
+        try {
+            content.read(buffer);
+            fail("expected the read to be ahead of the clock");
+        } catch (IllegalStateException expected) {
+        }
+
+        scheduler.advanceBy(1500);
+        assertThat(content.read(buffer)).isEqualTo(1500);
+        assertThat(content.read(buffer)).isEqualTo(-1);
+        assertThat(scheduler.getCurrentTime() - startTime).isEqualTo(2000);
+    }
+
+    @Test
+    public void networkProfile_shouldLetOtherThreadsWaitForEntityContent() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.addHttpResponseRule("http://example.com/", new TestHttpResponse(200, new byte[2000]));
+        fakeHttpLayer.setNetworkProfile(new NetworkProfile().bandwidth(1000));
+        final HttpResponse response = fakeHttpLayer.emulateRequest(null, new HttpGet("http://example.com/"), null, null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> content = executor.submit(new Callable<byte[]>() {
+                @Override public byte[] call() throws Exception {
+                    return EntityUtils.toByteArray(response.getEntity());
+                }
+            });
+            Robolectric.getBackgroundScheduler().advanceBy(2000);
+
+            assertThat(content.get(5, TimeUnit.SECONDS)).hasSize(2000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void networkProfile_shouldBeOverriddenPerRuleAndJitterDeterministically() throws Exception {
+        FakeHttpLayer fakeHttpLayer = new FakeHttpLayer();
+        fakeHttpLayer.setNetworkProfile(new NetworkProfile().latency(1000));
+        fakeHttpLayer.addHttpResponseRule(new FakeHttpLayer.UriRequestMatcher("http://example.com/fast"),
+                new TestHttpResponse(200, "fast"), new NetworkProfile().latency(10).jitter(10).seed(42));
+        Scheduler scheduler = Robolectric.getBackgroundScheduler();
+
+        List<Long> delays = new ArrayList<Long>();
+        for (int i = 0; i < 3; i++) {
+            long startTime = scheduler.getCurrentTime();
+            HttpResponse response = fakeHttpLayer.emulateRequest(null, new HttpGet("http://example.com/fast"), null, null);
+            scheduler.advanceToNextPostedRunnable();
+            assertThat(EntityUtils.toString(response.getEntity())).isEqualTo("fast");
+            long delay = scheduler.getCurrentTime() - startTime;
+            assertThat(delay).isGreaterThanOrEqualTo(10).isLessThanOrEqualTo(20);
+            delays.add(delay);
+        }
+
+        NetworkProfile sameSeed = new NetworkProfile().latency(10).jitter(10).seed(42);
+        HttpGet fast = new HttpGet("http://example.com/fast");
+        assertThat(delays).containsExactly(sameSeed.nextLatency(fast), sameSeed.nextLatency(fast), sameSeed.nextLatency(fast));
+    }
+
+    @Test
+    public void networkProfile_shouldNotDrawJitterInArrivalOrder() throws Exception {
+        HttpGet a = new HttpGet("http://example.com/a");
+        HttpGet b = new HttpGet("http://example.com/b");
+        NetworkProfile aFirst = new NetworkProfile().jitter(1000).seed(7);
+        NetworkProfile bFirst = new NetworkProfile().jitter(1000).seed(7);
+
+        long aLatency = aFirst.nextLatency(a);
+        long bLatency = aFirst.nextLatency(b);
+
+        assertThat(bFirst.nextLatency(b)).isEqualTo(bLatency);
+        assertThat(bFirst.nextLatency(a)).isEqualTo(aLatency);
+    }
+
+    private static void assertNotDelivered(HttpResponse response) {
+        try {
+            response.getStatusLine();
+            fail("expected the response not to have arrived yet");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static String bodyOf(FakeHttpLayer fakeHttpLayer, HttpRequest request) throws Exception {
+        HttpResponse response = fakeHttpLayer.emulateRequest(null, request, null, null);
+        return EntityUtils.toString(response.getEntity());
+    }
 }
@@ -0,0 +1,209 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.TestRunners;
+import org.robolectric.util.Scheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(TestRunners.WithDefaults.class)
+public class FakeHttpServerTest {
+    private FakeHttpLayer fakeHttpLayer;
+    private FakeHttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        fakeHttpLayer = new FakeHttpLayer();
+        server = new FakeHttpServer(fakeHttpLayer, "example.com").start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldServeResponseRulesOverAReusedConnection() throws Exception {
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/foo", new TestHttpResponse(200, "foo"));
+
+        assertThat(get("/foo")).isEqualTo("foo");
+        assertThat(get("/foo")).isEqualTo("foo");
+
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+        assertThat(fakeHttpLayer.getSentHttpRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldPassRequestBodiesToRules() throws Exception {
+        fakeHttpLayer.addHttpResponseRule(new RequestMatcher() {
+            @Override public boolean matches(HttpRequest request) {
+                try {
+                    return request.getRequestLine().getMethod().equals("PUT")
+                            && EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity()).equals("hello");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, new TestHttpResponse(201, "created"));
+
+        HttpURLConnection connection = (HttpURLConnection) server.getUrl("/things").openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        out.write("hello".getBytes("UTF-8"));
+        out.close();
+
+        assertThat(connection.getResponseCode()).isEqualTo(201);
+        assertThat(read(connection.getInputStream())).isEqualTo("created");
+    }
+
+    @Test
+    public void shouldAnswerPipelinedRequestsInOrder() throws Exception {
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/a", new TestHttpResponse(200, "a"));
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/b", new TestHttpResponse(200, "b"));
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.getOutputStream().write(("GET /a HTTP/1.1\r\nHost: x\r\n\r\n" +
+                    "GET /b HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+            String responses = read(socket.getInputStream());
+
+            assertThat(responses).startsWith("HTTP/1.1 200 ");
+            assertThat(responses.indexOf("\r\n\r\na")).isLessThan(responses.indexOf("\r\n\r\nb"));
+            assertThat(responses).endsWith("Connection: close\r\n\r\nb");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldRejectMalformedContentLengthAndKeepServingOtherConnections() throws Exception {
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/foo", new TestHttpResponse(200, "foo"));
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.getOutputStream().write("POST /foo HTTP/1.1\r\nHost: x\r\nContent-Length: lots\r\n\r\n"
+                    .getBytes("ISO-8859-1"));
+            String response = read(socket.getInputStream());
+
+            assertThat(response).startsWith("HTTP/1.1 400 ");
+            assertThat(response).contains("Connection: close\r\n");
+        } finally {
+            socket.close();
+        }
+
+        assertThat(get("/foo")).isEqualTo("foo");
+    }
+
+    @Test
+    public void shouldDecodeChunkedRequestBodies() throws Exception {
+        fakeHttpLayer.addHttpResponseRule(new RequestMatcher() {
+            @Override public boolean matches(HttpRequest request) {
+                try {
+                    return EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity()).equals("hello world");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, new TestHttpResponse(201, "created"));
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.getOutputStream().write(("POST /things HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n" +
+                    "Connection: close\r\n\r\n5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nTrailer: x\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            String response = read(socket.getInputStream());
+
+            assertThat(response).startsWith("HTTP/1.1 201 ");
+            assertThat(response).endsWith("\r\n\r\ncreated");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldRejectOversizedHeaders() throws Exception {
+        StringBuilder header = new StringBuilder("X-Padding: ");
+        while (header.length() <= FakeHttpServer.MAX_HEADER_BYTES) {
+            header.append("xxxxxxxxxxxxxxxx");
+        }
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.getOutputStream().write(("GET /foo HTTP/1.1\r\nHost: x\r\n" + header + "\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            String response = read(socket.getInputStream());
+
+            assertThat(response).startsWith("HTTP/1.1 431 ");
+            assertThat(response).contains("Connection: close\r\n");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepAnsweringOtherConnectionsWhileAResponseIsSlow() throws Exception {
+        fakeHttpLayer.addHttpResponseRule(new RequestMatcher() {
+            @Override public boolean matches(HttpRequest request) {
+                return request.getRequestLine().getUri().endsWith("/slow");
+            }
+        }, new TestHttpResponse(200, "slow"), new NetworkProfile().latency(1000));
+        fakeHttpLayer.addHttpResponseRule("GET", "http://example.com/fast", new TestHttpResponse(200, "fast"));
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n"
+                    .getBytes("ISO-8859-1"));
+            Scheduler scheduler = Robolectric.getBackgroundScheduler();
+            while (scheduler.enqueuedTaskCount() == 0) {
+                Thread.sleep(10);
+            }
+
+            assertThat(get("/fast")).isEqualTo("fast");
+            assertThat(socket.getInputStream().available()).isEqualTo(0);
+
+            scheduler.advanceBy(1000);
+            assertThat(read(socket.getInputStream())).endsWith("\r\n\r\nslow");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldAnswerUnmatchedRequestsWithServerError() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) server.getUrl("/nothing").openConnection();
+
+        assertThat(connection.getResponseCode()).isEqualTo(500);
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) server.getUrl(path).openConnection();
+        return read(connection.getInputStream());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        in.close();
+        return out.toString("ISO-8859-1");
+    }
+}
@@ -0,0 +1,139 @@
+package org.robolectric.tester.org.apache.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.TestRunners;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(TestRunners.WithDefaults.class)
+public class HttpCassetteTest {
+    private File file;
+    private FakeHttpLayer recordingLayer;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("cassette", ".bin");
+        recordingLayer = new FakeHttpLayer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void shouldReplayRecordedResponses() throws Exception {
+        HttpCassette.Recorder recorder = new HttpCassette.Recorder(file);
+        recordingLayer.recordHttpResponsesTo(recorder);
+        HttpResponse recorded = recordingLayer.recordHttpResponse(new HttpGet("http://example.com/a"), response(200, "first"));
+        recordingLayer.recordHttpResponse(new HttpPost("http://example.com/a"), response(201, "posted"));
+        recorder.close();
+
+        assertThat(EntityUtils.toString(recorded.getEntity())).isEqualTo("first");
+
+        HttpCassette cassette = HttpCassette.load(file);
+        assertThat(cassette.size()).isEqualTo(2);
+        FakeHttpLayer replayingLayer = new FakeHttpLayer();
+        replayingLayer.addHttpResponseRule(cassette);
+
+        HttpResponse replayed = replayingLayer.emulateRequest(null, new HttpGet("http://example.com/a"), null, null);
+        assertThat(replayed.getStatusLine().getStatusCode()).isEqualTo(200);
+        assertThat(replayed.getFirstHeader("Content-Type").getValue()).isEqualTo("text/plain");
+        assertThat(replayed.getEntity().getContentLength()).isEqualTo(5);
+        assertThat(EntityUtils.toString(replayed.getEntity())).isEqualTo("first");
+
+        replayed = replayingLayer.emulateRequest(null, new HttpPost("http://example.com/a"), null, null);
+        assertThat(replayed.getStatusLine().getStatusCode()).isEqualTo(201);
+        assertThat(EntityUtils.toString(replayed.getEntity())).isEqualTo("posted");
+    }
+
+    @Test
+    public void shouldReplayRepeatedRequestsInOrderAndThenRepeatTheLast() throws Exception {
+        HttpCassette.Recorder recorder = new HttpCassette.Recorder(file);
+        recorder.record("GET", "http://example.com/poll", 200, response(200, "one").getAllHeaders(), "one".getBytes());
+        recorder.record("GET", "http://example.com/poll", 200, response(200, "two").getAllHeaders(), "two".getBytes());
+        recorder.close();
+
+        FakeHttpLayer replayingLayer = new FakeHttpLayer();
+        replayingLayer.addHttpResponseRule(HttpCassette.load(file));
+
+        assertThat(bodyOf(replayingLayer, "http://example.com/poll")).isEqualTo("one");
+        assertThat(bodyOf(replayingLayer, "http://example.com/poll")).isEqualTo("two");
+        assertThat(bodyOf(replayingLayer, "http://example.com/poll")).isEqualTo("two");
+    }
+
+    @Test
+    public void matches_shouldNotUseUpRecordedResponses() throws Exception {
+        HttpCassette.Recorder recorder = new HttpCassette.Recorder(file);
+        recorder.record("GET", "http://example.com/poll", 200, response(200, "one").getAllHeaders(), "one".getBytes());
+        recorder.record("GET", "http://example.com/poll", 200, response(200, "two").getAllHeaders(), "two".getBytes());
+        recorder.close();
+
+        HttpCassette cassette = HttpCassette.load(file);
+        HttpGet request = new HttpGet("http://example.com/poll");
+        assertThat(cassette.matches(request)).isTrue();
+        assertThat(cassette.matches(request)).isTrue();
+
+        assertThat(EntityUtils.toString(cassette.getResponse(request).getEntity())).isEqualTo("one");
+        assertThat(EntityUtils.toString(cassette.getResponse(request).getEntity())).isEqualTo("two");
+    }
+
+    @Test
+    public void getResponse_shouldPlayUnusedResponsesInRecordingOrder() throws Exception {
+        HttpCassette.Recorder recorder = new HttpCassette.Recorder(file);
+        recorder.record("GET", "http://example.com/a", 200, response(200, "a1").getAllHeaders(), "a1".getBytes());
+        recorder.record("GET", "http://example.com/b", 200, response(200, "b").getAllHeaders(), "b".getBytes());
+        recorder.record("GET", "http://example.com/a", 200, response(200, "a2").getAllHeaders(), "a2".getBytes());
+        recorder.close();
+
+        HttpCassette cassette = HttpCassette.load(file);
+        assertThat(EntityUtils.toString(cassette.getResponse(new HttpGet("http://example.com/b")).getEntity())).isEqualTo("b");
+
+        assertThat(EntityUtils.toString(cassette.getResponse().getEntity())).isEqualTo("a1");
+        assertThat(EntityUtils.toString(cassette.getResponse().getEntity())).isEqualTo("a2");
+        assertThat(EntityUtils.toString(cassette.getResponse().getEntity())).isEqualTo("a2");
+    }
+
+    @Test
+    public void shouldNotMatchUnrecordedRequests() throws Exception {
+        new HttpCassette.Recorder(file).close();
+
+        assertThat(HttpCassette.load(file).matches(new HttpGet("http://example.com/"))).isFalse();
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectFilesThatAreNotCassettes() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[16]);
+        out.close();
+
+        HttpCassette.load(file);
+    }
+
+    private static HttpResponse response(int statusCode, String body) throws Exception {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "");
+        response.addHeader("Content-Type", "text/plain");
+        StringEntity entity = new StringEntity(body);
+        entity.setContentType("text/plain");
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static String bodyOf(FakeHttpLayer layer, String uri) throws Exception {
+        return EntityUtils.toString(layer.emulateRequest(null, new HttpGet(uri), null, null).getEntity());
+    }
+}
@@ -0,0 +1,64 @@
+package org.robolectric.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BackgroundThreadPoolTest {
+    private BackgroundThreadPool pool;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new BackgroundThreadPool(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        pool.shutdown();
+    }
+
+    @Test
+    public void execute_shouldNotCountTasksRejectedAfterShutdown() throws Exception {
+        pool.shutdown();
+        try {
+            pool.execute(new TestRunnable());
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        assertEquals(0, pool.getPendingTaskCount());
+        pool.awaitIdle(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void awaitIdle_shouldFailWhenTasksOutliveTheTimeout() throws Exception {
+        pool.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            pool.awaitIdle(50, TimeUnit.MILLISECONDS);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+
+        release.countDown();
+        pool.awaitIdle(1, TimeUnit.SECONDS);
+        assertEquals(0, pool.getPendingTaskCount());
+    }
+}
@@ -74,4 +74,23 @@ public class H2MapTest {
         assertThat(map.getScrubSQL("INSERT OR IGNORE INTO ")).isEqualTo("INSERT INTO ");
         assertThat(map.getScrubSQL("INSERT OR REPLACE INTO ")).isEqualTo("INSERT INTO ");
     }
+
+    @Test
+    public void scrubSQL_shouldReturnCachedTranslationForRepeatedStatements() throws Exception {
+        String sql = "CREATE TABLE foo (id INTEGER PRIMARY KEY AUTOINCREMENT)";
+        String first = map.getScrubSQL(sql);
+        assertThat(first).isEqualTo("CREATE TABLE foo (id bigint(19) PRIMARY KEY auto_increment)");
+        assertThat(map.getScrubSQL(new String(sql))).isSameAs(first);
+    }
+
+    @Test
+    public void scrubSQL_shouldUseOverriddenScrubStage() throws Exception {
+        H2Map customMap = new H2Map() {
+            @Override
+            protected String scrub(String sql) {
+                return super.scrub(sql).replace("foo", "bar");
+            }
+        };
+        assertThat(customMap.getScrubSQL("INSERT OR REPLACE INTO foo")).isEqualTo("INSERT INTO bar");
+    }
 }
@@ -6,8 +6,12 @@ import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.TestRunners;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -72,4 +76,70 @@ public class RobolectricBackgroundExecutorServiceTest {
 
         assertEquals("foo", future.get());
     }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void execute_shouldRejectTasksAfterShutdown() throws Exception {
+        executorService.shutdown();
+        executorService.execute(runnable);
+    }
+
+    @Test
+    public void shutdown_shouldTerminateOnceQueuedTasksHaveRun() throws Exception {
+        executorService.execute(runnable);
+        executorService.shutdown();
+        assertTrue(executorService.isShutdown());
+        assertFalse(executorService.isTerminated());
+
+        Robolectric.runBackgroundTasks();
+        assertTrue(executorService.isTerminated());
+        assertTrue(executorService.awaitTermination(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shutdownNow_shouldReturnAndDropTasksThatNeverStarted() throws Exception {
+        executorService.execute(runnable);
+
+        List<Runnable> neverStarted = executorService.shutdownNow();
+        assertEquals(1, neverStarted.size());
+        assertSame(runnable, neverStarted.get(0));
+        assertTrue(executorService.isTerminated());
+
+        Robolectric.runBackgroundTasks();
+        transcript.assertNoEventsSoFar();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invokeAll_shouldFailRatherThanWaitForAPausedSchedulerOnItsOwnThread() throws Exception {
+        List<Callable<String>> callables = new ArrayList<Callable<String>>();
+        callables.add(new Callable<String>() {
+            @Override public String call() throws Exception {
+                return "foo";
+            }
+        });
+
+        executorService.invokeAll(callables);
+    }
+
+    @Test
+    public void invokeAll_shouldRunTasksOnBackgroundThreadPool() throws Exception {
+        Robolectric.useBackgroundThreadPool(4);
+        final Thread testThread = Thread.currentThread();
+        List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 10; i++) {
+            callables.add(new Callable<Boolean>() {
+                @Override public Boolean call() throws Exception {
+                    return Thread.currentThread() != testThread;
+                }
+            });
+        }
+
+        List<Future<Boolean>> futures = executorService.invokeAll(callables);
+        assertEquals(10, futures.size());
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.SECONDS));
+    }
 }
@@ -116,6 +116,113 @@ public class SchedulerTest {
         assertThat(runnable.wasRun).isFalse();
     }
 
+    @Test
+    public void shouldRunRunnablesPostedForTheSameTimeInPostingOrder() throws Exception {
+        scheduler.postDelayed(new AddToTranscript("one"), 1000);
+        scheduler.postDelayed(new AddToTranscript("two"), 500);
+        scheduler.postDelayed(new AddToTranscript("three"), 1000);
+        scheduler.postDelayed(new AddToTranscript("four"), 500);
+        scheduler.postDelayed(new AddToTranscript("five"), 1000);
+
+        scheduler.advanceBy(1000);
+        transcript.assertEventsSoFar("two", "four", "one", "three", "five");
+    }
+
+    @Test
+    public void shouldOrderRunnablesWhoseDelaysDifferByMoreThanMaxInt() throws Exception {
+        scheduler.postDelayed(new AddToTranscript("later"), 3L * Integer.MAX_VALUE);
+        scheduler.postDelayed(new AddToTranscript("sooner"), 1);
+
+        scheduler.runOneTask();
+        transcript.assertEventsSoFar("sooner");
+        scheduler.runOneTask();
+        transcript.assertEventsSoFar("later");
+    }
+
+    @Test
+    public void removeShouldOnlyAffectTheRemovedRunnable() throws Exception {
+        TestRunnable removed = new TestRunnable();
+        scheduler.postDelayed(new AddToTranscript("one"), 100);
+        scheduler.postDelayed(removed, 50);
+        scheduler.postDelayed(new AddToTranscript("two"), 200);
+        scheduler.remove(removed);
+
+        assertThat(scheduler.size()).isEqualTo(2);
+        assertThat(scheduler.runOneTask()).isTrue();
+        assertThat(scheduler.getCurrentTime()).isEqualTo(100);
+        transcript.assertEventsSoFar("one");
+
+        scheduler.post(removed);
+        assertThat(scheduler.advanceToLastPostedRunnable()).isTrue();
+        transcript.assertEventsSoFar("two");
+        assertThat(removed.wasRun).isTrue();
+        assertThat(scheduler.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void removeShouldKeepTheQueueFromGrowingWhenARunnableIsRepeatedlyRescheduled() throws Exception {
+        TestRunnable debounced = new TestRunnable();
+        for (int i = 0; i < 1000; i++) {
+            scheduler.remove(debounced);
+            scheduler.postDelayed(debounced, 100 + i);
+        }
+
+        assertThat(scheduler.size()).isEqualTo(1);
+        assertThat(scheduler.heapSize()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void advanceToLastPostedRunnable_shouldIgnoreRemovedRunnables() throws Exception {
+        TestRunnable removed = new TestRunnable();
+        scheduler.postDelayed(new AddToTranscript("one"), 100);
+        scheduler.postDelayed(removed, 500);
+        scheduler.remove(removed);
+
+        assertThat(scheduler.advanceToLastPostedRunnable()).isTrue();
+        transcript.assertEventsSoFar("one");
+        assertThat(scheduler.getCurrentTime()).isEqualTo(100);
+    }
+
+    @Test
+    public void advanceToInBatch_shouldRunDueTasksAndReportWhatRan() throws Exception {
+        scheduler.postDelayed(new AddToTranscript("one"), 1000);
+        scheduler.postDelayed(new AddToTranscript("two"), 2000);
+        scheduler.postDelayed(new AddToTranscript("three"), 5000);
+
+        Scheduler.BatchResult result = scheduler.advanceToInBatch(2500);
+        transcript.assertEventsSoFar("one", "two");
+        assertThat(result.getTasksRun()).isEqualTo(2);
+        assertThat(result.getElapsedTime()).isEqualTo(2500);
+        assertThat(scheduler.getCurrentTime()).isEqualTo(2500);
+        assertThat(scheduler.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void advanceByInBatch_shouldRunTasksPostedWhileDrainingIfTheyAreDue() throws Exception {
+        scheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                transcript.add("one");
+                scheduler.postDelayed(new AddToTranscript("two"), 1000);
+                scheduler.postDelayed(new AddToTranscript("three"), 10000);
+            }
+        }, 1000);
+
+        Scheduler.BatchResult result = scheduler.advanceByInBatch(5000);
+        transcript.assertEventsSoFar("one", "two");
+        assertThat(result.getTasksRun()).isEqualTo(2);
+        assertThat(scheduler.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void advanceByInBatch_shouldMoveClockEvenWhenIdle() throws Exception {
+        long sixHours = 6 * 60 * 60 * 1000L;
+        Scheduler.BatchResult result = scheduler.advanceByInBatch(sixHours);
+        assertThat(result.getTasksRun()).isEqualTo(0);
+        assertThat(result.getElapsedTime()).isEqualTo(sixHours);
+        assertThat(scheduler.getCurrentTime()).isEqualTo(sixHours);
+    }
+
     @Test
     public void resetShouldUnPause() throws Exception {
         scheduler.pause();